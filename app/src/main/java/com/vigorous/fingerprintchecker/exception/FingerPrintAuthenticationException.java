@@ -0,0 +1,51 @@
+package com.vigorous.fingerprintchecker.exception;
+
+import com.vigorous.fingerprintchecker.platform.FingerPrintSensor;
+
+/**
+ * Why an authentication of FingerPrintFuture ended without a result. Codes
+ * above 0 are the sensor errors of FingerprintManager
+ * (FINGERPRINT_ERROR_), the others are raised by the library.
+ */
+public class FingerPrintAuthenticationException extends Exception {
+    /** The touch was accepted, but the token or key did not match */
+    public static final int ERROR_FAILED = -1;
+    /** The authentication could not be started, e.g. not initialized */
+    public static final int ERROR_NOT_STARTED = -2;
+    /** The key was invalidated by a change of the enrolled fingerprints */
+    public static final int ERROR_KEY_INVALIDATED = -3;
+    /** A stage added with FingerPrintFuture.then threw, see getCause */
+    public static final int ERROR_STAGE_FAILED = -4;
+    public static final int ERROR_CANCELED = FingerPrintSensor.ERROR_CANCELED;
+    public static final int ERROR_LOCKOUT = FingerPrintSensor.ERROR_LOCKOUT;
+    public static final int ERROR_LOCKOUT_PERMANENT = FingerPrintSensor.ERROR_LOCKOUT_PERMANENT;
+
+    private final int mErrorCode;
+
+    public FingerPrintAuthenticationException(int errorCode, String msg) {
+        super(msg);
+        mErrorCode = errorCode;
+    }
+
+    public FingerPrintAuthenticationException(int errorCode, String msg,
+            Throwable cause) {
+        super(msg, cause);
+        mErrorCode = errorCode;
+    }
+
+    /**
+     * @return one of the ERROR_ constants, or another sensor error
+     */
+    public int getErrorCode() {
+        return mErrorCode;
+    }
+
+    /**
+     * @return true if the sensor is disabled for a while or until the device
+     *         is unlocked
+     */
+    public boolean isLockout() {
+        return mErrorCode == ERROR_LOCKOUT
+                || mErrorCode == ERROR_LOCKOUT_PERMANENT;
+    }
+}
@@ -4,13 +4,33 @@ import android.annotation.SuppressLint;
 import android.hardware.fingerprint.FingerprintManager;
 import android.security.keystore.KeyGenParameterSpec;
 import android.security.keystore.KeyInfo;
+import android.security.keystore.KeyPermanentlyInvalidatedException;
 import android.security.keystore.KeyProperties;
+import android.security.keystore.UserNotAuthenticatedException;
 import android.util.Log;
 import com.vigorous.fingerprintchecker.exception.FingerPrintInvalidException;
+import com.vigorous.fingerprintchecker.metrics.FingerPrintMetricsListener;
+import com.vigorous.fingerprintchecker.platform.FingerPrintKeyStore;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
 import java.security.InvalidKeyException;
+import java.security.Key;
+import java.security.KeyPairGenerator;
 import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.cert.Certificate;
+import java.security.spec.ECGenParameterSpec;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.crypto.Cipher;
 import javax.crypto.KeyGenerator;
+import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.IvParameterSpec;
@@ -19,42 +39,118 @@ import javax.crypto.spec.IvParameterSpec;
  * Created by vigorous.liang on 2017/11/30.
  */
 @SuppressLint("NewApi")
-public class FingerPrintAndroidKeyStore {
+public class FingerPrintAndroidKeyStore implements FingerPrintKeyStore {
     private static final String TAG = FingerPrintAndroidKeyStore.class.getName();
-    private KeyStore mStore;
+    private final FingerPrintKeyStoreLoader mLoader;
+    private volatile FingerPrintMetricsListener mMetrics = FingerPrintMetricsListener.NONE;
     private final static String KEY_STORE_TYPE = "AndroidKeyStore";
+    /**
+     * Prefix of every alias generated by this library, so its keys can be
+     * told apart from the other keys of the app.
+     */
+    public final static String ALIAS_NAMESPACE = "com.vigorous.fingerprintchecker:";
+    private final static String PROBE_ALIAS = ALIAS_NAMESPACE + "probe";
+    // 旧版本探测安全硬件时遗留的alias
+    final static String LEGACY_PROBE_ALIAS = "temp";
+    // 签名密钥与AES密钥的keyName相互独立，不参与预生成与回收
+    private final static String SIGNING_ALIAS_PREFIX = ALIAS_NAMESPACE
+            + "sign:";
+    private final static String TRANSFORMATION = KeyProperties.KEY_ALGORITHM_AES
+            + "/" + KeyProperties.BLOCK_MODE_CBC + "/"
+            + KeyProperties.ENCRYPTION_PADDING_PKCS7;
+
+    // keyName -> 已解析的SecretKey句柄，避免每次认证都去keystore查找
+    private final ConcurrentHashMap<String, SecretKey> mKeyCache = new ConcurrentHashMap<>();
+    // keyName -> 预先创建、尚未init过的Cipher，取出后不再放回
+    private final ConcurrentHashMap<String, Cipher> mPrewarmedCiphers = new ConcurrentHashMap<>();
+    // keyName -> 分配给它的预生成密钥alias，未登记时alias即keyName
+    private final ConcurrentHashMap<String, String> mAliases = new ConcurrentHashMap<>();
+    // alias -> 是否为限时密钥，未知时通过KeyInfo查询一次
+    private final ConcurrentHashMap<String, Boolean> mTimeBound = new ConcurrentHashMap<>();
+    private volatile int mValiditySeconds;
 
     public FingerPrintAndroidKeyStore() {
+        KeyStore store = null;
         try {
-            mStore = KeyStore.getInstance(KEY_STORE_TYPE);
+            store = KeyStore.getInstance(KEY_STORE_TYPE);
         } catch (Exception e) {
             e.printStackTrace();
         }
+        mLoader = new FingerPrintKeyStoreLoader(store);
     }
 
     /**
-     * generateKey
+     * generateKey, time-bound if setUserAuthenticationValidity was set
      * 
      * @param keyName
      */
+    @Override
     public boolean generateKey(String keyName) {
+        return generateKey(keyName, mValiditySeconds);
+    }
+
+    /**
+     * @param keyName
+     * @param validitySeconds greater than 0 to generate a time-bound key,
+     *            usable without a prompt for validitySeconds after the user
+     *            authenticated. 0 requires the sensor for every operation.
+     * @return
+     */
+    public boolean generateKey(String keyName, int validitySeconds) {
         boolean result = false;
         try {
             // 这里使用AES + CBC + PADDING_PKCS7
             final KeyGenerator generator = KeyGenerator.getInstance(
                     KeyProperties.KEY_ALGORITHM_AES, KEY_STORE_TYPE);
-            mStore.load(null);
+            mLoader.ensureLoaded();
             final int purpose = KeyProperties.PURPOSE_DECRYPT
                     | KeyProperties.PURPOSE_ENCRYPT;
             final KeyGenParameterSpec.Builder builder = new KeyGenParameterSpec.Builder(
                     keyName, purpose);
             // 需要用户验证方能取出
             builder.setUserAuthenticationRequired(true);
+            if (validitySeconds > 0) {
+                builder.setUserAuthenticationValidityDurationSeconds(
+                        validitySeconds);
+            }
             builder.setBlockModes(KeyProperties.BLOCK_MODE_CBC);
             builder.setEncryptionPaddings(
                     KeyProperties.ENCRYPTION_PADDING_PKCS7);
             generator.init(builder.build());
+            mLoader.countCall();
             generator.generateKey();
+            // 同名alias已被覆盖，丢弃旧的句柄
+            mAliases.remove(keyName);
+            mTimeBound.put(keyName, validitySeconds > 0);
+            invalidate(keyName);
+            result = true;
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+        return result;
+    }
+
+    /**
+     * Generates an EC P-256 key pair under a separate alias. Like the AES
+     * keys it requires a touch for every signature and is invalidated by a
+     * new enrollment.
+     */
+    @Override
+    public boolean generateSigningKey(String keyName) {
+        boolean result = false;
+        try {
+            final KeyPairGenerator generator = KeyPairGenerator.getInstance(
+                    KeyProperties.KEY_ALGORITHM_EC, KEY_STORE_TYPE);
+            mLoader.ensureLoaded();
+            final KeyGenParameterSpec.Builder builder = new KeyGenParameterSpec.Builder(
+                    getSigningAlias(keyName), KeyProperties.PURPOSE_SIGN);
+            builder.setAlgorithmParameterSpec(
+                    new ECGenParameterSpec("secp256r1"));
+            builder.setDigests(KeyProperties.DIGEST_SHA256);
+            builder.setUserAuthenticationRequired(true);
+            generator.initialize(builder.build());
+            mLoader.countCall();
+            generator.generateKeyPair();
             result = true;
         } catch (Throwable e) {
             e.printStackTrace();
@@ -62,25 +158,105 @@ public class FingerPrintAndroidKeyStore {
         return result;
     }
 
+    @Override
+    public byte[] getPublicKey(String keyName) {
+        try {
+            final Certificate certificate = mLoader.open()
+                    .getCertificate(getSigningAlias(keyName));
+            return certificate == null ? null
+                    : certificate.getPublicKey().getEncoded();
+        } catch (Exception e) {
+            Log.e(TAG, "getPublicKey:" + e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public Signature getSignature(String keyName)
+            throws FingerPrintInvalidException {
+        try {
+            final Key key = loadEntry(getSigningAlias(keyName));
+            if (!(key instanceof PrivateKey)) {
+                Log.e(TAG, "getSignature:no key for " + keyName);
+                return null;
+            }
+            final long start = System.nanoTime();
+            final Signature signature = Signature
+                    .getInstance(SIGNATURE_ALGORITHM);
+            mLoader.countCall();
+            signature.initSign((PrivateKey) key);
+            mMetrics.onStage(FingerPrintMetricsListener.STAGE_CIPHER_INIT,
+                    System.nanoTime() - start);
+            return signature;
+        } catch (InvalidKeyException e) {
+            // 包括KeyPermanentlyInvalidatedException
+            throw new FingerPrintInvalidException("设备指纹库发生变化，请重新申请当前卡片的指纹验证权限");
+        } catch (Throwable e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * @param keyName
+     * @return the keystore alias holding the signing key of keyName
+     */
+    public String getSigningAlias(String keyName) {
+        return SIGNING_ALIAS_PREFIX + keyName;
+    }
+
     public FingerprintManager.CryptoObject getCryptoObject(String keyName,
             int purpose, byte[] IV) throws FingerPrintInvalidException {
+        return getCryptoObject(keyName, purpose, IV, 0,
+                IV == null ? 0 : IV.length);
+    }
+
+    /**
+     * Same as getCryptoObject, but reads the IV from IV[ivOffset, ivOffset +
+     * ivLength) so callers holding IV || token in one array need no copy.
+     */
+    public FingerprintManager.CryptoObject getCryptoObject(String keyName,
+            int purpose, byte[] IV, int ivOffset, int ivLength)
+            throws FingerPrintInvalidException {
+        final Cipher cipher = getCipher(keyName, purpose, IV, ivOffset,
+                ivLength);
+        return cipher == null ? null
+                : new FingerprintManager.CryptoObject(cipher);
+    }
+
+    @Override
+    public Cipher getCipher(String keyName, int purpose, byte[] IV,
+            int ivOffset, int ivLength) throws FingerPrintInvalidException {
         try {
-            mStore.load(null);
-            final SecretKey key = (SecretKey) mStore.getKey(keyName, null);
+            SecretKey key = mKeyCache.get(keyName);
             if (key == null) {
-                generateKey(keyName);
+                key = loadKey(getAlias(keyName));
+                if (key == null) {
+                    // 密钥需先由generateKey或FingerPrintKeyProvisioner生成
+                    Log.e(TAG, "getCipher:no key for " + keyName);
+                    return null;
+                }
+                mKeyCache.put(keyName, key);
             }
-            final Cipher cipher = Cipher
-                    .getInstance(KeyProperties.KEY_ALGORITHM_AES + "/"
-                            + KeyProperties.BLOCK_MODE_CBC + "/"
-                            + KeyProperties.ENCRYPTION_PADDING_PKCS7);
+            final long start = System.nanoTime();
+            final Cipher cipher = takeCipher(keyName);
+            mLoader.countCall();
             if (purpose == KeyProperties.PURPOSE_ENCRYPT) {
                 cipher.init(purpose, key);
             } else {
-                cipher.init(purpose, key, new IvParameterSpec(IV));
+                cipher.init(purpose, key,
+                        new IvParameterSpec(IV, ivOffset, ivLength));
             }
-            return new FingerprintManager.CryptoObject(cipher);
+            mMetrics.onStage(FingerPrintMetricsListener.STAGE_CIPHER_INIT,
+                    System.nanoTime() - start);
+            return cipher;
+        } catch (UserNotAuthenticatedException e) {
+            // 限时密钥的有效期已过，需要重新验证指纹
+            Log.e(TAG, "getCipher:user not authenticated");
+            return null;
         } catch (InvalidKeyException e) {
+            // 包括KeyPermanentlyInvalidatedException，缓存的句柄已不可用
+            invalidate(keyName);
             throw new FingerPrintInvalidException("设备指纹库发生变化，请重新申请当前卡片的指纹验证权限");
         } catch (Throwable e) {
             e.printStackTrace();
@@ -88,25 +264,288 @@ public class FingerPrintAndroidKeyStore {
         }
     }
 
-    public boolean isKeyProtectedEnforcedBySecureHardware() {
+    /**
+     * Opt-in: keys generated from now on are time-bound. 0, the default,
+     * generates keys requiring the sensor for every operation.
+     *
+     * @param validitySeconds
+     */
+    public void setUserAuthenticationValidity(int validitySeconds) {
+        mValiditySeconds = Math.max(0, validitySeconds);
+    }
+
+    public int getUserAuthenticationValidity() {
+        return mValiditySeconds;
+    }
+
+    @Override
+    public boolean isTimeBound(String keyName) {
+        final String alias = getAlias(keyName);
+        final Boolean cached = mTimeBound.get(alias);
+        if (cached != null) {
+            return cached;
+        }
         try {
-            // 这里随便生成一个key，检查是不是受保护即可
-            generateKey("temp");
-            final SecretKey key = (SecretKey) mStore.getKey("temp", null);
+            final SecretKey key = loadKey(alias);
             if (key == null) {
-                Log.e(TAG,
-                        "isKeyProtectedEnforcedBySecureHardware:key is null");
                 return false;
             }
-            SecretKeyFactory factory = SecretKeyFactory.getInstance(
-                    KeyProperties.KEY_ALGORITHM_AES, KEY_STORE_TYPE);
-            KeyInfo keyInfo;
-            keyInfo = (KeyInfo) factory.getKeySpec(key, KeyInfo.class);
+            final boolean timeBound = getKeyInfo(key)
+                    .getUserAuthenticationValidityDurationSeconds() > 0;
+            mTimeBound.put(alias, timeBound);
+            return timeBound;
+        } catch (Exception e) {
+            Log.e(TAG, "isTimeBound:" + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Creates the Cipher for the next getCryptoObject call of keyName ahead
+     * of time. A Cipher handed out by getCryptoObject is never pooled again.
+     *
+     * @param keyName
+     */
+    @Override
+    public void prewarm(String keyName) {
+        if (keyName == null || mPrewarmedCiphers.containsKey(keyName)) {
+            return;
+        }
+        try {
+            mPrewarmedCiphers.putIfAbsent(keyName, newCipher());
+        } catch (Exception e) {
+            Log.e(TAG, "prewarm:" + e.getMessage());
+        }
+    }
+
+    /**
+     * Makes keyName use the key stored under alias, e.g. a key generated
+     * ahead of time by FingerPrintKeyProvisioner.
+     *
+     * @param keyName
+     * @param alias null or keyName to use the key stored under keyName
+     */
+    public void setAlias(String keyName, String alias) {
+        if (alias == null || alias.equals(keyName)) {
+            mAliases.remove(keyName);
+        } else {
+            mAliases.put(keyName, alias);
+        }
+        invalidate(keyName);
+    }
+
+    /**
+     * @param keyName
+     * @return the keystore alias holding the key of keyName
+     */
+    public String getAlias(String keyName) {
+        final String alias = mAliases.get(keyName);
+        return alias != null ? alias : keyName;
+    }
+
+    /**
+     * @param alias a keystore alias, not resolved through setAlias
+     * @return
+     */
+    public boolean containsAlias(String alias) {
+        try {
+            return mLoader.open().containsAlias(alias);
+        } catch (Exception e) {
+            Log.e(TAG, "containsAlias:" + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Enumerates the keystore, which costs one call per alias on device.
+     *
+     * @param prefix
+     * @return the aliases starting with prefix
+     */
+    public List<String> getAliases(String prefix) {
+        final List<String> aliases = new ArrayList<>();
+        try {
+            final Enumeration<String> all = mLoader.open().aliases();
+            while (all.hasMoreElements()) {
+                final String alias = all.nextElement();
+                if (alias.startsWith(prefix)) {
+                    aliases.add(alias);
+                }
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "getAliases:" + e.getMessage());
+        }
+        return aliases;
+    }
+
+    /**
+     * Deletes the key stored under alias.
+     *
+     * @param alias a keystore alias, not resolved through setAlias
+     * @return
+     */
+    public boolean deleteAlias(String alias) {
+        try {
+            mLoader.open().deleteEntry(alias);
+            mTimeBound.remove(alias);
+            // 缓存以keyName为key，清除所有使用该alias的keyName
+            invalidate(alias);
+            for (Map.Entry<String, String> entry : mAliases.entrySet()) {
+                if (alias.equals(entry.getValue())) {
+                    invalidate(entry.getKey());
+                }
+            }
+            return true;
+        } catch (Exception e) {
+            Log.e(TAG, "deleteAlias:" + e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public int checkKey(String keyName) {
+        return checkAlias(getAlias(keyName));
+    }
+
+    /**
+     * A key is permanently invalidated by a new enrollment, so a key
+     * generated ahead of time is checked before it is handed out.
+     *
+     * @param alias a keystore alias, not resolved through setAlias
+     * @return KEY_VALID, KEY_MISSING, KEY_INVALIDATED or KEY_UNKNOWN
+     */
+    public int checkAlias(String alias) {
+        final SecretKey key;
+        final Cipher cipher;
+        try {
+            key = loadKey(alias);
+            if (key == null) {
+                return KEY_MISSING;
+            }
+            cipher = newCipher();
+            mLoader.countCall();
+            cipher.init(Cipher.ENCRYPT_MODE, key);
+        } catch (KeyPermanentlyInvalidatedException e) {
+            return KEY_INVALIDATED;
+        } catch (UserNotAuthenticatedException e) {
+            // 限时密钥仅是不在有效期内，并未失效，keystore中也未开始操作
+            return KEY_VALID;
+        } catch (Exception e) {
+            Log.e(TAG, "checkAlias:" + e.getMessage());
+            return KEY_UNKNOWN;
+        }
+        try {
+            // init在keystore中开始了一次操作，结束它以免占用keystore的操作槽位。
+            // 指纹密钥未经认证时doFinal失败，Cipher随即中止该操作
+            cipher.doFinal();
+        } catch (GeneralSecurityException | RuntimeException e) {
+            // 预期之内，密钥本身可用
+        }
+        return KEY_VALID;
+    }
+
+    /**
+     * Drops the cached key handle and pre-warmed Cipher of keyName.
+     *
+     * @param keyName
+     */
+    @Override
+    public void invalidate(String keyName) {
+        mKeyCache.remove(keyName);
+        mPrewarmedCiphers.remove(keyName);
+    }
+
+    @Override
+    public void setMetricsListener(FingerPrintMetricsListener listener) {
+        mMetrics = listener == null ? FingerPrintMetricsListener.NONE
+                : listener;
+        mLoader.setMetricsListener(listener);
+    }
+
+    /**
+     * @return number of keystore loads since construction, 1 in steady state
+     */
+    public long getLoadCount() {
+        return mLoader.getLoadCount();
+    }
+
+    /**
+     * @return number of calls into the keystore daemon since construction,
+     *         loads not included
+     */
+    public long getKeyStoreCallCount() {
+        return mLoader.getCallCount();
+    }
+
+    private SecretKey loadKey(String keyName)
+            throws GeneralSecurityException, IOException {
+        final Key key = loadEntry(keyName);
+        return key instanceof SecretKey ? (SecretKey) key : null;
+    }
+
+    private Key loadEntry(String alias)
+            throws GeneralSecurityException, IOException {
+        final KeyStore store = mLoader.open();
+        final long start = System.nanoTime();
+        try {
+            return store.getKey(alias, null);
+        } catch (KeyStoreException e) {
+            // keystore状态已失效，重新加载后重试一次
+            Log.e(TAG, "loadKey:" + e.getMessage());
+            mLoader.reload();
+            return mLoader.open().getKey(alias, null);
+        } finally {
+            mMetrics.onStage(FingerPrintMetricsListener.STAGE_KEY_LOOKUP,
+                    System.nanoTime() - start);
+        }
+    }
+
+    private KeyInfo getKeyInfo(SecretKey key)
+            throws GeneralSecurityException {
+        final SecretKeyFactory factory = SecretKeyFactory.getInstance(
+                KeyProperties.KEY_ALGORITHM_AES, KEY_STORE_TYPE);
+        return (KeyInfo) factory.getKeySpec(key, KeyInfo.class);
+    }
+
+    private Cipher takeCipher(String keyName)
+            throws NoSuchPaddingException, NoSuchAlgorithmException {
+        final Cipher cipher = mPrewarmedCiphers.remove(keyName);
+        return cipher != null ? cipher : newCipher();
+    }
+
+    private static Cipher newCipher()
+            throws NoSuchPaddingException, NoSuchAlgorithmException {
+        return Cipher.getInstance(TRANSFORMATION);
+    }
+
+    /**
+     * @return IV size of the fingerprint-gated cipher, in bytes
+     */
+    public static int getIVSize() {
+        return IV_SIZE;
+    }
+
+    @Override
+    public Boolean probeSecureHardware() {
+        try {
+            // 这里随便生成一个key，检查是不是受保护即可，用完即删
+            generateKey(PROBE_ALIAS);
+            final SecretKey key = loadKey(PROBE_ALIAS);
+            if (key == null) {
+                Log.e(TAG, "probeSecureHardware:key is null");
+                return null;
+            }
+            final KeyInfo keyInfo = getKeyInfo(key);
             return keyInfo.isInsideSecureHardware() && keyInfo
                     .isUserAuthenticationRequirementEnforcedBySecureHardware();
         } catch (Exception e) {
-            Log.e(TAG, e.getMessage());
-            return false;
+            // 探测失败不代表没有安全硬件，结果未知
+            Log.e(TAG, "probeSecureHardware:" + e.getMessage());
+            return null;
+        } finally {
+            if (containsAlias(PROBE_ALIAS)) {
+                deleteAlias(PROBE_ALIAS);
+            }
         }
     }
 }
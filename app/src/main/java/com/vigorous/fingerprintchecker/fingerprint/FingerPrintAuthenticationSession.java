@@ -0,0 +1,382 @@
+package com.vigorous.fingerprintchecker.fingerprint;
+
+import com.vigorous.fingerprintchecker.exception.FingerPrintAuthenticationException;
+import com.vigorous.fingerprintchecker.platform.FingerPrintSensor;
+import java.nio.ByteBuffer;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.crypto.Cipher;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * State of a single authenticate call. The request data is immutable, so
+ * concurrent calls to FingerprintHelper.authenticate never see each other's
+ * key name, token, IV or callback.
+ */
+public class FingerPrintAuthenticationSession
+        implements FingerPrintSensor.Cancellable {
+    static final int MODE_SINGLE = 0;
+    static final int MODE_BATCH = 1;
+    static final int MODE_ENVELOPE = 2;
+    static final int MODE_BYTES = 3;
+    static final int MODE_CHALLENGE = 4;
+
+    private final int mMode;
+    private final String mKeyName;
+    private final int mPurpose;
+    private final String mFingerToken;
+    private final String mIV;
+    private final List<String> mBatchTokens;
+    private final ByteBuffer mTokenBuffer;
+    private final ByteBuffer mOutput;
+    private final byte[] mChallenge;
+    private final FingerPrintFailureCallback mCallback;
+    // 挑战签名模式下由传感器解锁的Signature
+    private volatile Signature mSignature;
+    private volatile FingerPrintSensor.Cancellable mCancellable;
+    // 限时密钥的会话只验证用户，Cipher在验证成功后再初始化
+    private volatile boolean mTimeBound;
+    private final AtomicBoolean mFinished = new AtomicBoolean(false);
+    // 传感器开始监听的时间，首次按压后清零
+    private final AtomicLong mPromptTime = new AtomicLong();
+
+    // 以下为派发状态，事件回调不再额外分配对象
+    private volatile FingerPrintDispatcher mDispatcher;
+    private final SensorCallback mSensorCallback = new SensorCallback();
+    private final Runnable mFailureTask = new Runnable() {
+        @Override
+        public void run() {
+            mDispatcher.deliverFailures(FingerPrintAuthenticationSession.this);
+        }
+    };
+    private final AtomicInteger mPendingFailures = new AtomicInteger();
+    // 最终结果，由结束会话的线程写入一次，经executor发布
+    private boolean mSucceeded;
+    private Cipher mResultCipher;
+    private int mResultCode;
+    private CharSequence mResultMessage;
+
+    /**
+     * Forwards the sensor events of this session to the dispatcher, and
+     * delivers the final result when run.
+     */
+    private final class SensorCallback
+            implements FingerPrintSensor.Callback, Runnable {
+        @Override
+        public void onAuthenticationSucceeded(Cipher cipher) {
+            mDispatcher.onSucceeded(FingerPrintAuthenticationSession.this,
+                    cipher);
+        }
+
+        @Override
+        public void onAuthenticationFailed() {
+            mDispatcher.onFailed(FingerPrintAuthenticationSession.this);
+        }
+
+        @Override
+        public void onAuthenticationHelp(int helpCode,
+                CharSequence helpString) {
+            mDispatcher.onHelp(FingerPrintAuthenticationSession.this,
+                    helpCode);
+        }
+
+        @Override
+        public void onAuthenticationError(int errorCode,
+                CharSequence errString) {
+            mDispatcher.onError(FingerPrintAuthenticationSession.this,
+                    errorCode, errString);
+        }
+
+        @Override
+        public void run() {
+            mDispatcher.deliverResult(FingerPrintAuthenticationSession.this);
+        }
+    }
+
+    FingerPrintAuthenticationSession(String keyName, int purpose,
+            String fingerToken, String IV,
+            FingerPrintAuthenticationCallback callback) {
+        this(MODE_SINGLE, keyName, purpose, fingerToken, IV, null, null, null,
+                null, callback);
+    }
+
+    FingerPrintAuthenticationSession(String keyName, int purpose,
+            String wrappedKey, String IV, List<String> tokens,
+            FingerPrintBatchCallback callback) {
+        this(MODE_BATCH, keyName, purpose, wrappedKey, IV,
+                Collections.unmodifiableList(new ArrayList<>(tokens)), null,
+                null, null, callback);
+    }
+
+    FingerPrintAuthenticationSession(String keyName, int purpose,
+            String wrappedKey, String IV,
+            FingerPrintEnvelopeCallback callback) {
+        this(MODE_ENVELOPE, keyName, purpose, wrappedKey, IV, null, null,
+                null, null, callback);
+    }
+
+    FingerPrintAuthenticationSession(String keyName, int purpose,
+            ByteBuffer fingerToken, ByteBuffer output,
+            FingerPrintBytesCallback callback) {
+        this(MODE_BYTES, keyName, purpose, null, null, null,
+                fingerToken == null ? null : fingerToken.duplicate(), output,
+                null, callback);
+    }
+
+    FingerPrintAuthenticationSession(String keyName, byte[] challenge,
+            FingerPrintSignatureCallback callback) {
+        this(MODE_CHALLENGE, keyName, 0, null, null, null, null, null,
+                challenge.clone(), callback);
+    }
+
+    private FingerPrintAuthenticationSession(int mode, String keyName,
+            int purpose, String fingerToken, String IV, List<String> tokens,
+            ByteBuffer tokenBuffer, ByteBuffer output, byte[] challenge,
+            FingerPrintFailureCallback callback) {
+        mMode = mode;
+        mKeyName = keyName;
+        mPurpose = purpose;
+        mFingerToken = fingerToken;
+        mIV = IV;
+        mBatchTokens = tokens;
+        mTokenBuffer = tokenBuffer;
+        mOutput = output;
+        mChallenge = challenge;
+        mCallback = callback;
+    }
+
+    public String getKeyName() {
+        return mKeyName;
+    }
+
+    public int getPurpose() {
+        return mPurpose;
+    }
+
+    int getMode() {
+        return mMode;
+    }
+
+    /**
+     * @return the encrypted token, or the wrapped key in batch and envelope
+     *         mode
+     */
+    String getFingerToken() {
+        return mFingerToken;
+    }
+
+    String getIV() {
+        return mIV;
+    }
+
+    List<String> getBatchTokens() {
+        return mBatchTokens;
+    }
+
+    /**
+     * @return a private view of IV || token in bytes mode
+     */
+    ByteBuffer getTokenBuffer() {
+        return mTokenBuffer;
+    }
+
+    /**
+     * @return the caller's output buffer in bytes mode
+     */
+    ByteBuffer getOutput() {
+        return mOutput;
+    }
+
+    /**
+     * @return a private copy of the challenge to sign in challenge mode
+     */
+    byte[] getChallenge() {
+        return mChallenge;
+    }
+
+    void setSignature(Signature signature) {
+        mSignature = signature;
+    }
+
+    /**
+     * @return the signature unlocked by the sensor in challenge mode
+     */
+    Signature getSignature() {
+        return mSignature;
+    }
+
+    /**
+     * @return the callback, whose type matches {@link #getMode()}
+     */
+    FingerPrintFailureCallback getCallback() {
+        return mCallback;
+    }
+
+    void deliverFail(String errorMsg) {
+        deliverFail(FingerPrintAuthenticationException.ERROR_FAILED,
+                errorMsg);
+    }
+
+    /**
+     * @param errorCode only reported to a FingerPrintErrorCallback
+     * @param errorMsg
+     */
+    void deliverFail(int errorCode, String errorMsg) {
+        if (mCallback instanceof FingerPrintErrorCallback) {
+            ((FingerPrintErrorCallback) mCallback)
+                    .onAuthenticationError(errorCode, errorMsg);
+        } else if (mCallback != null) {
+            mCallback.onAuthenticationFail(errorMsg);
+        }
+    }
+
+    /**
+     * @param errorCode only reported to a FingerPrintErrorCallback
+     * @param errorMsg
+     */
+    void deliverOverLimit(int errorCode, CharSequence errorMsg) {
+        if (mCallback instanceof FingerPrintErrorCallback) {
+            ((FingerPrintErrorCallback) mCallback)
+                    .onAuthenticationError(errorCode, errorMsg);
+        } else if (mCallback != null) {
+            // 旧接口只接受String，sensor给出的通常已是String
+            mCallback.onAuthenticationOverLimit(String.valueOf(errorMsg));
+        }
+    }
+
+    /**
+     * A finger was not recognized, the session goes on.
+     */
+    void deliverTouchFailure() {
+        // FingerPrintErrorCallback只接收最终结果
+        if (mCallback != null
+                && !(mCallback instanceof FingerPrintErrorCallback)) {
+            mCallback.onAuthenticationFail("Authentication exception");
+        }
+    }
+
+    /**
+     * Attaches the handle of the running sensor authentication. If the
+     * session was cancelled meanwhile, the sensor is cancelled at once.
+     */
+    void setCancellable(FingerPrintSensor.Cancellable cancellable) {
+        mCancellable = cancellable;
+        if (isFinished()) {
+            cancellable.cancel();
+        }
+    }
+
+    void setTimeBound(boolean timeBound) {
+        mTimeBound = timeBound;
+    }
+
+    /**
+     * @return true if the sensor only authenticates the user and the cipher
+     *         is initialized afterwards
+     */
+    boolean isTimeBound() {
+        return mTimeBound;
+    }
+
+    void attach(FingerPrintDispatcher dispatcher) {
+        mDispatcher = dispatcher;
+    }
+
+    FingerPrintSensor.Callback getSensorCallback() {
+        return mSensorCallback;
+    }
+
+    void setResult(boolean succeeded, Cipher cipher, int errorCode,
+            CharSequence message) {
+        mSucceeded = succeeded;
+        mResultCipher = cipher;
+        mResultCode = errorCode;
+        mResultMessage = message;
+    }
+
+    boolean isSucceeded() {
+        return mSucceeded;
+    }
+
+    Cipher getResultCipher() {
+        return mResultCipher;
+    }
+
+    /**
+     * @return the sensor error that ended a failed session
+     */
+    int getResultCode() {
+        return mResultCode;
+    }
+
+    CharSequence getResultMessage() {
+        return mResultMessage;
+    }
+
+    Runnable getResultTask() {
+        return mSensorCallback;
+    }
+
+    Runnable getFailureTask() {
+        return mFailureTask;
+    }
+
+    /**
+     * @return true if the failure task has to be posted
+     */
+    boolean addPendingFailure() {
+        return mPendingFailures.getAndIncrement() == 0;
+    }
+
+    /**
+     * @return true while failures queued meanwhile are left to deliver
+     */
+    boolean removePendingFailure() {
+        return mPendingFailures.decrementAndGet() > 0;
+    }
+
+    void setPromptTime(long nanoTime) {
+        mPromptTime.set(nanoTime);
+    }
+
+    /**
+     * @return the time the sensor started listening, or 0 after the first
+     *         call
+     */
+    long takePromptTime() {
+        return mPromptTime.getAndSet(0);
+    }
+
+    /**
+     * @return true once the session delivered its final result or was
+     *         cancelled
+     */
+    public boolean isFinished() {
+        return mFinished.get();
+    }
+
+    /**
+     * Cancels the sensor session. No further result is delivered to the
+     * callback.
+     */
+    @Override
+    public void cancel() {
+        if (finish()) {
+            final FingerPrintSensor.Cancellable cancellable = mCancellable;
+            if (cancellable != null) {
+                cancellable.cancel();
+            }
+        }
+    }
+
+    /**
+     * @return true for exactly one caller, which then owns the final result
+     */
+    boolean finish() {
+        return mFinished.compareAndSet(false, true);
+    }
+}
@@ -0,0 +1,785 @@
+package com.vigorous.fingerprintchecker.fingerprint;
+
+import com.vigorous.fingerprintchecker.exception.FingerPrintAuthenticationException;
+import com.vigorous.fingerprintchecker.exception.FingerPrintInvalidException;
+import com.vigorous.fingerprintchecker.metrics.FingerPrintMetricsListener;
+import com.vigorous.fingerprintchecker.platform.FingerPrintEncoder;
+import com.vigorous.fingerprintchecker.platform.FingerPrintKeyStore;
+import com.vigorous.fingerprintchecker.platform.FingerPrintLogger;
+import com.vigorous.fingerprintchecker.platform.FingerPrintSensor;
+import com.vigorous.fingerprintchecker.utils.ByteUtil;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+
+/**
+ * The authentication engine behind FingerprintHelper. It only talks to the
+ * platform through FingerPrintSensor, FingerPrintKeyStore, FingerPrintEncoder
+ * and FingerPrintLogger, so it runs unchanged on a plain JVM with the
+ * in-memory and software implementations of the platform package.
+ * <p>
+ * Availability is not checked here, see
+ * FingerprintHelper.checkFingerprintAvailable.
+ * <p>
+ * Keys are either unlocked by the sensor for one operation, or time-bound
+ * (see FingerPrintKeyStore.isTimeBound). For time-bound keys the sensor only
+ * authenticates the user, and within the unlock TTL after a successful touch
+ * further authentications skip the sensor completely.
+ * <p>
+ * While the sensor is locked out or backing off after an error (see
+ * FingerPrintRetryScheduler), authentications fail at once without touching
+ * the keystore or the sensor.
+ */
+public class FingerPrintAuthenticator {
+    private static final String TAG = FingerPrintAuthenticator.class.getName();
+
+    /** Same values as KeyProperties.PURPOSE_ENCRYPT and PURPOSE_DECRYPT */
+    public final static int APPLY = Cipher.ENCRYPT_MODE;
+    public final static int VERIFY = Cipher.DECRYPT_MODE;
+
+    private final FingerPrintSensor mSensor;
+    private final FingerPrintKeyStore mKeyStore;
+    private final FingerPrintEncoder mEncoder;
+    private final FingerPrintLogger mLogger;
+    // 标记（Android上为包名）作为指纹校验的明文，只编码一次
+    private final String mMarker;
+    private final byte[] mMarkerBytes;
+    private volatile FingerPrintMetricsListener mMetrics = FingerPrintMetricsListener.NONE;
+    private final FingerPrintDispatcher mDispatcher;
+    private final FingerPrintRetryScheduler mRetryScheduler = new FingerPrintRetryScheduler();
+    // System.nanoTime()截止时间，此前限时密钥无需再次按压指纹
+    private volatile long mUnlockedUntil = System.nanoTime();
+    private volatile long mUnlockTtlNanos;
+
+    private final Set<FingerPrintAuthenticationSession> mSessions = Collections
+            .newSetFromMap(
+                    new ConcurrentHashMap<FingerPrintAuthenticationSession, Boolean>());
+
+    /**
+     * @param sensor
+     * @param keyStore
+     * @param encoder
+     * @param logger
+     * @param marker encrypted by APPLY and checked by VERIFY, the package name
+     *            on Android
+     */
+    public FingerPrintAuthenticator(FingerPrintSensor sensor,
+            FingerPrintKeyStore keyStore, FingerPrintEncoder encoder,
+            FingerPrintLogger logger, String marker) {
+        mSensor = sensor;
+        mKeyStore = keyStore;
+        mEncoder = encoder;
+        mLogger = logger;
+        mMarker = marker;
+        mMarkerBytes = marker.getBytes(StandardCharsets.UTF_8);
+        mDispatcher = new FingerPrintDispatcher(this, logger);
+    }
+
+    public FingerPrintSensor getSensor() {
+        return mSensor;
+    }
+
+    public FingerPrintKeyStore getKeyStore() {
+        return mKeyStore;
+    }
+
+    /**
+     * @return the lockout and backoff state of the sensor
+     */
+    public FingerPrintRetryScheduler getRetryScheduler() {
+        return mRetryScheduler;
+    }
+
+    /**
+     * @see FingerprintHelper#startAuthenticate(String, int, String, String,
+     *      FingerPrintAuthenticationCallback)
+     */
+    public FingerPrintAuthenticationSession startAuthenticate(String keyName,
+            int purpose, String fingerToken, String IV,
+            FingerPrintAuthenticationCallback callback)
+            throws FingerPrintInvalidException {
+        // 每次认证拥有独立的会话，互不覆盖
+        return startSession(new FingerPrintAuthenticationSession(keyName,
+                purpose, fingerToken, IV, callback));
+    }
+
+    /**
+     * @see FingerprintHelper#authenticateBatch(String, int, String, String,
+     *      List, FingerPrintBatchCallback)
+     */
+    public FingerPrintAuthenticationSession authenticateBatch(String keyName,
+            int purpose, String wrappedKey, String IV, List<String> tokens,
+            FingerPrintBatchCallback callback)
+            throws FingerPrintInvalidException {
+        if (tokens == null) {
+            if (callback != null) {
+                callback.onAuthenticationFail("Fail");
+            }
+            return null;
+        }
+        return startSession(new FingerPrintAuthenticationSession(keyName,
+                purpose, wrappedKey, IV, tokens, callback));
+    }
+
+    /**
+     * @see FingerprintHelper#authenticateEnvelope(String, int, String,
+     *      String, FingerPrintEnvelopeCallback)
+     */
+    public FingerPrintAuthenticationSession authenticateEnvelope(
+            String keyName, int purpose, String wrappedKey, String IV,
+            FingerPrintEnvelopeCallback callback)
+            throws FingerPrintInvalidException {
+        return startSession(new FingerPrintAuthenticationSession(keyName,
+                purpose, wrappedKey, IV, callback));
+    }
+
+    /**
+     * @see FingerprintHelper#authenticateChallenge(String, byte[],
+     *      FingerPrintSignatureCallback)
+     */
+    public FingerPrintAuthenticationSession authenticateChallenge(
+            String keyName, byte[] challenge,
+            FingerPrintSignatureCallback callback)
+            throws FingerPrintInvalidException {
+        if (challenge == null || challenge.length == 0) {
+            if (callback != null) {
+                callback.onAuthenticationFail("Fail");
+            }
+            return null;
+        }
+        return startSession(
+                new FingerPrintAuthenticationSession(keyName, challenge,
+                        callback));
+    }
+
+    /**
+     * @see FingerprintHelper#authenticateBytes(String, int, ByteBuffer,
+     *      ByteBuffer, FingerPrintBytesCallback)
+     */
+    public FingerPrintAuthenticationSession authenticateBytes(String keyName,
+            int purpose, ByteBuffer fingerToken, ByteBuffer output,
+            FingerPrintBytesCallback callback)
+            throws FingerPrintInvalidException {
+        if (output == null || (purpose == VERIFY && (fingerToken == null
+                || fingerToken.remaining() <= FingerPrintKeyStore.IV_SIZE))) {
+            if (callback != null) {
+                callback.onAuthenticationFail("Fail");
+            }
+            return null;
+        }
+        return startSession(new FingerPrintAuthenticationSession(keyName,
+                purpose, fingerToken, output, callback));
+    }
+
+    /**
+     * @see FingerprintHelper#authenticateAsync(String, int, String, String)
+     */
+    public FingerPrintFuture<FingerPrintResult<String>> authenticateAsync(
+            String keyName, int purpose, String fingerToken, String IV) {
+        final FingerPrintFutureCallback.Single callback = new FingerPrintFutureCallback.Single();
+        try {
+            return attach(callback, startAuthenticate(keyName, purpose,
+                    fingerToken, IV, callback));
+        } catch (FingerPrintInvalidException e) {
+            return invalidated(callback, e);
+        }
+    }
+
+    /**
+     * @see FingerprintHelper#authenticateBatchAsync(String, int, String,
+     *      String, List)
+     */
+    public FingerPrintFuture<FingerPrintResult<List<String>>> authenticateBatchAsync(
+            String keyName, int purpose, String wrappedKey, String IV,
+            List<String> tokens) {
+        final FingerPrintFutureCallback.Batch callback = new FingerPrintFutureCallback.Batch();
+        try {
+            return attach(callback, authenticateBatch(keyName, purpose,
+                    wrappedKey, IV, tokens, callback));
+        } catch (FingerPrintInvalidException e) {
+            return invalidated(callback, e);
+        }
+    }
+
+    /**
+     * @see FingerprintHelper#authenticateEnvelopeAsync(String, int, String,
+     *      String)
+     */
+    public FingerPrintFuture<FingerPrintResult<FingerPrintDataCipher>> authenticateEnvelopeAsync(
+            String keyName, int purpose, String wrappedKey, String IV) {
+        final FingerPrintFutureCallback.Envelope callback = new FingerPrintFutureCallback.Envelope();
+        try {
+            return attach(callback, authenticateEnvelope(keyName, purpose,
+                    wrappedKey, IV, callback));
+        } catch (FingerPrintInvalidException e) {
+            return invalidated(callback, e);
+        }
+    }
+
+    /**
+     * @see FingerprintHelper#authenticateChallengeAsync(String, byte[])
+     */
+    public FingerPrintFuture<byte[]> authenticateChallengeAsync(
+            String keyName, byte[] challenge) {
+        final FingerPrintFutureCallback.Challenge callback = new FingerPrintFutureCallback.Challenge();
+        try {
+            return attach(callback,
+                    authenticateChallenge(keyName, challenge, callback));
+        } catch (FingerPrintInvalidException e) {
+            return invalidated(callback, e);
+        }
+    }
+
+    /**
+     * @param listener receives the timings and outcomes of every
+     *            authentication, including those of the key store. Null
+     *            disables reporting.
+     */
+    public void setMetricsListener(FingerPrintMetricsListener listener) {
+        mMetrics = listener == null ? FingerPrintMetricsListener.NONE
+                : listener;
+        mKeyStore.setMetricsListener(listener);
+    }
+
+    /**
+     * @param executor runs the callbacks of every authentication, including
+     *            the work with the unlocked cipher. Null runs them on the
+     *            thread of the sensor event, the main thread on Android.
+     */
+    public void setCallbackExecutor(Executor executor) {
+        mDispatcher.setExecutor(executor);
+    }
+
+    /**
+     * Opt-in reuse of a successful touch for time-bound keys. Must not exceed
+     * the validity duration the keys were generated with; if the keystore
+     * closes the window earlier, the sensor is used again.
+     *
+     * @param ttl 0 to prompt for every authentication
+     * @param unit
+     */
+    public void setUnlockTtl(long ttl, TimeUnit unit) {
+        mUnlockTtlNanos = Math.max(0, unit.toNanos(ttl));
+        if (mUnlockTtlNanos == 0) {
+            revokeUnlock();
+        }
+    }
+
+    /**
+     * Ends the current unlock window: the next authentication prompts for a
+     * touch even with a time-bound key. The keystore window itself can not be
+     * closed early, it only expires.
+     */
+    public void revokeUnlock() {
+        mUnlockedUntil = System.nanoTime();
+    }
+
+    /**
+     * @return true if time-bound keys are used without a prompt right now
+     */
+    public boolean isUnlocked() {
+        return mUnlockedUntil - System.nanoTime() > 0;
+    }
+
+    /**
+     * Called by the dispatcher on every successful touch.
+     */
+    void onUserAuthenticated() {
+        final long ttl = mUnlockTtlNanos;
+        if (ttl > 0) {
+            mUnlockedUntil = System.nanoTime() + ttl;
+        }
+    }
+
+    FingerPrintMetricsListener getMetrics() {
+        return mMetrics;
+    }
+
+    public boolean generateKey(String keyName) {
+        return mKeyStore.generateKey(keyName);
+    }
+
+    /**
+     * @see FingerPrintKeyStore#generateSigningKey(String)
+     */
+    public boolean generateSigningKey(String keyName) {
+        return mKeyStore.generateSigningKey(keyName);
+    }
+
+    /**
+     * @see FingerPrintKeyStore#getPublicKey(String)
+     */
+    public byte[] getPublicKey(String keyName) {
+        return mKeyStore.getPublicKey(keyName);
+    }
+
+    /**
+     * Cancels every running authentication session.
+     */
+    public void stopAuthenticate() {
+        for (FingerPrintAuthenticationSession session : mSessions) {
+            session.cancel();
+            mSessions.remove(session);
+        }
+    }
+
+    private FingerPrintAuthenticationSession startSession(
+            final FingerPrintAuthenticationSession session)
+            throws FingerPrintInvalidException {
+        final String keyName = session.getKeyName();
+        try {
+            final CharSequence blockingError = mRetryScheduler.checkAllowed();
+            if (blockingError != null) {
+                // 传感器必然拒绝，无需访问keystore或初始化Cipher
+                mSessions.add(session);
+                session.attach(mDispatcher);
+                mDispatcher.onDeferred(session,
+                        mRetryScheduler.getLastErrorCode(), blockingError);
+                return session;
+            }
+            final boolean challenge = session
+                    .getMode() == FingerPrintAuthenticationSession.MODE_CHALLENGE;
+            // 签名密钥每次签名都需要按压指纹
+            final boolean timeBound = !challenge
+                    && mKeyStore.isTimeBound(keyName);
+            if (timeBound && isUnlocked()) {
+                final Cipher cipher = getCipher(session);
+                if (cipher != null) {
+                    // 仍在有效期内，跳过传感器
+                    mSessions.add(session);
+                    session.attach(mDispatcher);
+                    mDispatcher.onUnlocked(session, cipher);
+                    return session;
+                }
+                // keystore的有效期已提前结束，例如设备曾锁屏
+                revokeUnlock();
+            }
+            if (challenge) {
+                final Signature signature = getSignature(session);
+                if (signature == null) {
+                    return null;
+                }
+                session.setSignature(signature);
+                mSessions.add(session);
+                session.attach(mDispatcher);
+                session.setPromptTime(System.nanoTime());
+                return start(session, mSensor.authenticateSignature(signature,
+                        session.getSensorCallback()));
+            }
+            // 限时密钥验证用户后才能初始化Cipher
+            final Cipher cipher = timeBound ? null : getCipher(session);
+            if (!timeBound && cipher == null) {
+                return null;
+            }
+            session.setTimeBound(timeBound);
+            mSessions.add(session);
+            session.attach(mDispatcher);
+            session.setPromptTime(System.nanoTime());
+            if (start(session, mSensor.authenticate(cipher,
+                    session.getSensorCallback())) == null) {
+                return null;
+            }
+            // 用户按压指纹期间预先准备下一次认证的Cipher
+            mKeyStore.prewarm(keyName);
+            return session;
+        } catch (SecurityException | IllegalArgumentException e) {
+            e.printStackTrace();
+            mSessions.remove(session);
+            return null;
+        }
+    }
+
+    /**
+     * Lets the future cancel session.
+     */
+    private static <T> FingerPrintFuture<T> attach(
+            FingerPrintFutureCallback<T> callback,
+            FingerPrintAuthenticationSession session) {
+        if (session == null) {
+            // 参数错误时已以ERROR_FAILED结束，此时不再改变
+            callback.onAuthenticationError(
+                    FingerPrintAuthenticationException.ERROR_NOT_STARTED,
+                    "Fail");
+        } else {
+            callback.mFuture.setUpstream(session);
+        }
+        return callback.mFuture;
+    }
+
+    private static <T> FingerPrintFuture<T> invalidated(
+            FingerPrintFutureCallback<T> callback,
+            FingerPrintInvalidException e) {
+        callback.onAuthenticationError(
+                FingerPrintAuthenticationException.ERROR_KEY_INVALIDATED,
+                e.getMessage());
+        return callback.mFuture;
+    }
+
+    private FingerPrintAuthenticationSession start(
+            FingerPrintAuthenticationSession session,
+            FingerPrintSensor.Cancellable cancellable) {
+        if (cancellable == null) {
+            mSessions.remove(session);
+            return null;
+        }
+        session.setCancellable(cancellable);
+        return session;
+    }
+
+    private Signature getSignature(FingerPrintAuthenticationSession session)
+            throws FingerPrintInvalidException {
+        try {
+            return mKeyStore.getSignature(session.getKeyName());
+        } catch (FingerPrintInvalidException e) {
+            mMetrics.onEvent(FingerPrintMetricsListener.EVENT_INVALIDATED);
+            throw e;
+        }
+    }
+
+    private Cipher getCipher(FingerPrintAuthenticationSession session)
+            throws FingerPrintInvalidException {
+        final String keyName = session.getKeyName();
+        try {
+            final Cipher cipher;
+            if (session.getPurpose() == VERIFY) {
+                if (session
+                        .getMode() == FingerPrintAuthenticationSession.MODE_BYTES) {
+                    cipher = getBytesCipher(keyName, session.getTokenBuffer());
+                } else {
+                    final byte[] IV = mEncoder.decode(session.getIV());
+                    cipher = mKeyStore.getCipher(keyName, Cipher.DECRYPT_MODE,
+                            IV, 0, IV.length);
+                }
+            } else {
+                cipher = mKeyStore.getCipher(keyName, Cipher.ENCRYPT_MODE, null,
+                        0, 0);
+            }
+            return cipher;
+        } catch (FingerPrintInvalidException e) {
+            mMetrics.onEvent(FingerPrintMetricsListener.EVENT_INVALIDATED);
+            throw e;
+        }
+    }
+
+    private Cipher getBytesCipher(String keyName, ByteBuffer token)
+            throws FingerPrintInvalidException {
+        final int ivSize = FingerPrintKeyStore.IV_SIZE;
+        if (token.hasArray()) {
+            return mKeyStore.getCipher(keyName, Cipher.DECRYPT_MODE,
+                    token.array(), token.arrayOffset() + token.position(),
+                    ivSize);
+        }
+        final byte[] IV = new byte[ivSize];
+        for (int i = 0; i < ivSize; i++) {
+            IV[i] = token.get(token.position() + i);
+        }
+        return mKeyStore.getCipher(keyName, Cipher.DECRYPT_MODE, IV, 0, ivSize);
+    }
+
+    /**
+     * Called by the dispatcher on the callback executor, once the session is
+     * finished.
+     */
+    void onSessionSucceeded(FingerPrintAuthenticationSession session,
+            Cipher cipher) {
+        if (session
+                .getMode() == FingerPrintAuthenticationSession.MODE_CHALLENGE) {
+            onChallengeSucceeded(session, System.nanoTime());
+            return;
+        }
+        if (cipher == null && session.isTimeBound()) {
+            try {
+                cipher = getCipher(session);
+            } catch (FingerPrintInvalidException e) {
+                session.deliverFail(
+                        FingerPrintAuthenticationException.ERROR_KEY_INVALIDATED,
+                        e.getMessage());
+                return;
+            } catch (IllegalArgumentException e) {
+                mLogger.e(TAG, "getCipher:" + e.getMessage());
+                session.deliverFail("Authentication exception");
+                return;
+            }
+        }
+        if (cipher == null) {
+            mLogger.e(TAG, "result.getCryptoObject() == null");
+            session.deliverFail("Authentication Fail");
+            return;
+        }
+        // 各模式在调用回调之前结束计时，STAGE_DO_FINAL不含调用方代码的耗时
+        final long start = System.nanoTime();
+        if (session.getMode() == FingerPrintAuthenticationSession.MODE_BATCH) {
+            onBatchSucceeded(session, cipher, start);
+        } else if (session
+                .getMode() == FingerPrintAuthenticationSession.MODE_ENVELOPE) {
+            onEnvelopeSucceeded(session, cipher, start);
+        } else if (session
+                .getMode() == FingerPrintAuthenticationSession.MODE_BYTES) {
+            onBytesSucceeded(session, cipher, start);
+        } else {
+            onSingleSucceeded(session, cipher, start);
+        }
+    }
+
+    /**
+     * Ends the STAGE_DO_FINAL measurement started at start.
+     */
+    private void recordDoFinal(long start) {
+        mMetrics.onStage(FingerPrintMetricsListener.STAGE_DO_FINAL,
+                System.nanoTime() - start);
+    }
+
+    private void onSingleSucceeded(FingerPrintAuthenticationSession session,
+            Cipher cipher, long start) {
+        final FingerPrintAuthenticationCallback callback = (FingerPrintAuthenticationCallback) session
+                .getCallback();
+        if (callback == null) {
+            mLogger.e(TAG, "callback is null");
+            return;
+        }
+        // 指纹认证过程
+        if (session.getPurpose() == VERIFY) {
+            // 取出secret key并返回
+            if (session.getKeyName() == null
+                    || session.getKeyName().length() == 0) {
+                callback.onAuthenticationFail("Authentication is unavailable");
+                return;
+            }
+            try {
+                byte[] decrypted = cipher
+                        .doFinal(mEncoder.decode(session.getFingerToken()));
+                final boolean matched = ByteUtil.constantTimeEquals(
+                        mMarkerBytes, decrypted, 0, decrypted.length);
+                Arrays.fill(decrypted, (byte) 0);
+                recordDoFinal(start);
+                if (matched) {
+                    callback.onAuthenticationSucceeded(mMarker,
+                            session.getPurpose(), "");
+                } else {
+                    callback.onAuthenticationFail("Authentication Fail");
+                }
+            } catch (BadPaddingException | IllegalBlockSizeException
+                    | IllegalArgumentException e) {
+                recordDoFinal(start);
+                e.printStackTrace();
+                callback.onAuthenticationFail("Authentication exception");
+            }
+        } else if (session.getPurpose() == APPLY) {// 指纹录入过程
+            // 将前面生成的data包装成secret key，存入沙盒
+            try {
+                byte[] encrypted = cipher.doFinal(mMarkerBytes);
+                recordDoFinal(start);
+                callback.onAuthenticationSucceeded(mEncoder.encode(encrypted),
+                        session.getPurpose(), mEncoder.encode(cipher.getIV()));
+            } catch (BadPaddingException | IllegalBlockSizeException e) {
+                recordDoFinal(start);
+                e.printStackTrace();
+                callback.onAuthenticationFail("Authentication exception");
+            }
+        }
+    }
+
+    private void onBatchSucceeded(FingerPrintAuthenticationSession session,
+            Cipher cipher, long start) {
+        final FingerPrintBatchCallback callback = (FingerPrintBatchCallback) session
+                .getCallback();
+        if (callback == null) {
+            mLogger.e(TAG, "callback is null");
+            return;
+        }
+        final List<String> tokens = session.getBatchTokens();
+        final List<String> results = new ArrayList<>(tokens.size());
+        try {
+            if (session.getPurpose() == VERIFY) {
+                // 唯一一次keystore运算：解出数据密钥
+                final FingerPrintDataCipher dataCipher = unwrapDataCipher(
+                        cipher, session.getFingerToken());
+                for (String token : tokens) {
+                    results.add(new String(
+                            dataCipher.decrypt(mEncoder.decode(token)),
+                            StandardCharsets.UTF_8));
+                }
+                recordDoFinal(start);
+                callback.onAuthenticationSucceeded(results,
+                        session.getPurpose(), "", "");
+            } else {
+                // 唯一一次keystore运算：包装新的数据密钥
+                final byte[] dataKey = FingerPrintDataCipher.newDataKey();
+                final FingerPrintDataCipher dataCipher;
+                final String wrappedKey;
+                try {
+                    dataCipher = new FingerPrintDataCipher(dataKey);
+                    wrappedKey = wrapDataKey(cipher, dataKey);
+                } finally {
+                    Arrays.fill(dataKey, (byte) 0);
+                }
+                for (String token : tokens) {
+                    results.add(mEncoder.encode(dataCipher
+                            .encrypt(token.getBytes(StandardCharsets.UTF_8))));
+                }
+                recordDoFinal(start);
+                callback.onAuthenticationSucceeded(results,
+                        session.getPurpose(), wrappedKey,
+                        mEncoder.encode(cipher.getIV()));
+            }
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            recordDoFinal(start);
+            e.printStackTrace();
+            callback.onAuthenticationFail("Authentication exception");
+        }
+    }
+
+    private void onBytesSucceeded(FingerPrintAuthenticationSession session,
+            Cipher cipher, long start) {
+        final FingerPrintBytesCallback callback = (FingerPrintBytesCallback) session
+                .getCallback();
+        if (callback == null) {
+            mLogger.e(TAG, "callback is null");
+            return;
+        }
+        final ByteBuffer output = session.getOutput();
+        final int offset = output.position();
+        try {
+            if (session.getPurpose() == VERIFY) {
+                final ByteBuffer token = session.getTokenBuffer();
+                token.position(token.position() + FingerPrintKeyStore.IV_SIZE);
+                cipher.doFinal(token, output);
+                output.limit(output.position());
+                output.position(offset);
+                final boolean matched = ByteUtil
+                        .constantTimeEquals(mMarkerBytes, output);
+                ByteUtil.zero(output);
+                output.limit(offset);
+                recordDoFinal(start);
+                if (matched) {
+                    callback.onAuthenticationSucceeded(session.getPurpose(),
+                            output);
+                } else {
+                    callback.onAuthenticationFail("Authentication Fail");
+                }
+            } else {
+                output.put(cipher.getIV());
+                if (output.hasArray()) {
+                    final int written = cipher.doFinal(mMarkerBytes, 0,
+                            mMarkerBytes.length, output.array(),
+                            output.arrayOffset() + output.position());
+                    output.position(output.position() + written);
+                } else {
+                    cipher.doFinal(ByteBuffer.wrap(mMarkerBytes), output);
+                }
+                output.limit(output.position());
+                output.position(offset);
+                recordDoFinal(start);
+                callback.onAuthenticationSucceeded(session.getPurpose(),
+                        output);
+            }
+        } catch (GeneralSecurityException | BufferOverflowException e) {
+            recordDoFinal(start);
+            e.printStackTrace();
+            output.position(offset);
+            callback.onAuthenticationFail("Authentication exception");
+        }
+    }
+
+    private void onChallengeSucceeded(
+            FingerPrintAuthenticationSession session, long start) {
+        final FingerPrintSignatureCallback callback = (FingerPrintSignatureCallback) session
+                .getCallback();
+        if (callback == null) {
+            mLogger.e(TAG, "callback is null");
+            return;
+        }
+        final Signature signature = session.getSignature();
+        final byte[] challenge = session.getChallenge();
+        final byte[] signed;
+        try {
+            signature.update(challenge);
+            signed = signature.sign();
+        } catch (SignatureException e) {
+            recordDoFinal(start);
+            e.printStackTrace();
+            callback.onAuthenticationFail("Authentication exception");
+            return;
+        }
+        recordDoFinal(start);
+        callback.onAuthenticationSucceeded(challenge, signed);
+    }
+
+    private void onEnvelopeSucceeded(FingerPrintAuthenticationSession session,
+            Cipher cipher, long start) {
+        final FingerPrintEnvelopeCallback callback = (FingerPrintEnvelopeCallback) session
+                .getCallback();
+        if (callback == null) {
+            mLogger.e(TAG, "callback is null");
+            return;
+        }
+        try {
+            if (session.getPurpose() == VERIFY) {
+                final FingerPrintDataCipher dataCipher = unwrapDataCipher(
+                        cipher, session.getFingerToken());
+                // 调用方之后用dataCipher处理的数据不计入
+                recordDoFinal(start);
+                callback.onAuthenticationSucceeded(dataCipher,
+                        session.getPurpose(), "", "");
+            } else {
+                final byte[] dataKey = FingerPrintDataCipher.newDataKey();
+                final FingerPrintDataCipher dataCipher;
+                final String wrappedKey;
+                try {
+                    dataCipher = new FingerPrintDataCipher(dataKey);
+                    wrappedKey = wrapDataKey(cipher, dataKey);
+                } finally {
+                    Arrays.fill(dataKey, (byte) 0);
+                }
+                recordDoFinal(start);
+                callback.onAuthenticationSucceeded(dataCipher,
+                        session.getPurpose(), wrappedKey,
+                        mEncoder.encode(cipher.getIV()));
+            }
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            recordDoFinal(start);
+            e.printStackTrace();
+            callback.onAuthenticationFail("Authentication exception");
+        }
+    }
+
+    /**
+     * Wraps dataKey with the fingerprint-unlocked cipher.
+     */
+    private String wrapDataKey(Cipher cipher, byte[] dataKey)
+            throws GeneralSecurityException {
+        return mEncoder.encode(cipher.doFinal(dataKey));
+    }
+
+    /**
+     * Unwraps the data key with the fingerprint-unlocked cipher.
+     */
+    private FingerPrintDataCipher unwrapDataCipher(Cipher cipher,
+            String wrappedKey) throws GeneralSecurityException {
+        final byte[] dataKey = cipher.doFinal(mEncoder.decode(wrappedKey));
+        try {
+            return new FingerPrintDataCipher(dataKey);
+        } finally {
+            Arrays.fill(dataKey, (byte) 0);
+        }
+    }
+
+    boolean finishSession(FingerPrintAuthenticationSession session) {
+        mSessions.remove(session);
+        return session.finish();
+    }
+}
@@ -0,0 +1,16 @@
+package com.vigorous.fingerprintchecker.fingerprint;
+
+/**
+ * Observes the fingerprint availability published by FingerprintHelper.
+ */
+public interface FingerPrintAvailabilityListener {
+    /**
+     * Called on the main thread when the availability changed, e.g. after
+     * the user enrolled a fingerprint or granted the permission.
+     *
+     * @param helper
+     * @param status FingerprintHelper.FINGERPRINT_AVAILABLE,
+     *            FINGERPRINT_UNAVAILABLE or FINGERPRINT_UNSUPPORT
+     */
+    void onAvailabilityChanged(FingerprintHelper helper, int status);
+}
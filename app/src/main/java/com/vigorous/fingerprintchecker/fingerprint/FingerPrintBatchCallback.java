@@ -0,0 +1,20 @@
+package com.vigorous.fingerprintchecker.fingerprint;
+
+import java.util.List;
+
+/**
+ * Result of authenticateBatch, one touch for a list of tokens.
+ */
+public interface FingerPrintBatchCallback extends FingerPrintFailureCallback {
+    /**
+     *
+     * @param results encrypted tokens when properties equals to APPLY,
+     *            decrypted tokens when properties equals to VERIFY, in the
+     *            order of the request
+     * @param properties
+     * @param wrappedKey Store the wrapped key when properties equals to APPLY
+     * @param IV Store the IV when properties equals to APPLY
+     */
+    void onAuthenticationSucceeded(List<String> results, int properties,
+            String wrappedKey, String IV);
+}
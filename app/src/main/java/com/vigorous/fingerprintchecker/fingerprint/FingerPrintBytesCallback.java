@@ -0,0 +1,17 @@
+package com.vigorous.fingerprintchecker.fingerprint;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Result of authenticateBytes, written to the caller's output buffer.
+ */
+public interface FingerPrintBytesCallback extends FingerPrintFailureCallback {
+    /**
+     *
+     * @param properties
+     * @param output the output buffer passed to authenticate. Store IV ||
+     *            token between its position and limit when properties equals
+     *            to APPLY; it is empty when properties equals to VERIFY.
+     */
+    void onAuthenticationSucceeded(int properties, ByteBuffer output);
+}
@@ -0,0 +1,91 @@
+package com.vigorous.fingerprintchecker.fingerprint;
+
+import com.vigorous.fingerprintchecker.platform.FingerPrintKeyStore;
+import com.vigorous.fingerprintchecker.platform.FingerPrintPreferences;
+
+/**
+ * Persisted result of the secure-hardware probe.
+ * <p>
+ * The probe generates a keystore key, which is a slow call into secure
+ * hardware. Its result only changes with the system image, the SDK level or
+ * the enrollment state, so it is stored together with a signature of those
+ * and reused until one of them changes. Bump {@link #CACHE_VERSION} to drop
+ * every stored result after the probe itself changes.
+ * <p>
+ * Only definitive results are stored. A probe that failed, e.g. because the
+ * keystore was busy, counts as no secure hardware until
+ * {@link #clearFailedProbe()} and is never written to disk.
+ */
+public class FingerPrintCapabilityCache {
+    // 旧版本以boolean保存在secure_hardware中，换用新的key
+    static final String KEY_SECURE_HARDWARE = "secure_hardware_probe";
+
+    static final int CACHE_VERSION = 1;
+
+    private final FingerPrintPreferences mPreferences;
+    private final String mBuildSignature;
+    // 内存中的缓存，避免重复读取及重复探测
+    private volatile String mSignature;
+    private volatile boolean mSecureHardware;
+    private volatile boolean mFailed;
+
+    /**
+     * @param preferences
+     * @param buildSignature identifies the system image and the SDK level,
+     *            e.g. Build.FINGERPRINT and Build.VERSION.SDK_INT
+     */
+    public FingerPrintCapabilityCache(FingerPrintPreferences preferences,
+            String buildSignature) {
+        mPreferences = preferences;
+        mBuildSignature = buildSignature;
+    }
+
+    /**
+     * Returns the cached probe result, probing keyStore on a miss. The probe
+     * talks to secure hardware, do not call it on the main thread.
+     *
+     * @param keyStore
+     * @param enrolled whether fingerprints are currently enrolled
+     * @return whether keys are protected by secure hardware, false if the
+     *         probe failed
+     */
+    public boolean isSecureHardware(FingerPrintKeyStore keyStore,
+            boolean enrolled) {
+        final String signature = signature(enrolled);
+        if (signature.equals(mSignature)) {
+            return mSecureHardware;
+        }
+        final String stored = mPreferences.getString(KEY_SECURE_HARDWARE);
+        if (stored != null && stored.startsWith(signature + "=")) {
+            mSecureHardware = Boolean.parseBoolean(
+                    stored.substring(signature.length() + 1));
+            mFailed = false;
+            mSignature = signature;
+            return mSecureHardware;
+        }
+        final Boolean result = keyStore.probeSecureHardware();
+        mSecureHardware = result != null && result;
+        mFailed = result == null;
+        mSignature = signature;
+        if (result != null) {
+            mPreferences.putString(KEY_SECURE_HARDWARE,
+                    signature + "=" + result);
+        }
+        return mSecureHardware;
+    }
+
+    /**
+     * Forgets a failed probe so that the next check probes again. Definitive
+     * results are kept.
+     */
+    public void clearFailedProbe() {
+        if (mFailed) {
+            mFailed = false;
+            mSignature = null;
+        }
+    }
+
+    private String signature(boolean enrolled) {
+        return CACHE_VERSION + "|" + mBuildSignature + "|" + enrolled;
+    }
+}
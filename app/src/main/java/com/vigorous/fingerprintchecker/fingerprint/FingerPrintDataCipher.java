@@ -0,0 +1,298 @@
+package com.vigorous.fingerprintchecker.fingerprint;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Software AES-GCM engine keyed by a random data key.
+ * <p>
+ * The data key is wrapped by the fingerprint-gated keystore key, so a single
+ * authentication and a single keystore operation unlock any number of values.
+ * Every sealed value is laid out as nonce || ciphertext || tag. Streams are
+ * sealed in segments, see {@link #seal(InputStream, OutputStream)}, or
+ * through {@link #newSealingStream(OutputStream)} and
+ * {@link #newOpeningStream(InputStream)}. An instance reuses one Cipher and
+ * is not thread safe, this includes the streams it created.
+ */
+public class FingerPrintDataCipher {
+    private static final String KEY_ALGORITHM = "AES";
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    static final int KEY_SIZE = 32;
+    static final int NONCE_SIZE = 12;
+    static final int TAG_BITS = 128;
+    static final int TAG_SIZE = TAG_BITS / 8;
+
+    /** Plaintext bytes per segment of a sealed stream */
+    static final int SEGMENT_SIZE = 64 * 1024;
+    static final int STREAM_PREFIX_SIZE = 8;
+    static final int SEGMENT_HEADER_SIZE = 4;
+    private static final int FINAL_SEGMENT = 0x80000000;
+
+    private static final SecureRandom sRandom = new SecureRandom();
+
+    private final SecretKeySpec mKeySpec;
+    private final Cipher mCipher;
+
+    /**
+     * @param dataKey raw data key. It is copied, the caller should clear its
+     *            own array once the instance is created.
+     */
+    public FingerPrintDataCipher(byte[] dataKey)
+            throws GeneralSecurityException {
+        if (dataKey == null || dataKey.length != KEY_SIZE) {
+            throw new GeneralSecurityException("Invalid data key");
+        }
+        mKeySpec = new SecretKeySpec(dataKey, KEY_ALGORITHM);
+        mCipher = Cipher.getInstance(TRANSFORMATION);
+    }
+
+    /**
+     * @return a new random data key
+     */
+    public static byte[] newDataKey() {
+        final byte[] dataKey = new byte[KEY_SIZE];
+        sRandom.nextBytes(dataKey);
+        return dataKey;
+    }
+
+    public byte[] encrypt(byte[] plain) throws GeneralSecurityException {
+        final byte[] nonce = new byte[NONCE_SIZE];
+        sRandom.nextBytes(nonce);
+        mCipher.init(Cipher.ENCRYPT_MODE, mKeySpec,
+                new GCMParameterSpec(TAG_BITS, nonce));
+        final byte[] sealed = new byte[NONCE_SIZE
+                + mCipher.getOutputSize(plain.length)];
+        System.arraycopy(nonce, 0, sealed, 0, NONCE_SIZE);
+        mCipher.doFinal(plain, 0, plain.length, sealed, NONCE_SIZE);
+        return sealed;
+    }
+
+    /**
+     * @throws GeneralSecurityException if the value was not sealed with this
+     *             data key or has been modified
+     */
+    public byte[] decrypt(byte[] sealed) throws GeneralSecurityException {
+        if (sealed == null || sealed.length < NONCE_SIZE + TAG_SIZE) {
+            throw new GeneralSecurityException("Invalid sealed data");
+        }
+        mCipher.init(Cipher.DECRYPT_MODE, mKeySpec,
+                new GCMParameterSpec(TAG_BITS, sealed, 0, NONCE_SIZE));
+        return mCipher.doFinal(sealed, NONCE_SIZE, sealed.length - NONCE_SIZE);
+    }
+
+    /**
+     * Seals a stream of any length with memory bounded by two segments.
+     * <p>
+     * Layout: prefix || segment*, where every segment is header ||
+     * ciphertext || tag. The header holds the plaintext length and marks the
+     * last segment, and is authenticated as associated data. The nonce of a
+     * segment is the random prefix followed by the segment index, so
+     * reordered, dropped or truncated segments fail to open.
+     *
+     * @return number of plaintext bytes sealed
+     */
+    public long seal(InputStream in, OutputStream out)
+            throws IOException, GeneralSecurityException {
+        final byte[] prefix = newStreamPrefix();
+        out.write(prefix);
+        byte[] current = new byte[SEGMENT_SIZE];
+        byte[] next = new byte[SEGMENT_SIZE];
+        final byte[] segment = new byte[SEGMENT_HEADER_SIZE + SEGMENT_SIZE
+                + TAG_SIZE];
+        int length = readFully(in, current, SEGMENT_SIZE);
+        long total = 0;
+        int index = 0;
+        while (true) {
+            // 预读下一段，以便确定当前段是否为最后一段
+            int nextLength = 0;
+            boolean last = length < SEGMENT_SIZE;
+            if (!last) {
+                nextLength = readFully(in, next, SEGMENT_SIZE);
+                last = nextLength == 0;
+            }
+            final int sealedLength = sealSegment(prefix, index, last, current,
+                    length, segment);
+            out.write(segment, 0, sealedLength);
+            total += length;
+            if (last) {
+                return total;
+            }
+            final byte[] swap = current;
+            current = next;
+            next = swap;
+            length = nextLength;
+            index++;
+        }
+    }
+
+    /**
+     * Opens a stream sealed by {@link #seal(InputStream, OutputStream)}.
+     * Segments are written to out as soon as they are verified, so out must
+     * be discarded if this method throws.
+     *
+     * @return number of plaintext bytes opened
+     * @throws GeneralSecurityException if the stream was modified, reordered
+     *             or truncated
+     */
+    public long open(InputStream in, OutputStream out)
+            throws IOException, GeneralSecurityException {
+        final byte[] prefix = new byte[STREAM_PREFIX_SIZE];
+        if (readFully(in, prefix, STREAM_PREFIX_SIZE) != STREAM_PREFIX_SIZE) {
+            throw new GeneralSecurityException("Truncated stream");
+        }
+        final byte[] segment = new byte[SEGMENT_HEADER_SIZE + SEGMENT_SIZE
+                + TAG_SIZE];
+        final byte[] plain = new byte[SEGMENT_SIZE];
+        long total = 0;
+        int index = 0;
+        while (true) {
+            if (readFully(in, segment,
+                    SEGMENT_HEADER_SIZE) != SEGMENT_HEADER_SIZE) {
+                throw new GeneralSecurityException("Truncated stream");
+            }
+            final int bodyLength = segmentLength(segment) + TAG_SIZE;
+            if (readFully(in, segment, SEGMENT_HEADER_SIZE,
+                    bodyLength) != bodyLength) {
+                throw new GeneralSecurityException("Truncated stream");
+            }
+            final int length = openSegment(prefix, index, segment,
+                    SEGMENT_HEADER_SIZE + bodyLength, plain);
+            out.write(plain, 0, length);
+            total += length;
+            if (isLastSegment(segment)) {
+                if (in.read() != -1) {
+                    throw new GeneralSecurityException(
+                            "Data after last segment");
+                }
+                return total;
+            }
+            index++;
+        }
+    }
+
+    /**
+     * Same format as {@link #seal(InputStream, OutputStream)}, for callers
+     * producing the payload incrementally. Memory is bounded by one segment
+     * whatever the payload size. The returned stream must be closed to write
+     * the last segment; it also closes out.
+     *
+     * @param out receives the sealed stream
+     * @return
+     */
+    public OutputStream newSealingStream(OutputStream out) {
+        return new FingerPrintSealingOutputStream(this, out);
+    }
+
+    /**
+     * Opens a sealed stream incrementally with memory bounded by one segment.
+     * Only verified plaintext is returned; if the stream was modified,
+     * reordered or truncated, read throws an IOException caused by a
+     * GeneralSecurityException and the data read so far must be discarded.
+     *
+     * @param in a stream sealed by seal or newSealingStream
+     * @return
+     */
+    public InputStream newOpeningStream(InputStream in) {
+        return new FingerPrintOpeningInputStream(this, in);
+    }
+
+    static byte[] newStreamPrefix() {
+        final byte[] prefix = new byte[STREAM_PREFIX_SIZE];
+        sRandom.nextBytes(prefix);
+        return prefix;
+    }
+
+    /**
+     * Seals plain[0, length) as segment index into out.
+     *
+     * @return number of bytes written to out
+     */
+    int sealSegment(byte[] prefix, int index, boolean last, byte[] plain,
+            int length, byte[] out) throws GeneralSecurityException {
+        final int header = length | (last ? FINAL_SEGMENT : 0);
+        out[0] = (byte) (header >>> 24);
+        out[1] = (byte) (header >>> 16);
+        out[2] = (byte) (header >>> 8);
+        out[3] = (byte) header;
+        mCipher.init(Cipher.ENCRYPT_MODE, mKeySpec,
+                new GCMParameterSpec(TAG_BITS, segmentNonce(prefix, index)));
+        mCipher.updateAAD(out, 0, SEGMENT_HEADER_SIZE);
+        return SEGMENT_HEADER_SIZE + mCipher.doFinal(plain, 0, length, out,
+                SEGMENT_HEADER_SIZE);
+    }
+
+    /**
+     * Opens segment index from sealed[0, sealedLength) into plain.
+     *
+     * @return number of plaintext bytes written to plain
+     */
+    int openSegment(byte[] prefix, int index, byte[] sealed,
+            int sealedLength, byte[] plain) throws GeneralSecurityException {
+        mCipher.init(Cipher.DECRYPT_MODE, mKeySpec,
+                new GCMParameterSpec(TAG_BITS, segmentNonce(prefix, index)));
+        mCipher.updateAAD(sealed, 0, SEGMENT_HEADER_SIZE);
+        return mCipher.doFinal(sealed, SEGMENT_HEADER_SIZE,
+                sealedLength - SEGMENT_HEADER_SIZE, plain, 0);
+    }
+
+    /**
+     * @return the plaintext length announced by the segment header
+     */
+    static int segmentLength(byte[] segment) throws GeneralSecurityException {
+        final int length = readHeader(segment) & ~FINAL_SEGMENT;
+        if (length > SEGMENT_SIZE) {
+            throw new GeneralSecurityException("Invalid segment");
+        }
+        return length;
+    }
+
+    static boolean isLastSegment(byte[] segment) {
+        return (readHeader(segment) & FINAL_SEGMENT) != 0;
+    }
+
+    private static int readHeader(byte[] segment) {
+        return (segment[0] & 0xff) << 24 | (segment[1] & 0xff) << 16
+                | (segment[2] & 0xff) << 8 | (segment[3] & 0xff);
+    }
+
+    private static byte[] segmentNonce(byte[] prefix, int index)
+            throws GeneralSecurityException {
+        if (index < 0) {
+            throw new GeneralSecurityException("Stream too long");
+        }
+        final byte[] nonce = new byte[NONCE_SIZE];
+        System.arraycopy(prefix, 0, nonce, 0, STREAM_PREFIX_SIZE);
+        nonce[8] = (byte) (index >>> 24);
+        nonce[9] = (byte) (index >>> 16);
+        nonce[10] = (byte) (index >>> 8);
+        nonce[11] = (byte) index;
+        return nonce;
+    }
+
+    static int readFully(InputStream in, byte[] buffer, int length)
+            throws IOException {
+        return readFully(in, buffer, 0, length);
+    }
+
+    /**
+     * @return number of bytes read, less than length only at end of stream
+     */
+    static int readFully(InputStream in, byte[] buffer, int offset,
+            int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            final int count = in.read(buffer, offset + read, length - read);
+            if (count < 0) {
+                break;
+            }
+            read += count;
+        }
+        return read;
+    }
+}
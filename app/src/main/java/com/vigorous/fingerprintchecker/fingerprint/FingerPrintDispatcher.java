@@ -0,0 +1,156 @@
+package com.vigorous.fingerprintchecker.fingerprint;
+
+import com.vigorous.fingerprintchecker.metrics.FingerPrintMetricsListener;
+import com.vigorous.fingerprintchecker.platform.FingerPrintLogger;
+import com.vigorous.fingerprintchecker.platform.FingerPrintSensor;
+import java.util.concurrent.Executor;
+import javax.crypto.Cipher;
+
+/**
+ * Routes sensor events to the session they belong to and delivers the
+ * results on the callback executor. There is one dispatcher per
+ * FingerPrintAuthenticator. Every session is registered with the sensor as
+ * its own callback and forwards to it, so an event can only reach the
+ * session that started the authentication, and the tasks posted to the
+ * executor are owned by the session, so no event allocates.
+ */
+final class FingerPrintDispatcher {
+    private static final String TAG = FingerPrintDispatcher.class.getName();
+
+    static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private final FingerPrintAuthenticator mAuthenticator;
+    private final FingerPrintLogger mLogger;
+    private volatile Executor mExecutor = DIRECT;
+
+    FingerPrintDispatcher(FingerPrintAuthenticator authenticator,
+            FingerPrintLogger logger) {
+        mAuthenticator = authenticator;
+        mLogger = logger;
+    }
+
+    void setExecutor(Executor executor) {
+        mExecutor = executor == null ? DIRECT : executor;
+    }
+
+    void onSucceeded(FingerPrintAuthenticationSession session,
+            Cipher cipher) {
+        mLogger.d(TAG, "FingerPrint Authentication Succeeded");
+        recordTouch(session);
+        mAuthenticator.onUserAuthenticated();
+        mAuthenticator.getRetryScheduler().onSucceeded();
+        mAuthenticator.getMetrics()
+                .onEvent(FingerPrintMetricsListener.EVENT_SUCCEEDED);
+        if (!mAuthenticator.finishSession(session)) {
+            mLogger.d(TAG, "session is finished");
+            return;
+        }
+        session.setResult(true, cipher, 0, null);
+        mExecutor.execute(session.getResultTask());
+    }
+
+    /**
+     * Completes session without the sensor, with a cipher of a time-bound
+     * key initialized within its validity window.
+     */
+    void onUnlocked(FingerPrintAuthenticationSession session, Cipher cipher) {
+        mLogger.d(TAG, "FingerPrint Authentication reused");
+        mAuthenticator.getMetrics()
+                .onEvent(FingerPrintMetricsListener.EVENT_PROMPT_SKIPPED);
+        if (mAuthenticator.finishSession(session)) {
+            session.setResult(true, cipher, 0, null);
+            mExecutor.execute(session.getResultTask());
+        }
+    }
+
+    void onError(FingerPrintAuthenticationSession session, int errorCode,
+            CharSequence errString) {
+        // 错误码由回调与统计上报，日志不拼接字符串
+        mLogger.e(TAG, "FingerPrint onAuthentication Error");
+        mAuthenticator.getRetryScheduler().onError(errorCode, errString);
+        mAuthenticator.getMetrics().onEvent(isLockout(errorCode)
+                ? FingerPrintMetricsListener.EVENT_LOCKOUT
+                : FingerPrintMetricsListener.EVENT_ERROR);
+        if (mAuthenticator.finishSession(session)) {
+            session.setResult(false, null, errorCode, errString);
+            mExecutor.execute(session.getResultTask());
+        }
+    }
+
+    /**
+     * Ends session without the sensor, which is known to reject it.
+     *
+     * @param errorCode the error the sensor ended the last session with
+     */
+    void onDeferred(FingerPrintAuthenticationSession session, int errorCode,
+            CharSequence errString) {
+        mLogger.d(TAG, "FingerPrint Authentication deferred");
+        mAuthenticator.getMetrics()
+                .onEvent(FingerPrintMetricsListener.EVENT_RETRY_DEFERRED);
+        if (mAuthenticator.finishSession(session)) {
+            session.setResult(false, null, errorCode, errString);
+            mExecutor.execute(session.getResultTask());
+        }
+    }
+
+    void onHelp(FingerPrintAuthenticationSession session, int helpCode) {
+        mLogger.d(TAG, "FingerPrint Authentication help");
+        mAuthenticator.getMetrics()
+                .onEvent(FingerPrintMetricsListener.EVENT_HELP);
+    }
+
+    void onFailed(FingerPrintAuthenticationSession session) {
+        mLogger.d(TAG, "FingerPrint Authentication Failed");
+        recordTouch(session);
+        mAuthenticator.getMetrics()
+                .onEvent(FingerPrintMetricsListener.EVENT_FAILED);
+        // 单次匹配失败后传感器仍在监听，会话不结束
+        if (!session.isFinished() && session.addPendingFailure()) {
+            mExecutor.execute(session.getFailureTask());
+        }
+    }
+
+    /**
+     * Runs on the executor, once per session.
+     */
+    void deliverResult(FingerPrintAuthenticationSession session) {
+        if (session.isSucceeded()) {
+            mAuthenticator.onSessionSucceeded(session,
+                    session.getResultCipher());
+        } else {
+            session.deliverOverLimit(session.getResultCode(),
+                    session.getResultMessage());
+        }
+    }
+
+    /**
+     * Runs on the executor and delivers every failed touch queued since it
+     * was posted.
+     */
+    void deliverFailures(FingerPrintAuthenticationSession session) {
+        do {
+            if (!session.isFinished()) {
+                session.deliverTouchFailure();
+            }
+        } while (session.removePendingFailure());
+    }
+
+    private void recordTouch(FingerPrintAuthenticationSession session) {
+        final long promptTime = session.takePromptTime();
+        if (promptTime != 0) {
+            mAuthenticator.getMetrics().onStage(
+                    FingerPrintMetricsListener.STAGE_PROMPT_TO_TOUCH,
+                    System.nanoTime() - promptTime);
+        }
+    }
+
+    private static boolean isLockout(int errorCode) {
+        return errorCode == FingerPrintSensor.ERROR_LOCKOUT
+                || errorCode == FingerPrintSensor.ERROR_LOCKOUT_PERMANENT;
+    }
+}
@@ -0,0 +1,20 @@
+package com.vigorous.fingerprintchecker.fingerprint;
+
+/**
+ * Result of authenticateEnvelope, hands out the unwrapped data cipher.
+ */
+public interface FingerPrintEnvelopeCallback
+        extends FingerPrintFailureCallback {
+    /**
+     * The unlocked data cipher is owned by the callee. Large payloads should
+     * be streamed through it off the main thread, e.g. with
+     * dataCipher.newSealingStream or newOpeningStream.
+     *
+     * @param dataCipher cipher keyed by the unwrapped data key
+     * @param properties
+     * @param wrappedKey Store the wrapped key when properties equals to APPLY
+     * @param IV Store the IV when properties equals to APPLY
+     */
+    void onAuthenticationSucceeded(FingerPrintDataCipher dataCipher,
+            int properties, String wrappedKey, String IV);
+}
@@ -0,0 +1,16 @@
+package com.vigorous.fingerprintchecker.fingerprint;
+
+/**
+ * Implemented by callbacks that need the error code of a failed
+ * authentication. The session reports its final failures here instead of
+ * onAuthenticationFail and onAuthenticationOverLimit, and does not report
+ * unrecognized touches.
+ */
+interface FingerPrintErrorCallback extends FingerPrintFailureCallback {
+    /**
+     * @param errorCode one of the FingerPrintAuthenticationException.ERROR_
+     *            constants, or another sensor error
+     * @param errorMsg as reported by the sensor
+     */
+    void onAuthenticationError(int errorCode, CharSequence errorMsg);
+}
@@ -0,0 +1,10 @@
+package com.vigorous.fingerprintchecker.fingerprint;
+
+/**
+ * Failure results shared by every authenticate callback.
+ */
+public interface FingerPrintFailureCallback {
+    void onAuthenticationFail(String errorMsg);
+
+    void onAuthenticationOverLimit(String errorMsg);
+}
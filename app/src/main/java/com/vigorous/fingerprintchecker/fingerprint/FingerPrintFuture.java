@@ -0,0 +1,379 @@
+package com.vigorous.fingerprintchecker.fingerprint;
+
+import com.vigorous.fingerprintchecker.exception.FingerPrintAuthenticationException;
+import com.vigorous.fingerprintchecker.platform.FingerPrintSensor;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Handle of one authentication started with the Async methods of
+ * FingerprintHelper, and of the stages chained to it with then. Listeners
+ * and stages run on the executor they are added with, so the work after the
+ * touch can be moved off the main thread and the result posted back to it
+ * without nested callbacks.
+ * <p>
+ * cancel stops the sensor session the future depends on, through
+ * FingerPrintAuthenticationSession.cancel down to the CancellationSignal of
+ * FingerprintManager. Cancelling a stage cancels the authentication before
+ * it, and with it every other stage chained to that authentication.
+ * <p>
+ * Unrecognized touches are not reported, the sensor keeps listening until
+ * the authentication ends. Never call get on the thread results are
+ * delivered on, the main thread by default.
+ *
+ * @param <T> type of the result
+ */
+public class FingerPrintFuture<T> implements Future<T> {
+    private static final int PENDING = 0;
+    private static final int SUCCEEDED = 1;
+    private static final int FAILED = 2;
+    private static final int CANCELLED = 3;
+
+    /**
+     * Receives the outcome of a future.
+     */
+    public interface Listener<T> {
+        void onSuccess(T result);
+
+        /**
+         * @param error with ERROR_CANCELED if the future was cancelled
+         */
+        void onFailure(FingerPrintAuthenticationException error);
+    }
+
+    /**
+     * A stage added with then.
+     */
+    public interface Transform<T, R> {
+        /**
+         * @param input result of the previous stage
+         * @return result of this stage
+         * @throws Exception fails this stage with ERROR_STAGE_FAILED
+         */
+        R apply(T input) throws Exception;
+    }
+
+    /**
+     * A stage added with thenCompose, e.g. a further authentication.
+     */
+    public interface AsyncTransform<T, R> {
+        /**
+         * @param input result of the previous stage
+         * @return future of the result of this stage
+         * @throws Exception fails this stage with ERROR_STAGE_FAILED
+         */
+        FingerPrintFuture<R> apply(T input) throws Exception;
+    }
+
+    /**
+     * A listener and its executor, run once the future is done.
+     */
+    private final class Registration implements Runnable {
+        private final Listener<? super T> mListener;
+        private final Executor mExecutor;
+
+        Registration(Listener<? super T> listener, Executor executor) {
+            mListener = listener;
+            mExecutor = executor;
+        }
+
+        void dispatch() {
+            mExecutor.execute(this);
+        }
+
+        @Override
+        public void run() {
+            if (mState == SUCCEEDED) {
+                mListener.onSuccess(mValue);
+            } else {
+                mListener.onFailure(mError);
+            }
+        }
+    }
+
+    private final CountDownLatch mDone = new CountDownLatch(1);
+    // 结果在mState之前写入，mState发布后不再改变
+    private volatile int mState = PENDING;
+    private T mValue;
+    private FingerPrintAuthenticationException mError;
+    // 以下字段由this保护
+    private FingerPrintSensor.Cancellable mUpstream;
+    private List<Registration> mRegistrations = new ArrayList<>(1);
+
+    FingerPrintFuture() {
+    }
+
+    /**
+     * @return a future that already failed with errorCode
+     */
+    static <T> FingerPrintFuture<T> failed(int errorCode, String errorMsg) {
+        final FingerPrintFuture<T> future = new FingerPrintFuture<>();
+        future.fail(new FingerPrintAuthenticationException(errorCode,
+                errorMsg));
+        return future;
+    }
+
+    /**
+     * Runs listener once the future is done, at once if it is done already.
+     *
+     * @param listener
+     * @param executor runs listener, null to run it on the thread that
+     *            completes the future
+     */
+    public void addListener(Listener<? super T> listener, Executor executor) {
+        final Registration registration = new Registration(listener,
+                executor == null ? FingerPrintDispatcher.DIRECT : executor);
+        synchronized (this) {
+            if (mRegistrations != null) {
+                mRegistrations.add(registration);
+                return;
+            }
+        }
+        registration.dispatch();
+    }
+
+    /**
+     * Chains a stage that runs on executor with the result of this future,
+     * e.g. decrypting tokens with the data cipher of an envelope. A failure
+     * of this future fails the stage with the same error.
+     *
+     * @param transform
+     * @param executor runs transform, null to run it on the thread that
+     *            completes this future
+     * @return future of the result of transform
+     */
+    public <R> FingerPrintFuture<R> then(
+            final Transform<? super T, ? extends R> transform,
+            Executor executor) {
+        final FingerPrintFuture<R> next = new FingerPrintFuture<>();
+        next.setUpstream(newCanceller());
+        addListener(new Listener<T>() {
+            @Override
+            public void onSuccess(T result) {
+                if (next.isDone()) {
+                    // 下游已取消，跳过此阶段
+                    return;
+                }
+                try {
+                    next.complete(transform.apply(result));
+                } catch (Exception e) {
+                    next.fail(newStageError(e));
+                }
+            }
+
+            @Override
+            public void onFailure(FingerPrintAuthenticationException error) {
+                next.fail(error);
+            }
+        }, executor);
+        return next;
+    }
+
+    /**
+     * Same as then for a stage that itself returns a future. Cancelling the
+     * returned future cancels the future of transform once it is started.
+     *
+     * @param transform
+     * @param executor runs transform, null to run it on the thread that
+     *            completes this future
+     * @return future completed with the future of transform
+     */
+    public <R> FingerPrintFuture<R> thenCompose(
+            final AsyncTransform<? super T, R> transform, Executor executor) {
+        final FingerPrintFuture<R> next = new FingerPrintFuture<>();
+        next.setUpstream(newCanceller());
+        addListener(new Listener<T>() {
+            @Override
+            public void onSuccess(T result) {
+                if (next.isDone()) {
+                    return;
+                }
+                final FingerPrintFuture<R> inner;
+                try {
+                    inner = transform.apply(result);
+                } catch (Exception e) {
+                    next.fail(newStageError(e));
+                    return;
+                }
+                if (inner == null) {
+                    next.fail(newStageError(
+                            new NullPointerException("future is null")));
+                    return;
+                }
+                next.setUpstream(inner.newCanceller());
+                inner.addListener(new Listener<R>() {
+                    @Override
+                    public void onSuccess(R result) {
+                        next.complete(result);
+                    }
+
+                    @Override
+                    public void onFailure(
+                            FingerPrintAuthenticationException error) {
+                        next.fail(error);
+                    }
+                }, null);
+            }
+
+            @Override
+            public void onFailure(FingerPrintAuthenticationException error) {
+                next.fail(error);
+            }
+        }, executor);
+        return next;
+    }
+
+    /**
+     * Cancels the authentication this future depends on. Listeners receive
+     * ERROR_CANCELED, a stage that is already running finishes but its
+     * result is dropped.
+     *
+     * @param mayInterruptIfRunning ignored, stages are never interrupted
+     * @return false if the future was done already
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        final FingerPrintSensor.Cancellable upstream;
+        synchronized (this) {
+            if (mState != PENDING) {
+                return false;
+            }
+            mError = new FingerPrintAuthenticationException(
+                    FingerPrintAuthenticationException.ERROR_CANCELED,
+                    "Canceled");
+            mState = CANCELLED;
+            upstream = mUpstream;
+            mUpstream = null;
+        }
+        // 先停止传感器，再通知监听器
+        if (upstream != null) {
+            upstream.cancel();
+        }
+        finish();
+        return true;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return mState == CANCELLED;
+    }
+
+    @Override
+    public boolean isDone() {
+        return mState != PENDING;
+    }
+
+    /**
+     * @throws ExecutionException caused by a
+     *             FingerPrintAuthenticationException
+     */
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        mDone.await();
+        return getResult();
+    }
+
+    @Override
+    public T get(long timeout, TimeUnit unit) throws InterruptedException,
+            ExecutionException, TimeoutException {
+        if (!mDone.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return getResult();
+    }
+
+    /**
+     * Attaches what cancel has to stop. If the future was cancelled meanwhile,
+     * upstream is cancelled at once.
+     */
+    void setUpstream(FingerPrintSensor.Cancellable upstream) {
+        synchronized (this) {
+            if (mState == PENDING) {
+                mUpstream = upstream;
+                return;
+            }
+            if (mState != CANCELLED) {
+                return;
+            }
+        }
+        upstream.cancel();
+    }
+
+    /**
+     * @return false if the future was done already
+     */
+    boolean complete(T value) {
+        synchronized (this) {
+            if (mState != PENDING) {
+                return false;
+            }
+            mValue = value;
+            mState = SUCCEEDED;
+            mUpstream = null;
+        }
+        finish();
+        return true;
+    }
+
+    /**
+     * @return false if the future was done already
+     */
+    boolean fail(FingerPrintAuthenticationException error) {
+        synchronized (this) {
+            if (mState != PENDING) {
+                return false;
+            }
+            mError = error;
+            mState = FAILED;
+            mUpstream = null;
+        }
+        finish();
+        return true;
+    }
+
+    private void finish() {
+        final List<Registration> registrations;
+        synchronized (this) {
+            registrations = mRegistrations;
+            mRegistrations = null;
+        }
+        mDone.countDown();
+        for (Registration registration : registrations) {
+            registration.dispatch();
+        }
+    }
+
+    private T getResult() throws ExecutionException {
+        switch (mState) {
+        case SUCCEEDED:
+            return mValue;
+        case CANCELLED:
+            throw new CancellationException();
+        default:
+            throw new ExecutionException(mError.getMessage(), mError);
+        }
+    }
+
+    private FingerPrintSensor.Cancellable newCanceller() {
+        return new FingerPrintSensor.Cancellable() {
+            @Override
+            public void cancel() {
+                FingerPrintFuture.this.cancel(false);
+            }
+        };
+    }
+
+    private static FingerPrintAuthenticationException newStageError(
+            Exception e) {
+        return new FingerPrintAuthenticationException(
+                FingerPrintAuthenticationException.ERROR_STAGE_FAILED,
+                String.valueOf(e.getMessage()), e);
+    }
+}
@@ -0,0 +1,75 @@
+package com.vigorous.fingerprintchecker.fingerprint;
+
+import com.vigorous.fingerprintchecker.exception.FingerPrintAuthenticationException;
+import java.util.List;
+
+/**
+ * Completes a FingerPrintFuture with the outcome of a session. There is one
+ * subclass per callback type, since their onAuthenticationSucceeded differ.
+ */
+abstract class FingerPrintFutureCallback<T>
+        implements FingerPrintErrorCallback {
+    final FingerPrintFuture<T> mFuture = new FingerPrintFuture<>();
+
+    @Override
+    public void onAuthenticationFail(String errorMsg) {
+        // 会话结束后的失败，例如token不匹配
+        onAuthenticationError(FingerPrintAuthenticationException.ERROR_FAILED,
+                errorMsg);
+    }
+
+    @Override
+    public void onAuthenticationOverLimit(String errorMsg) {
+        onAuthenticationError(FingerPrintAuthenticationException.ERROR_LOCKOUT,
+                errorMsg);
+    }
+
+    @Override
+    public void onAuthenticationError(int errorCode, CharSequence errorMsg) {
+        mFuture.fail(new FingerPrintAuthenticationException(errorCode,
+                errorMsg == null ? null : errorMsg.toString()));
+    }
+
+    static final class Single extends
+            FingerPrintFutureCallback<FingerPrintResult<String>>
+            implements FingerPrintAuthenticationCallback {
+        @Override
+        public void onAuthenticationSucceeded(String result, int properties,
+                String IV) {
+            mFuture.complete(new FingerPrintResult<>(result, properties, "",
+                    IV));
+        }
+    }
+
+    static final class Batch extends
+            FingerPrintFutureCallback<FingerPrintResult<List<String>>>
+            implements FingerPrintBatchCallback {
+        @Override
+        public void onAuthenticationSucceeded(List<String> results,
+                int properties, String wrappedKey, String IV) {
+            mFuture.complete(new FingerPrintResult<>(results, properties,
+                    wrappedKey, IV));
+        }
+    }
+
+    static final class Envelope extends
+            FingerPrintFutureCallback<FingerPrintResult<FingerPrintDataCipher>>
+            implements FingerPrintEnvelopeCallback {
+        @Override
+        public void onAuthenticationSucceeded(
+                FingerPrintDataCipher dataCipher, int properties,
+                String wrappedKey, String IV) {
+            mFuture.complete(new FingerPrintResult<>(dataCipher, properties,
+                    wrappedKey, IV));
+        }
+    }
+
+    static final class Challenge extends FingerPrintFutureCallback<byte[]>
+            implements FingerPrintSignatureCallback {
+        @Override
+        public void onAuthenticationSucceeded(byte[] challenge,
+                byte[] signature) {
+            mFuture.complete(signature);
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.vigorous.fingerprintchecker.fingerprint;
+
+/**
+ * Notified when FingerprintHelper finished initializing in the background.
+ */
+public interface FingerPrintInitListener {
+    /**
+     * Called on the main thread once the helper finished loading the keystore
+     * and checking the fingerprint environment.
+     *
+     * @param helper the initialized FingerprintHelper
+     */
+    void onInitialized(FingerprintHelper helper);
+}
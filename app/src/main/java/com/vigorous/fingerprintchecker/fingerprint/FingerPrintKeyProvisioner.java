@@ -0,0 +1,525 @@
+package com.vigorous.fingerprintchecker.fingerprint;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Process;
+import android.util.Log;
+import com.vigorous.fingerprintchecker.metrics.FingerPrintMetricsListener;
+import com.vigorous.fingerprintchecker.platform.FingerPrintKeyStore;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Generates fingerprint-gated keys in the background, so that enrolling a
+ * card does not wait for secure hardware.
+ * <p>
+ * A small pool of ready keys is kept, and keys can be reserved for known
+ * card ids ahead of time. {@link #acquire(String)} assigns one of them to a
+ * key name on the background thread, and only generates a key if none is
+ * ready; the caller never waits for secure hardware or the disk. Assignments
+ * are persisted and restored into FingerPrintAndroidKeyStore.setAlias. Every
+ * key lives under a generated alias in
+ * FingerPrintAndroidKeyStore.ALIAS_NAMESPACE, so an alias is never reused by
+ * a later key of the same card.
+ * <p>
+ * The time each card last used its key is kept, and the number of cards with
+ * a key is capped: {@link #collectGarbage(Collection)} deletes the keys of
+ * removed cards and of the least recently used cards above the cap, and any
+ * key of this library that is no longer referenced.
+ */
+public class FingerPrintKeyProvisioner {
+    private static final String TAG = FingerPrintKeyProvisioner.class.getName();
+    private static final String SP_NAME = "finger_keys";
+    // 偏好中的键：pool_<alias>为待分配的密钥，alias_<keyName>为已分配的alias，
+    // reserved_<keyName>为提前为卡片生成、尚未用于录入的密钥，
+    // used_<keyName>为该卡片最近一次使用密钥的时间
+    private static final String PREFIX_POOL = "pool_";
+    private static final String PREFIX_ALIAS = "alias_";
+    private static final String PREFIX_RESERVED = "reserved_";
+    private static final String PREFIX_USED = "used_";
+    private static final String ALIAS_PREFIX = FingerPrintAndroidKeyStore.ALIAS_NAMESPACE
+            + "key_";
+    // 最近使用时间的精度，避免每次认证都写偏好
+    private static final long LAST_USED_RESOLUTION = TimeUnit.HOURS
+            .toMillis(1);
+    private static final Comparator<Map.Entry<String, Long>> LEAST_RECENTLY_USED = new Comparator<Map.Entry<String, Long>>() {
+        @Override
+        public int compare(Map.Entry<String, Long> a,
+                Map.Entry<String, Long> b) {
+            return a.getValue().compareTo(b.getValue());
+        }
+    };
+
+    public static final int DEFAULT_POOL_SIZE = 2;
+    public static final int DEFAULT_MAX_KEYS = 100;
+
+    private final FingerPrintAndroidKeyStore mKeyStore;
+    private final SharedPreferences mPreferences;
+    private final int mPoolSize;
+    private final ExecutorService mExecutor;
+    private final AtomicBoolean mRefillScheduled = new AtomicBoolean(false);
+    private volatile int mMaxKeys = DEFAULT_MAX_KEYS;
+    private volatile FingerPrintMetricsListener mMetrics = FingerPrintMetricsListener.NONE;
+    private final Runnable mRefillTask = new Runnable() {
+        @Override
+        public void run() {
+            mRefillScheduled.set(false);
+            fillPool();
+        }
+    };
+
+    // 以下字段由this保护
+    private final Deque<String> mPool = new ArrayDeque<>();
+    private final Set<String> mReserved = new HashSet<>();
+    // keyName -> 最近使用时间，包含所有已分配或预留密钥的卡片
+    private final Map<String, Long> mLastUsed = new HashMap<>();
+
+    /**
+     * Restores the persisted assignments into keyStore. Call refill to start
+     * generating keys.
+     *
+     * @param context
+     * @param keyStore
+     * @param poolSize number of unassigned keys to keep ready
+     */
+    public FingerPrintKeyProvisioner(Context context,
+            FingerPrintAndroidKeyStore keyStore, int poolSize) {
+        mKeyStore = keyStore;
+        mPoolSize = poolSize;
+        mPreferences = context.getSharedPreferences(SP_NAME,
+                Context.MODE_PRIVATE);
+        mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(
+                                Process.THREAD_PRIORITY_BACKGROUND);
+                        r.run();
+                    }
+                }, "FingerPrintKeyProvisioner");
+            }
+        });
+        for (Map.Entry<String, ?> entry : mPreferences.getAll().entrySet()) {
+            final String key = entry.getKey();
+            if (key.startsWith(PREFIX_POOL)) {
+                mPool.add(key.substring(PREFIX_POOL.length()));
+            } else if (key.startsWith(PREFIX_ALIAS)) {
+                final String keyName = key.substring(PREFIX_ALIAS.length());
+                mKeyStore.setAlias(keyName, String.valueOf(entry.getValue()));
+                mLastUsed.put(keyName,
+                        mPreferences.getLong(PREFIX_USED + keyName, 0L));
+            } else if (key.startsWith(PREFIX_RESERVED)) {
+                mReserved.add(key.substring(PREFIX_RESERVED.length()));
+            }
+        }
+    }
+
+    /**
+     * Tops the pool up on the background thread.
+     */
+    public void refill() {
+        if (mRefillScheduled.compareAndSet(false, true)) {
+            mExecutor.execute(mRefillTask);
+        }
+    }
+
+    /**
+     * Generates keys on the background thread for the given card ids that do
+     * not have one yet. The next acquire of such a key name uses the reserved
+     * key.
+     *
+     * @param keyNames
+     */
+    public void provision(Collection<String> keyNames) {
+        final List<String> copy = new ArrayList<>(keyNames);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (String keyName : copy) {
+                    reserve(keyName);
+                }
+            }
+        });
+    }
+
+    /**
+     * Gives keyName a new key on the background thread, replacing its current
+     * one. Uses the key reserved for keyName or a pooled key if one is ready,
+     * and generates a key otherwise.
+     *
+     * @param keyName
+     * @return future completed with true once keyName has a usable key, false
+     *         if no key could be generated
+     */
+    public FingerPrintFuture<Boolean> acquire(final String keyName) {
+        final FingerPrintFuture<Boolean> future = new FingerPrintFuture<>();
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                future.complete(assign(keyName));
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Runs on the background thread, the only one changing the pool and the
+     * reservations, so the keystore calls are made without holding the lock.
+     */
+    private boolean assign(String keyName) {
+        final String previous;
+        final boolean reserved;
+        synchronized (this) {
+            previous = mKeyStore.getAlias(keyName);
+            reserved = mReserved.remove(keyName);
+        }
+        try {
+            if (reserved) {
+                mPreferences.edit().remove(PREFIX_RESERVED + keyName).apply();
+                if (mKeyStore.checkAlias(previous)
+                        == FingerPrintKeyStore.KEY_VALID) {
+                    return true;
+                }
+            }
+            String alias = null;
+            while (alias == null) {
+                final String candidate;
+                synchronized (this) {
+                    candidate = mPool.pollFirst();
+                }
+                if (candidate == null) {
+                    break;
+                }
+                if (mKeyStore.checkAlias(candidate)
+                        == FingerPrintKeyStore.KEY_VALID) {
+                    alias = candidate;
+                } else {
+                    // 指纹变更后预生成的密钥已永久失效
+                    mPreferences.edit().remove(PREFIX_POOL + candidate)
+                            .apply();
+                    deleteLater(candidate);
+                }
+            }
+            if (alias == null) {
+                Log.e(TAG, "acquire:pool is empty, generating " + keyName);
+                final String generated = newAlias();
+                if (!mKeyStore.generateKey(generated)) {
+                    return false;
+                }
+                alias = generated;
+            }
+            // 出池与分配在同一次编辑中原子写入，进程崩溃也不会把同一密钥分给两张卡
+            final long now = System.currentTimeMillis();
+            synchronized (this) {
+                mPreferences.edit().remove(PREFIX_POOL + alias)
+                        .putString(PREFIX_ALIAS + keyName, alias)
+                        .putLong(PREFIX_USED + keyName, now).apply();
+                mKeyStore.setAlias(keyName, alias);
+                mLastUsed.put(keyName, now);
+            }
+            if (!previous.equals(alias)) {
+                deleteLater(previous);
+            }
+            return true;
+        } finally {
+            refill();
+            checkCapacity();
+        }
+    }
+
+    /**
+     * Deletes the keys of the pool and generates new ones, e.g. after the
+     * keystore settings for new keys changed.
+     */
+    public void discardPool() {
+        final List<String> aliases;
+        synchronized (this) {
+            aliases = new ArrayList<>(mPool);
+            mPool.clear();
+            final SharedPreferences.Editor editor = mPreferences.edit();
+            for (String alias : aliases) {
+                editor.remove(PREFIX_POOL + alias);
+            }
+            editor.apply();
+        }
+        for (String alias : aliases) {
+            deleteLater(alias);
+        }
+        refill();
+    }
+
+    /**
+     * Records that keyName used its key, e.g. when an authentication starts.
+     * Cheap enough for every authentication, the time is only persisted
+     * when it moved by more than an hour.
+     *
+     * @param keyName
+     */
+    public void touch(String keyName) {
+        final long now = System.currentTimeMillis();
+        synchronized (this) {
+            final Long last = mLastUsed.get(keyName);
+            if (last == null || now - last < LAST_USED_RESOLUTION) {
+                return;
+            }
+            mLastUsed.put(keyName, now);
+        }
+        mPreferences.edit().putLong(PREFIX_USED + keyName, now).apply();
+    }
+
+    /**
+     * @param maxKeys maximum number of cards with a key; the keys of the
+     *            least recently used cards above it are deleted in the
+     *            background and those cards have to be enrolled again
+     */
+    public void setMaxKeys(int maxKeys) {
+        if (maxKeys <= 0) {
+            throw new IllegalArgumentException("maxKeys must be positive");
+        }
+        mMaxKeys = maxKeys;
+        checkCapacity();
+    }
+
+    /**
+     * @param listener receives the key count and the garbage collection
+     *            timings
+     */
+    public void setMetricsListener(FingerPrintMetricsListener listener) {
+        mMetrics = listener == null ? FingerPrintMetricsListener.NONE
+                : listener;
+    }
+
+    /**
+     * Deletes stale keys on the background thread: the keys of cards not in
+     * liveKeyNames, of the least recently used cards above the cap, and
+     * every key of this library that is neither assigned nor pooled, e.g.
+     * left behind by a crash, or the probe key of older versions. Keys that
+     * older versions stored under the card id are only deleted with their
+     * card, they can not be told apart from the other keys of the app.
+     *
+     * @param liveKeyNames the cards that still exist, or null to keep every
+     *            card below the cap
+     */
+    public void collectGarbage(Collection<String> liveKeyNames) {
+        final Set<String> live = liveKeyNames == null ? null
+                : new HashSet<>(liveKeyNames);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                runGarbageCollection(live);
+            }
+        });
+    }
+
+    /**
+     * Deletes the keys of keyNames, e.g. after they were invalidated by a new
+     * enrollment. Provision or acquire them again to enroll the cards.
+     *
+     * @param keyNames
+     */
+    public void release(Collection<String> keyNames) {
+        for (String alias : detach(keyNames)) {
+            deleteLater(alias);
+        }
+    }
+
+    /**
+     * @return the card ids that have a key assigned or reserved by this
+     *         provisioner
+     */
+    public synchronized List<String> getKeyNames() {
+        return new ArrayList<>(mLastUsed.keySet());
+    }
+
+    /**
+     * @return number of keys of this library, assigned or pooled
+     */
+    public synchronized int getKeyCount() {
+        return mLastUsed.size() + mPool.size();
+    }
+
+    /**
+     * @return number of keys ready to be assigned
+     */
+    public synchronized int getPoolSize() {
+        return mPool.size();
+    }
+
+    private void fillPool() {
+        while (getPoolSize() < mPoolSize) {
+            final String alias = newAlias();
+            if (!mKeyStore.generateKey(alias)) {
+                Log.e(TAG, "fillPool:generateKey failed");
+                return;
+            }
+            synchronized (this) {
+                mPool.addLast(alias);
+                mPreferences.edit().putBoolean(PREFIX_POOL + alias, true)
+                        .apply();
+            }
+            reportKeyCount();
+        }
+    }
+
+    private void reserve(String keyName) {
+        if (hasKey(keyName)) {
+            // 已录入的卡片保留原有密钥
+            return;
+        }
+        final String alias = newAlias();
+        if (!mKeyStore.generateKey(alias)) {
+            Log.e(TAG, "reserve:generateKey failed");
+            return;
+        }
+        synchronized (this) {
+            if (hasKey(keyName)) {
+                // 生成期间该卡片已录入，密钥转入池中备用
+                mPool.addLast(alias);
+                mPreferences.edit().putBoolean(PREFIX_POOL + alias, true)
+                        .apply();
+                return;
+            }
+            final long now = System.currentTimeMillis();
+            mReserved.add(keyName);
+            mLastUsed.put(keyName, now);
+            mPreferences.edit().putString(PREFIX_ALIAS + keyName, alias)
+                    .putBoolean(PREFIX_RESERVED + keyName, true)
+                    .putLong(PREFIX_USED + keyName, now).apply();
+            mKeyStore.setAlias(keyName, alias);
+        }
+        checkCapacity();
+    }
+
+    /**
+     * Forgets the keys of keyNames.
+     *
+     * @return the aliases that held them
+     */
+    private synchronized List<String> detach(Collection<String> keyNames) {
+        final List<String> aliases = new ArrayList<>(keyNames.size());
+        final SharedPreferences.Editor editor = mPreferences.edit();
+        for (String keyName : keyNames) {
+            aliases.add(mKeyStore.getAlias(keyName));
+            editor.remove(PREFIX_ALIAS + keyName)
+                    .remove(PREFIX_RESERVED + keyName)
+                    .remove(PREFIX_USED + keyName);
+            mKeyStore.setAlias(keyName, null);
+            mReserved.remove(keyName);
+            mLastUsed.remove(keyName);
+        }
+        editor.apply();
+        return aliases;
+    }
+
+    private void checkCapacity() {
+        final boolean full;
+        synchronized (this) {
+            full = mLastUsed.size() > mMaxKeys;
+        }
+        if (full) {
+            collectGarbage(null);
+        }
+    }
+
+    private void runGarbageCollection(Set<String> live) {
+        final long start = System.nanoTime();
+        final List<String> evicted = new ArrayList<>();
+        synchronized (this) {
+            final List<Map.Entry<String, Long>> kept = new ArrayList<>();
+            for (Map.Entry<String, Long> entry : mLastUsed.entrySet()) {
+                if (live != null && !live.contains(entry.getKey())) {
+                    evicted.add(entry.getKey());
+                } else {
+                    kept.add(entry);
+                }
+            }
+            if (kept.size() > mMaxKeys) {
+                // 超出上限时淘汰最久未使用的卡片
+                Collections.sort(kept, LEAST_RECENTLY_USED);
+                for (int i = 0; i < kept.size() - mMaxKeys; i++) {
+                    evicted.add(kept.get(i).getKey());
+                }
+            }
+        }
+        int deleted = 0;
+        for (String alias : detach(evicted)) {
+            if (deleteKey(alias)) {
+                deleted++;
+            }
+        }
+        // 先枚举再取引用快照：枚举到的密钥若正被分配，分配已在锁内完成
+        final List<String> aliases = mKeyStore.getAliases("");
+        final Set<String> owned;
+        synchronized (this) {
+            owned = new HashSet<>(mPool);
+            for (String keyName : mLastUsed.keySet()) {
+                owned.add(mKeyStore.getAlias(keyName));
+            }
+        }
+        for (String alias : aliases) {
+            if (isLibraryAlias(alias) && !owned.contains(alias)
+                    && deleteKey(alias)) {
+                deleted++;
+            }
+        }
+        Log.d(TAG, "collectGarbage:deleted " + deleted + " of "
+                + aliases.size());
+        mMetrics.onStage(FingerPrintMetricsListener.STAGE_KEY_CLEANUP,
+                System.nanoTime() - start);
+        reportKeyCount();
+    }
+
+    private static boolean isLibraryAlias(String alias) {
+        return alias.startsWith(ALIAS_PREFIX)
+                || alias.equals(FingerPrintAndroidKeyStore.LEGACY_PROBE_ALIAS);
+    }
+
+    private boolean deleteKey(String alias) {
+        if (mKeyStore.containsAlias(alias) && mKeyStore.deleteAlias(alias)) {
+            mMetrics.onEvent(FingerPrintMetricsListener.EVENT_KEY_DELETED);
+            return true;
+        }
+        return false;
+    }
+
+    private void reportKeyCount() {
+        mMetrics.onGauge(FingerPrintMetricsListener.GAUGE_KEY_COUNT,
+                getKeyCount());
+    }
+
+    private synchronized boolean hasKey(String keyName) {
+        return mReserved.contains(keyName)
+                || mKeyStore.containsAlias(mKeyStore.getAlias(keyName));
+    }
+
+    private void deleteLater(final String alias) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                deleteKey(alias);
+                reportKeyCount();
+            }
+        });
+    }
+
+    private static String newAlias() {
+        return ALIAS_PREFIX + UUID.randomUUID().toString();
+    }
+}
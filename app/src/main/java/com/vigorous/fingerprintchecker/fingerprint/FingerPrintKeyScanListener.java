@@ -0,0 +1,24 @@
+package com.vigorous.fingerprintchecker.fingerprint;
+
+import java.util.List;
+
+/**
+ * Receives the result of FingerprintHelper.scanInvalidatedKeys.
+ */
+public interface FingerPrintKeyScanListener {
+    /**
+     * Called on the main thread once every key has been checked.
+     *
+     * @param helper
+     * @param invalidatedKeyNames the cards whose key was invalidated by a new
+     *            enrollment, empty if there are none. Their tokens can not be
+     *            decrypted anymore; pass them to
+     *            FingerprintHelper.reprovisionKeys before enrolling them
+     *            again.
+     * @param missingKeyNames the cards whose key does not exist anymore,
+     *            empty if there are none. They are enrolled again the same
+     *            way.
+     */
+    void onScanFinished(FingerprintHelper helper,
+            List<String> invalidatedKeyNames, List<String> missingKeyNames);
+}
@@ -0,0 +1,132 @@
+package com.vigorous.fingerprintchecker.fingerprint;
+
+import com.vigorous.fingerprintchecker.platform.FingerPrintKeyStore;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Finds the keys invalidated by a change of the enrolled fingerprints without
+ * prompting the user, so they can be deleted and provisioned again in one go
+ * instead of failing one authenticate at a time.
+ * <p>
+ * Every key is probed with FingerPrintKeyStore.checkKey. The key names are
+ * split into chunks that are probed in parallel on the executor, which hides
+ * the round-trip to the keystore daemon of each probe. A key the keystore
+ * could not be queried for is reported by neither list and checked again by
+ * the next scan.
+ */
+public class FingerPrintKeyScanner {
+    public static final int DEFAULT_CHUNK_SIZE = 32;
+
+    /**
+     * The keys found by one scan, in the order of the scanned key names.
+     */
+    public static final class Result {
+        private final List<String> mInvalidated = new ArrayList<>();
+        private final List<String> mMissing = new ArrayList<>();
+
+        /**
+         * @return the key names whose key was permanently invalidated by a
+         *         change of the enrolled fingerprints
+         */
+        public List<String> getInvalidated() {
+            return mInvalidated;
+        }
+
+        /**
+         * @return the key names whose key does not exist, e.g. because it
+         *         was deleted outside of this library
+         */
+        public List<String> getMissing() {
+            return mMissing;
+        }
+
+        void addAll(Result other) {
+            mInvalidated.addAll(other.mInvalidated);
+            mMissing.addAll(other.mMissing);
+        }
+    }
+
+    private final FingerPrintKeyStore mKeyStore;
+    private final ExecutorService mExecutor;
+    private final int mChunkSize;
+
+    /**
+     * @param keyStore
+     * @param executor runs the chunks, its parallelism bounds the number of
+     *            concurrent probes
+     * @param chunkSize number of keys probed by one task
+     */
+    public FingerPrintKeyScanner(FingerPrintKeyStore keyStore,
+            ExecutorService executor, int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize must be positive");
+        }
+        mKeyStore = keyStore;
+        mExecutor = executor;
+        mChunkSize = chunkSize;
+    }
+
+    /**
+     * Probes the keys of keyNames and blocks until all of them are checked.
+     * The cached state of every invalid key is dropped from the keystore.
+     *
+     * @param keyNames
+     * @return
+     * @throws InterruptedException
+     */
+    public Result scan(Collection<String> keyNames)
+            throws InterruptedException {
+        final List<String> names = new ArrayList<>(keyNames);
+        if (names.size() <= mChunkSize) {
+            // 一个分片无需切换线程
+            return scanChunk(names);
+        }
+        final List<Callable<Result>> chunks = new ArrayList<>(
+                (names.size() + mChunkSize - 1) / mChunkSize);
+        for (int from = 0; from < names.size(); from += mChunkSize) {
+            final List<String> chunk = names.subList(from,
+                    Math.min(from + mChunkSize, names.size()));
+            chunks.add(new Callable<Result>() {
+                @Override
+                public Result call() {
+                    return scanChunk(chunk);
+                }
+            });
+        }
+        final Result result = new Result();
+        for (Future<Result> future : mExecutor.invokeAll(chunks)) {
+            try {
+                result.addAll(future.get());
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        return result;
+    }
+
+    private Result scanChunk(List<String> keyNames) {
+        final Result result = new Result();
+        for (String keyName : keyNames) {
+            switch (mKeyStore.checkKey(keyName)) {
+            case FingerPrintKeyStore.KEY_INVALIDATED:
+                mKeyStore.invalidate(keyName);
+                result.mInvalidated.add(keyName);
+                break;
+            case FingerPrintKeyStore.KEY_MISSING:
+                mKeyStore.invalidate(keyName);
+                result.mMissing.add(keyName);
+                break;
+            default:
+                // 查询失败的密钥留待下次扫描，不当作失效处理
+                break;
+            }
+        }
+        return result;
+    }
+}
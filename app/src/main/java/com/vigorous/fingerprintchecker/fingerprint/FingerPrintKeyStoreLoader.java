@@ -0,0 +1,96 @@
+package com.vigorous.fingerprintchecker.fingerprint;
+
+import com.vigorous.fingerprintchecker.metrics.FingerPrintMetricsListener;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A KeyStore loaded once per process, and loaded again only when an error
+ * says its state is stale. Safe under concurrent callers.
+ * <p>
+ * Every load and every call into the keystore daemon is counted, so tests
+ * can check that steady-state authentication never reloads.
+ */
+final class FingerPrintKeyStoreLoader {
+    private final KeyStore mStore;
+    // keystore在进程内只加载一次，仅在出错表明状态失效时重新加载
+    private volatile boolean mLoaded;
+    private final AtomicLong mLoadCount = new AtomicLong();
+    private final AtomicLong mCallCount = new AtomicLong();
+    private volatile FingerPrintMetricsListener mMetrics = FingerPrintMetricsListener.NONE;
+
+    /**
+     * @param store not loaded yet
+     */
+    FingerPrintKeyStoreLoader(KeyStore store) {
+        mStore = store;
+    }
+
+    void setMetricsListener(FingerPrintMetricsListener listener) {
+        mMetrics = listener == null ? FingerPrintMetricsListener.NONE
+                : listener;
+    }
+
+    /**
+     * Loads the store on first use and counts one call into it.
+     *
+     * @return the loaded store
+     */
+    KeyStore open() throws GeneralSecurityException, IOException {
+        ensureLoaded();
+        mCallCount.incrementAndGet();
+        return mStore;
+    }
+
+    /**
+     * Loads the store on first use, without counting a call.
+     */
+    void ensureLoaded() throws GeneralSecurityException, IOException {
+        if (mLoaded) {
+            return;
+        }
+        synchronized (this) {
+            if (!mLoaded) {
+                reload();
+            }
+        }
+    }
+
+    /**
+     * Counts a call into the keystore that does not go through the KeyStore
+     * object, e.g. a key generation or a cipher init.
+     */
+    void countCall() {
+        mCallCount.incrementAndGet();
+    }
+
+    /**
+     * Loads the store again, e.g. after an error says its state is stale.
+     */
+    synchronized void reload() throws GeneralSecurityException, IOException {
+        mLoaded = false;
+        final long start = System.nanoTime();
+        mLoadCount.incrementAndGet();
+        mStore.load(null);
+        mMetrics.onStage(FingerPrintMetricsListener.STAGE_KEYSTORE_LOAD,
+                System.nanoTime() - start);
+        mLoaded = true;
+    }
+
+    /**
+     * @return number of loads since construction
+     */
+    long getLoadCount() {
+        return mLoadCount.get();
+    }
+
+    /**
+     * @return number of calls into the keystore since construction, loads
+     *         not included
+     */
+    long getCallCount() {
+        return mCallCount.get();
+    }
+}
@@ -0,0 +1,135 @@
+package com.vigorous.fingerprintchecker.fingerprint;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+/**
+ * InputStream opening a stream sealed by FingerPrintDataCipher one segment
+ * at a time. Plaintext is only returned once the tag of its segment has been
+ * verified. A modified, reordered or truncated stream makes read throw an
+ * IOException caused by a GeneralSecurityException; everything read before
+ * must then be discarded.
+ */
+final class FingerPrintOpeningInputStream extends InputStream {
+    private final FingerPrintDataCipher mDataCipher;
+    private final InputStream mIn;
+    private final byte[] mPrefix = new byte[FingerPrintDataCipher.STREAM_PREFIX_SIZE];
+    private final byte[] mSegment = new byte[FingerPrintDataCipher.SEGMENT_HEADER_SIZE
+            + FingerPrintDataCipher.SEGMENT_SIZE
+            + FingerPrintDataCipher.TAG_SIZE];
+    private final byte[] mPlain = new byte[FingerPrintDataCipher.SEGMENT_SIZE];
+    private int mPosition;
+    private int mLimit;
+    private int mIndex;
+    private boolean mLast;
+    private boolean mClosed;
+
+    FingerPrintOpeningInputStream(FingerPrintDataCipher dataCipher,
+            InputStream in) {
+        mDataCipher = dataCipher;
+        mIn = in;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return mPlain[mPosition++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || off + len > b.length || off + len < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        final int count = Math.min(len, mLimit - mPosition);
+        System.arraycopy(mPlain, mPosition, b, off, count);
+        mPosition += count;
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        // 跳过的数据同样需要校验
+        long skipped = 0;
+        while (skipped < n && fill()) {
+            final int count = (int) Math.min(n - skipped, mLimit - mPosition);
+            mPosition += count;
+            skipped += count;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return mLimit - mPosition;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        mPosition = mLimit = 0;
+        Arrays.fill(mPlain, (byte) 0);
+        mIn.close();
+    }
+
+    /**
+     * @return false at the end of the last segment
+     */
+    private boolean fill() throws IOException {
+        if (mClosed) {
+            throw new IOException("Stream closed");
+        }
+        while (mPosition == mLimit) {
+            if (mLast) {
+                return false;
+            }
+            try {
+                readSegment();
+            } catch (GeneralSecurityException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+        }
+        return true;
+    }
+
+    private void readSegment() throws IOException, GeneralSecurityException {
+        if (mIndex == 0 && FingerPrintDataCipher.readFully(mIn, mPrefix,
+                mPrefix.length) != mPrefix.length) {
+            throw new GeneralSecurityException("Truncated stream");
+        }
+        final int headerSize = FingerPrintDataCipher.SEGMENT_HEADER_SIZE;
+        if (FingerPrintDataCipher.readFully(mIn, mSegment,
+                headerSize) != headerSize) {
+            throw new GeneralSecurityException("Truncated stream");
+        }
+        final int bodyLength = FingerPrintDataCipher.segmentLength(mSegment)
+                + FingerPrintDataCipher.TAG_SIZE;
+        if (FingerPrintDataCipher.readFully(mIn, mSegment, headerSize,
+                bodyLength) != bodyLength) {
+            throw new GeneralSecurityException("Truncated stream");
+        }
+        mLimit = mDataCipher.openSegment(mPrefix, mIndex, mSegment,
+                headerSize + bodyLength, mPlain);
+        mPosition = 0;
+        mIndex++;
+        if (FingerPrintDataCipher.isLastSegment(mSegment)) {
+            if (mIn.read() != -1) {
+                throw new GeneralSecurityException("Data after last segment");
+            }
+            mLast = true;
+        }
+    }
+}
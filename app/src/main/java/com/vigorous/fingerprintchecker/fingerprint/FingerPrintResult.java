@@ -0,0 +1,48 @@
+package com.vigorous.fingerprintchecker.fingerprint;
+
+/**
+ * Typed result of a FingerPrintFuture, the arguments of the corresponding
+ * onAuthenticationSucceeded.
+ *
+ * @param <T> the marker or encrypted token, the list of tokens of a batch, or
+ *            the FingerPrintDataCipher of an envelope
+ */
+public final class FingerPrintResult<T> {
+    private final T mValue;
+    private final int mPurpose;
+    private final String mWrappedKey;
+    private final String mIV;
+
+    FingerPrintResult(T value, int purpose, String wrappedKey, String IV) {
+        mValue = value;
+        mPurpose = purpose;
+        mWrappedKey = wrappedKey;
+        mIV = IV;
+    }
+
+    public T getValue() {
+        return mValue;
+    }
+
+    /**
+     * @return FingerprintHelper.APPLY or FingerprintHelper.VERIFY
+     */
+    public int getPurpose() {
+        return mPurpose;
+    }
+
+    /**
+     * @return the wrapped data key to store after APPLY in batch and envelope
+     *         mode, empty otherwise
+     */
+    public String getWrappedKey() {
+        return mWrappedKey;
+    }
+
+    /**
+     * @return the IV to store after APPLY, empty after VERIFY
+     */
+    public String getIV() {
+        return mIV;
+    }
+}
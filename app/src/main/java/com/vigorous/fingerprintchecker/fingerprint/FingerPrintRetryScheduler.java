@@ -0,0 +1,210 @@
+package com.vigorous.fingerprintchecker.fingerprint;
+
+import com.vigorous.fingerprintchecker.platform.FingerPrintSensor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers why the last sensor sessions ended, so FingerPrintAuthenticator
+ * does not start sessions the platform is known to reject: during a lockout,
+ * and for a growing backoff after transient errors. Such authentications end
+ * at once with onAuthenticationOverLimit, without initializing a cipher or
+ * calling the sensor.
+ * <p>
+ * Deadlines are System.nanoTime() values. It does not advance while the
+ * device sleeps, so after a suspend a temporary lockout can be reported
+ * longer than the platform keeps it.
+ */
+public class FingerPrintRetryScheduler {
+    /** The session was cancelled or timed out, nothing to back off from */
+    public static final int CLASS_CANCELED = 0;
+    /** A transient error, retried after the backoff */
+    public static final int CLASS_TRANSIENT = 1;
+    /** Too many failed touches, the sensor is disabled for a while */
+    public static final int CLASS_LOCKOUT = 2;
+    /** The sensor stays disabled until the user unlocks the device */
+    public static final int CLASS_LOCKOUT_PERMANENT = 3;
+
+    /** How long the platform disables the sensor after a lockout */
+    public static final long DEFAULT_LOCKOUT_MILLIS = 30 * 1000;
+    public static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 500;
+    public static final long DEFAULT_MAX_BACKOFF_MILLIS = 30 * 1000;
+
+    private long mLockoutNanos = TimeUnit.MILLISECONDS
+            .toNanos(DEFAULT_LOCKOUT_MILLIS);
+    private long mInitialBackoffNanos = TimeUnit.MILLISECONDS
+            .toNanos(DEFAULT_INITIAL_BACKOFF_MILLIS);
+    private long mMaxBackoffNanos = TimeUnit.MILLISECONDS
+            .toNanos(DEFAULT_MAX_BACKOFF_MILLIS);
+    // System.nanoTime()截止时间，仅在mBlocked时有效
+    private long mBlockedUntil;
+    private boolean mBlocked;
+    // CLASS_LOCKOUT或CLASS_TRANSIENT，mBlocked的原因
+    private int mBlockClass;
+    private boolean mPermanentLockout;
+    private int mTransientErrors;
+    private int mLastErrorCode;
+    private CharSequence mLastError;
+
+    /**
+     * @param errorCode one of the FingerPrintSensor.ERROR_ constants
+     * @return one of the CLASS_ constants, unknown codes are treated as
+     *         cancellations and never block a session
+     */
+    public static int classify(int errorCode) {
+        switch (errorCode) {
+        case FingerPrintSensor.ERROR_HW_UNAVAILABLE:
+        case FingerPrintSensor.ERROR_UNABLE_TO_PROCESS:
+        case FingerPrintSensor.ERROR_NO_SPACE:
+        case FingerPrintSensor.ERROR_VENDOR:
+            return CLASS_TRANSIENT;
+        case FingerPrintSensor.ERROR_LOCKOUT:
+            return CLASS_LOCKOUT;
+        case FingerPrintSensor.ERROR_LOCKOUT_PERMANENT:
+            return CLASS_LOCKOUT_PERMANENT;
+        default:
+            // 包括ERROR_CANCELED、ERROR_TIMEOUT与ERROR_USER_CANCELED
+            return CLASS_CANCELED;
+        }
+    }
+
+    /**
+     * @param lockout assumed duration of a temporary lockout
+     * @param unit
+     */
+    public synchronized void setLockoutDuration(long lockout, TimeUnit unit) {
+        mLockoutNanos = Math.max(0, unit.toNanos(lockout));
+    }
+
+    /**
+     * Backoff after transient errors: initial after the first one, doubled
+     * with every further one up to max. 0 disables it.
+     *
+     * @param initial
+     * @param max
+     * @param unit
+     */
+    public synchronized void setBackoff(long initial, long max,
+            TimeUnit unit) {
+        mInitialBackoffNanos = Math.max(0, unit.toNanos(initial));
+        mMaxBackoffNanos = Math.max(mInitialBackoffNanos, unit.toNanos(max));
+    }
+
+    /**
+     * @param unit
+     * @return time until the sensor may be used again, 0 if it may be used
+     *         now, Long.MAX_VALUE during a permanent lockout
+     */
+    public synchronized long getRetryDelay(TimeUnit unit) {
+        if (mPermanentLockout) {
+            return Long.MAX_VALUE;
+        }
+        if (!mBlocked) {
+            return 0;
+        }
+        final long remaining = mBlockedUntil - System.nanoTime();
+        if (remaining <= 0) {
+            mBlocked = false;
+            return 0;
+        }
+        return unit.convert(remaining, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return true during a temporary or permanent lockout
+     */
+    public synchronized boolean isLockedOut() {
+        return mPermanentLockout || mBlockClass == CLASS_LOCKOUT
+                && getRetryDelay(TimeUnit.NANOSECONDS) > 0;
+    }
+
+    public synchronized boolean isPermanentlyLockedOut() {
+        return mPermanentLockout;
+    }
+
+    /**
+     * Forgets a permanent lockout, e.g. when the app is resumed, since the
+     * user may have unlocked the device with the PIN or password in between.
+     * The next session asks the platform again.
+     */
+    public synchronized void clearPermanentLockout() {
+        mPermanentLockout = false;
+    }
+
+    /**
+     * Forgets every lockout and backoff.
+     */
+    public synchronized void reset() {
+        mPermanentLockout = false;
+        mBlocked = false;
+        mTransientErrors = 0;
+        mLastError = null;
+    }
+
+    /**
+     * @return the platform message of the error blocking new sessions, null
+     *         if sessions may be started now
+     */
+    synchronized CharSequence checkAllowed() {
+        return getRetryDelay(TimeUnit.NANOSECONDS) > 0 ? mLastError : null;
+    }
+
+    /**
+     * @return the sensor error of the message returned by checkAllowed
+     */
+    synchronized int getLastErrorCode() {
+        return mLastErrorCode;
+    }
+
+    /**
+     * A session ended with a recognized finger, the sensor works.
+     */
+    synchronized void onSucceeded() {
+        reset();
+    }
+
+    /**
+     * A session ended with an error.
+     *
+     * @param errorCode
+     * @param errString
+     */
+    synchronized void onError(int errorCode, CharSequence errString) {
+        final long now = System.nanoTime();
+        switch (classify(errorCode)) {
+        case CLASS_CANCELED:
+            return;
+        case CLASS_LOCKOUT:
+            mTransientErrors = 0;
+            block(now, mLockoutNanos, CLASS_LOCKOUT);
+            break;
+        case CLASS_LOCKOUT_PERMANENT:
+            mTransientErrors = 0;
+            mBlocked = false;
+            mPermanentLockout = true;
+            break;
+        default:
+            // 退避时长随连续错误次数指数增长
+            long backoff = mInitialBackoffNanos;
+            for (int i = 0; i < mTransientErrors
+                    && backoff < mMaxBackoffNanos; i++) {
+                backoff = backoff > mMaxBackoffNanos / 2 ? mMaxBackoffNanos
+                        : backoff << 1;
+            }
+            mTransientErrors++;
+            block(now, Math.min(backoff, mMaxBackoffNanos), CLASS_TRANSIENT);
+            break;
+        }
+        mLastErrorCode = errorCode;
+        mLastError = errString == null ? "Error " + errorCode : errString;
+    }
+
+    private void block(long now, long durationNanos, int blockClass) {
+        if (durationNanos <= 0) {
+            mBlocked = false;
+            return;
+        }
+        mBlocked = true;
+        mBlockClass = blockClass;
+        mBlockedUntil = now + durationNanos;
+    }
+}
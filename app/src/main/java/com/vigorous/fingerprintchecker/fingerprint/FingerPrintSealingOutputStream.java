@@ -0,0 +1,108 @@
+package com.vigorous.fingerprintchecker.fingerprint;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+/**
+ * OutputStream sealing what is written to it into the stream format of
+ * {@link FingerPrintDataCipher#seal(java.io.InputStream, OutputStream)}.
+ * At most one segment of plaintext is buffered. A full segment is only
+ * sealed once more data is written, since the last segment is marked, so
+ * the stream must be closed to complete it.
+ */
+final class FingerPrintSealingOutputStream extends OutputStream {
+    private final FingerPrintDataCipher mDataCipher;
+    private final OutputStream mOut;
+    private final byte[] mPrefix = FingerPrintDataCipher.newStreamPrefix();
+    private final byte[] mPlain = new byte[FingerPrintDataCipher.SEGMENT_SIZE];
+    private final byte[] mSegment = new byte[FingerPrintDataCipher.SEGMENT_HEADER_SIZE
+            + FingerPrintDataCipher.SEGMENT_SIZE
+            + FingerPrintDataCipher.TAG_SIZE];
+    private int mLength;
+    private int mIndex;
+    private boolean mClosed;
+
+    FingerPrintSealingOutputStream(FingerPrintDataCipher dataCipher,
+            OutputStream out) {
+        mDataCipher = dataCipher;
+        mOut = out;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if (mLength == mPlain.length) {
+            writeSegment(false);
+        }
+        mPlain[mLength++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (off < 0 || len < 0 || off + len > b.length || off + len < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+        while (len > 0) {
+            if (mLength == mPlain.length) {
+                writeSegment(false);
+            }
+            final int count = Math.min(len, mPlain.length - mLength);
+            System.arraycopy(b, off, mPlain, mLength, count);
+            mLength += count;
+            off += count;
+            len -= count;
+        }
+    }
+
+    /**
+     * Flushes the segments sealed so far. Buffered plaintext is only sealed
+     * once its segment is full or the stream is closed.
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        mOut.flush();
+    }
+
+    /**
+     * Seals the last segment and closes the underlying stream.
+     */
+    @Override
+    public void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        try {
+            writeSegment(true);
+            mOut.flush();
+        } finally {
+            Arrays.fill(mPlain, (byte) 0);
+            mOut.close();
+        }
+    }
+
+    private void writeSegment(boolean last) throws IOException {
+        if (mIndex == 0) {
+            mOut.write(mPrefix);
+        }
+        try {
+            final int length = mDataCipher.sealSegment(mPrefix, mIndex, last,
+                    mPlain, mLength, mSegment);
+            mOut.write(mSegment, 0, length);
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        mIndex++;
+        mLength = 0;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (mClosed) {
+            throw new IOException("Stream closed");
+        }
+    }
+}
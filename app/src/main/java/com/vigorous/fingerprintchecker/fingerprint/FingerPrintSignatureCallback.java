@@ -0,0 +1,13 @@
+package com.vigorous.fingerprintchecker.fingerprint;
+
+/**
+ * Result of FingerprintHelper.authenticateChallenge.
+ */
+public interface FingerPrintSignatureCallback extends FingerPrintFailureCallback {
+    /**
+     * @param challenge the challenge passed to authenticateChallenge
+     * @param signature DER encoded SHA256withECDSA signature of challenge,
+     *            to be sent to the server together with it
+     */
+    void onAuthenticationSucceeded(byte[] challenge, byte[] signature);
+}
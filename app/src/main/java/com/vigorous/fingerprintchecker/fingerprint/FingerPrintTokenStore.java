@@ -0,0 +1,542 @@
+package com.vigorous.fingerprintchecker.fingerprint;
+
+import com.vigorous.fingerprintchecker.platform.FingerPrintLogger;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+/**
+ * Stores the token and IV returned by an APPLY authentication per key name.
+ * <p>
+ * Entries are held in memory for O(1) lookup and persisted to an append-only
+ * log. Writes return immediately; a single writer thread appends every
+ * pending record with one write and one fsync (group commit) and rewrites the
+ * log once it is mostly made of overwritten records. A torn record at the end
+ * of the log, e.g. after a crash, is dropped on load, and a damaged record
+ * in the middle is skipped without losing the records after it.
+ * <p>
+ * If a write fails, the entries stay in memory and the whole log is
+ * rewritten from them on the next attempt, retried with a growing delay.
+ */
+public class FingerPrintTokenStore {
+    private static final String TAG = FingerPrintTokenStore.class.getName();
+
+    private static final byte OP_PUT = 1;
+    private static final byte OP_REMOVE = 2;
+    // 日志记录数超过该值且超过存活条目数两倍时压缩
+    private static final int COMPACT_MIN_RECORDS = 1024;
+    // op加上三个writeUTF字符串，超过该长度的记录必然已损坏
+    private static final int MAX_RECORD_LENGTH = 1 + 3 * (2 + 0xFFFF);
+    private static final long RETRY_MIN_MILLIS = 1000;
+    private static final long RETRY_MAX_MILLIS = 60 * 1000;
+
+    private final File mFile;
+    private final FingerPrintLogger mLogger;
+    private final Map<String, Entry> mEntries = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<byte[]> mPending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean mFlushScheduled = new AtomicBoolean(false);
+    private final ScheduledExecutorService mWriter;
+    private final Future<?> mLoadTask;
+    // 加载完成前排入写线程的更新数，由mEntries保护。
+    // 非0时后续的更新也须排队，以保持顺序
+    private int mDeferred;
+    private final Callable<Boolean> mFlushTask = new Callable<Boolean>() {
+        @Override
+        public Boolean call() {
+            mFlushScheduled.set(false);
+            return writePending();
+        }
+    };
+
+    // 以下字段只在写线程中访问
+    private FileOutputStream mOut;
+    private int mRecordCount;
+    // 写入失败后日志可能缺少或截断了记录，需以内存中的条目整体重写
+    private boolean mRewrite;
+    private long mRetryMillis;
+
+    public static class Entry {
+        private final String mToken;
+        private final String mIV;
+
+        Entry(String token, String IV) {
+            mToken = token;
+            mIV = IV;
+        }
+
+        public String getToken() {
+            return mToken;
+        }
+
+        public String getIV() {
+            return mIV;
+        }
+    }
+
+    /**
+     * Starts loading file on a background thread, see
+     * FingerprintHelper.getTokenStore for the store of the app.
+     *
+     * @param file
+     * @param logger
+     */
+    public FingerPrintTokenStore(File file, FingerPrintLogger logger) {
+        this(file, logger, Executors
+                .newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        return new Thread(r, "FingerPrintTokenStore");
+                    }
+                }));
+    }
+
+    /**
+     * @param writer single-threaded, loads the log and writes it
+     */
+    FingerPrintTokenStore(File file, FingerPrintLogger logger,
+            ScheduledExecutorService writer) {
+        mFile = file;
+        mLogger = logger;
+        mWriter = writer;
+        mLoadTask = mWriter.submit(new Runnable() {
+            @Override
+            public void run() {
+                load();
+            }
+        });
+    }
+
+    /**
+     * @return true once the log is loaded and the updates made meanwhile
+     *         are applied, from then on no call blocks on disk
+     */
+    public boolean isLoaded() {
+        synchronized (mEntries) {
+            return mDeferred == 0 && mLoadTask.isDone();
+        }
+    }
+
+    /**
+     * Waits for the log to be loaded, check isLoaded first on the main
+     * thread.
+     *
+     * @param keyName
+     * @return the entry stored for keyName, or null
+     */
+    public Entry get(String keyName) {
+        awaitLoaded();
+        return keyName == null ? null : mEntries.get(keyName);
+    }
+
+    public boolean contains(String keyName) {
+        return get(keyName) != null;
+    }
+
+    public int size() {
+        awaitLoaded();
+        return mEntries.size();
+    }
+
+    /**
+     * Stores token and IV for keyName, written to disk asynchronously. Never
+     * blocks, so it can be called on the main thread: before the log is
+     * loaded the update is queued behind the load, and get waits for it.
+     *
+     * @param keyName
+     * @param token
+     * @param IV
+     */
+    public void put(final String keyName, final String token,
+            final String IV) {
+        if (keyName == null || token == null || IV == null) {
+            return;
+        }
+        update(new Runnable() {
+            @Override
+            public void run() {
+                mEntries.put(keyName, new Entry(token, IV));
+                enqueue(encode(OP_PUT, keyName, token, IV));
+            }
+        });
+    }
+
+    /**
+     * Same as put, never blocks.
+     *
+     * @param keyName
+     */
+    public void remove(final String keyName) {
+        if (keyName == null) {
+            return;
+        }
+        update(new Runnable() {
+            @Override
+            public void run() {
+                if (mEntries.remove(keyName) != null) {
+                    enqueue(encode(OP_REMOVE, keyName, null, null));
+                }
+            }
+        });
+    }
+
+    /**
+     * Blocks until every write issued before this call is on disk.
+     *
+     * @return false if writing failed, it is retried in the background
+     */
+    public boolean flush() {
+        try {
+            return mWriter.submit(mFlushTask).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            mLogger.e(TAG, "flush:" + e.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * Writes the pending records and stops the writer thread. The store can
+     * not be used afterwards.
+     */
+    public void close() {
+        flush();
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                closeQuietly(mOut);
+                mOut = null;
+            }
+        });
+        mWriter.shutdown();
+    }
+
+    /**
+     * Waits for the log to be loaded and for the updates queued behind it.
+     */
+    private void awaitLoaded() {
+        try {
+            mLoadTask.get();
+            synchronized (mEntries) {
+                while (mDeferred > 0) {
+                    mEntries.wait();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            mLogger.e(TAG, "awaitLoaded:" + e.getMessage());
+        }
+    }
+
+    /**
+     * Runs update at once once the log is loaded, otherwise on the writer
+     * thread after the load.
+     */
+    private void update(final Runnable update) {
+        // 内存更新与入队需保持同一顺序，否则日志回放结果会与内存不一致
+        synchronized (mEntries) {
+            if (isLoaded()) {
+                update.run();
+                return;
+            }
+            mDeferred++;
+            mWriter.execute(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (mEntries) {
+                        try {
+                            update.run();
+                        } finally {
+                            if (--mDeferred == 0) {
+                                mEntries.notifyAll();
+                            }
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    private void enqueue(byte[] record) {
+        mPending.add(record);
+        if (mFlushScheduled.compareAndSet(false, true)) {
+            mWriter.submit(mFlushTask);
+        }
+    }
+
+    private void load() {
+        byte[] log = null;
+        try {
+            log = readLog();
+        } catch (IOException e) {
+            mLogger.e(TAG, "load:" + e.getMessage());
+        }
+        int offset = 0;
+        int validLength = 0;
+        boolean damaged = false;
+        while (log != null && offset <= log.length - 8) {
+            final int length = readInt(log, offset);
+            if (length > 0 && length <= MAX_RECORD_LENGTH
+                    && length <= log.length - offset - 8
+                    && crc(log, offset + 8, length) == readInt(log, offset + 4)
+                    && apply(log, offset + 8, length)) {
+                damaged |= offset != validLength;
+                offset += 8 + length;
+                validLength = offset;
+                mRecordCount++;
+            } else {
+                // 记录已损坏，逐字节向后寻找下一条完整的记录
+                offset++;
+            }
+        }
+        if (damaged) {
+            mLogger.e(TAG, "load:skipped damaged records");
+            mRewrite = true;
+            writePending();
+            return;
+        }
+        try {
+            if (mFile.exists() && mFile.length() != validLength) {
+                // 丢弃末尾不完整的记录
+                RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+                try {
+                    file.setLength(validLength);
+                } finally {
+                    file.close();
+                }
+            }
+            mOut = new FileOutputStream(mFile, true);
+        } catch (IOException e) {
+            mLogger.e(TAG, "load:" + e.getMessage());
+            mRewrite = true;
+        }
+    }
+
+    /**
+     * @return the whole log, or null if there is none
+     */
+    private byte[] readLog() throws IOException {
+        if (!mFile.exists()) {
+            return null;
+        }
+        final RandomAccessFile file = new RandomAccessFile(mFile, "r");
+        try {
+            final long length = file.length();
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("log too large");
+            }
+            final byte[] log = new byte[(int) length];
+            file.readFully(log);
+            return log;
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * @return false if the payload is malformed
+     */
+    private boolean apply(byte[] log, int offset, int length) {
+        final DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(log, offset, length));
+        try {
+            final byte op = in.readByte();
+            final String keyName = in.readUTF();
+            if (op == OP_PUT) {
+                mEntries.put(keyName, new Entry(in.readUTF(), in.readUTF()));
+            } else if (op == OP_REMOVE) {
+                mEntries.remove(keyName);
+            } else {
+                return false;
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static byte[] encode(byte op, String keyName, String token,
+            String IV) {
+        try {
+            final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+            final DataOutputStream out = new DataOutputStream(payload);
+            out.writeByte(op);
+            out.writeUTF(keyName);
+            if (op == OP_PUT) {
+                out.writeUTF(token);
+                out.writeUTF(IV);
+            }
+            return frame(payload.toByteArray());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return length || crc32 || payload
+     */
+    private static byte[] frame(byte[] payload) {
+        final int crc = crc(payload, 0, payload.length);
+        final byte[] record = new byte[8 + payload.length];
+        writeInt(record, 0, payload.length);
+        writeInt(record, 4, crc);
+        System.arraycopy(payload, 0, record, 8, payload.length);
+        return record;
+    }
+
+    private static int crc(byte[] buffer, int offset, int length) {
+        final CRC32 crc32 = new CRC32();
+        crc32.update(buffer, offset, length);
+        return (int) crc32.getValue();
+    }
+
+    private static int readInt(byte[] buffer, int offset) {
+        return (buffer[offset] & 0xFF) << 24
+                | (buffer[offset + 1] & 0xFF) << 16
+                | (buffer[offset + 2] & 0xFF) << 8
+                | buffer[offset + 3] & 0xFF;
+    }
+
+    private static void writeInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+
+    /**
+     * @return false if writing failed and a retry is scheduled
+     */
+    private boolean writePending() {
+        if (mRewrite) {
+            // 内存中的条目已包含出队的记录，重写后无需再追加
+            mPending.clear();
+            if (!compact()) {
+                scheduleRetry();
+                return false;
+            }
+        }
+        if (mPending.isEmpty()) {
+            return true;
+        }
+        final ByteArrayOutputStream batch = new ByteArrayOutputStream();
+        int count = 0;
+        byte[] record;
+        while ((record = mPending.poll()) != null) {
+            batch.write(record, 0, record.length);
+            count++;
+        }
+        try {
+            batch.writeTo(mOut);
+            mOut.getFD().sync();
+            mRecordCount += count;
+        } catch (IOException e) {
+            mLogger.e(TAG, "writePending:" + e.getMessage());
+            // 末尾可能留下半条记录，不再追加，下次重写整个日志
+            closeQuietly(mOut);
+            mOut = null;
+            mRewrite = true;
+            scheduleRetry();
+            return false;
+        }
+        mRetryMillis = 0;
+        if (mRecordCount > COMPACT_MIN_RECORDS
+                && mRecordCount > mEntries.size() * 2) {
+            compact();
+        }
+        return true;
+    }
+
+    private void scheduleRetry() {
+        mRetryMillis = mRetryMillis == 0 ? RETRY_MIN_MILLIS
+                : Math.min(mRetryMillis * 2, RETRY_MAX_MILLIS);
+        if (mFlushScheduled.compareAndSet(false, true)) {
+            mWriter.schedule(mFlushTask, mRetryMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Rewrites the log with one record per live entry. Records queued while
+     * compacting are appended to the new log afterwards, so replaying it
+     * still ends in the current state.
+     *
+     * @return false if the log could not be rewritten or reopened
+     */
+    private boolean compact() {
+        final File tmp = new File(mFile.getPath() + ".tmp");
+        FileOutputStream out = null;
+        int count = 0;
+        boolean rewritten = false;
+        try {
+            out = new FileOutputStream(tmp);
+            final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            for (Map.Entry<String, Entry> entry : mEntries.entrySet()) {
+                final byte[] record = encode(OP_PUT, entry.getKey(),
+                        entry.getValue().getToken(),
+                        entry.getValue().getIV());
+                buffer.write(record, 0, record.length);
+                count++;
+            }
+            buffer.writeTo(out);
+            out.getFD().sync();
+            out.close();
+            out = null;
+            closeQuietly(mOut);
+            mOut = null;
+            if (!tmp.renameTo(mFile)) {
+                throw new IOException("rename failed");
+            }
+            mRecordCount = count;
+            rewritten = true;
+        } catch (IOException e) {
+            mLogger.e(TAG, "compact:" + e.getMessage());
+            tmp.delete();
+        } finally {
+            closeQuietly(out);
+        }
+        // 未重写成功且需要重写时不能向旧日志追加
+        if (!rewritten && mRewrite) {
+            return false;
+        }
+        try {
+            if (mOut == null) {
+                mOut = new FileOutputStream(mFile, true);
+            }
+        } catch (IOException e) {
+            mLogger.e(TAG, "compact:" + e.getMessage());
+            mRewrite = true;
+            return false;
+        }
+        mRewrite = false;
+        return rewritten;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+}
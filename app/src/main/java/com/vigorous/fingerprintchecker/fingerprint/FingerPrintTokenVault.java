@@ -0,0 +1,344 @@
+package com.vigorous.fingerprintchecker.fingerprint;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Memory-mapped vault of IV || token values, as produced by
+ * FingerprintHelper.authenticateBytes, keyed by key name.
+ * <p>
+ * The file is a fixed-width header followed by a hash table of fixed-size
+ * slots with linear probing, so a lookup reads the mapped pages directly
+ * without parsing anything. A slot is written and forced to disk before its
+ * state byte marks it used, and the slot it replaces is only marked deleted
+ * afterwards, so a crash leaves either the old or the new value readable.
+ * <p>
+ * Lookups are lock free and retry if a write ran concurrently, writes are
+ * serialized. A lookup ends with a compare-and-set of the unchanged sequence
+ * number: Java 7 has no load fence, and the compare-and-set keeps the reads
+ * of the mapped buffer from being reordered after the check.
+ */
+public class FingerPrintTokenVault {
+    private static final int MAGIC = 0x46505631; // "FPV1"
+    private static final int VERSION = 1;
+
+    public static final int MAX_KEY_LENGTH = 48;
+    public static final int MAX_VALUE_LENGTH = 80;
+
+    // header: magic, version, capacity, used slots
+    static final int HEADER_SIZE = 16;
+    private static final int HEADER_CAPACITY = 8;
+    private static final int HEADER_USED = 12;
+
+    // slot: state, reserved, key length, value length, reserved, hash, key
+    // chars, value bytes
+    static final int SLOT_STATE = 0;
+    private static final int SLOT_KEY_LENGTH = 2;
+    private static final int SLOT_VALUE_LENGTH = 4;
+    private static final int SLOT_HASH = 8;
+    private static final int SLOT_KEY = 12;
+    private static final int SLOT_VALUE = SLOT_KEY + MAX_KEY_LENGTH * 2;
+    static final int SLOT_SIZE = SLOT_VALUE + MAX_VALUE_LENGTH + 4;
+
+    static final byte STATE_EMPTY = 0;
+    static final byte STATE_USED = 1;
+    static final byte STATE_DELETED = 2;
+
+    private static final int MIN_CAPACITY = 64;
+
+    private final File mFile;
+    private volatile MappedByteBuffer mBuffer;
+    // 写入期间为奇数，读取方据此判断是否需要重试
+    private final AtomicInteger mSequence = new AtomicInteger();
+    private int mCapacity;
+    // 已占用的槽位数，包括已删除的槽位
+    private int mUsed;
+
+    /**
+     * Opens or creates the vault file.
+     *
+     * @param file
+     * @throws IOException if the file can not be mapped or is not a vault
+     */
+    public FingerPrintTokenVault(File file) throws IOException {
+        mFile = file;
+        if (!file.exists() || file.length() < HEADER_SIZE) {
+            create(file, MIN_CAPACITY);
+        }
+        map();
+    }
+
+    /**
+     * Copies the value stored for keyName to out, from its position on.
+     *
+     * @param keyName
+     * @param out
+     * @return the length of the value, or -1 if keyName is not stored
+     */
+    public int get(String keyName, ByteBuffer out) {
+        final int start = out.position();
+        while (true) {
+            final int sequence = mSequence.get();
+            if ((sequence & 1) != 0) {
+                Thread.yield();
+                continue;
+            }
+            final MappedByteBuffer buffer = mBuffer;
+            final int slot = find(buffer, keyName);
+            int stored = -1;
+            int length = 0;
+            if (slot >= 0) {
+                final int base = slotOffset(slot);
+                stored = buffer.getShort(base + SLOT_VALUE_LENGTH);
+                // 并发写入时可能读到任意长度，拷贝前先限制在槽位范围内
+                length = Math.max(0, Math.min(stored, MAX_VALUE_LENGTH));
+                for (int i = 0; i < length; i++) {
+                    out.put(buffer.get(base + SLOT_VALUE + i));
+                }
+            }
+            if (mSequence.compareAndSet(sequence, sequence)) {
+                if (stored == length) {
+                    return stored;
+                }
+                // 长度超出范围且期间没有写入，槽位已损坏
+                out.position(start);
+                return -1;
+            }
+            out.position(start);
+        }
+    }
+
+    public boolean contains(String keyName) {
+        while (true) {
+            final int sequence = mSequence.get();
+            if ((sequence & 1) != 0) {
+                Thread.yield();
+                continue;
+            }
+            final boolean found = find(mBuffer, keyName) >= 0;
+            if (mSequence.compareAndSet(sequence, sequence)) {
+                return found;
+            }
+        }
+    }
+
+    /**
+     * Stores the bytes between position and limit of value for keyName. The
+     * position of value is not changed.
+     *
+     * @param keyName
+     * @param value
+     * @throws IOException if the vault could not be grown
+     */
+    public synchronized void put(String keyName, ByteBuffer value)
+            throws IOException {
+        if (keyName == null || keyName.length() > MAX_KEY_LENGTH
+                || value.remaining() > MAX_VALUE_LENGTH) {
+            throw new IllegalArgumentException("Key or value too long");
+        }
+        mSequence.incrementAndGet();
+        try {
+            if ((mUsed + 1) * 2 > mCapacity) {
+                resize(mCapacity * 2);
+            }
+            final MappedByteBuffer buffer = mBuffer;
+            final int slot = freeSlot(buffer, keyName);
+            final boolean wasEmpty = buffer
+                    .get(slotOffset(slot) + SLOT_STATE) == STATE_EMPTY;
+            writeSlot(buffer, slotOffset(slot), keyName, value);
+            buffer.force();
+            // 新槽位落盘后才标记为可用，此后才删除旧值
+            buffer.put(slotOffset(slot) + SLOT_STATE, STATE_USED);
+            buffer.force();
+            // 崩溃可能遗留同一key的多个可用槽位，全部删除
+            int previous;
+            while ((previous = find(buffer, keyName, slot)) >= 0) {
+                buffer.put(slotOffset(previous) + SLOT_STATE, STATE_DELETED);
+            }
+            if (wasEmpty) {
+                mUsed++;
+                buffer.putInt(HEADER_USED, mUsed);
+            }
+            buffer.force();
+        } finally {
+            mSequence.incrementAndGet();
+        }
+    }
+
+    public synchronized boolean remove(String keyName) {
+        final MappedByteBuffer buffer = mBuffer;
+        final int slot = find(buffer, keyName);
+        if (slot < 0) {
+            return false;
+        }
+        mSequence.incrementAndGet();
+        try {
+            int previous = slot;
+            do {
+                buffer.put(slotOffset(previous) + SLOT_STATE, STATE_DELETED);
+            } while ((previous = find(buffer, keyName)) >= 0);
+            buffer.force();
+        } finally {
+            mSequence.incrementAndGet();
+        }
+        return true;
+    }
+
+    private int find(MappedByteBuffer buffer, String keyName) {
+        return find(buffer, keyName, -1);
+    }
+
+    /**
+     * @param skip a slot to ignore, -1 for none
+     */
+    private int find(MappedByteBuffer buffer, String keyName, int skip) {
+        if (keyName == null) {
+            return -1;
+        }
+        final int capacity = buffer.getInt(HEADER_CAPACITY);
+        final int hash = keyName.hashCode();
+        int slot = hash & (capacity - 1);
+        for (int i = 0; i < capacity; i++) {
+            final int base = slotOffset(slot);
+            final byte state = buffer.get(base + SLOT_STATE);
+            if (state == STATE_EMPTY) {
+                return -1;
+            }
+            if (state == STATE_USED && slot != skip
+                    && buffer.getInt(base + SLOT_HASH) == hash
+                    && keyEquals(buffer, base, keyName)) {
+                return slot;
+            }
+            slot = (slot + 1) & (capacity - 1);
+        }
+        return -1;
+    }
+
+    /**
+     * @return the first empty or deleted slot on the probe path of keyName.
+     *         It is invisible to lookups until marked used, so writing it
+     *         never disturbs the current value.
+     */
+    private int freeSlot(MappedByteBuffer buffer, String keyName) {
+        int slot = keyName.hashCode() & (mCapacity - 1);
+        while (buffer.get(slotOffset(slot) + SLOT_STATE) == STATE_USED) {
+            slot = (slot + 1) & (mCapacity - 1);
+        }
+        return slot;
+    }
+
+    private static boolean keyEquals(MappedByteBuffer buffer, int base,
+            String keyName) {
+        final int length = buffer.getShort(base + SLOT_KEY_LENGTH);
+        if (length != keyName.length() || length > MAX_KEY_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer.getChar(base + SLOT_KEY + i * 2) != keyName.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void writeSlot(ByteBuffer buffer, int base, String keyName,
+            ByteBuffer value) {
+        buffer.putShort(base + SLOT_KEY_LENGTH, (short) keyName.length());
+        buffer.putShort(base + SLOT_VALUE_LENGTH, (short) value.remaining());
+        buffer.putInt(base + SLOT_HASH, keyName.hashCode());
+        for (int i = 0; i < keyName.length(); i++) {
+            buffer.putChar(base + SLOT_KEY + i * 2, keyName.charAt(i));
+        }
+        for (int i = 0; i < value.remaining(); i++) {
+            buffer.put(base + SLOT_VALUE + i, value.get(value.position() + i));
+        }
+    }
+
+    private static int slotOffset(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    private void map() throws IOException {
+        final RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            final MappedByteBuffer buffer = file.getChannel()
+                    .map(FileChannel.MapMode.READ_WRITE, 0, file.length());
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("Not a token vault: " + mFile);
+            }
+            final int capacity = buffer.getInt(HEADER_CAPACITY);
+            if (Integer.bitCount(capacity) != 1
+                    || file.length() < slotOffset(capacity)) {
+                throw new IOException("Corrupt token vault: " + mFile);
+            }
+            mCapacity = capacity;
+            mUsed = buffer.getInt(HEADER_USED);
+            mBuffer = buffer;
+        } finally {
+            // 关闭文件后映射依然有效
+            file.close();
+        }
+    }
+
+    private static void create(File file, int capacity) throws IOException {
+        final RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try {
+            out.setLength(0);
+            out.setLength(slotOffset(capacity));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(capacity);
+            out.writeInt(0);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Copies every live slot into a new file of the given capacity and
+     * atomically replaces the vault with it.
+     */
+    private void resize(int capacity) throws IOException {
+        final File tmp = new File(mFile.getPath() + ".tmp");
+        create(tmp, capacity);
+        final RandomAccessFile file = new RandomAccessFile(tmp, "rw");
+        int used = 0;
+        try {
+            final MappedByteBuffer target = file.getChannel()
+                    .map(FileChannel.MapMode.READ_WRITE, 0, file.length());
+            final MappedByteBuffer source = mBuffer;
+            for (int slot = 0; slot < mCapacity; slot++) {
+                final int base = slotOffset(slot);
+                if (source.get(base + SLOT_STATE) != STATE_USED) {
+                    continue;
+                }
+                int targetSlot = source.getInt(base + SLOT_HASH)
+                        & (capacity - 1);
+                while (target.get(
+                        slotOffset(targetSlot) + SLOT_STATE) != STATE_EMPTY) {
+                    targetSlot = (targetSlot + 1) & (capacity - 1);
+                }
+                final int targetBase = slotOffset(targetSlot);
+                for (int i = 0; i < SLOT_SIZE; i++) {
+                    target.put(targetBase + i, source.get(base + i));
+                }
+                used++;
+            }
+            target.putInt(HEADER_USED, used);
+            target.force();
+        } finally {
+            file.close();
+        }
+        if (!tmp.renameTo(mFile)) {
+            tmp.delete();
+            throw new IOException("Could not replace " + mFile);
+        }
+        map();
+    }
+}
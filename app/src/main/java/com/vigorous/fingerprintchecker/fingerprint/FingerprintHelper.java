@@ -1,77 +1,280 @@
 package com.vigorous.fingerprintchecker.fingerprint;
 
 import android.content.Context;
-import android.hardware.fingerprint.FingerprintManager;
 import android.os.Build;
-import android.os.CancellationSignal;
-import android.security.keystore.KeyProperties;
-import android.text.TextUtils;
-import android.util.Base64;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
 import android.util.Log;
+import com.vigorous.fingerprintchecker.exception.FingerPrintAuthenticationException;
 import com.vigorous.fingerprintchecker.exception.FingerPrintInvalidException;
+import com.vigorous.fingerprintchecker.metrics.FingerPrintMetricsListener;
+import com.vigorous.fingerprintchecker.platform.AndroidFingerPrintEncoder;
+import com.vigorous.fingerprintchecker.platform.AndroidFingerPrintLogger;
+import com.vigorous.fingerprintchecker.platform.AndroidFingerPrintPreferences;
+import com.vigorous.fingerprintchecker.platform.AndroidFingerPrintSensor;
+import com.vigorous.fingerprintchecker.platform.FingerPrintSensor;
 import com.vigorous.fingerprintchecker.utils.AndroidPermissionUtil;
-import javax.crypto.BadPaddingException;
-import javax.crypto.Cipher;
-import javax.crypto.IllegalBlockSizeException;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by vigorous.liang on 2017/11/30.
  */
 public class FingerprintHelper {
     private static final String TAG = FingerprintHelper.class.getName();
+    private static final String CAPABILITY_SP_NAME = "finger_capability";
+    private static final String TOKEN_STORE_FILE_NAME = "finger_tokens.log";
     private static FingerprintHelper mFingerprintHelper;
+    private static FingerPrintTokenStore sTokenStore;
     private Context mContext;
 
-    private FingerprintManager manager;
-    private CancellationSignal mCancellationSignal;
-    private FingerPrintAuthenticationCallback mCallback;
-    private FingerPrintAndroidKeyStore mLocalAndroidKeyStore;
+    private FingerPrintSensor mSensor;
+    private volatile FingerPrintAndroidKeyStore mLocalAndroidKeyStore;
+    private FingerPrintCapabilityCache mCapabilityCache;
+    private volatile FingerPrintKeyProvisioner mKeyProvisioner;
+    private FingerPrintKeyScanner mKeyScanner;
+    private volatile FingerPrintAuthenticator mAuthenticator;
+    private volatile FingerPrintMetricsListener mMetricsListener;
+    private volatile Executor mCallbackExecutor;
+    private volatile int mMaxKeys = FingerPrintKeyProvisioner.DEFAULT_MAX_KEYS;
+    private volatile int mValiditySeconds;
+    private volatile long mUnlockTtlMillis;
 
-    public final static int APPLY = KeyProperties.PURPOSE_ENCRYPT;
-    public final static int VERIFY = KeyProperties.PURPOSE_DECRYPT;
+    public final static int APPLY = FingerPrintAuthenticator.APPLY;
+    public final static int VERIFY = FingerPrintAuthenticator.VERIFY;
 
     public final static int FINGERPRINT_UNSUPPORT = -1;
     public final static int FINGERPRINT_UNAVAILABLE = 0;
     public final static int FINGERPRINT_AVAILABLE = 1;
 
-    private int mCurrentKeyProperties;
-    private String mCurrentKeyName;
-    private String mCurrentFingerToken;
-    private String mCurrentIV;
-    private int mFingerPrintSupportStatus = FINGERPRINT_UNSUPPORT;
+    // 最近一次检测结果，读取仅为一次volatile load
+    private final AtomicInteger mFingerPrintSupportStatus = new AtomicInteger(
+            FINGERPRINT_UNSUPPORT);
+    private final List<FingerPrintAvailabilityListener> mAvailabilityListeners = new CopyOnWriteArrayList<>();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Executor mMainExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            mMainHandler.post(command);
+        }
+    };
+    private final ExecutorService mBackgroundExecutor;
+    private final AtomicBoolean mRefreshScheduled = new AtomicBoolean(false);
+    private final Runnable mRefreshTask = new Runnable() {
+        @Override
+        public void run() {
+            mRefreshScheduled.set(false);
+            checkFingerprintAvailable();
+        }
+    };
+
+    private final InitTask mInitTask;
+    private final AtomicBoolean mInitStarted = new AtomicBoolean(false);
 
     private FingerprintHelper(Context context) {
         if (context != null) {
             mContext = context.getApplicationContext();
-            try {
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-                    manager = context
-                            .getSystemService(FingerprintManager.class);
+        }
+        mInitTask = new InitTask(this);
+        mBackgroundExecutor = Executors
+                .newSingleThreadExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        return new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(
+                                        Process.THREAD_PRIORITY_BACKGROUND);
+                                r.run();
+                            }
+                        }, "FingerprintHelper-background");
+                    }
+                });
+    }
+
+    /**
+     * Loads the keystore and checks the fingerprint environment. This talks
+     * to secure hardware and must not run on the main thread.
+     */
+    private void initialize() {
+        if (mContext == null) {
+            return;
+        }
+        try {
+            mSensor = new AndroidFingerPrintSensor(mContext);
+            mLocalAndroidKeyStore = new FingerPrintAndroidKeyStore();
+            mLocalAndroidKeyStore
+                    .setUserAuthenticationValidity(mValiditySeconds);
+            mAuthenticator = new FingerPrintAuthenticator(mSensor,
+                    mLocalAndroidKeyStore, new AndroidFingerPrintEncoder(),
+                    new AndroidFingerPrintLogger(), mContext.getPackageName());
+            mAuthenticator.setMetricsListener(mMetricsListener);
+            mAuthenticator.setCallbackExecutor(mCallbackExecutor);
+            mAuthenticator.setUnlockTtl(mUnlockTtlMillis,
+                    TimeUnit.MILLISECONDS);
+            mCapabilityCache = new FingerPrintCapabilityCache(
+                    new AndroidFingerPrintPreferences(mContext,
+                            CAPABILITY_SP_NAME),
+                    Build.FINGERPRINT + "|" + Build.VERSION.SDK_INT);
+            mKeyProvisioner = new FingerPrintKeyProvisioner(mContext,
+                    mLocalAndroidKeyStore,
+                    FingerPrintKeyProvisioner.DEFAULT_POOL_SIZE);
+            mKeyProvisioner.setMetricsListener(mMetricsListener);
+            mKeyProvisioner.setMaxKeys(mMaxKeys);
+            // 清理旧版本及异常退出遗留的密钥
+            mKeyProvisioner.collectGarbage(null);
+            mKeyScanner = new FingerPrintKeyScanner(mLocalAndroidKeyStore,
+                    newScanExecutor(),
+                    FingerPrintKeyScanner.DEFAULT_CHUNK_SIZE);
+            checkFingerprintAvailable();
+        } catch (Throwable t) {
+            Log.e(TAG, t.getMessage());
+            t.printStackTrace();
+        }
+    }
+
+    private static ExecutorService newScanExecutor() {
+        final int threads = Math.max(1,
+                Math.min(4, Runtime.getRuntime().availableProcessors()));
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads,
+                threads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        return new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(
+                                        Process.THREAD_PRIORITY_BACKGROUND);
+                                r.run();
+                            }
+                        }, "FingerprintHelper-scan");
+                    }
+                });
+        // 扫描只在启动或返回前台时进行，空闲时不保留线程
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static FingerprintHelper obtain(Context context) {
+        if (null != context && null == mFingerprintHelper) {
+            synchronized (FingerprintHelper.class) {
+                if (null != context && null == mFingerprintHelper) {
+                    mFingerprintHelper = new FingerprintHelper(context);
                 }
-                mLocalAndroidKeyStore = new FingerPrintAndroidKeyStore();
-                mFingerPrintSupportStatus = checkFingerprintAvailable();
-            } catch (Throwable t) {
-                Log.e(TAG, t.getMessage());
-                t.printStackTrace();
             }
         }
+        return mFingerprintHelper;
     }
 
     /**
-     * Get FingerprintHelper instance. Create it if is unavailable
+     * Get FingerprintHelper instance. Create it if is unavailable. The
+     * initialization runs on the calling thread, or waits for a pending
+     * {@link #getInstanceAsync(Context, FingerPrintInitListener)}.
      *
      * @param context
      * @return
      */
     public static FingerprintHelper getInstance(Context context) {
-        if (null != context && null == mFingerprintHelper) {
-            synchronized (FingerprintHelper.class) {
-                if (null != context && null == mFingerprintHelper) {
-                    mFingerprintHelper = new FingerprintHelper(context);
+        FingerprintHelper helper = obtain(context);
+        if (helper != null) {
+            helper.awaitInitialized();
+        }
+        return helper;
+    }
+
+    /**
+     * Get FingerprintHelper instance and initialize it on a background
+     * thread, so it can be called from Activity.onCreate without blocking
+     * the first frame.
+     *
+     * @param context
+     * @param listener notified on the main thread once initialized, can be
+     *            null
+     * @return a Future completed with the initialized instance, or null if
+     *         context is null
+     */
+    public static Future<FingerprintHelper> getInstanceAsync(Context context,
+            FingerPrintInitListener listener) {
+        FingerprintHelper helper = obtain(context);
+        if (helper == null) {
+            return null;
+        }
+        if (listener != null) {
+            helper.mInitTask.addListener(listener);
+        }
+        if (helper.mInitStarted.compareAndSet(false, true)) {
+            final InitTask task = helper.mInitTask;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(
+                            Process.THREAD_PRIORITY_BACKGROUND);
+                    task.run();
+                }
+            }, "FingerprintHelper-init").start();
+        }
+        return helper.mInitTask;
+    }
+
+    /**
+     * @return true once the keystore is loaded and the fingerprint
+     *         environment has been checked
+     */
+    public boolean isInitialized() {
+        return mInitTask.isDone();
+    }
+
+    private void awaitInitialized() {
+        mInitStarted.set(true);
+        // 若后台初始化尚未开始则在当前线程执行，否则等待其完成
+        mInitTask.run();
+        try {
+            mInitTask.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Log.e(TAG, "awaitInitialized:" + e.getMessage());
+        }
+    }
+
+    /**
+     * Get the token store of this app. The log is loaded on a background
+     * thread; the first read waits for it.
+     *
+     * @param context
+     * @return
+     */
+    public static FingerPrintTokenStore getTokenStore(Context context) {
+        if (null != context && null == sTokenStore) {
+            synchronized (FingerPrintTokenStore.class) {
+                if (null == sTokenStore) {
+                    sTokenStore = new FingerPrintTokenStore(
+                            new File(context.getApplicationContext()
+                                    .getFilesDir(), TOKEN_STORE_FILE_NAME),
+                            new AndroidFingerPrintLogger());
                 }
             }
         }
-        return mFingerprintHelper;
+        return sTokenStore;
     }
 
     /**
@@ -98,177 +301,616 @@ public class FingerprintHelper {
     public boolean authenticate(String keyName, int purpose, String fingerToken,
             String IV, FingerPrintAuthenticationCallback callback)
             throws FingerPrintInvalidException {
-        if (mFingerPrintSupportStatus != FINGERPRINT_AVAILABLE) {
+        return startAuthenticate(keyName, purpose, fingerToken, IV,
+                callback) != null;
+    }
+
+    /**
+     * Same as authenticate, but returns the session of this call so it can be
+     * cancelled without affecting other running authentications.
+     *
+     * @return the started session, or null if the sensor session could not be
+     *         started
+     */
+    public FingerPrintAuthenticationSession startAuthenticate(String keyName,
+            int purpose, String fingerToken, String IV,
+            FingerPrintAuthenticationCallback callback)
+            throws FingerPrintInvalidException {
+        if (!checkReady(keyName, callback)) {
+            return null;
+        }
+        return mAuthenticator.startAuthenticate(keyName, purpose, fingerToken,
+                IV, callback);
+    }
+
+    /**
+     * Protects many tokens with one fingerprint touch. The fingerprint-gated
+     * key only wraps a random data key, which then encrypts or decrypts every
+     * token in software, so the whole batch costs one sensor round-trip and
+     * one keystore operation.
+     *
+     * @param keyName keyName
+     * @param purpose FingerprintHelper.APPLY or FingerprintHelper.VERIFY
+     * @param wrappedKey the wrapped key returned by APPLY, can be empty when
+     *            purpose equals to APPLY
+     * @param IV IV cant not be empty when purpose equals to VERIFY.
+     * @param tokens plain tokens when purpose equals to APPLY, encrypted
+     *            tokens when purpose equals to VERIFY
+     * @param callback
+     * @return the started session, or null if the sensor session could not be
+     *         started
+     */
+    public FingerPrintAuthenticationSession authenticateBatch(String keyName,
+            int purpose, String wrappedKey, String IV, List<String> tokens,
+            FingerPrintBatchCallback callback)
+            throws FingerPrintInvalidException {
+        if (!checkReady(keyName, callback)) {
+            return null;
+        }
+        return mAuthenticator.authenticateBatch(keyName, purpose, wrappedKey,
+                IV, tokens, callback);
+    }
+
+    /**
+     * Envelope mode for large payloads. The fingerprint-gated key only wraps
+     * a random data key; the payload is processed in software by the
+     * FingerPrintDataCipher handed to the callback, e.g. with
+     * {@link FingerPrintDataCipher#seal(java.io.InputStream, java.io.OutputStream)}.
+     *
+     * @param keyName keyName
+     * @param purpose FingerprintHelper.APPLY or FingerprintHelper.VERIFY
+     * @param wrappedKey the wrapped key returned by APPLY, can be empty when
+     *            purpose equals to APPLY
+     * @param IV IV cant not be empty when purpose equals to VERIFY.
+     * @param callback
+     * @return the started session, or null if the sensor session could not be
+     *         started
+     */
+    public FingerPrintAuthenticationSession authenticateEnvelope(
+            String keyName, int purpose, String wrappedKey, String IV,
+            FingerPrintEnvelopeCallback callback)
+            throws FingerPrintInvalidException {
+        if (!checkReady(keyName, callback)) {
+            return null;
+        }
+        return mAuthenticator.authenticateEnvelope(keyName, purpose,
+                wrappedKey, IV, callback);
+    }
+
+    /**
+     * Byte-oriented variant of authenticate for hot paths. Nothing is Base64
+     * encoded, the marker is compared in constant time and the decrypted
+     * bytes are zeroed after use.
+     *
+     * @param keyName keyName
+     * @param purpose FingerprintHelper.APPLY or FingerprintHelper.VERIFY
+     * @param fingerToken IV || token between position and limit, as written
+     *            to output by APPLY. Cant not be empty when purpose equals to
+     *            VERIFY. Its position is not changed.
+     * @param output receives IV || token from its position on when purpose
+     *            equals to APPLY, and is used as scratch space for the
+     *            decrypted marker when purpose equals to VERIFY
+     * @param callback
+     * @return the started session, or null if the sensor session could not be
+     *         started
+     */
+    public FingerPrintAuthenticationSession authenticateBytes(String keyName,
+            int purpose, ByteBuffer fingerToken, ByteBuffer output,
+            FingerPrintBytesCallback callback)
+            throws FingerPrintInvalidException {
+        if (!checkReady(keyName, callback)) {
+            return null;
+        }
+        return mAuthenticator.authenticateBytes(keyName, purpose, fingerToken,
+                output, callback);
+    }
+
+    /**
+     * Signs a challenge of the server with the signing key of keyName once
+     * the user touched the sensor. Unlike VERIFY, which only proves the
+     * fingerprint on the device, the server checks the signature against the
+     * public key registered for keyName.
+     *
+     * @param keyName generated with generateSigningKey
+     * @param challenge fresh nonce issued by the server, signed as is
+     * @param callback
+     * @return the started session, or null if the sensor session could not be
+     *         started
+     */
+    public FingerPrintAuthenticationSession authenticateChallenge(
+            String keyName, byte[] challenge,
+            FingerPrintSignatureCallback callback)
+            throws FingerPrintInvalidException {
+        if (!checkReady(keyName, callback)) {
+            return null;
+        }
+        return mAuthenticator.authenticateChallenge(keyName, challenge,
+                callback);
+    }
+
+    /**
+     * Same as startAuthenticate, with the result delivered through the
+     * returned future, e.g.
+     *
+     * <pre>
+     * helper.authenticateAsync(keyName, VERIFY, token, IV)
+     *         .then(transform, backgroundExecutor)
+     *         .addListener(listener, helper.getMainExecutor());
+     * </pre>
+     *
+     * Failures, including an invalidated key, complete the future with a
+     * FingerPrintAuthenticationException carrying their error code.
+     *
+     * @param keyName keyName
+     * @param purpose FingerprintHelper.APPLY or FingerprintHelper.VERIFY
+     * @param fingerToken
+     * @param IV IV cant not be empty when purpose equals to VERIFY.
+     * @return the future of the result, cancel stops the sensor
+     */
+    public FingerPrintFuture<FingerPrintResult<String>> authenticateAsync(
+            String keyName, int purpose, String fingerToken, String IV) {
+        if (!checkReady(keyName, null)) {
+            return FingerPrintFuture.failed(
+                    FingerPrintAuthenticationException.ERROR_NOT_STARTED,
+                    "Fail");
+        }
+        return mAuthenticator.authenticateAsync(keyName, purpose, fingerToken,
+                IV);
+    }
+
+    /**
+     * Future variant of authenticateBatch.
+     *
+     * @return the future of the tokens, cancel stops the sensor
+     */
+    public FingerPrintFuture<FingerPrintResult<List<String>>> authenticateBatchAsync(
+            String keyName, int purpose, String wrappedKey, String IV,
+            List<String> tokens) {
+        if (!checkReady(keyName, null)) {
+            return FingerPrintFuture.failed(
+                    FingerPrintAuthenticationException.ERROR_NOT_STARTED,
+                    "Fail");
+        }
+        return mAuthenticator.authenticateBatchAsync(keyName, purpose,
+                wrappedKey, IV, tokens);
+    }
+
+    /**
+     * Future variant of authenticateEnvelope. Chain the work with the data
+     * cipher with then on a background executor.
+     *
+     * @return the future of the data cipher, cancel stops the sensor
+     */
+    public FingerPrintFuture<FingerPrintResult<FingerPrintDataCipher>> authenticateEnvelopeAsync(
+            String keyName, int purpose, String wrappedKey, String IV) {
+        if (!checkReady(keyName, null)) {
+            return FingerPrintFuture.failed(
+                    FingerPrintAuthenticationException.ERROR_NOT_STARTED,
+                    "Fail");
+        }
+        return mAuthenticator.authenticateEnvelopeAsync(keyName, purpose,
+                wrappedKey, IV);
+    }
+
+    /**
+     * Future variant of authenticateChallenge.
+     *
+     * @return the future of the signature, cancel stops the sensor
+     */
+    public FingerPrintFuture<byte[]> authenticateChallengeAsync(
+            String keyName, byte[] challenge) {
+        if (!checkReady(keyName, null)) {
+            return FingerPrintFuture.failed(
+                    FingerPrintAuthenticationException.ERROR_NOT_STARTED,
+                    "Fail");
+        }
+        return mAuthenticator.authenticateChallengeAsync(keyName, challenge);
+    }
+
+    private boolean checkReady(String keyName,
+            FingerPrintFailureCallback callback) {
+        if (!isInitialized()) {
+            // 初始化尚未完成时直接失败，由调用方在初始化完成后重试
+            Log.e(TAG, "authenticate:not initialized");
             if (callback != null) {
-                callback.onAuthenticationFail("Fail");
+                callback.onAuthenticationFail("Initializing");
             }
             return false;
         }
-        this.mCurrentKeyProperties = purpose;
-        // cardId
-        this.mCurrentKeyName = keyName;
-        // encrypted Data
-        this.mCurrentFingerToken = fingerToken;
-        // IV
-        this.mCurrentIV = IV;
-        this.mCallback = callback;
-
-        try {
-            FingerprintManager.CryptoObject object;
-            if (purpose == KeyProperties.PURPOSE_DECRYPT) {
-                object = mLocalAndroidKeyStore.getCryptoObject(keyName,
-                        Cipher.DECRYPT_MODE,
-                        Base64.decode(IV, Base64.URL_SAFE));
-                if (object == null) {
-                    return false;
-                }
-            } else {
-                object = mLocalAndroidKeyStore.getCryptoObject(keyName,
-                        Cipher.ENCRYPT_MODE, null);
-            }
-            mCancellationSignal = new CancellationSignal();
-            if (manager != null) {
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-                    FingerprintManager.AuthenticationCallback authenticationCallback = new FingerprintManager.AuthenticationCallback() {
-                        @Override
-                        public void onAuthenticationSucceeded(
-                                FingerprintManager.AuthenticationResult result) {
-                            Log.e(TAG, "FingerPrint Authentication Succeeded");
-                            if (mCallback == null) {
-                                Log.e(TAG, "mCallback is null");
-                                return;
-                            }
-                            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-                                if (result.getCryptoObject() == null) {
-                                    Log.e(TAG,
-                                            "result.getCryptoObject() == null");
-                                    mCallback.onAuthenticationFail(
-                                            "Authentication Fail");
-                                    return;
-                                }
-                            }
-                            Cipher cipher = null;
-                            if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.M) {
-                                cipher = result.getCryptoObject().getCipher();
-                            }
-                            // 指纹认证过程
-                            if (mCurrentKeyProperties == KeyProperties.PURPOSE_DECRYPT) {
-                                // 取出secret key并返回
-                                if (TextUtils.isEmpty(mCurrentKeyName)) {
-                                    mCallback.onAuthenticationFail(
-                                            "Authentication is unavailable");
-                                    return;
-                                }
-                                try {
-                                    if (cipher != null) {
-                                        byte[] decrypted = cipher.doFinal(Base64
-                                                .decode(mCurrentFingerToken,
-                                                        Base64.URL_SAFE));
-                                        if (mContext.getPackageName().equals(
-                                                new String(decrypted))) {
-                                            mCallback.onAuthenticationSucceeded(
-                                                    new String(decrypted),
-                                                    mCurrentKeyProperties, "");
-                                        } else {
-                                            mCallback.onAuthenticationFail(
-                                                    "Authentication Fail");
-                                        }
-                                    } else {
-                                        mCallback.onAuthenticationFail(
-                                                "Authentication Fail");
-                                    }
-                                } catch (BadPaddingException
-                                        | IllegalBlockSizeException e) {
-                                    e.printStackTrace();
-                                    mCallback.onAuthenticationFail(
-                                            "Authentication exception");
-                                }
-                            } else if (mCurrentKeyProperties == KeyProperties.PURPOSE_ENCRYPT) {// 指纹录入过程
-                                // 将前面生成的data包装成secret key，存入沙盒
-                                try {
-                                    byte[] encrypted = cipher.doFinal(mContext
-                                            .getPackageName().getBytes());
-                                    byte[] IV = cipher.getIV();
-                                    String se = Base64.encodeToString(encrypted,
-                                            Base64.URL_SAFE);
-                                    String siv = Base64.encodeToString(IV,
-                                            Base64.URL_SAFE);
-                                    mCallback.onAuthenticationSucceeded(se,
-                                            mCurrentKeyProperties, siv);
-                                } catch (BadPaddingException
-                                        | IllegalBlockSizeException e) {
-                                    e.printStackTrace();
-                                    mCallback.onAuthenticationFail(
-                                            "Authentication exception");
-                                }
-                            }
-                        }
-
-                        @Override
-                        public void onAuthenticationError(int errorCode,
-                                CharSequence errString) {
-                            Log.e(TAG, "FingerPrint onAuthentication Error");
-                            if (mCallback != null) {
-                                mCallback.onAuthenticationOverLimit(
-                                        errString.toString());
-                            }
-                        }
-
-                        @Override
-                        public void onAuthenticationHelp(int helpCode,
-                                CharSequence helpString) {
-                            Log.e(TAG, "FingerPrint Authentication help");
-                        }
-
-                        @Override
-                        public void onAuthenticationFailed() {
-                            Log.e(TAG, "FingerPrint Authentication Failed");
-                            if (mCallback != null) {
-                                mCallback.onAuthenticationFail(
-                                        "Authentication exception");
-                            }
-                        }
-                    };
-                    manager.authenticate(object, mCancellationSignal, 0,
-                            authenticationCallback, null);
-                }
+        if (getFingerprintAvailability() != FINGERPRINT_AVAILABLE
+                || mAuthenticator == null) {
+            // 状态可能已过期，例如用户刚录入指纹，后台重新检测供下次使用
+            refreshAvailability();
+            if (callback != null) {
+                callback.onAuthenticationFail("Fail");
             }
-            return true;
-        } catch (SecurityException e) {
-            e.printStackTrace();
             return false;
         }
+        if (mKeyProvisioner != null) {
+            mKeyProvisioner.touch(keyName);
+        }
+        return true;
+    }
+
+    /**
+     * Reports the timings and outcomes of every authentication to listener,
+     * e.g. a {@link com.vigorous.fingerprintchecker.metrics.FingerPrintMetrics}.
+     * Can be called before the helper is initialized.
+     *
+     * @param listener null to stop reporting
+     */
+    public void setMetricsListener(FingerPrintMetricsListener listener) {
+        mMetricsListener = listener;
+        final FingerPrintAuthenticator authenticator = mAuthenticator;
+        if (authenticator != null) {
+            authenticator.setMetricsListener(listener);
+        }
+        final FingerPrintKeyProvisioner provisioner = mKeyProvisioner;
+        if (provisioner != null) {
+            provisioner.setMetricsListener(listener);
+        }
+    }
+
+    /**
+     * Delivers the results of every authentication with executor, which also
+     * runs the work with the unlocked cipher. By default they are delivered
+     * on the main thread, where FingerprintManager reports them.
+     *
+     * @param executor null to deliver on the main thread
+     */
+    public void setCallbackExecutor(Executor executor) {
+        mCallbackExecutor = executor;
+        final FingerPrintAuthenticator authenticator = mAuthenticator;
+        if (authenticator != null) {
+            authenticator.setCallbackExecutor(executor);
+        }
+    }
+
+    /**
+     * Same as setCallbackExecutor, delivering on the thread of handler.
+     *
+     * @param handler
+     */
+    public void setCallbackHandler(final Handler handler) {
+        setCallbackExecutor(handler == null ? null : new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                handler.post(command);
+            }
+        });
+    }
+
+    /**
+     * @return executor running tasks on the main thread, for the listeners
+     *         of a FingerPrintFuture that update the UI
+     */
+    public Executor getMainExecutor() {
+        return mMainExecutor;
+    }
+
+    /**
+     * @return the platform independent engine, null until initialized
+     */
+    public FingerPrintAuthenticator getAuthenticator() {
+        return mAuthenticator;
     }
 
     /**
-     * generateKey when user apply to encrypt
+     * generateKey when user apply to encrypt. Assigns a key generated ahead
+     * of time if one is ready. Blocks until the key is assigned, use
+     * generateKeyAsync on the main thread.
      *
      * @param keyName
      * @return
      */
     public boolean generateKey(String keyName) {
-        boolean result = false;
+        try {
+            return generateKeyAsync(keyName).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * generateKey without blocking the calling thread. The key is checked,
+     * and generated if no key is ready, on the provisioning thread.
+     *
+     * @param keyName
+     * @return future completed with true once keyName has a usable key, false
+     *         if no key could be generated
+     */
+    public FingerPrintFuture<Boolean> generateKeyAsync(String keyName) {
         // 在keystore中生成加密密钥
-        if (null != mLocalAndroidKeyStore
-                && mFingerPrintSupportStatus == FINGERPRINT_AVAILABLE) {
-            result = mLocalAndroidKeyStore.generateKey(keyName);
+        if (null != mKeyProvisioner
+                && getFingerprintAvailability() == FINGERPRINT_AVAILABLE) {
+            return mKeyProvisioner.acquire(keyName);
         }
-        return result;
+        final FingerPrintFuture<Boolean> future = new FingerPrintFuture<>();
+        future.complete(false);
+        return future;
+    }
+
+    /**
+     * Generates the EC signing key of keyName in secure hardware, replacing an
+     * existing one. Register getPublicKey with the server afterwards.
+     *
+     * @param keyName
+     * @return
+     */
+    public boolean generateSigningKey(String keyName) {
+        final FingerPrintAuthenticator authenticator = mAuthenticator;
+        return authenticator != null
+                && getFingerprintAvailability() == FINGERPRINT_AVAILABLE
+                && authenticator.generateSigningKey(keyName);
     }
 
+    /**
+     * @param keyName
+     * @return the X.509 encoded public key of the signing key of keyName, or
+     *         null if there is none
+     */
+    public byte[] getPublicKey(String keyName) {
+        final FingerPrintAuthenticator authenticator = mAuthenticator;
+        return authenticator == null ? null
+                : authenticator.getPublicKey(keyName);
+    }
+
+    /**
+     * Generates keys in the background for cards that are likely to be
+     * enrolled, so that generateKey returns without touching secure hardware.
+     *
+     * @param keyNames
+     */
+    public void provisionKeys(Collection<String> keyNames) {
+        if (null != mKeyProvisioner
+                && getFingerprintAvailability() == FINGERPRINT_AVAILABLE) {
+            mKeyProvisioner.provision(keyNames);
+        }
+    }
+
+    /**
+     * Checks every key assigned or reserved by this helper on a background
+     * thread, without prompting the user, and reports the ones invalidated
+     * by a change of the enrolled fingerprints in one batch. Call it e.g. in
+     * Activity.onResume, as the enrollment can change while the app is in
+     * the background.
+     *
+     * @param listener
+     */
+    public void scanInvalidatedKeys(final FingerPrintKeyScanListener listener) {
+        if (null == mKeyScanner || null == mKeyProvisioner) {
+            Log.e(TAG, "scanInvalidatedKeys:not initialized");
+            return;
+        }
+        mBackgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final FingerPrintKeyScanner.Result result;
+                try {
+                    result = mKeyScanner.scan(mKeyProvisioner.getKeyNames());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "scanInvalidatedKeys:" + e.getMessage());
+                    e.printStackTrace();
+                    return;
+                }
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onScanFinished(FingerprintHelper.this,
+                                result.getInvalidated(), result.getMissing());
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Deletes the keys of keyNames and generates new ones in the background,
+     * e.g. for the cards reported by scanInvalidatedKeys. Tokens protected
+     * by the old keys can not be decrypted anymore, the cards have to be
+     * enrolled again.
+     *
+     * @param keyNames
+     */
+    public void reprovisionKeys(Collection<String> keyNames) {
+        if (null == mKeyProvisioner || keyNames.isEmpty()) {
+            return;
+        }
+        mKeyProvisioner.release(keyNames);
+        provisionKeys(keyNames);
+    }
+
+    /**
+     * Deletes in the background the keys of every card not in keyNames,
+     * e.g. the cards the user removed, together with any key of this library
+     * that is no longer referenced.
+     *
+     * @param keyNames the cards that still exist
+     */
+    public void retainKeys(Collection<String> keyNames) {
+        if (null != mKeyProvisioner) {
+            mKeyProvisioner.collectGarbage(keyNames);
+        }
+    }
+
+    /**
+     * Caps the number of cards with a key, FingerPrintKeyProvisioner
+     * .DEFAULT_MAX_KEYS by default. Above it the keys of the least recently
+     * authenticated cards are deleted and those cards have to be enrolled
+     * again. Can be called before the helper is initialized.
+     *
+     * @param maxKeys
+     */
+    public void setMaxKeys(int maxKeys) {
+        if (maxKeys <= 0) {
+            throw new IllegalArgumentException("maxKeys must be positive");
+        }
+        mMaxKeys = maxKeys;
+        final FingerPrintKeyProvisioner provisioner = mKeyProvisioner;
+        if (provisioner != null) {
+            provisioner.setMaxKeys(maxKeys);
+        }
+    }
+
+    /**
+     * Opt-in for bursts of authentications, e.g. confirming several
+     * transactions in a row. Keys generated from now on stay usable for
+     * validitySeconds after the user authenticated, and authentications
+     * started within ttlMillis of the last successful touch complete
+     * without the sensor and without a prompt. Existing keys keep their
+     * mode, call reprovisionKeys to switch them. Can be called before the
+     * helper is initialized.
+     *
+     * @param validitySeconds 0 to require a touch for every operation, the
+     *            default
+     * @param ttlMillis how long a touch is reused, capped at validitySeconds
+     */
+    public void setAuthenticationValidity(int validitySeconds,
+            long ttlMillis) {
+        mValiditySeconds = Math.max(0, validitySeconds);
+        mUnlockTtlMillis = Math.max(0,
+                Math.min(ttlMillis, mValiditySeconds * 1000L));
+        final FingerPrintAndroidKeyStore keyStore = mLocalAndroidKeyStore;
+        if (keyStore != null && keyStore
+                .getUserAuthenticationValidity() != mValiditySeconds) {
+            keyStore.setUserAuthenticationValidity(mValiditySeconds);
+            // 池中密钥按旧设置生成，丢弃后重新生成
+            final FingerPrintKeyProvisioner provisioner = mKeyProvisioner;
+            if (provisioner != null) {
+                provisioner.discardPool();
+            }
+        }
+        final FingerPrintAuthenticator authenticator = mAuthenticator;
+        if (authenticator != null) {
+            authenticator.setUnlockTtl(mUnlockTtlMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Ends the reuse of the last touch, e.g. when the user leaves the
+     * payment flow: the next authentication prompts again.
+     */
+    public void revokeAuthentication() {
+        final FingerPrintAuthenticator authenticator = mAuthenticator;
+        if (authenticator != null) {
+            authenticator.revokeUnlock();
+        }
+    }
+
+    /**
+     * Cancels every running authentication session.
+     */
     public void stopAuthenticate() {
-        if (mCancellationSignal != null) {
-            mCancellationSignal.cancel();
-            mCancellationSignal = null;
+        if (mAuthenticator != null) {
+            mAuthenticator.stopAuthenticate();
         }
-        mCallback = null;
     }
 
     /**
+     * Cheap read of the last published availability, suitable for UI paths.
+     * It is checked when the helper is initialized and again on
+     * refreshAvailability; observe changes with addAvailabilityListener.
+     *
+     * @return FINGERPRINT_UNAVAILABLE 支持指纹但是没有录入指纹；
+     *         FINGERPRINT_AVAILABLE：有可用指纹； FINGERPRINT_UNSUPPORT，手机不支持指纹
+     */
+    public int getFingerprintAvailability() {
+        return mFingerPrintSupportStatus.get();
+    }
+
+    /**
+     * Checks the fingerprint environment again on a background thread and
+     * publishes the result. Call it when the availability may have changed,
+     * e.g. in Activity.onResume and after the fingerprint permission was
+     * granted. Requests made while a check is pending are coalesced.
+     * <p>
+     * A permanent lockout is forgotten as well, the user may have unlocked
+     * the device with the PIN or password in between.
+     */
+    public void refreshAvailability() {
+        if (!isInitialized()) {
+            // 初始化完成时会检测并发布
+            return;
+        }
+        final FingerPrintAuthenticator authenticator = mAuthenticator;
+        if (authenticator != null) {
+            authenticator.getRetryScheduler().clearPermanentLockout();
+        }
+        final FingerPrintCapabilityCache capabilityCache = mCapabilityCache;
+        if (capabilityCache != null) {
+            // 上次探测失败的话重新探测
+            capabilityCache.clearFailedProbe();
+        }
+        if (mRefreshScheduled.compareAndSet(false, true)) {
+            mBackgroundExecutor.execute(mRefreshTask);
+        }
+    }
+
+    /**
+     * @param listener notified on the main thread whenever the published
+     *            availability changes
+     */
+    public void addAvailabilityListener(
+            FingerPrintAvailabilityListener listener) {
+        if (listener != null) {
+            mAvailabilityListeners.add(listener);
+        }
+    }
+
+    /**
+     * @param listener
+     */
+    public void removeAvailabilityListener(
+            FingerPrintAvailabilityListener listener) {
+        mAvailabilityListeners.remove(listener);
+    }
+
+    /**
+     * Checks the fingerprint environment on the calling thread and publishes
+     * the result. This talks to system services and secure hardware, prefer
+     * getFingerprintAvailability on the main thread. Concurrent checks are
+     * serialized so the last one published is the latest.
+     *
      * @return FINGERPRINT_UNAVAILABLE 支持指纹但是没有录入指纹；
      *         FINGERPRINT_AVAILABLE：有可用指纹； FINGERPRINT_UNSUPPORT，手机不支持指纹
      */
-    public int checkFingerprintAvailable() {
+    public synchronized int checkFingerprintAvailable() {
+        final int status = probeFingerprintAvailable();
+        publishAvailability(status);
+        return status;
+    }
+
+    private void publishAvailability(final int status) {
+        final int previous = mFingerPrintSupportStatus.getAndSet(status);
+        if (previous == status) {
+            return;
+        }
+        if (status == FINGERPRINT_AVAILABLE && mKeyProvisioner != null) {
+            // 后台预生成密钥，录入时无需等待安全硬件
+            mKeyProvisioner.refill();
+        }
+        if (mAvailabilityListeners.isEmpty()) {
+            return;
+        }
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (FingerPrintAvailabilityListener listener : mAvailabilityListeners) {
+                    listener.onAvailabilityChanged(FingerprintHelper.this,
+                            status);
+                }
+            }
+        });
+    }
+
+    private int probeFingerprintAvailable() {
         if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
             Log.e(TAG, "checkFingerprintAvailable:SDK_int");
             return FINGERPRINT_UNSUPPORT;
@@ -288,33 +930,100 @@ public class FingerprintHelper {
                 return FINGERPRINT_UNSUPPORT;
             }
             if (isFingerPrintGranted) {
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-                    if (!manager.isHardwareDetected()) {
-                        Log.e(TAG,
-                                "checkFingerprintAvailable:isHardwareDetected");
-                        return FINGERPRINT_UNSUPPORT;
-                    } else if (!manager.hasEnrolledFingerprints()) {
-                        Log.e(TAG,
-                                "checkFingerprintAvailable:hasEnrolledFingerprints");
-                        return FINGERPRINT_UNAVAILABLE;
-                    }
-                } else {
+                if (mSensor == null || !mSensor.isHardwareDetected()) {
+                    Log.e(TAG, "checkFingerprintAvailable:isHardwareDetected");
                     return FINGERPRINT_UNSUPPORT;
+                } else if (!mSensor.hasEnrolledFingerprints()) {
+                    Log.e(TAG,
+                            "checkFingerprintAvailable:hasEnrolledFingerprints");
+                    return FINGERPRINT_UNAVAILABLE;
                 }
             }
         }
         return FINGERPRINT_AVAILABLE;
     }
 
+    /**
+     * The probe generates a key in secure hardware, so its result is cached
+     * per build fingerprint, SDK level and enrollment state. A failed probe
+     * is retried on refreshAvailability.
+     *
+     * @return
+     */
     public boolean isKeyProtectedEnforcedBySecureHardware() {
-        if (null != mLocalAndroidKeyStore) {
-            return mLocalAndroidKeyStore
-                    .isKeyProtectedEnforcedBySecureHardware();
-        } else {
+        if (null == mLocalAndroidKeyStore) {
             Log.e(TAG,
                     "isKeyProtectedEnforcedBySecureHardware:mLocalAndroidKeyStore is null");
             return false;
         }
+        if (null == mCapabilityCache) {
+            return Boolean.TRUE
+                    .equals(mLocalAndroidKeyStore.probeSecureHardware());
+        }
+        return mCapabilityCache.isSecureHardware(mLocalAndroidKeyStore,
+                hasEnrolledFingerprints());
     }
 
+    private boolean hasEnrolledFingerprints() {
+        if (mSensor == null) {
+            return false;
+        }
+        try {
+            return mSensor.hasEnrolledFingerprints();
+        } catch (SecurityException e) {
+            // 未授予指纹权限时无法读取录入状态
+            return false;
+        }
+    }
+
+    private static class InitTask extends FutureTask<FingerprintHelper> {
+        private final Handler mMainHandler = new Handler(
+                Looper.getMainLooper());
+        private final List<FingerPrintInitListener> mListeners = new ArrayList<>();
+        private final FingerprintHelper mHelper;
+        private boolean mDelivered;
+
+        InitTask(final FingerprintHelper helper) {
+            super(new Callable<FingerprintHelper>() {
+                @Override
+                public FingerprintHelper call() {
+                    helper.initialize();
+                    return helper;
+                }
+            });
+            mHelper = helper;
+        }
+
+        void addListener(FingerPrintInitListener listener) {
+            synchronized (mListeners) {
+                if (!mDelivered) {
+                    mListeners.add(listener);
+                    return;
+                }
+            }
+            deliver(listener);
+        }
+
+        @Override
+        protected void done() {
+            List<FingerPrintInitListener> listeners;
+            synchronized (mListeners) {
+                mDelivered = true;
+                listeners = new ArrayList<>(mListeners);
+                mListeners.clear();
+            }
+            for (FingerPrintInitListener listener : listeners) {
+                deliver(listener);
+            }
+        }
+
+        private void deliver(final FingerPrintInitListener listener) {
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onInitialized(mHelper);
+                }
+            });
+        }
+    }
 }
@@ -0,0 +1,120 @@
+package com.vigorous.fingerprintchecker.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Default FingerPrintMetricsListener, keeping one histogram per stage, one
+ * counter per event and the last value of every gauge in memory. Read it
+ * from any thread to export the stats, e.g. periodically to a telemetry
+ * pipeline.
+ */
+public class FingerPrintMetrics implements FingerPrintMetricsListener {
+    private static final String[] STAGE_NAMES = { "keystore_load",
+            "key_lookup", "cipher_init", "prompt_to_touch", "do_final",
+            "key_cleanup" };
+    private static final String[] EVENT_NAMES = { "succeeded", "failed",
+            "help", "error", "lockout", "invalidated", "key_deleted",
+            "prompt_skipped", "retry_deferred" };
+    private static final String[] GAUGE_NAMES = { "key_count" };
+
+    private final FingerPrintHistogram[] mStages = new FingerPrintHistogram[STAGE_COUNT];
+    private final AtomicLongArray mEvents = new AtomicLongArray(EVENT_COUNT);
+    private final AtomicLongArray mGauges = new AtomicLongArray(GAUGE_COUNT);
+
+    public FingerPrintMetrics() {
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            mStages[i] = new FingerPrintHistogram();
+        }
+    }
+
+    @Override
+    public void onStage(int stage, long durationNanos) {
+        if (stage >= 0 && stage < STAGE_COUNT) {
+            mStages[stage].record(durationNanos);
+        }
+    }
+
+    @Override
+    public void onEvent(int event) {
+        if (event >= 0 && event < EVENT_COUNT) {
+            mEvents.incrementAndGet(event);
+        }
+    }
+
+    @Override
+    public void onGauge(int gauge, long value) {
+        if (gauge >= 0 && gauge < GAUGE_COUNT) {
+            mGauges.set(gauge, value);
+        }
+    }
+
+    /**
+     * @param stage one of the STAGE_ constants
+     * @return durations of stage, in nanoseconds
+     */
+    public FingerPrintHistogram getStage(int stage) {
+        return mStages[stage];
+    }
+
+    /**
+     * @param event one of the EVENT_ constants
+     * @return
+     */
+    public long getEventCount(int event) {
+        return mEvents.get(event);
+    }
+
+    /**
+     * @param gauge one of the GAUGE_ constants
+     * @return the last reported value
+     */
+    public long getGauge(int gauge) {
+        return mGauges.get(gauge);
+    }
+
+    public static String getStageName(int stage) {
+        return STAGE_NAMES[stage];
+    }
+
+    public static String getEventName(int event) {
+        return EVENT_NAMES[event];
+    }
+
+    public static String getGaugeName(int gauge) {
+        return GAUGE_NAMES[gauge];
+    }
+
+    /**
+     * Clears the histograms and counters. Gauges keep their last value.
+     */
+    public void reset() {
+        for (FingerPrintHistogram histogram : mStages) {
+            histogram.reset();
+        }
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            mEvents.set(i, 0);
+        }
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            final FingerPrintHistogram histogram = mStages[i];
+            builder.append(STAGE_NAMES[i]).append(": count=")
+                    .append(histogram.getCount()).append(" p50=")
+                    .append(histogram.getValueAtPercentile(50)).append(" p99=")
+                    .append(histogram.getValueAtPercentile(99)).append(" max=")
+                    .append(histogram.getMax()).append("ns\n");
+        }
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            builder.append(EVENT_NAMES[i]).append(": ")
+                    .append(mEvents.get(i)).append('\n');
+        }
+        for (int i = 0; i < GAUGE_COUNT; i++) {
+            builder.append(GAUGE_NAMES[i]).append(": ")
+                    .append(mGauges.get(i)).append('\n');
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,78 @@
+package com.vigorous.fingerprintchecker.metrics;
+
+/**
+ * Receives the timings and outcomes of every authentication, and the state
+ * of the fingerprint-gated keys. Methods are called on the thread doing the
+ * work, often the binder thread of a sensor callback, so implementations
+ * must be thread safe and return quickly. Arguments are primitives so
+ * reporting never allocates.
+ *
+ * @see FingerPrintMetrics
+ */
+public interface FingerPrintMetricsListener {
+    /** AndroidKeyStore load, once per process unless the store is reset */
+    int STAGE_KEYSTORE_LOAD = 0;
+    /** Lookup of a key handle that was not cached */
+    int STAGE_KEY_LOOKUP = 1;
+    /** Cipher creation and init with the fingerprint-gated key */
+    int STAGE_CIPHER_INIT = 2;
+    /** Sensor prompt until the first touch, recognized or not */
+    int STAGE_PROMPT_TO_TOUCH = 3;
+    /** Work with the unlocked cipher: doFinal and the marker check */
+    int STAGE_DO_FINAL = 4;
+    /** One pass of the key garbage collector, deletions included */
+    int STAGE_KEY_CLEANUP = 5;
+    int STAGE_COUNT = 6;
+
+    int EVENT_SUCCEEDED = 0;
+    /** A finger was not recognized */
+    int EVENT_FAILED = 1;
+    int EVENT_HELP = 2;
+    /** Sensor errors other than lockouts, including cancellation */
+    int EVENT_ERROR = 3;
+    int EVENT_LOCKOUT = 4;
+    /** The key was permanently invalidated, e.g. by a new enrollment */
+    int EVENT_INVALIDATED = 5;
+    /** A stale key was deleted from the keystore */
+    int EVENT_KEY_DELETED = 6;
+    /** A time-bound key was used within its validity window, no prompt */
+    int EVENT_PROMPT_SKIPPED = 7;
+    /** Rejected without a session during a known lockout or backoff */
+    int EVENT_RETRY_DEFERRED = 8;
+    int EVENT_COUNT = 9;
+
+    /** Keys of this library in the keystore, assigned or pooled */
+    int GAUGE_KEY_COUNT = 0;
+    int GAUGE_COUNT = 1;
+
+    FingerPrintMetricsListener NONE = new FingerPrintMetricsListener() {
+        @Override
+        public void onStage(int stage, long durationNanos) {
+        }
+
+        @Override
+        public void onEvent(int event) {
+        }
+
+        @Override
+        public void onGauge(int gauge, long value) {
+        }
+    };
+
+    /**
+     * @param stage one of the STAGE_ constants
+     * @param durationNanos
+     */
+    void onStage(int stage, long durationNanos);
+
+    /**
+     * @param event one of the EVENT_ constants
+     */
+    void onEvent(int event);
+
+    /**
+     * @param gauge one of the GAUGE_ constants
+     * @param value the current value, replacing the previous one
+     */
+    void onGauge(int gauge, long value);
+}
@@ -0,0 +1,19 @@
+package com.vigorous.fingerprintchecker.platform;
+
+import android.util.Base64;
+
+/**
+ * URL safe Base64, as stored by existing callers.
+ */
+public class AndroidFingerPrintEncoder implements FingerPrintEncoder {
+
+    @Override
+    public String encode(byte[] data) {
+        return Base64.encodeToString(data, Base64.URL_SAFE);
+    }
+
+    @Override
+    public byte[] decode(String text) {
+        return Base64.decode(text, Base64.URL_SAFE);
+    }
+}
@@ -0,0 +1,16 @@
+package com.vigorous.fingerprintchecker.platform;
+
+import android.util.Log;
+
+public class AndroidFingerPrintLogger implements FingerPrintLogger {
+
+    @Override
+    public void d(String tag, String msg) {
+        Log.d(tag, msg);
+    }
+
+    @Override
+    public void e(String tag, String msg) {
+        Log.e(tag, msg);
+    }
+}
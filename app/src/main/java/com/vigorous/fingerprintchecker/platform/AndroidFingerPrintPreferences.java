@@ -0,0 +1,27 @@
+package com.vigorous.fingerprintchecker.platform;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+public class AndroidFingerPrintPreferences implements FingerPrintPreferences {
+    private final SharedPreferences mPreferences;
+
+    public AndroidFingerPrintPreferences(Context context, String name) {
+        mPreferences = context.getSharedPreferences(name,
+                Context.MODE_PRIVATE);
+    }
+
+    @Override
+    public String getString(String key) {
+        return mPreferences.getString(key, null);
+    }
+
+    @Override
+    public void putString(String key, String value) {
+        if (value == null) {
+            mPreferences.edit().remove(key).apply();
+        } else {
+            mPreferences.edit().putString(key, value).apply();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.vigorous.fingerprintchecker.platform;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.hardware.fingerprint.FingerprintManager;
+import android.os.Build;
+import android.os.CancellationSignal;
+import java.security.Signature;
+import javax.crypto.Cipher;
+
+/**
+ * FingerPrintSensor backed by FingerprintManager. Reports no hardware below
+ * Android M.
+ */
+@SuppressLint("NewApi")
+public class AndroidFingerPrintSensor implements FingerPrintSensor {
+    private final FingerprintManager mManager;
+
+    public AndroidFingerPrintSensor(Context context) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            mManager = context.getSystemService(FingerprintManager.class);
+        } else {
+            mManager = null;
+        }
+    }
+
+    @Override
+    public boolean isHardwareDetected() {
+        return mManager != null && mManager.isHardwareDetected();
+    }
+
+    @Override
+    public boolean hasEnrolledFingerprints() {
+        return mManager != null && mManager.hasEnrolledFingerprints();
+    }
+
+    @Override
+    public Cancellable authenticate(Cipher cipher, Callback callback) {
+        if (mManager == null) {
+            return null;
+        }
+        // FingerprintManager不区分并发的认证，每次调用需独立的回调与CancellationSignal
+        final Listener listener = new Listener(callback);
+        mManager.authenticate(
+                cipher == null ? null
+                        : new FingerprintManager.CryptoObject(cipher),
+                listener.mSignal, 0, listener, null);
+        return listener;
+    }
+
+    @Override
+    public Cancellable authenticateSignature(Signature signature,
+            Callback callback) {
+        if (mManager == null) {
+            return null;
+        }
+        final Listener listener = new Listener(callback);
+        mManager.authenticate(new FingerprintManager.CryptoObject(signature),
+                listener.mSignal, 0, listener, null);
+        return listener;
+    }
+
+    /**
+     * The platform callback and cancellation handle of one authentication.
+     */
+    private static final class Listener
+            extends FingerprintManager.AuthenticationCallback
+            implements Cancellable {
+        final CancellationSignal mSignal = new CancellationSignal();
+        private final Callback mCallback;
+
+        Listener(Callback callback) {
+            mCallback = callback;
+        }
+
+        @Override
+        public void onAuthenticationSucceeded(
+                FingerprintManager.AuthenticationResult result) {
+            mCallback.onAuthenticationSucceeded(
+                    result.getCryptoObject() == null ? null
+                            : result.getCryptoObject().getCipher());
+        }
+
+        @Override
+        public void onAuthenticationError(int errorCode,
+                CharSequence errString) {
+            mCallback.onAuthenticationError(errorCode, errString);
+        }
+
+        @Override
+        public void onAuthenticationHelp(int helpCode,
+                CharSequence helpString) {
+            mCallback.onAuthenticationHelp(helpCode, helpString);
+        }
+
+        @Override
+        public void onAuthenticationFailed() {
+            mCallback.onAuthenticationFailed();
+        }
+
+        @Override
+        public void cancel() {
+            mSignal.cancel();
+        }
+    }
+}
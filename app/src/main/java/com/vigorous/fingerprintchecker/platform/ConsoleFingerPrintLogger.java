@@ -0,0 +1,24 @@
+package com.vigorous.fingerprintchecker.platform;
+
+/**
+ * Logs errors to System.err. Debug messages are only printed if verbose.
+ */
+public class ConsoleFingerPrintLogger implements FingerPrintLogger {
+    private final boolean mVerbose;
+
+    public ConsoleFingerPrintLogger(boolean verbose) {
+        mVerbose = verbose;
+    }
+
+    @Override
+    public void d(String tag, String msg) {
+        if (mVerbose) {
+            System.out.println(tag + ": " + msg);
+        }
+    }
+
+    @Override
+    public void e(String tag, String msg) {
+        System.err.println(tag + ": " + msg);
+    }
+}
@@ -0,0 +1,14 @@
+package com.vigorous.fingerprintchecker.platform;
+
+/**
+ * Text encoding of tokens, IVs and wrapped keys handed to callers.
+ */
+public interface FingerPrintEncoder {
+
+    String encode(byte[] data);
+
+    /**
+     * @throws IllegalArgumentException if text is not validly encoded
+     */
+    byte[] decode(String text);
+}
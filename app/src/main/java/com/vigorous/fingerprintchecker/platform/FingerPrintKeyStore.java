@@ -0,0 +1,119 @@
+package com.vigorous.fingerprintchecker.platform;
+
+import com.vigorous.fingerprintchecker.exception.FingerPrintInvalidException;
+import com.vigorous.fingerprintchecker.metrics.FingerPrintMetricsListener;
+import java.security.Signature;
+import javax.crypto.Cipher;
+
+/**
+ * Store of the fingerprint-gated AES/CBC keys, keyed by key name, and of the
+ * fingerprint-gated EC signing keys, whose key names are separate.
+ */
+public interface FingerPrintKeyStore {
+    /** IV size of the fingerprint-gated cipher, in bytes */
+    int IV_SIZE = 16;
+    /** Algorithm of the signing keys, ECDSA over NIST P-256 */
+    String SIGNATURE_ALGORITHM = "SHA256withECDSA";
+    /** checkKey: the key can be used once the user authenticates */
+    int KEY_VALID = 0;
+    /** checkKey: there is no key */
+    int KEY_MISSING = 1;
+    /** checkKey: the key was permanently invalidated by a new enrollment */
+    int KEY_INVALIDATED = 2;
+    /** checkKey: the keystore could not be queried, check again later */
+    int KEY_UNKNOWN = 3;
+
+    /**
+     * Generates the key of keyName, replacing an existing one.
+     *
+     * @param keyName
+     * @return
+     */
+    boolean generateKey(String keyName);
+
+    /**
+     * @param keyName
+     * @param mode Cipher.ENCRYPT_MODE or Cipher.DECRYPT_MODE
+     * @param IV read from IV[ivOffset, ivOffset + ivLength), ignored when
+     *            mode is Cipher.ENCRYPT_MODE
+     * @return a cipher initialized with the key of keyName, or null on error
+     * @throws FingerPrintInvalidException if the key was permanently
+     *             invalidated, e.g. by a new enrollment
+     */
+    Cipher getCipher(String keyName, int mode, byte[] IV, int ivOffset,
+            int ivLength) throws FingerPrintInvalidException;
+
+    /**
+     * Generates the EC key pair of keyName, replacing an existing one. Its
+     * private key signs once per successful touch.
+     *
+     * @param keyName
+     * @return
+     */
+    boolean generateSigningKey(String keyName);
+
+    /**
+     * @param keyName
+     * @return the X.509 encoded public key of the signing key of keyName, to
+     *         be registered with the server, or null if there is none
+     */
+    byte[] getPublicKey(String keyName);
+
+    /**
+     * @param keyName
+     * @return a Signature initialized for signing with the signing key of
+     *         keyName, or null on error
+     * @throws FingerPrintInvalidException if the key was permanently
+     *             invalidated, e.g. by a new enrollment
+     */
+    Signature getSignature(String keyName) throws FingerPrintInvalidException;
+
+    /**
+     * A time-bound key is not unlocked by the sensor for a single operation.
+     * It can be used without a prompt for a while after the user
+     * authenticated, and getCipher returns null outside of that window.
+     *
+     * @param keyName
+     * @return true if the key of keyName is time-bound
+     */
+    boolean isTimeBound(String keyName);
+
+    /**
+     * Checks the key of keyName without user authentication, e.g. to find
+     * the keys invalidated by a new enrollment before the user touches the
+     * sensor.
+     *
+     * @param keyName
+     * @return KEY_VALID, KEY_MISSING, KEY_INVALIDATED or KEY_UNKNOWN
+     */
+    int checkKey(String keyName);
+
+    /**
+     * Prepares the next getCipher call of keyName ahead of time.
+     *
+     * @param keyName
+     */
+    void prewarm(String keyName);
+
+    /**
+     * Drops everything cached for keyName.
+     *
+     * @param keyName
+     */
+    void invalidate(String keyName);
+
+    /**
+     * Generates and deletes a throwaway key to find out whether keys are
+     * protected by secure hardware.
+     *
+     * @return the result, or null if the probe failed and the answer is
+     *         unknown
+     */
+    Boolean probeSecureHardware();
+
+    /**
+     * @param listener receives the keystore load, key lookup and cipher init
+     *            timings
+     */
+    void setMetricsListener(FingerPrintMetricsListener listener);
+}
@@ -0,0 +1,8 @@
+package com.vigorous.fingerprintchecker.platform;
+
+public interface FingerPrintLogger {
+
+    void d(String tag, String msg);
+
+    void e(String tag, String msg);
+}
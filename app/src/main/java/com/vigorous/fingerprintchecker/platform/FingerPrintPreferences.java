@@ -0,0 +1,22 @@
+package com.vigorous.fingerprintchecker.platform;
+
+/**
+ * Small persistent key value store, SharedPreferences on Android.
+ */
+public interface FingerPrintPreferences {
+
+    /**
+     * @param key
+     * @return the stored value, or null if there is none
+     */
+    String getString(String key);
+
+    /**
+     * Stores value without waiting for the disk, like
+     * SharedPreferences.Editor.apply.
+     *
+     * @param key
+     * @param value null removes the key
+     */
+    void putString(String key, String value);
+}
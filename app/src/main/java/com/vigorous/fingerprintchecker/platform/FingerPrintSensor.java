@@ -0,0 +1,84 @@
+package com.vigorous.fingerprintchecker.platform;
+
+import java.security.Signature;
+import javax.crypto.Cipher;
+
+/**
+ * The fingerprint sensor as seen by the authentication engine. The Android
+ * implementation wraps FingerprintManager, {@link InMemoryFingerPrintSensor}
+ * is driven by the caller on a plain JVM.
+ */
+public interface FingerPrintSensor {
+    /** Error codes, same values as FingerprintManager.FINGERPRINT_ERROR_ */
+    int ERROR_HW_UNAVAILABLE = 1;
+    int ERROR_UNABLE_TO_PROCESS = 2;
+    int ERROR_TIMEOUT = 3;
+    int ERROR_NO_SPACE = 4;
+    int ERROR_CANCELED = 5;
+    int ERROR_LOCKOUT = 7;
+    int ERROR_VENDOR = 8;
+    int ERROR_LOCKOUT_PERMANENT = 9;
+    int ERROR_USER_CANCELED = 10;
+
+    /**
+     * @return false if there is no sensor or the platform does not support
+     *         fingerprint authentication
+     */
+    boolean isHardwareDetected();
+
+    /**
+     * @throws SecurityException if the fingerprint permission is not granted
+     */
+    boolean hasEnrolledFingerprints();
+
+    /**
+     * Starts listening for a touch that unlocks cipher.
+     *
+     * @param cipher initialized with a fingerprint-gated key, or null to only
+     *            authenticate the user, which opens the validity window of
+     *            time-bound keys
+     * @param callback receives the events of this authentication
+     * @return handle to cancel this authentication, or null if it could not
+     *         be started
+     * @throws SecurityException if the fingerprint permission is not granted
+     */
+    Cancellable authenticate(Cipher cipher, Callback callback);
+
+    /**
+     * Starts listening for a touch that unlocks signature for one signing
+     * operation. The callback receives a null cipher, signature itself is
+     * unlocked.
+     *
+     * @param signature initialized for signing with a fingerprint-gated key
+     * @param callback receives the events of this authentication
+     * @return handle to cancel this authentication, or null if it could not
+     *         be started
+     * @throws SecurityException if the fingerprint permission is not granted
+     */
+    Cancellable authenticateSignature(Signature signature, Callback callback);
+
+    interface Callback {
+        /**
+         * @param cipher the unlocked cipher, or null if the platform did not
+         *            return it
+         */
+        void onAuthenticationSucceeded(Cipher cipher);
+
+        /**
+         * A finger was not recognized. The sensor keeps listening.
+         */
+        void onAuthenticationFailed();
+
+        void onAuthenticationHelp(int helpCode, CharSequence helpString);
+
+        /**
+         * An unrecoverable error, e.g. lockout or cancellation. No further
+         * event follows.
+         */
+        void onAuthenticationError(int errorCode, CharSequence errString);
+    }
+
+    interface Cancellable {
+        void cancel();
+    }
+}
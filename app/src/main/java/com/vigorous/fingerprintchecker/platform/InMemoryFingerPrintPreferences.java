@@ -0,0 +1,26 @@
+package com.vigorous.fingerprintchecker.platform;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * FingerPrintPreferences held in memory, for running on a plain JVM. Share
+ * one instance to simulate a restart of the process.
+ */
+public class InMemoryFingerPrintPreferences implements FingerPrintPreferences {
+    private final Map<String, String> mValues = new ConcurrentHashMap<>();
+
+    @Override
+    public String getString(String key) {
+        return mValues.get(key);
+    }
+
+    @Override
+    public void putString(String key, String value) {
+        if (value == null) {
+            mValues.remove(key);
+        } else {
+            mValues.put(key, value);
+        }
+    }
+}
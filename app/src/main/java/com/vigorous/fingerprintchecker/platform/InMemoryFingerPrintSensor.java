@@ -0,0 +1,164 @@
+package com.vigorous.fingerprintchecker.platform;
+
+import java.security.Signature;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import javax.crypto.Cipher;
+
+/**
+ * FingerPrintSensor driven by the caller, for running the authentication
+ * engine on a plain JVM. Events go to the oldest running authentication and
+ * are delivered on the calling thread.
+ */
+public class InMemoryFingerPrintSensor implements FingerPrintSensor {
+    private final Deque<Pending> mPending = new ArrayDeque<>();
+    private volatile boolean mHardwareDetected = true;
+    private volatile boolean mEnrolled = true;
+    private volatile boolean mAutoTouch;
+
+    private final class Pending implements Cancellable {
+        final Cipher mCipher;
+        final Callback mCallback;
+
+        Pending(Cipher cipher, Callback callback) {
+            mCipher = cipher;
+            mCallback = callback;
+        }
+
+        @Override
+        public void cancel() {
+            if (remove(this)) {
+                mCallback.onAuthenticationError(ERROR_CANCELED, "Canceled");
+            }
+        }
+    }
+
+    @Override
+    public boolean isHardwareDetected() {
+        return mHardwareDetected;
+    }
+
+    @Override
+    public boolean hasEnrolledFingerprints() {
+        return mEnrolled;
+    }
+
+    @Override
+    public Cancellable authenticate(Cipher cipher, Callback callback) {
+        if (!mHardwareDetected) {
+            return null;
+        }
+        final Pending pending = new Pending(cipher, callback);
+        if (mAutoTouch) {
+            callback.onAuthenticationSucceeded(cipher);
+            return pending;
+        }
+        synchronized (mPending) {
+            mPending.addLast(pending);
+        }
+        return pending;
+    }
+
+    /**
+     * Same as authenticate, touch succeeds with a null cipher.
+     */
+    @Override
+    public Cancellable authenticateSignature(Signature signature,
+            Callback callback) {
+        return authenticate((Cipher) null, callback);
+    }
+
+    public void setHardwareDetected(boolean hardwareDetected) {
+        mHardwareDetected = hardwareDetected;
+    }
+
+    public void setEnrolled(boolean enrolled) {
+        mEnrolled = enrolled;
+    }
+
+    /**
+     * @param autoTouch if true every authentication succeeds at once, on
+     *            the thread that started it
+     */
+    public void setAutoTouch(boolean autoTouch) {
+        mAutoTouch = autoTouch;
+    }
+
+    /**
+     * @return number of authentications waiting for a touch
+     */
+    public int getPendingCount() {
+        synchronized (mPending) {
+            return mPending.size();
+        }
+    }
+
+    /**
+     * Touch with an enrolled finger.
+     *
+     * @return false if no authentication is running
+     */
+    public boolean touch() {
+        final Pending pending = poll();
+        if (pending == null) {
+            return false;
+        }
+        pending.mCallback.onAuthenticationSucceeded(pending.mCipher);
+        return true;
+    }
+
+    /**
+     * Touch with an unknown finger. The authentication keeps running.
+     *
+     * @return false if no authentication is running
+     */
+    public boolean reject() {
+        final Pending pending = peek();
+        if (pending == null) {
+            return false;
+        }
+        pending.mCallback.onAuthenticationFailed();
+        return true;
+    }
+
+    public boolean help(int helpCode, CharSequence helpString) {
+        final Pending pending = peek();
+        if (pending == null) {
+            return false;
+        }
+        pending.mCallback.onAuthenticationHelp(helpCode, helpString);
+        return true;
+    }
+
+    /**
+     * Ends the oldest authentication with an error, e.g. a lockout.
+     *
+     * @return false if no authentication is running
+     */
+    public boolean error(int errorCode, CharSequence errString) {
+        final Pending pending = poll();
+        if (pending == null) {
+            return false;
+        }
+        pending.mCallback.onAuthenticationError(errorCode, errString);
+        return true;
+    }
+
+    private Pending peek() {
+        synchronized (mPending) {
+            return mPending.peekFirst();
+        }
+    }
+
+    private Pending poll() {
+        synchronized (mPending) {
+            return mPending.pollFirst();
+        }
+    }
+
+    private boolean remove(Pending pending) {
+        synchronized (mPending) {
+            return mPending.remove(pending);
+        }
+    }
+}
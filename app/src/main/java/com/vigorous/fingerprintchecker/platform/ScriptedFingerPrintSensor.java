@@ -0,0 +1,263 @@
+package com.vigorous.fingerprintchecker.platform;
+
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.crypto.Cipher;
+
+/**
+ * FingerPrintSensor replaying the same trace of events for every
+ * authentication, for load tests of the authentication engine on a plain
+ * JVM. Unlike {@link InMemoryFingerPrintSensor} nobody has to touch it, and
+ * any number of authentications run concurrently, each with its own replay.
+ * <p>
+ * Every event of a trace has a delay relative to the previous one. Events
+ * without delay are delivered on the thread that started the authentication
+ * or delivered the previous event; the others are scheduled on the
+ * executor. A replay ends with the first succeed or error event, a trace
+ * without one keeps the authentication running until it is cancelled.
+ */
+public class ScriptedFingerPrintSensor implements FingerPrintSensor {
+    public static final int EVENT_SUCCEEDED = 0;
+    public static final int EVENT_FAILED = 1;
+    public static final int EVENT_HELP = 2;
+    public static final int EVENT_ERROR = 3;
+
+    private final Event[] mEvents;
+    private final ScheduledExecutorService mScheduler;
+    private volatile boolean mHardwareDetected = true;
+    private volatile boolean mEnrolled = true;
+
+    private static final class Event {
+        final int mType;
+        final int mCode;
+        final long mDelayNanos;
+
+        Event(int type, int code, long delayNanos) {
+            mType = type;
+            mCode = code;
+            mDelayNanos = delayNanos;
+        }
+    }
+
+    /**
+     * The events of one authentication, in order.
+     */
+    public static final class Trace {
+        private final List<Event> mEvents = new ArrayList<>();
+
+        public Trace succeed(long delay, TimeUnit unit) {
+            return add(EVENT_SUCCEEDED, 0, delay, unit);
+        }
+
+        /**
+         * A finger that is not recognized.
+         */
+        public Trace fail(long delay, TimeUnit unit) {
+            return add(EVENT_FAILED, 0, delay, unit);
+        }
+
+        public Trace help(int helpCode, long delay, TimeUnit unit) {
+            return add(EVENT_HELP, helpCode, delay, unit);
+        }
+
+        public Trace error(int errorCode, long delay, TimeUnit unit) {
+            return add(EVENT_ERROR, errorCode, delay, unit);
+        }
+
+        public Trace lockout(long delay, TimeUnit unit) {
+            return error(ERROR_LOCKOUT, delay, unit);
+        }
+
+        /**
+         * Parses a trace like "fail@200,help:1,succeed@500": comma separated
+         * events succeed, fail, help:code, error:code, lockout or
+         * lockout_permanent, each optionally followed by @ and its delay in
+         * microseconds.
+         *
+         * @param script
+         * @return
+         * @throws IllegalArgumentException if script is malformed
+         */
+        public static Trace parse(String script) {
+            final Trace trace = new Trace();
+            for (String token : script.split(",")) {
+                String event = token.trim();
+                long delayMicros = 0;
+                final int at = event.indexOf('@');
+                if (at >= 0) {
+                    delayMicros = parseNumber(event.substring(at + 1),
+                            script);
+                    event = event.substring(0, at);
+                }
+                int code = 0;
+                final int colon = event.indexOf(':');
+                if (colon >= 0) {
+                    code = (int) parseNumber(event.substring(colon + 1),
+                            script);
+                    event = event.substring(0, colon);
+                }
+                switch (event) {
+                case "succeed":
+                    trace.succeed(delayMicros, TimeUnit.MICROSECONDS);
+                    break;
+                case "fail":
+                    trace.fail(delayMicros, TimeUnit.MICROSECONDS);
+                    break;
+                case "help":
+                    trace.help(code, delayMicros, TimeUnit.MICROSECONDS);
+                    break;
+                case "error":
+                    trace.error(code, delayMicros, TimeUnit.MICROSECONDS);
+                    break;
+                case "lockout":
+                    trace.lockout(delayMicros, TimeUnit.MICROSECONDS);
+                    break;
+                case "lockout_permanent":
+                    trace.error(ERROR_LOCKOUT_PERMANENT, delayMicros,
+                            TimeUnit.MICROSECONDS);
+                    break;
+                default:
+                    throw new IllegalArgumentException(
+                            "Unknown event " + event + " in " + script);
+                }
+            }
+            return trace;
+        }
+
+        private Trace add(int type, int code, long delay, TimeUnit unit) {
+            if (delay < 0) {
+                throw new IllegalArgumentException(
+                        "delay must not be negative");
+            }
+            mEvents.add(new Event(type, code, unit.toNanos(delay)));
+            return this;
+        }
+
+        private static long parseNumber(String number, String script) {
+            try {
+                return Long.parseLong(number.trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(
+                        "Malformed number " + number + " in " + script, e);
+            }
+        }
+    }
+
+    private final class Replay implements Cancellable, Runnable {
+        private final Cipher mCipher;
+        private final Callback mCallback;
+        private final AtomicBoolean mFinished = new AtomicBoolean();
+        private int mNext;
+
+        Replay(Cipher cipher, Callback callback) {
+            mCipher = cipher;
+            mCallback = callback;
+        }
+
+        /**
+         * Delivers the due event and the following ones without delay, then
+         * schedules the next one.
+         */
+        @Override
+        public void run() {
+            do {
+                if (mFinished.get()) {
+                    return;
+                }
+                deliver(mEvents[mNext++]);
+            } while (mNext < mEvents.length
+                    && mEvents[mNext].mDelayNanos == 0);
+            schedule();
+        }
+
+        void schedule() {
+            if (mNext >= mEvents.length || mFinished.get()) {
+                return;
+            }
+            final long delayNanos = mEvents[mNext].mDelayNanos;
+            if (delayNanos == 0 || mScheduler == null) {
+                run();
+            } else {
+                mScheduler.schedule(this, delayNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        @Override
+        public void cancel() {
+            if (mFinished.compareAndSet(false, true)) {
+                mCallback.onAuthenticationError(ERROR_CANCELED, "Canceled");
+            }
+        }
+
+        private void deliver(Event event) {
+            switch (event.mType) {
+            case EVENT_SUCCEEDED:
+                if (mFinished.compareAndSet(false, true)) {
+                    mCallback.onAuthenticationSucceeded(mCipher);
+                }
+                break;
+            case EVENT_FAILED:
+                mCallback.onAuthenticationFailed();
+                break;
+            case EVENT_HELP:
+                mCallback.onAuthenticationHelp(event.mCode, "Help");
+                break;
+            default:
+                if (mFinished.compareAndSet(false, true)) {
+                    mCallback.onAuthenticationError(event.mCode, "Error");
+                }
+                break;
+            }
+        }
+    }
+
+    /**
+     * @param trace replayed for every authentication, later changes to it
+     *            are not seen
+     * @param scheduler runs the delayed events, null to deliver every event
+     *            at once and ignore the delays
+     */
+    public ScriptedFingerPrintSensor(Trace trace,
+            ScheduledExecutorService scheduler) {
+        mEvents = trace.mEvents.toArray(new Event[trace.mEvents.size()]);
+        mScheduler = scheduler;
+    }
+
+    @Override
+    public boolean isHardwareDetected() {
+        return mHardwareDetected;
+    }
+
+    @Override
+    public boolean hasEnrolledFingerprints() {
+        return mEnrolled;
+    }
+
+    @Override
+    public Cancellable authenticate(Cipher cipher, Callback callback) {
+        if (!mHardwareDetected) {
+            return null;
+        }
+        final Replay replay = new Replay(cipher, callback);
+        replay.schedule();
+        return replay;
+    }
+
+    @Override
+    public Cancellable authenticateSignature(Signature signature,
+            Callback callback) {
+        return authenticate((Cipher) null, callback);
+    }
+
+    public void setHardwareDetected(boolean hardwareDetected) {
+        mHardwareDetected = hardwareDetected;
+    }
+
+    public void setEnrolled(boolean enrolled) {
+        mEnrolled = enrolled;
+    }
+}
@@ -0,0 +1,77 @@
+package com.vigorous.fingerprintchecker.platform;
+
+/**
+ * URL safe Base64 for plain JVMs, compatible with
+ * {@link AndroidFingerPrintEncoder}: output is padded and not wrapped, line
+ * breaks written by android.util.Base64 are skipped on decode.
+ */
+public class SoftwareFingerPrintEncoder implements FingerPrintEncoder {
+    private static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_"
+            .toCharArray();
+    private static final int[] VALUES = new int[128];
+
+    static {
+        for (int i = 0; i < VALUES.length; i++) {
+            VALUES[i] = -1;
+        }
+        for (int i = 0; i < ALPHABET.length; i++) {
+            VALUES[ALPHABET[i]] = i;
+        }
+    }
+
+    @Override
+    public String encode(byte[] data) {
+        final StringBuilder out = new StringBuilder((data.length + 2) / 3 * 4);
+        for (int i = 0; i < data.length; i += 3) {
+            final int remaining = data.length - i;
+            final int chunk = (data[i] & 0xff) << 16
+                    | (remaining > 1 ? (data[i + 1] & 0xff) << 8 : 0)
+                    | (remaining > 2 ? data[i + 2] & 0xff : 0);
+            out.append(ALPHABET[chunk >>> 18 & 0x3f]);
+            out.append(ALPHABET[chunk >>> 12 & 0x3f]);
+            out.append(remaining > 1 ? ALPHABET[chunk >>> 6 & 0x3f] : '=');
+            out.append(remaining > 2 ? ALPHABET[chunk & 0x3f] : '=');
+        }
+        return out.toString();
+    }
+
+    @Override
+    public byte[] decode(String text) {
+        final byte[] buffer = new byte[text.length() * 3 / 4];
+        int length = 0;
+        int chunk = 0;
+        int count = 0;
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            if (c == '\n' || c == '\r' || c == ' ' || c == '\t') {
+                continue;
+            }
+            if (c == '=') {
+                break;
+            }
+            final int value = c < VALUES.length ? VALUES[c] : -1;
+            if (value < 0) {
+                throw new IllegalArgumentException("bad base-64");
+            }
+            chunk = chunk << 6 | value;
+            if (++count == 4) {
+                buffer[length++] = (byte) (chunk >>> 16);
+                buffer[length++] = (byte) (chunk >>> 8);
+                buffer[length++] = (byte) chunk;
+                chunk = 0;
+                count = 0;
+            }
+        }
+        if (count == 1) {
+            throw new IllegalArgumentException("bad base-64");
+        } else if (count == 2) {
+            buffer[length++] = (byte) (chunk >>> 4);
+        } else if (count == 3) {
+            buffer[length++] = (byte) (chunk >>> 10);
+            buffer[length++] = (byte) (chunk >>> 2);
+        }
+        final byte[] data = new byte[length];
+        System.arraycopy(buffer, 0, data, 0, length);
+        return data;
+    }
+}
@@ -0,0 +1,201 @@
+package com.vigorous.fingerprintchecker.platform;
+
+import com.vigorous.fingerprintchecker.exception.FingerPrintInvalidException;
+import com.vigorous.fingerprintchecker.metrics.FingerPrintMetricsListener;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+
+/**
+ * FingerPrintKeyStore of software AES and EC keys held in memory, for running
+ * the authentication engine on a plain JVM. Keys are not gated by anything,
+ * the sensor decides whether a cipher is handed back. Time-bound keys are
+ * always inside their validity window, the engine decides when to prompt.
+ */
+public class SoftwareFingerPrintKeyStore implements FingerPrintKeyStore {
+    // PKCS5Padding is the JCA name of PKCS7 padding for 16 byte blocks
+    public static final String TRANSFORMATION = "AES/CBC/PKCS5Padding";
+    private static final int KEY_BITS = 256;
+
+    private final ConcurrentHashMap<String, SecretKey> mKeys = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, KeyPair> mSigningKeys = new ConcurrentHashMap<>();
+    private final Set<String> mInvalidated = Collections
+            .newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final Set<String> mTimeBound = Collections
+            .newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private volatile Boolean mSecureHardware = true;
+    private volatile FingerPrintMetricsListener mMetrics = FingerPrintMetricsListener.NONE;
+
+    @Override
+    public boolean generateKey(String keyName) {
+        return generateKey(keyName, 0);
+    }
+
+    /**
+     * @param keyName
+     * @param validitySeconds greater than 0 to generate a time-bound key
+     * @return
+     */
+    public boolean generateKey(String keyName, int validitySeconds) {
+        if (validitySeconds > 0) {
+            mTimeBound.add(keyName);
+        } else {
+            mTimeBound.remove(keyName);
+        }
+        try {
+            final KeyGenerator generator = KeyGenerator.getInstance("AES");
+            generator.init(KEY_BITS);
+            mKeys.put(keyName, generator.generateKey());
+            mInvalidated.remove(keyName);
+            return true;
+        } catch (GeneralSecurityException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    @Override
+    public Cipher getCipher(String keyName, int mode, byte[] IV,
+            int ivOffset, int ivLength) throws FingerPrintInvalidException {
+        if (mInvalidated.contains(keyName)) {
+            throw new FingerPrintInvalidException("key permanently invalidated");
+        }
+        final SecretKey key = mKeys.get(keyName);
+        if (key == null) {
+            return null;
+        }
+        try {
+            final long start = System.nanoTime();
+            final Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            if (mode == Cipher.ENCRYPT_MODE) {
+                cipher.init(mode, key);
+            } else {
+                cipher.init(mode, key,
+                        new IvParameterSpec(IV, ivOffset, ivLength));
+            }
+            mMetrics.onStage(FingerPrintMetricsListener.STAGE_CIPHER_INIT,
+                    System.nanoTime() - start);
+            return cipher;
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    @Override
+    public boolean generateSigningKey(String keyName) {
+        try {
+            final KeyPairGenerator generator = KeyPairGenerator
+                    .getInstance("EC");
+            generator.initialize(new ECGenParameterSpec("secp256r1"));
+            mSigningKeys.put(keyName, generator.generateKeyPair());
+            return true;
+        } catch (GeneralSecurityException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    @Override
+    public byte[] getPublicKey(String keyName) {
+        final KeyPair keyPair = mSigningKeys.get(keyName);
+        return keyPair == null ? null : keyPair.getPublic().getEncoded();
+    }
+
+    @Override
+    public Signature getSignature(String keyName)
+            throws FingerPrintInvalidException {
+        final KeyPair keyPair = mSigningKeys.get(keyName);
+        if (keyPair == null) {
+            return null;
+        }
+        try {
+            final long start = System.nanoTime();
+            final Signature signature = Signature
+                    .getInstance(SIGNATURE_ALGORITHM);
+            signature.initSign(keyPair.getPrivate());
+            mMetrics.onStage(FingerPrintMetricsListener.STAGE_CIPHER_INIT,
+                    System.nanoTime() - start);
+            return signature;
+        } catch (GeneralSecurityException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    @Override
+    public boolean isTimeBound(String keyName) {
+        return mTimeBound.contains(keyName);
+    }
+
+    @Override
+    public int checkKey(String keyName) {
+        final SecretKey key = mKeys.get(keyName);
+        if (key == null) {
+            return KEY_MISSING;
+        }
+        if (mInvalidated.contains(keyName)) {
+            return KEY_INVALIDATED;
+        }
+        try {
+            // same work as the cipher init probe of the AndroidKeyStore
+            Cipher.getInstance(TRANSFORMATION).init(Cipher.ENCRYPT_MODE, key);
+            return KEY_VALID;
+        } catch (GeneralSecurityException e) {
+            return KEY_UNKNOWN;
+        }
+    }
+
+    @Override
+    public void prewarm(String keyName) {
+        // Cipher.getInstance is cheap in software
+    }
+
+    @Override
+    public void invalidate(String keyName) {
+        // keys are held directly, there is no cached state
+    }
+
+    @Override
+    public Boolean probeSecureHardware() {
+        return mSecureHardware;
+    }
+
+    @Override
+    public void setMetricsListener(FingerPrintMetricsListener listener) {
+        mMetrics = listener == null ? FingerPrintMetricsListener.NONE
+                : listener;
+    }
+
+    /**
+     * @param secureHardware the probe result, null simulates a failing probe
+     */
+    public void setSecureHardware(Boolean secureHardware) {
+        mSecureHardware = secureHardware;
+    }
+
+    /**
+     * Simulates a new enrollment invalidating the key of keyName: getCipher
+     * throws until the key is generated again.
+     *
+     * @param keyName
+     */
+    public void permanentlyInvalidate(String keyName) {
+        if (mKeys.containsKey(keyName)) {
+            mInvalidated.add(keyName);
+        }
+    }
+
+    public boolean containsKey(String keyName) {
+        return mKeys.containsKey(keyName);
+    }
+}
@@ -1,7 +1,5 @@
 package com.vigorous.fingerprintchecker.ui;
 
-import android.content.Context;
-import android.content.SharedPreferences;
 import android.os.Bundle;
 import android.support.v7.app.AppCompatActivity;
 import android.text.TextUtils;
@@ -10,31 +8,166 @@ import android.view.View;
 import android.widget.Button;
 import android.widget.TextView;
 import com.vigorous.fingerprintchecker.R;
-import com.vigorous.fingerprintchecker.exception.FingerPrintInvalidException;
-import com.vigorous.fingerprintchecker.fingerprint.FingerPrintAuthenticationCallback;
+import com.vigorous.fingerprintchecker.exception.FingerPrintAuthenticationException;
+import com.vigorous.fingerprintchecker.fingerprint.FingerPrintAvailabilityListener;
+import com.vigorous.fingerprintchecker.fingerprint.FingerPrintFuture;
+import com.vigorous.fingerprintchecker.fingerprint.FingerPrintInitListener;
+import com.vigorous.fingerprintchecker.fingerprint.FingerPrintKeyScanListener;
+import com.vigorous.fingerprintchecker.fingerprint.FingerPrintResult;
+import com.vigorous.fingerprintchecker.fingerprint.FingerPrintTokenStore;
 import com.vigorous.fingerprintchecker.fingerprint.FingerprintHelper;
 import com.vigorous.fingerprintchecker.utils.AndroidPermissionUtil;
+import java.util.Collections;
+import java.util.List;
 
 public class MainActivity extends AppCompatActivity
         implements View.OnClickListener {
 
-    private static final String finger_sp = "finger_sp";
-    private static final String finger_result = "finger_result";
-    private static final String finger_iv = "finger_iv";
-
     private static final String keyName = "keyName";
     private FingerprintHelper mFingerprintHelper;
+    private FingerPrintTokenStore mTokenStore;
     private TextView mTvResult;
     private Button mBtnFingerPrintEnvironmentCheck;
     private Button mBtnFingerPrintInput;
     private Button mBtnFingerPrintVerify;
+    // 正在进行的指纹认证，界面不可见时取消
+    private FingerPrintFuture<FingerPrintResult<String>> mPendingAuthentication;
+    private final FingerPrintAvailabilityListener mAvailabilityListener = new FingerPrintAvailabilityListener() {
+        @Override
+        public void onAvailabilityChanged(FingerprintHelper helper,
+                int status) {
+            appendAvailability(status);
+        }
+    };
+    private final FingerPrintKeyScanListener mKeyScanListener = new FingerPrintKeyScanListener() {
+        @Override
+        public void onScanFinished(FingerprintHelper helper,
+                List<String> invalidatedKeyNames,
+                List<String> missingKeyNames) {
+            if (!invalidatedKeyNames.isEmpty()) {
+                // 系统指纹发生变化，已保存的token无法再解密，需重新录入
+                reprovision(helper, invalidatedKeyNames);
+                mTvResult.append("设备指纹库发生变化，请重新录入指纹。\n");
+            }
+            if (!missingKeyNames.isEmpty()) {
+                reprovision(helper, missingKeyNames);
+                mTvResult.append("指纹密钥已丢失，请重新录入指纹。\n");
+            }
+        }
+
+        private void reprovision(FingerprintHelper helper,
+                List<String> keyNames) {
+            for (String name : keyNames) {
+                mTokenStore.remove(name);
+            }
+            helper.reprovisionKeys(keyNames);
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
-        mFingerprintHelper = FingerprintHelper.getInstance(this);
         initView();
+        mTokenStore = FingerprintHelper.getTokenStore(this);
+        // 在后台线程初始化，避免阻塞首帧
+        FingerprintHelper.getInstanceAsync(this, new FingerPrintInitListener() {
+            @Override
+            public void onInitialized(FingerprintHelper helper) {
+                if (isFinishing()) {
+                    return;
+                }
+                mFingerprintHelper = helper;
+                helper.addAvailabilityListener(mAvailabilityListener);
+                helper.scanInvalidatedKeys(mKeyScanListener);
+                // 提前为卡片生成密钥，录入时无需等待
+                helper.provisionKeys(Collections.singletonList(keyName));
+                // 删除已不存在的卡片的密钥
+                helper.retainKeys(Collections.singletonList(keyName));
+            }
+        });
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        // 用户可能在系统设置中修改了权限、录入或删除了指纹
+        AndroidPermissionUtil.invalidatePermissionCache();
+        if (mFingerprintHelper != null) {
+            mFingerprintHelper.refreshAvailability();
+            mFingerprintHelper.scanInvalidatedKeys(mKeyScanListener);
+        }
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        if (mPendingAuthentication != null) {
+            mPendingAuthentication.cancel(true);
+            mPendingAuthentication = null;
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (mFingerprintHelper != null) {
+            mFingerprintHelper
+                    .removeAvailabilityListener(mAvailabilityListener);
+        }
+    }
+
+    @Override
+    public void onRequestPermissionsResult(int requestCode,
+            String[] permissions, int[] grantResults) {
+        super.onRequestPermissionsResult(requestCode, permissions,
+                grantResults);
+        AndroidPermissionUtil.onRequestPermissionsResult(permissions,
+                grantResults);
+        if ((requestCode == AndroidPermissionUtil.CODE_FINGERPRINT
+                || requestCode == AndroidPermissionUtil.CODE_MULTI_PERMISSION)
+                && mFingerprintHelper != null) {
+            mFingerprintHelper.refreshAvailability();
+        }
+    }
+
+    private void appendAvailability(int result) {
+        if (result == FingerprintHelper.FINGERPRINT_UNAVAILABLE) {
+            mTvResult.append("尚未录入指纹，请先录入。\n");
+        } else if (result == FingerprintHelper.FINGERPRINT_AVAILABLE) {
+            mTvResult.append("指纹模块可正常使用。\n");
+        } else {
+            mTvResult.append("抱歉，您当前设备不支持指纹检测。\n");
+        }
+    }
+
+    /**
+     * Replaces the running authentication with future and delivers its result
+     * to listener on the main thread.
+     */
+    private void startAuthentication(
+            FingerPrintFuture<FingerPrintResult<String>> future,
+            FingerPrintFuture.Listener<FingerPrintResult<String>> listener) {
+        if (mPendingAuthentication != null) {
+            mPendingAuthentication.cancel(true);
+        }
+        mPendingAuthentication = future;
+        future.addListener(listener, mFingerprintHelper.getMainExecutor());
+    }
+
+    private void appendFailure(FingerPrintAuthenticationException error,
+            String failMsg, String overLimitMsg) {
+        switch (error.getErrorCode()) {
+        case FingerPrintAuthenticationException.ERROR_CANCELED:
+            // 由onPause或新的认证取消，无需提示
+            break;
+        case FingerPrintAuthenticationException.ERROR_KEY_INVALIDATED:
+            mTvResult.append("设备指纹库发生变化，请重新录入指纹。\n");
+            break;
+        default:
+            mTvResult.append(error.isLockout() ? overLimitMsg : failMsg);
+            break;
+        }
     }
 
     private void initView() {
@@ -56,107 +189,95 @@ public class MainActivity extends AppCompatActivity
         switch (view.getId()) {
         case R.id.btn_fingerPrint_environment_check:
             if (mFingerprintHelper != null) {
-                int result = mFingerprintHelper.checkFingerprintAvailable();
-                if (result == FingerprintHelper.FINGERPRINT_UNAVAILABLE) {
-                    mTvResult.append("尚未录入指纹，请先录入。\n");
-                } else if (result == FingerprintHelper.FINGERPRINT_AVAILABLE) {
+                // 读取已发布的状态，状态变化时由监听器通知
+                int result = mFingerprintHelper.getFingerprintAvailability();
+                appendAvailability(result);
+                if (result == FingerprintHelper.FINGERPRINT_AVAILABLE) {
                     // 当且仅当指纹模块可用时，去检测指纹权限并提示用户开启授权
-                    mTvResult.append("指纹模块可正常使用。\n");
                     if (!AndroidPermissionUtil.checkPermission(this,
-                            AndroidPermissionUtil.PERMISSION_FINGERPRINT)) {
+                            AndroidPermissionUtil.CODE_FINGERPRINT)) {
                         AndroidPermissionUtil.requestPermission(this,
                                 AndroidPermissionUtil.CODE_FINGERPRINT);
                     }
-                } else {
-                    mTvResult.append("抱歉，您当前设备不支持指纹检测。\n");
                 }
             }
             break;
         case R.id.btn_input_fingerPrint:
             if (mFingerprintHelper != null) {
-                // 首先生成keystore
-                if (mFingerprintHelper.generateKey(keyName)) {
-                    try {
-                        // 使用已经在系统中录入的指纹进行秘钥生成，此时fingerToken与IV传入空串
-                        mFingerprintHelper.authenticate(keyName,
-                                FingerprintHelper.APPLY, "", "",
-                                new FingerPrintAuthenticationCallback() {
+                // 首先生成keystore，在后台线程完成，不阻塞主线程
+                startAuthentication(mFingerprintHelper.generateKeyAsync(keyName)
+                        .thenCompose(
+                                new FingerPrintFuture.AsyncTransform<Boolean, FingerPrintResult<String>>() {
                                     @Override
-                                    public void onAuthenticationSucceeded(
-                                            String result, int properties,
-                                            String IV) {
-                                        mTvResult.append("指纹录入成功！请保存result:"
-                                                + result + "\n指纹认证向量IV：" + IV
-                                                + "\n");
-
-                                        // Store it anyway
-                                        SharedPreferences sp = getSharedPreferences(
-                                                finger_sp,
-                                                Context.MODE_PRIVATE);
-                                        SharedPreferences.Editor editor = sp
-                                                .edit();
-                                        editor.putString(finger_result, result);
-                                        editor.putString(finger_iv, IV);
-                                        editor.commit();
+                                    public FingerPrintFuture<FingerPrintResult<String>> apply(
+                                            Boolean generated) {
+                                        if (!generated) {
+                                            throw new IllegalStateException(
+                                                    "generateKey failed");
+                                        }
+                                        // 使用已经在系统中录入的指纹进行秘钥生成，此时fingerToken与IV传入空串
+                                        return mFingerprintHelper
+                                                .authenticateAsync(keyName,
+                                                        FingerprintHelper.APPLY,
+                                                        "", "");
                                     }
+                                }, mFingerprintHelper.getMainExecutor()),
+                        new FingerPrintFuture.Listener<FingerPrintResult<String>>() {
+                            @Override
+                            public void onSuccess(
+                                    FingerPrintResult<String> result) {
+                                mTvResult.append("指纹录入成功！请保存result:"
+                                        + result.getValue() + "\n指纹认证向量IV："
+                                        + result.getIV() + "\n");
 
-                                    @Override
-                                    public void onAuthenticationFail(
-                                            String errorMsg) {
-                                        mTvResult.append("抱歉，指纹录入失败\n");
-                                    }
+                                // Store it anyway
+                                mTokenStore.put(keyName, result.getValue(),
+                                        result.getIV());
+                            }
 
-                                    @Override
-                                    public void onAuthenticationOverLimit(
-                                            String errorMsg) {
-                                        mTvResult.append("抱歉，指纹录入尝试次数超限\n");
-                                    }
-                                });
-                    } catch (FingerPrintInvalidException e) {
-                        e.printStackTrace();
-                        mTvResult.append("抱歉，指纹录入失败\n");
-                    }
-                } else {
-                    mTvResult.append("抱歉，生成秘钥失败。\n");
-                }
+                            @Override
+                            public void onFailure(
+                                    FingerPrintAuthenticationException error) {
+                                if (error.getErrorCode() == FingerPrintAuthenticationException.ERROR_STAGE_FAILED) {
+                                    mTvResult.append("抱歉，生成秘钥失败。\n");
+                                    return;
+                                }
+                                appendFailure(error, "抱歉，指纹录入失败\n",
+                                        "抱歉，指纹录入尝试次数超限\n");
+                            }
+                        });
             }
             break;
         case R.id.btn_verify_fingerPrint:
             if (mFingerprintHelper != null) {
-                SharedPreferences sp = getSharedPreferences(finger_sp,
-                        Context.MODE_PRIVATE);
-                String token = sp.getString(finger_result, "");
-                String iv = sp.getString(finger_iv, "");
-                if (TextUtils.isEmpty(token) || TextUtils.isEmpty(iv)) {
+                if (!mTokenStore.isLoaded()) {
+                    // 不在主线程等待读取磁盘
+                    mTvResult.append("正在读取已录入的指纹信息，请稍后再试。\n");
+                    break;
+                }
+                FingerPrintTokenStore.Entry entry = mTokenStore.get(keyName);
+                if (entry == null || TextUtils.isEmpty(entry.getToken())
+                        || TextUtils.isEmpty(entry.getIV())) {
                     mTvResult.append("您的指纹尚未录入，请确认后再尝试认证！\n");
                     break;
                 }
-                try {
-                    mFingerprintHelper.authenticate(keyName,
-                            FingerprintHelper.VERIFY, token, iv,
-                            new FingerPrintAuthenticationCallback() {
-                                @Override
-                                public void onAuthenticationSucceeded(
-                                        String result, int properties,
-                                        String IV) {
-                                    mTvResult.append("指纹认证成功！\n");
-                                }
-
-                                @Override
-                                public void onAuthenticationFail(
-                                        String errorMsg) {
-                                    mTvResult.append("指纹认证失败！\n");
-                                }
+                startAuthentication(mFingerprintHelper.authenticateAsync(
+                        keyName, FingerprintHelper.VERIFY, entry.getToken(),
+                        entry.getIV()),
+                        new FingerPrintFuture.Listener<FingerPrintResult<String>>() {
+                            @Override
+                            public void onSuccess(
+                                    FingerPrintResult<String> result) {
+                                mTvResult.append("指纹认证成功！\n");
+                            }
 
-                                @Override
-                                public void onAuthenticationOverLimit(
-                                        String errorMsg) {
-                                    mTvResult.append("指纹认证超限！\n");
-                                }
-                            });
-                } catch (FingerPrintInvalidException e) {
-                    e.printStackTrace();
-                }
+                            @Override
+                            public void onFailure(
+                                    FingerPrintAuthenticationException error) {
+                                appendFailure(error, "指纹认证失败！\n",
+                                        "指纹认证超限！\n");
+                            }
+                        });
             }
             break;
         default:
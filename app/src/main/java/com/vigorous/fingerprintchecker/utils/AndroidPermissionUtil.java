@@ -9,9 +9,16 @@ import android.os.Build;
 import android.support.v4.app.ActivityCompat;
 import android.support.v7.app.AlertDialog;
 import com.vigorous.fingerprintchecker.R;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Created by vigorous.liang on 2017/11/30.
+ * <p>
+ * The result of checkSelfPermission is cached process-wide per request code,
+ * so checks on hot paths don't repeat the binder call. Call
+ * invalidatePermissionCache from onResume, since the user may have changed
+ * a permission in the system settings, and forward onRequestPermissionsResult
+ * to this class.
  */
 public class AndroidPermissionUtil {
 
@@ -49,6 +56,203 @@ public class AndroidPermissionUtil {
             PERMISSION_WRITE_EXTERNAL_STORAGE, PERMISSION_READ_CONTACTS,
             PERMISSION_CAMERA, PERMISSION_FINGERPRINT };
 
+    private static final int KNOWN_SHIFT = 16;
+    private static final int GENERATION_SHIFT = 32;
+    private static final long CODES_MASK = (1L << KNOWN_SHIFT) - 1;
+
+    /**
+     * Bits 0-15 are the granted codes, bits 16-31 the codes checked since the
+     * last invalidation and bits 32-63 count the invalidations, so a check
+     * racing with an invalidation doesn't cache its stale result.
+     */
+    private static final AtomicLong sPermissionState = new AtomicLong();
+
+    /**
+     * @param requestCodes e.g. CODE_CAMERA, CODE_FINGERPRINT
+     * @return the bitset of requestCodes, bit n standing for request code n
+     */
+    public static int maskOf(final int... requestCodes) {
+        int mask = 0;
+        for (int requestCode : requestCodes) {
+            if (requestCode >= 0 && requestCode < requestPermissions.length) {
+                mask |= 1 << requestCode;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Checks several permissions in one pass. Only the codes missing from the
+     * cache are checked against the system.
+     *
+     * @param context
+     * @param mask bitset of request codes, see maskOf
+     * @return the granted subset of mask
+     */
+    public static int checkPermissions(final Context context, final int mask) {
+        if (context == null) {
+            return 0;
+        }
+        final int requested = mask & (int) CODES_MASK;
+        if (Build.VERSION.SDK_INT < 23) {
+            return requested;
+        }
+        final long state = sPermissionState.get();
+        final int known = (int) (state >>> KNOWN_SHIFT & CODES_MASK);
+        int granted = (int) (state & CODES_MASK) & requested;
+        final int unknown = requested & ~known;
+        if (unknown == 0) {
+            return granted;
+        }
+        int checked = 0;
+        for (int code = 0; code < requestPermissions.length; code++) {
+            if ((unknown & 1 << code) == 0) {
+                continue;
+            }
+            int checkSelfPermission;
+            try {
+                checkSelfPermission = ActivityCompat.checkSelfPermission(
+                        context, requestPermissions[code]);
+            } catch (RuntimeException e) {
+                // 异常时不缓存，下次重新检测
+                e.printStackTrace();
+                continue;
+            }
+            checked |= 1 << code;
+            if (checkSelfPermission == PackageManager.PERMISSION_GRANTED) {
+                granted |= 1 << code;
+            }
+        }
+        updateCache(state >>> GENERATION_SHIFT, checked, granted & checked);
+        return granted;
+    }
+
+    /**
+     * Requests every permission of mask that is not granted yet with one
+     * system dialog, using CODE_MULTI_PERMISSION as request code.
+     *
+     * @param activity
+     * @param mask bitset of request codes, see maskOf
+     * @return the codes of mask that were requested, 0 if all are granted
+     */
+    public static int requestPermissions(final Activity activity,
+            final int mask) {
+        if (activity == null) {
+            return 0;
+        }
+        final int missing = mask & (int) CODES_MASK
+                & ~checkPermissions(activity, mask);
+        if (missing == 0) {
+            return 0;
+        }
+        final String[] permissions = new String[Integer.bitCount(missing)];
+        final String[] permissionsHint = activity.getResources()
+                .getStringArray(R.array.permission_alert_info);
+        final StringBuilder rationale = new StringBuilder();
+        int index = 0;
+        for (int code = 0; code < requestPermissions.length; code++) {
+            if ((missing & 1 << code) == 0) {
+                continue;
+            }
+            permissions[index++] = requestPermissions[code];
+            if (ActivityCompat.shouldShowRequestPermissionRationale(activity,
+                    requestPermissions[code])) {
+                if (rationale.length() > 0) {
+                    rationale.append('\n');
+                }
+                rationale.append(permissionsHint[code]);
+            }
+        }
+        if (rationale.length() > 0) {
+            showMessageOKCancel(activity, rationale.toString(),
+                    new DialogInterface.OnClickListener() {
+                        @Override
+                        public void onClick(DialogInterface dialog,
+                                int which) {
+                            ActivityCompat.requestPermissions(activity,
+                                    permissions, CODE_MULTI_PERMISSION);
+                        }
+                    });
+        } else {
+            ActivityCompat.requestPermissions(activity, permissions,
+                    CODE_MULTI_PERMISSION);
+        }
+        return missing;
+    }
+
+    /**
+     * Records the result of a permission request in the cache. Call it from
+     * Activity.onRequestPermissionsResult.
+     *
+     * @param permissions
+     * @param grantResults
+     */
+    public static void onRequestPermissionsResult(final String[] permissions,
+            final int[] grantResults) {
+        if (permissions == null || grantResults == null
+                || grantResults.length < permissions.length
+                || permissions.length == 0) {
+            // 请求被中断，结果未知
+            invalidatePermissionCache();
+            return;
+        }
+        int checked = 0;
+        int granted = 0;
+        for (int i = 0; i < permissions.length; i++) {
+            final int code = indexOf(permissions[i]);
+            if (code < 0) {
+                continue;
+            }
+            checked |= 1 << code;
+            if (grantResults[i] == PackageManager.PERMISSION_GRANTED) {
+                granted |= 1 << code;
+            }
+        }
+        updateCache(sPermissionState.get() >>> GENERATION_SHIFT, checked,
+                granted);
+    }
+
+    /**
+     * Drops the cached permission state, the next check asks the system
+     * again. Call it from onResume.
+     */
+    public static void invalidatePermissionCache() {
+        long state;
+        do {
+            state = sPermissionState.get();
+        } while (!sPermissionState.compareAndSet(state,
+                ((state >>> GENERATION_SHIFT) + 1) << GENERATION_SHIFT));
+    }
+
+    private static void updateCache(final long generation, final int checked,
+            final int granted) {
+        if (checked == 0) {
+            return;
+        }
+        long state;
+        long update;
+        do {
+            state = sPermissionState.get();
+            if (state >>> GENERATION_SHIFT != generation) {
+                // 检测期间缓存已失效
+                return;
+            }
+            final long known = (state >>> KNOWN_SHIFT & CODES_MASK) | checked;
+            final long grantedBits = (state & CODES_MASK & ~checked) | granted;
+            update = generation << GENERATION_SHIFT | known << KNOWN_SHIFT
+                    | grantedBits;
+        } while (!sPermissionState.compareAndSet(state, update));
+    }
+
+    private static int indexOf(final String permission) {
+        for (int code = 0; code < requestPermissions.length; code++) {
+            if (requestPermissions[code].equals(permission)) {
+                return code;
+            }
+        }
+        return -1;
+    }
+
     /**
      * checkPermission
      *
@@ -66,8 +270,7 @@ public class AndroidPermissionUtil {
             return false;
         }
 
-        final String requestPermission = requestPermissions[requestCode];
-        return checkPermission(activity, requestPermission);
+        return checkPermissions(activity, 1 << requestCode) != 0;
     }
 
     /**
@@ -86,6 +289,10 @@ public class AndroidPermissionUtil {
         if (Build.VERSION.SDK_INT < 23) {
             return true;
         }
+        final int requestCode = indexOf(requestPermission);
+        if (requestCode >= 0) {
+            return checkPermissions(context, 1 << requestCode) != 0;
+        }
         int checkSelfPermission;
         try {
             checkSelfPermission = ActivityCompat.checkSelfPermission(context,
@@ -117,15 +324,7 @@ public class AndroidPermissionUtil {
             return;
         }
         final String requestPermission = requestPermissions[requestCode];
-        int checkSelfPermission;
-        try {
-            checkSelfPermission = ActivityCompat.checkSelfPermission(activity,
-                    requestPermission);
-        } catch (RuntimeException e) {
-            e.printStackTrace();
-            return;
-        }
-        if (checkSelfPermission != PackageManager.PERMISSION_GRANTED) {
+        if (!checkPermission(activity, requestCode)) {
             if (ActivityCompat.shouldShowRequestPermissionRationale(activity,
                     requestPermission)) {
                 shouldShowRationale(activity, requestCode, requestPermission);
@@ -0,0 +1,81 @@
+package com.vigorous.fingerprintchecker.utils;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Helpers for token bytes that do not depend on Android.
+ */
+public class ByteUtil {
+
+    /**
+     * Compares expected with actual[offset, offset + length) in time that only
+     * depends on the length, so the content can not be guessed by timing.
+     *
+     * @param expected
+     * @param actual
+     * @param offset
+     * @param length
+     * @return
+     */
+    public static boolean constantTimeEquals(byte[] expected, byte[] actual,
+            int offset, int length) {
+        if (expected == null || actual == null
+                || expected.length != length) {
+            return false;
+        }
+        int diff = 0;
+        for (int i = 0; i < length; i++) {
+            diff |= expected[i] ^ actual[offset + i];
+        }
+        return diff == 0;
+    }
+
+    /**
+     * Same as constantTimeEquals(byte[], byte[], int, int) for the bytes
+     * between position and limit of actual. The position is not changed.
+     *
+     * @param expected
+     * @param actual
+     * @return
+     */
+    public static boolean constantTimeEquals(byte[] expected,
+            ByteBuffer actual) {
+        if (expected == null || actual == null
+                || expected.length != actual.remaining()) {
+            return false;
+        }
+        if (actual.hasArray()) {
+            return constantTimeEquals(expected, actual.array(),
+                    actual.arrayOffset() + actual.position(),
+                    actual.remaining());
+        }
+        final int position = actual.position();
+        int diff = 0;
+        for (int i = 0; i < expected.length; i++) {
+            diff |= expected[i] ^ actual.get(position + i);
+        }
+        return diff == 0;
+    }
+
+    /**
+     * Overwrites the bytes between position and limit with zeros. The position
+     * is not changed.
+     *
+     * @param buffer
+     */
+    public static void zero(ByteBuffer buffer) {
+        if (buffer == null) {
+            return;
+        }
+        if (buffer.hasArray()) {
+            final int start = buffer.arrayOffset() + buffer.position();
+            Arrays.fill(buffer.array(), start, start + buffer.remaining(),
+                    (byte) 0);
+            return;
+        }
+        for (int i = buffer.position(); i < buffer.limit(); i++) {
+            buffer.put(i, (byte) 0);
+        }
+    }
+}
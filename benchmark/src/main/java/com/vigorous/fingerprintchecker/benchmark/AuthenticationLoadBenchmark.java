@@ -0,0 +1,183 @@
+package com.vigorous.fingerprintchecker.benchmark;
+
+import com.vigorous.fingerprintchecker.exception.FingerPrintInvalidException;
+import com.vigorous.fingerprintchecker.fingerprint.FingerPrintAuthenticationCallback;
+import com.vigorous.fingerprintchecker.fingerprint.FingerPrintAuthenticator;
+import com.vigorous.fingerprintchecker.fingerprint.FingerPrintResult;
+import com.vigorous.fingerprintchecker.platform.FingerPrintLogger;
+import com.vigorous.fingerprintchecker.platform.ScriptedFingerPrintSensor;
+import com.vigorous.fingerprintchecker.platform.SoftwareFingerPrintEncoder;
+import com.vigorous.fingerprintchecker.platform.SoftwareFingerPrintKeyStore;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Load test of the authentication engine: every thread runs VERIFY
+ * authentications against one shared FingerPrintAuthenticator, whose sensor
+ * replays trace (see ScriptedFingerPrintSensor.Trace.parse), and waits for
+ * the final callback, or with verifyAsync blocks on the FingerPrintFuture
+ * instead. Reports throughput and the callback latency percentiles; run
+ * with -PjmhProfilers=gc for the allocation per authentication and
+ * -PjmhThreads to change the number of threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class AuthenticationLoadBenchmark {
+    private static final String KEY_NAME = "card";
+    private static final String MARKER = "com.vigorous.fingerprintchecker";
+    // 错误轨迹每次都会记录日志，输出到控制台会掩盖引擎本身的开销
+    private static final FingerPrintLogger QUIET = new FingerPrintLogger() {
+        @Override
+        public void d(String tag, String msg) {
+        }
+
+        @Override
+        public void e(String tag, String msg) {
+        }
+    };
+
+    @Param({ "succeed", "fail,help:1,succeed", "fail@50,succeed@100",
+            "fail,lockout" })
+    public String trace;
+
+    private ScheduledExecutorService mScheduler;
+    private FingerPrintAuthenticator mAuthenticator;
+    private String mToken;
+    private String mIV;
+
+    /**
+     * The callback of one thread, reused for all its authentications.
+     */
+    @State(Scope.Thread)
+    public static class Caller implements FingerPrintAuthenticationCallback {
+        private volatile Thread mThread;
+        private volatile boolean mDone;
+        private boolean mSucceeded;
+
+        @Override
+        public void onAuthenticationSucceeded(String result, int purpose,
+                String IV) {
+            mSucceeded = true;
+            finish();
+        }
+
+        @Override
+        public void onAuthenticationFail(String errorMessage) {
+            // 单次失败后会话继续
+        }
+
+        @Override
+        public void onAuthenticationOverLimit(String errorMessage) {
+            finish();
+        }
+
+        void start() {
+            mThread = Thread.currentThread();
+            mDone = false;
+            mSucceeded = false;
+        }
+
+        boolean await() {
+            while (!mDone) {
+                LockSupport.park(this);
+            }
+            return mSucceeded;
+        }
+
+        private void finish() {
+            mDone = true;
+            LockSupport.unpark(mThread);
+        }
+    }
+
+    @Setup
+    public void setUp() throws FingerPrintInvalidException {
+        mScheduler = Executors.newScheduledThreadPool(2);
+        final SoftwareFingerPrintKeyStore keyStore = new SoftwareFingerPrintKeyStore();
+        keyStore.generateKey(KEY_NAME);
+        // 先用立即成功的传感器录入，得到VERIFY所需的token
+        final FingerPrintAuthenticator enroll = new FingerPrintAuthenticator(
+                new ScriptedFingerPrintSensor(
+                        ScriptedFingerPrintSensor.Trace.parse("succeed"), null),
+                keyStore, new SoftwareFingerPrintEncoder(), QUIET, MARKER);
+        enroll.startAuthenticate(KEY_NAME, FingerPrintAuthenticator.APPLY, "",
+                "", new FingerPrintAuthenticationCallback() {
+                    @Override
+                    public void onAuthenticationSucceeded(String result,
+                            int purpose, String IV) {
+                        mToken = result;
+                        mIV = IV;
+                    }
+
+                    @Override
+                    public void onAuthenticationFail(String errorMessage) {
+                    }
+
+                    @Override
+                    public void onAuthenticationOverLimit(
+                            String errorMessage) {
+                    }
+                });
+        if (mToken == null) {
+            throw new IllegalStateException("APPLY failed");
+        }
+        mAuthenticator = new FingerPrintAuthenticator(
+                new ScriptedFingerPrintSensor(
+                        ScriptedFingerPrintSensor.Trace.parse(trace),
+                        mScheduler),
+                keyStore, new SoftwareFingerPrintEncoder(), QUIET, MARKER);
+        // 每次认证都要经过传感器，不因锁定或退避而提前结束
+        mAuthenticator.getRetryScheduler().setLockoutDuration(0,
+                TimeUnit.MILLISECONDS);
+        mAuthenticator.getRetryScheduler().setBackoff(0, 0,
+                TimeUnit.MILLISECONDS);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mScheduler.shutdownNow();
+    }
+
+    @Benchmark
+    public boolean verify(Caller caller) throws FingerPrintInvalidException {
+        caller.start();
+        if (mAuthenticator.startAuthenticate(KEY_NAME,
+                FingerPrintAuthenticator.VERIFY, mToken, mIV, caller) == null) {
+            return false;
+        }
+        return caller.await();
+    }
+
+    @Benchmark
+    public FingerPrintResult<String> verifyAsync()
+            throws InterruptedException {
+        try {
+            return mAuthenticator.authenticateAsync(KEY_NAME,
+                    FingerPrintAuthenticator.VERIFY, mToken, mIV).get();
+        } catch (ExecutionException e) {
+            // 失败轨迹以错误结束，同样计入吞吐
+            return null;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.vigorous.fingerprintchecker.benchmark;
+
+import com.vigorous.fingerprintchecker.fingerprint.FingerPrintDataCipher;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Per-card cost of FingerprintHelper.authenticateBatch (APPLY): one keystore
+ * wrap of the data key plus one software AES-GCM seal per card. Every
+ * benchmark is normalized to one card, so the scores drop as the fixed cost
+ * is shared by more cards. perCardAuthentication is the cost of one
+ * authenticate per card for comparison.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchBenchmark {
+    private final SoftwareKeyStore mKeyStore = new SoftwareKeyStore();
+    private SecretKey mKey;
+    private byte[][] mTokens;
+
+    @Setup
+    public void setUp() throws GeneralSecurityException {
+        mKey = mKeyStore.generateKey("keyName");
+        mTokens = new byte[100][];
+        for (int i = 0; i < mTokens.length; i++) {
+            mTokens[i] = ("card-token-" + i).getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    @Benchmark
+    public void perCardAuthentication(Blackhole blackhole)
+            throws GeneralSecurityException {
+        final Cipher cipher = SoftwareKeyStore.newCipher();
+        cipher.init(Cipher.ENCRYPT_MODE, mKey);
+        blackhole.consume(cipher.doFinal(mTokens[0]));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(1)
+    public void batch1(Blackhole blackhole) throws GeneralSecurityException {
+        batch(1, blackhole);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(10)
+    public void batch10(Blackhole blackhole) throws GeneralSecurityException {
+        batch(10, blackhole);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(50)
+    public void batch50(Blackhole blackhole) throws GeneralSecurityException {
+        batch(50, blackhole);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(100)
+    public void batch100(Blackhole blackhole)
+            throws GeneralSecurityException {
+        batch(100, blackhole);
+    }
+
+    private void batch(int size, Blackhole blackhole)
+            throws GeneralSecurityException {
+        final Cipher cipher = SoftwareKeyStore.newCipher();
+        cipher.init(Cipher.ENCRYPT_MODE, mKey);
+        final byte[] dataKey = FingerPrintDataCipher.newDataKey();
+        final FingerPrintDataCipher dataCipher = new FingerPrintDataCipher(
+                dataKey);
+        blackhole.consume(cipher.doFinal(dataKey));
+        Arrays.fill(dataKey, (byte) 0);
+        for (int i = 0; i < size; i++) {
+            blackhole.consume(dataCipher.encrypt(mTokens[i]));
+        }
+    }
+}
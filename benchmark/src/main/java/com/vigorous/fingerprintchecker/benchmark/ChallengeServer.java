@@ -0,0 +1,83 @@
+package com.vigorous.fingerprintchecker.benchmark;
+
+import com.vigorous.fingerprintchecker.verifier.FingerPrintSignatureVerifier;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-process stand-in for the backend of the challenge-signing mode: it
+ * registers the public key of every key name, issues single-use challenges
+ * and checks the signed responses with FingerPrintSignatureVerifier.
+ */
+public class ChallengeServer {
+    public static final int CHALLENGE_SIZE = 32;
+
+    private final FingerPrintSignatureVerifier mVerifier;
+    private final SecureRandom mRandom = new SecureRandom();
+    private final ConcurrentHashMap<String, byte[]> mPublicKeys = new ConcurrentHashMap<>();
+    // keyName -> 尚未使用的挑战，每个keyName同时只有一个
+    private final ConcurrentHashMap<String, byte[]> mChallenges = new ConcurrentHashMap<>();
+
+    public ChallengeServer(FingerPrintSignatureVerifier verifier) {
+        mVerifier = verifier;
+    }
+
+    public void register(String keyName, byte[] publicKey) {
+        mPublicKeys.put(keyName, publicKey.clone());
+    }
+
+    /**
+     * @param keyName
+     * @return a fresh challenge, replacing the unanswered one of keyName
+     */
+    public byte[] issueChallenge(String keyName) {
+        final byte[] challenge = new byte[CHALLENGE_SIZE];
+        mRandom.nextBytes(challenge);
+        mChallenges.put(keyName, challenge.clone());
+        return challenge;
+    }
+
+    /**
+     * @param keyName
+     * @param challenge
+     * @param signature
+     * @return true if challenge is the outstanding challenge of keyName and
+     *         signature matches its registered key. The challenge is used up
+     *         either way.
+     */
+    public boolean respond(String keyName, byte[] challenge,
+            byte[] signature) {
+        return consume(keyName, challenge) && mVerifier
+                .verify(mPublicKeys.get(keyName), challenge, signature);
+    }
+
+    /**
+     * respond for many key names at once, with the signatures verified in
+     * parallel.
+     *
+     * @return the result of every response, in order
+     * @throws InterruptedException
+     */
+    public boolean[] respondAll(List<String> keyNames, List<byte[]> challenges,
+            List<byte[]> signatures) throws InterruptedException {
+        final List<FingerPrintSignatureVerifier.Request> requests = new ArrayList<>(
+                keyNames.size());
+        for (int i = 0; i < keyNames.size(); i++) {
+            final String keyName = keyNames.get(i);
+            // 挑战不匹配时以空公钥占位，校验必然失败
+            requests.add(new FingerPrintSignatureVerifier.Request(
+                    consume(keyName, challenges.get(i))
+                            ? mPublicKeys.get(keyName) : null,
+                    challenges.get(i), signatures.get(i)));
+        }
+        return mVerifier.verifyAll(requests);
+    }
+
+    private boolean consume(String keyName, byte[] challenge) {
+        final byte[] issued = mChallenges.remove(keyName);
+        return issued != null && MessageDigest.isEqual(issued, challenge);
+    }
+}
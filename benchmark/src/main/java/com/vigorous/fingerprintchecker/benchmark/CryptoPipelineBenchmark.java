@@ -0,0 +1,189 @@
+package com.vigorous.fingerprintchecker.benchmark;
+
+import com.vigorous.fingerprintchecker.exception.FingerPrintInvalidException;
+import com.vigorous.fingerprintchecker.fingerprint.FingerPrintAuthenticationCallback;
+import com.vigorous.fingerprintchecker.fingerprint.FingerPrintAuthenticator;
+import com.vigorous.fingerprintchecker.platform.ConsoleFingerPrintLogger;
+import com.vigorous.fingerprintchecker.platform.InMemoryFingerPrintSensor;
+import com.vigorous.fingerprintchecker.platform.SoftwareFingerPrintEncoder;
+import com.vigorous.fingerprintchecker.platform.SoftwareFingerPrintKeyStore;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The steps of an authentication as done by FingerPrintAndroidKeyStore and
+ * FingerprintHelper, on a software AES provider, and the whole VERIFY path
+ * through FingerPrintAuthenticator.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CryptoPipelineBenchmark {
+    private static final String KEY_NAME = "keyName";
+    private static final String MARKER = "com.vigorous.fingerprintchecker";
+    private static final byte[] PACKAGE_NAME = MARKER
+            .getBytes(StandardCharsets.UTF_8);
+
+    private final SoftwareKeyStore mKeyStore = new SoftwareKeyStore();
+    private FingerPrintAuthenticator mAuthenticator;
+    private String mEngineToken;
+    private String mEngineIV;
+    private final boolean[] mResult = new boolean[1];
+    private final FingerPrintAuthenticationCallback mCallback = new FingerPrintAuthenticationCallback() {
+        @Override
+        public void onAuthenticationSucceeded(String result, int properties,
+                String IV) {
+            if (properties == FingerPrintAuthenticator.APPLY) {
+                mEngineToken = result;
+                mEngineIV = IV;
+            }
+            mResult[0] = true;
+        }
+
+        @Override
+        public void onAuthenticationFail(String errorMsg) {
+            mResult[0] = false;
+        }
+
+        @Override
+        public void onAuthenticationOverLimit(String errorMsg) {
+            mResult[0] = false;
+        }
+    };
+    private SecretKey mCachedKey;
+    private byte[] mIV;
+    private byte[] mToken;
+    private String mEncodedToken;
+    private String mEncodedIV;
+
+    @Setup
+    public void setUp() throws GeneralSecurityException {
+        mCachedKey = mKeyStore.generateKey(KEY_NAME);
+        final Cipher cipher = SoftwareKeyStore.newCipher();
+        cipher.init(Cipher.ENCRYPT_MODE, mCachedKey);
+        mToken = cipher.doFinal(PACKAGE_NAME);
+        mIV = cipher.getIV();
+        mEncodedToken = Base64.getUrlEncoder().encodeToString(mToken);
+        mEncodedIV = Base64.getUrlEncoder().encodeToString(mIV);
+
+        final InMemoryFingerPrintSensor sensor = new InMemoryFingerPrintSensor();
+        sensor.setAutoTouch(true);
+        final SoftwareFingerPrintKeyStore keyStore = new SoftwareFingerPrintKeyStore();
+        keyStore.generateKey(KEY_NAME);
+        mAuthenticator = new FingerPrintAuthenticator(sensor, keyStore,
+                new SoftwareFingerPrintEncoder(),
+                new ConsoleFingerPrintLogger(false), MARKER);
+        try {
+            mAuthenticator.startAuthenticate(KEY_NAME,
+                    FingerPrintAuthenticator.APPLY, null, null, mCallback);
+        } catch (FingerPrintInvalidException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Benchmark
+    public SecretKey generateKey() throws GeneralSecurityException {
+        return mKeyStore.generateKey("temp");
+    }
+
+    /**
+     * Key lookup and a new Cipher on every call, as before the key cache.
+     */
+    @Benchmark
+    public Cipher cryptoObjectSetup() throws GeneralSecurityException {
+        final SecretKey key = mKeyStore.getKey(KEY_NAME);
+        final Cipher cipher = SoftwareKeyStore.newCipher();
+        cipher.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(mIV));
+        return cipher;
+    }
+
+    /**
+     * Cached key handle and a Cipher created ahead of time, as done by
+     * FingerPrintAndroidKeyStore.prewarm.
+     */
+    @Benchmark
+    public Cipher cryptoObjectSetupCached(PrewarmedCipher prewarmed)
+            throws GeneralSecurityException {
+        final Cipher cipher = prewarmed.take();
+        cipher.init(Cipher.DECRYPT_MODE, mCachedKey, new IvParameterSpec(mIV));
+        return cipher;
+    }
+
+    @Benchmark
+    public byte[] encryptToken() throws GeneralSecurityException {
+        final Cipher cipher = SoftwareKeyStore.newCipher();
+        cipher.init(Cipher.ENCRYPT_MODE, mCachedKey);
+        return cipher.doFinal(PACKAGE_NAME);
+    }
+
+    @Benchmark
+    public byte[] decryptToken() throws GeneralSecurityException {
+        final Cipher cipher = SoftwareKeyStore.newCipher();
+        cipher.init(Cipher.DECRYPT_MODE, mCachedKey, new IvParameterSpec(mIV));
+        return cipher.doFinal(mToken);
+    }
+
+    @Benchmark
+    public void base64RoundTrip(Blackhole blackhole) {
+        final byte[] token = Base64.getUrlDecoder().decode(mEncodedToken);
+        final byte[] iv = Base64.getUrlDecoder().decode(mEncodedIV);
+        blackhole.consume(Base64.getUrlEncoder().encodeToString(token));
+        blackhole.consume(Base64.getUrlEncoder().encodeToString(iv));
+    }
+
+    /**
+     * VERIFY from authenticate to the success callback through
+     * FingerPrintAuthenticator: decode, cipher setup, sensor round-trip,
+     * doFinal and marker check.
+     */
+    @Benchmark
+    public boolean authenticateToCallback()
+            throws FingerPrintInvalidException {
+        mResult[0] = false;
+        mAuthenticator.startAuthenticate(KEY_NAME,
+                FingerPrintAuthenticator.VERIFY, mEngineToken, mEngineIV,
+                mCallback);
+        return mResult[0];
+    }
+
+    @State(Scope.Thread)
+    public static class PrewarmedCipher {
+        private Cipher mNext;
+
+        Cipher take() throws GeneralSecurityException {
+            final Cipher cipher = mNext != null ? mNext
+                    : SoftwareKeyStore.newCipher();
+            mNext = null;
+            return cipher;
+        }
+
+        /**
+         * Prewarming happens while the user touches the sensor, outside of
+         * the measured path.
+         */
+        @Setup(Level.Invocation)
+        public void prewarm() throws GeneralSecurityException {
+            mNext = SoftwareKeyStore.newCipher();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.vigorous.fingerprintchecker.benchmark;
+
+import com.vigorous.fingerprintchecker.fingerprint.FingerPrintDataCipher;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Payload encryption through the key cipher (direct) against the envelope
+ * mode, which streams the payload through FingerPrintDataCipher in segments,
+ * either pulled from an InputStream (envelope) or written in 8 KB chunks to
+ * a sealing stream (sealingStream). Run with -PjmhProfilers=gc to see that
+ * the allocation of the envelope modes does not grow with the payload.
+ * On device the direct path runs in secure hardware, so the software numbers
+ * here are a lower bound for it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EnvelopeBenchmark {
+    @Param({ "4096", "1048576", "8388608" })
+    public int payloadSize;
+
+    private static final int CHUNK_SIZE = 8192;
+
+    private final SoftwareKeyStore mKeyStore = new SoftwareKeyStore();
+    private SecretKey mKey;
+    private byte[] mPayload;
+    private FingerPrintDataCipher mDataCipher;
+    private final OutputStream mSink = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    @Setup
+    public void setUp() throws GeneralSecurityException {
+        mKey = mKeyStore.generateKey("keyName");
+        mPayload = new byte[payloadSize];
+        new Random(42).nextBytes(mPayload);
+        mDataCipher = new FingerPrintDataCipher(
+                FingerPrintDataCipher.newDataKey());
+    }
+
+    @Benchmark
+    public byte[] direct() throws GeneralSecurityException {
+        final Cipher cipher = SoftwareKeyStore.newCipher();
+        cipher.init(Cipher.ENCRYPT_MODE, mKey);
+        return cipher.doFinal(mPayload);
+    }
+
+    @Benchmark
+    public long envelope() throws GeneralSecurityException, IOException {
+        return mDataCipher.seal(new ByteArrayInputStream(mPayload), mSink);
+    }
+
+    @Benchmark
+    public void sealingStream() throws IOException {
+        final OutputStream out = mDataCipher.newSealingStream(mSink);
+        for (int offset = 0; offset < mPayload.length; offset += CHUNK_SIZE) {
+            out.write(mPayload, offset,
+                    Math.min(CHUNK_SIZE, mPayload.length - offset));
+        }
+        out.close();
+    }
+}
@@ -0,0 +1,86 @@
+package com.vigorous.fingerprintchecker.benchmark;
+
+import com.vigorous.fingerprintchecker.fingerprint.FingerPrintKeyScanner;
+import com.vigorous.fingerprintchecker.platform.SoftwareFingerPrintKeyStore;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One FingerPrintKeyScanner pass over aliases keys, a tenth of which are
+ * permanently invalidated. probeMicros blocks every probe for that long to
+ * stand in for the round-trip to the keystore daemon, which is what the
+ * parallel chunks hide on device.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeyScanBenchmark {
+    @Param({ "1000", "4000" })
+    public int aliases;
+
+    @Param({ "1", "4" })
+    public int threads;
+
+    @Param({ "0", "100" })
+    public int probeMicros;
+
+    private ExecutorService mExecutor;
+    private FingerPrintKeyScanner mScanner;
+    private List<String> mKeyNames;
+
+    @Setup
+    public void setUp() {
+        final long probeNanos = TimeUnit.MICROSECONDS.toNanos(probeMicros);
+        final SoftwareFingerPrintKeyStore keyStore = new SoftwareFingerPrintKeyStore() {
+            @Override
+            public int checkKey(String keyName) {
+                if (probeNanos > 0) {
+                    LockSupport.parkNanos(probeNanos);
+                }
+                return super.checkKey(keyName);
+            }
+        };
+        mKeyNames = new ArrayList<>(aliases);
+        for (int i = 0; i < aliases; i++) {
+            final String keyName = "card" + i;
+            keyStore.generateKey(keyName);
+            if (i % 10 == 0) {
+                keyStore.permanentlyInvalidate(keyName);
+            }
+            mKeyNames.add(keyName);
+        }
+        mExecutor = Executors.newFixedThreadPool(threads);
+        mScanner = new FingerPrintKeyScanner(keyStore, mExecutor,
+                FingerPrintKeyScanner.DEFAULT_CHUNK_SIZE);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Benchmark
+    public FingerPrintKeyScanner.Result scan()
+            throws InterruptedException {
+        return mScanner.scan(mKeyNames);
+    }
+}
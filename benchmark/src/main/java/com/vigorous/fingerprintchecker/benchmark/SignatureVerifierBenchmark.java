@@ -0,0 +1,145 @@
+package com.vigorous.fingerprintchecker.benchmark;
+
+import com.vigorous.fingerprintchecker.exception.FingerPrintInvalidException;
+import com.vigorous.fingerprintchecker.fingerprint.FingerPrintAuthenticator;
+import com.vigorous.fingerprintchecker.fingerprint.FingerPrintSignatureCallback;
+import com.vigorous.fingerprintchecker.platform.ConsoleFingerPrintLogger;
+import com.vigorous.fingerprintchecker.platform.ScriptedFingerPrintSensor;
+import com.vigorous.fingerprintchecker.platform.SoftwareFingerPrintEncoder;
+import com.vigorous.fingerprintchecker.platform.SoftwareFingerPrintKeyStore;
+import com.vigorous.fingerprintchecker.verifier.FingerPrintSignatureVerifier;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of the server side of the challenge-signing mode, in
+ * signatures per second. verifyAll checks a batch of BATCH_SIZE signatures
+ * made by keys distinct keys on a pool of threads threads; maxCachedKeys 0
+ * parses every public key again. roundTrip runs one challenge end to end
+ * against ChallengeServer: issue, sign through the engine, verify.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SignatureVerifierBenchmark {
+    private static final int BATCH_SIZE = 1024;
+
+    @Param({ "1", "1000" })
+    public int keys;
+
+    @Param({ "0", "10000" })
+    public int maxCachedKeys;
+
+    @Param({ "1", "4" })
+    public int threads;
+
+    private ExecutorService mExecutor;
+    private FingerPrintSignatureVerifier mVerifier;
+    private List<FingerPrintSignatureVerifier.Request> mRequests;
+    private ChallengeServer mServer;
+    private FingerPrintAuthenticator mAuthenticator;
+    private final SignatureHolder mHolder = new SignatureHolder();
+
+    /**
+     * Keeps the signature of the last challenge of roundTrip.
+     */
+    private static final class SignatureHolder
+            implements FingerPrintSignatureCallback {
+        byte[] mSignature;
+
+        @Override
+        public void onAuthenticationSucceeded(byte[] challenge,
+                byte[] signature) {
+            mSignature = signature;
+        }
+
+        @Override
+        public void onAuthenticationFail(String errorMsg) {
+            mSignature = null;
+        }
+
+        @Override
+        public void onAuthenticationOverLimit(String errorMsg) {
+            mSignature = null;
+        }
+    }
+
+    @Setup
+    public void setUp() throws GeneralSecurityException,
+            FingerPrintInvalidException, InterruptedException {
+        final SoftwareFingerPrintKeyStore keyStore = new SoftwareFingerPrintKeyStore();
+        final SecureRandom random = new SecureRandom();
+        mRequests = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < keys; i++) {
+            keyStore.generateSigningKey("card" + i);
+        }
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            final String keyName = "card" + (i % keys);
+            final byte[] challenge = new byte[ChallengeServer.CHALLENGE_SIZE];
+            random.nextBytes(challenge);
+            final Signature signature = keyStore.getSignature(keyName);
+            signature.update(challenge);
+            mRequests.add(new FingerPrintSignatureVerifier.Request(
+                    keyStore.getPublicKey(keyName), challenge,
+                    signature.sign()));
+        }
+        mExecutor = Executors.newFixedThreadPool(threads);
+        mVerifier = new FingerPrintSignatureVerifier(mExecutor, maxCachedKeys,
+                FingerPrintSignatureVerifier.DEFAULT_CHUNK_SIZE);
+        for (boolean verified : mVerifier.verifyAll(mRequests)) {
+            if (!verified) {
+                throw new IllegalStateException("signature rejected");
+            }
+        }
+
+        mServer = new ChallengeServer(mVerifier);
+        mServer.register("card0", keyStore.getPublicKey("card0"));
+        // 传感器立即成功，只测量签名与校验
+        mAuthenticator = new FingerPrintAuthenticator(
+                new ScriptedFingerPrintSensor(
+                        ScriptedFingerPrintSensor.Trace.parse("succeed"), null),
+                keyStore, new SoftwareFingerPrintEncoder(),
+                new ConsoleFingerPrintLogger(false), "marker");
+    }
+
+    @TearDown
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public boolean[] verifyAll() throws InterruptedException {
+        return mVerifier.verifyAll(mRequests);
+    }
+
+    @Benchmark
+    public boolean roundTrip() throws FingerPrintInvalidException {
+        final byte[] challenge = mServer.issueChallenge("card0");
+        mAuthenticator.authenticateChallenge("card0", challenge, mHolder);
+        return mHolder.mSignature != null
+                && mServer.respond("card0", challenge, mHolder.mSignature);
+    }
+}
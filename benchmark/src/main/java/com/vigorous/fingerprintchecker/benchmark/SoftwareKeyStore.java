@@ -0,0 +1,35 @@
+package com.vigorous.fingerprintchecker.benchmark;
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+
+/**
+ * Stand-in for the AndroidKeyStore backed by the default JCA provider. Keys
+ * are plain software AES keys kept in memory.
+ */
+public class SoftwareKeyStore {
+    // PKCS5Padding is the JCA name of PKCS7 padding for 16 byte blocks
+    public static final String TRANSFORMATION = "AES/CBC/PKCS5Padding";
+
+    private final ConcurrentHashMap<String, SecretKey> mKeys = new ConcurrentHashMap<>();
+
+    public SecretKey generateKey(String keyName)
+            throws GeneralSecurityException {
+        final KeyGenerator generator = KeyGenerator.getInstance("AES");
+        generator.init(256);
+        final SecretKey key = generator.generateKey();
+        mKeys.put(keyName, key);
+        return key;
+    }
+
+    public SecretKey getKey(String keyName) {
+        return mKeys.get(keyName);
+    }
+
+    public static Cipher newCipher() throws GeneralSecurityException {
+        return Cipher.getInstance(TRANSFORMATION);
+    }
+}
@@ -0,0 +1,173 @@
+package com.vigorous.fingerprintchecker.benchmark;
+
+import com.vigorous.fingerprintchecker.fingerprint.FingerPrintAuthenticator;
+import com.vigorous.fingerprintchecker.platform.FingerPrintLogger;
+import com.vigorous.fingerprintchecker.platform.InMemoryFingerPrintSensor;
+import com.vigorous.fingerprintchecker.platform.SoftwareFingerPrintEncoder;
+import com.vigorous.fingerprintchecker.platform.SoftwareFingerPrintKeyStore;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Startup of FingerprintHelper against a keystore taking loadMillis to
+ * load: getInstance initializes on the calling thread, getInstanceAsync on
+ * a background thread while the caller draws its first frame, taking
+ * frameMillis, and then calls awaitInitialized. FingerprintHelper needs an
+ * Android Context, so its initialization is replayed here with the same
+ * FutureTask handshake and the platform-independent parts it builds. The
+ * *Return benchmarks time how long the calling thread is blocked, the
+ * others the time until the helper is usable.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StartupBenchmark {
+    private static final FingerPrintLogger QUIET = new FingerPrintLogger() {
+        @Override
+        public void d(String tag, String msg) {
+        }
+
+        @Override
+        public void e(String tag, String msg) {
+        }
+    };
+
+    @Param({ "50" })
+    public int loadMillis;
+
+    @Param({ "16" })
+    public int frameMillis;
+
+    private InitTask mPending;
+
+    /**
+     * A software keystore whose first use takes loadMillis, like loading the
+     * AndroidKeyStore.
+     */
+    private static final class SlowLoadKeyStore
+            extends SoftwareFingerPrintKeyStore {
+        private final long mLoadNanos;
+        private volatile boolean mLoaded;
+
+        SlowLoadKeyStore(long loadMillis) {
+            mLoadNanos = TimeUnit.MILLISECONDS.toNanos(loadMillis);
+        }
+
+        @Override
+        public Boolean probeSecureHardware() {
+            ensureLoaded();
+            return super.probeSecureHardware();
+        }
+
+        private synchronized void ensureLoaded() {
+            if (!mLoaded) {
+                sleep(mLoadNanos);
+                mLoaded = true;
+            }
+        }
+    }
+
+    /**
+     * The initialization of FingerprintHelper: the keystore, the
+     * authenticator and the environment check.
+     */
+    private final class InitTask extends FutureTask<FingerPrintAuthenticator> {
+        InitTask() {
+            super(new Callable<FingerPrintAuthenticator>() {
+                @Override
+                public FingerPrintAuthenticator call() {
+                    final SlowLoadKeyStore keyStore = new SlowLoadKeyStore(
+                            loadMillis);
+                    final InMemoryFingerPrintSensor sensor = new InMemoryFingerPrintSensor();
+                    final FingerPrintAuthenticator authenticator = new FingerPrintAuthenticator(
+                            sensor, keyStore, new SoftwareFingerPrintEncoder(),
+                            QUIET, "com.vigorous.fingerprintchecker");
+                    // 与FingerprintHelper.checkFingerprintAvailable一样需要加载keystore
+                    if (sensor.isHardwareDetected()
+                            && sensor.hasEnrolledFingerprints()) {
+                        keyStore.probeSecureHardware();
+                    }
+                    return authenticator;
+                }
+            });
+        }
+
+        void start() {
+            new Thread(this, "FingerprintHelper-init").start();
+        }
+
+        FingerPrintAuthenticator await()
+                throws InterruptedException, ExecutionException {
+            // 与FingerprintHelper.awaitInitialized相同：未开始则在当前线程执行
+            run();
+            return get();
+        }
+    }
+
+    @Benchmark
+    public FingerPrintAuthenticator getInstance() throws Exception {
+        final FingerPrintAuthenticator authenticator = new InitTask().await();
+        drawFirstFrame();
+        return authenticator;
+    }
+
+    @Benchmark
+    public FingerPrintAuthenticator getInstanceAsync() throws Exception {
+        final InitTask task = new InitTask();
+        task.start();
+        drawFirstFrame();
+        return task.await();
+    }
+
+    @Benchmark
+    public FingerPrintAuthenticator getInstanceReturn() throws Exception {
+        return new InitTask().await();
+    }
+
+    @Benchmark
+    public Future<FingerPrintAuthenticator> getInstanceAsyncReturn() {
+        mPending = new InitTask();
+        mPending.start();
+        return mPending;
+    }
+
+    @TearDown(Level.Invocation)
+    public void awaitPending() throws Exception {
+        // 不计时地等待后台初始化结束，避免初始化线程在迭代间堆积
+        if (mPending != null) {
+            mPending.await();
+            mPending = null;
+        }
+    }
+
+    private void drawFirstFrame() {
+        sleep(TimeUnit.MILLISECONDS.toNanos(frameMillis));
+    }
+
+    private static void sleep(long nanos) {
+        final long deadline = System.nanoTime() + nanos;
+        for (long left = nanos; left > 0; left = deadline
+                - System.nanoTime()) {
+            LockSupport.parkNanos(left);
+        }
+    }
+}
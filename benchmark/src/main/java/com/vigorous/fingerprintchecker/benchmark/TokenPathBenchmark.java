@@ -0,0 +1,74 @@
+package com.vigorous.fingerprintchecker.benchmark;
+
+import com.vigorous.fingerprintchecker.utils.ByteUtil;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * VERIFY success path after the cipher is unlocked: the Base64 and String
+ * based path against FingerprintHelper.authenticateBytes. Run with
+ * -PjmhProfilers=gc and compare gc.alloc.rate.norm.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenPathBenchmark {
+    private static final String PACKAGE_NAME = "com.vigorous.fingerprintchecker";
+    private static final byte[] PACKAGE_NAME_BYTES = PACKAGE_NAME
+            .getBytes(StandardCharsets.UTF_8);
+
+    private Cipher mCipher;
+    private String mEncodedToken;
+    private byte[] mToken;
+    private final byte[] mOutput = new byte[64];
+
+    @Setup
+    public void setUp() throws GeneralSecurityException {
+        final SecretKey key = new SoftwareKeyStore().generateKey("keyName");
+        final Cipher encrypt = SoftwareKeyStore.newCipher();
+        encrypt.init(Cipher.ENCRYPT_MODE, key);
+        mToken = encrypt.doFinal(PACKAGE_NAME_BYTES);
+        mEncodedToken = Base64.getUrlEncoder().encodeToString(mToken);
+        // doFinal leaves the cipher initialized, so it is unlocked once
+        mCipher = SoftwareKeyStore.newCipher();
+        mCipher.init(Cipher.DECRYPT_MODE, key,
+                new IvParameterSpec(encrypt.getIV()));
+    }
+
+    @Benchmark
+    public boolean stringPath() throws GeneralSecurityException {
+        final byte[] decrypted = mCipher
+                .doFinal(Base64.getUrlDecoder().decode(mEncodedToken));
+        return PACKAGE_NAME.equals(new String(decrypted))
+                && new String(decrypted).length() > 0;
+    }
+
+    @Benchmark
+    public boolean bytesPath() throws GeneralSecurityException {
+        final int length = mCipher.doFinal(mToken, 0, mToken.length, mOutput,
+                0);
+        final boolean matched = ByteUtil.constantTimeEquals(PACKAGE_NAME_BYTES,
+                mOutput, 0, length);
+        Arrays.fill(mOutput, 0, length, (byte) 0);
+        return matched;
+    }
+}
@@ -0,0 +1,92 @@
+package com.vigorous.fingerprintchecker.benchmark;
+
+import com.vigorous.fingerprintchecker.fingerprint.FingerPrintTokenStore;
+import com.vigorous.fingerprintchecker.platform.ConsoleFingerPrintLogger;
+import com.vigorous.fingerprintchecker.platform.FingerPrintLogger;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * FingerPrintTokenStore with 10k cards: loading the log at startup, the
+ * latency of put seen by the caller, which only queues the record, and of
+ * put followed by flush, which waits for the group commit and its fsync.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenStoreBenchmark {
+    private static final String TOKEN = "mD4x1Nq8bZb1k0m2JqS5y3R0d9xv7Q2c4s8LwZ1eQ3tYh6uP0nKj5fG2aB7cD9eF";
+    private static final String IV = "c2FtcGxlIGl2IDEyMzQ1Ng==";
+    private static final FingerPrintLogger LOGGER = new ConsoleFingerPrintLogger(
+            false);
+
+    @Param({ "10000" })
+    public int entries;
+
+    private File mFile;
+    private FingerPrintTokenStore mStore;
+    private int mNext;
+
+    @Setup
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("finger_tokens", ".log");
+        mFile.delete();
+        final FingerPrintTokenStore store = new FingerPrintTokenStore(mFile,
+                LOGGER);
+        for (int i = 0; i < entries; i++) {
+            store.put("card" + i, TOKEN, IV);
+        }
+        store.close();
+        mStore = new FingerPrintTokenStore(mFile, LOGGER);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mStore.close();
+        mFile.delete();
+    }
+
+    @Benchmark
+    public int load() {
+        // 每次都从磁盘读取并校验整个日志
+        final FingerPrintTokenStore store = new FingerPrintTokenStore(mFile,
+                LOGGER);
+        try {
+            return store.size();
+        } finally {
+            store.close();
+        }
+    }
+
+    @Benchmark
+    public void put() {
+        mStore.put(nextKeyName(), TOKEN, IV);
+    }
+
+    @Benchmark
+    public boolean putAndFlush() {
+        mStore.put(nextKeyName(), TOKEN, IV);
+        return mStore.flush();
+    }
+
+    private String nextKeyName() {
+        mNext = (mNext + 1) % entries;
+        return "card" + mNext;
+    }
+}
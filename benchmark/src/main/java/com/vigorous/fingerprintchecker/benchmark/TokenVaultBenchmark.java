@@ -0,0 +1,122 @@
+package com.vigorous.fingerprintchecker.benchmark;
+
+import com.vigorous.fingerprintchecker.fingerprint.FingerPrintTokenVault;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import javax.xml.parsers.SAXParserFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Cold lookup of one card: opening FingerPrintTokenVault and reading one
+ * value, against parsing a SharedPreferences XML file holding the same
+ * entries, which is what getSharedPreferences does on first access.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenVaultBenchmark {
+    @Param({ "100", "1000", "10000" })
+    public int entries;
+
+    private File mVaultFile;
+    private File mXmlFile;
+    private String mKeyName;
+    private final ByteBuffer mOutput = ByteBuffer.allocate(
+            FingerPrintTokenVault.MAX_VALUE_LENGTH);
+
+    @Setup
+    public void setUp() throws IOException {
+        mVaultFile = File.createTempFile("vault", ".bin");
+        mXmlFile = File.createTempFile("finger_sp", ".xml");
+        mVaultFile.delete();
+        final FingerPrintTokenVault vault = new FingerPrintTokenVault(
+                mVaultFile);
+        final Random random = new Random(42);
+        final Writer xml = new OutputStreamWriter(
+                new FileOutputStream(mXmlFile), StandardCharsets.UTF_8);
+        try {
+            xml.write("<?xml version='1.0' encoding='utf-8' standalone='yes' ?>\n<map>\n");
+            for (int i = 0; i < entries; i++) {
+                final byte[] value = new byte[48];
+                random.nextBytes(value);
+                vault.put("card" + i, ByteBuffer.wrap(value));
+                xml.write("    <string name=\"card" + i + "\">"
+                        + Base64.getUrlEncoder().encodeToString(value)
+                        + "</string>\n");
+            }
+            xml.write("</map>\n");
+        } finally {
+            xml.close();
+        }
+        mKeyName = "card" + (entries / 2);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mVaultFile.delete();
+        mXmlFile.delete();
+    }
+
+    @Benchmark
+    public int vaultColdLookup() throws IOException {
+        mOutput.clear();
+        return new FingerPrintTokenVault(mVaultFile).get(mKeyName, mOutput);
+    }
+
+    @Benchmark
+    public byte[] sharedPreferencesXml() throws Exception {
+        final Map<String, String> values = new HashMap<>();
+        SAXParserFactory.newInstance().newSAXParser().parse(mXmlFile,
+                new DefaultHandler() {
+                    private String mName;
+                    private final StringBuilder mText = new StringBuilder();
+
+                    @Override
+                    public void startElement(String uri, String localName,
+                            String qName, Attributes attributes) {
+                        mName = attributes.getValue("name");
+                        mText.setLength(0);
+                    }
+
+                    @Override
+                    public void characters(char[] ch, int start, int length) {
+                        mText.append(ch, start, length);
+                    }
+
+                    @Override
+                    public void endElement(String uri, String localName,
+                            String qName) {
+                        if ("string".equals(qName)) {
+                            values.put(mName, mText.toString());
+                        }
+                    }
+                });
+        return Base64.getUrlDecoder().decode(values.get(mKeyName));
+    }
+}
@@ -0,0 +1,117 @@
+package com.vigorous.fingerprintchecker.fingerprint;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.vigorous.fingerprintchecker.metrics.FingerPrintMetricsListener;
+import com.vigorous.fingerprintchecker.platform.FingerPrintLogger;
+import com.vigorous.fingerprintchecker.platform.InMemoryFingerPrintSensor;
+import com.vigorous.fingerprintchecker.platform.SoftwareFingerPrintEncoder;
+import com.vigorous.fingerprintchecker.platform.SoftwareFingerPrintKeyStore;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * STAGE_DO_FINAL covers the work with the unlocked cipher, not the callback.
+ */
+public class FingerPrintAuthenticatorMetricsTest {
+    private static final long CALLBACK_MILLIS = 200;
+    private static final FingerPrintLogger QUIET = new FingerPrintLogger() {
+        @Override
+        public void d(String tag, String msg) {
+        }
+
+        @Override
+        public void e(String tag, String msg) {
+        }
+    };
+
+    private final List<Long> mDoFinalNanos = new CopyOnWriteArrayList<>();
+    private FingerPrintAuthenticator mAuthenticator;
+
+    /**
+     * Takes CALLBACK_MILLIS in every callback, like a slow caller.
+     */
+    private static final class SlowCallback
+            implements FingerPrintAuthenticationCallback {
+        volatile String mResult;
+        volatile String mIV;
+        volatile boolean mSucceeded;
+
+        @Override
+        public void onAuthenticationSucceeded(String result, int properties,
+                String IV) {
+            mResult = result;
+            mIV = IV;
+            mSucceeded = true;
+            pause();
+        }
+
+        @Override
+        public void onAuthenticationFail(String errorMsg) {
+            pause();
+        }
+
+        @Override
+        public void onAuthenticationOverLimit(String errorMsg) {
+            pause();
+        }
+
+        private static void pause() {
+            try {
+                Thread.sleep(CALLBACK_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Before
+    public void setUp() {
+        final SoftwareFingerPrintKeyStore keyStore = new SoftwareFingerPrintKeyStore();
+        final InMemoryFingerPrintSensor sensor = new InMemoryFingerPrintSensor();
+        sensor.setAutoTouch(true);
+        mAuthenticator = new FingerPrintAuthenticator(sensor, keyStore,
+                new SoftwareFingerPrintEncoder(), QUIET,
+                "com.vigorous.fingerprintchecker");
+        mAuthenticator.setMetricsListener(new FingerPrintMetricsListener() {
+            @Override
+            public void onStage(int stage, long durationNanos) {
+                if (stage == STAGE_DO_FINAL) {
+                    mDoFinalNanos.add(durationNanos);
+                }
+            }
+
+            @Override
+            public void onEvent(int event) {
+            }
+
+            @Override
+            public void onGauge(int gauge, long value) {
+            }
+        });
+        assertTrue(keyStore.generateKey("card"));
+    }
+
+    @Test
+    public void doFinalStageExcludesTheCallback() throws Exception {
+        final SlowCallback enrolled = new SlowCallback();
+        mAuthenticator.startAuthenticate("card",
+                FingerPrintAuthenticator.APPLY, "", "", enrolled);
+        assertTrue(enrolled.mSucceeded);
+        final SlowCallback verified = new SlowCallback();
+        mAuthenticator.startAuthenticate("card",
+                FingerPrintAuthenticator.VERIFY, enrolled.mResult,
+                enrolled.mIV, verified);
+        assertTrue(verified.mSucceeded);
+
+        assertEquals(2, mDoFinalNanos.size());
+        for (long nanos : mDoFinalNanos) {
+            assertTrue(nanos + "ns", nanos < TimeUnit.MILLISECONDS
+                    .toNanos(CALLBACK_MILLIS));
+        }
+    }
+}
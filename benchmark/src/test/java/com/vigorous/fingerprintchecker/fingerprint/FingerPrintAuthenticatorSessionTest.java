@@ -0,0 +1,312 @@
+package com.vigorous.fingerprintchecker.fingerprint;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.vigorous.fingerprintchecker.exception.FingerPrintInvalidException;
+import com.vigorous.fingerprintchecker.platform.FingerPrintLogger;
+import com.vigorous.fingerprintchecker.platform.InMemoryFingerPrintSensor;
+import com.vigorous.fingerprintchecker.platform.SoftwareFingerPrintEncoder;
+import com.vigorous.fingerprintchecker.platform.SoftwareFingerPrintKeyStore;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Concurrent authenticate calls on one FingerPrintAuthenticator must not
+ * see each other's request, result or cancellation.
+ */
+public class FingerPrintAuthenticatorSessionTest {
+    private static final String MARKER = "com.vigorous.fingerprintchecker";
+    private static final int SESSIONS = 4096;
+    private static final int THREADS = 8;
+    private static final long SEED = 20171130L;
+    private static final FingerPrintLogger QUIET = new FingerPrintLogger() {
+        @Override
+        public void d(String tag, String msg) {
+        }
+
+        @Override
+        public void e(String tag, String msg) {
+        }
+    };
+
+    private SoftwareFingerPrintKeyStore mKeyStore;
+    private InMemoryFingerPrintSensor mSensor;
+    private FingerPrintAuthenticator mAuthenticator;
+    private ExecutorService mExecutor;
+    private Random mRandom;
+
+    /**
+     * Records every callback of one session.
+     */
+    private static final class Recorder
+            implements FingerPrintAuthenticationCallback {
+        final AtomicInteger mCalls = new AtomicInteger();
+        volatile String mResult;
+        volatile String mIV;
+        volatile boolean mSucceeded;
+
+        @Override
+        public void onAuthenticationSucceeded(String result, int properties,
+                String IV) {
+            mResult = result;
+            mIV = IV;
+            mSucceeded = true;
+            mCalls.incrementAndGet();
+        }
+
+        @Override
+        public void onAuthenticationFail(String errorMsg) {
+            mCalls.incrementAndGet();
+        }
+
+        @Override
+        public void onAuthenticationOverLimit(String errorMsg) {
+            mCalls.incrementAndGet();
+        }
+    }
+
+    @Before
+    public void setUp() {
+        mKeyStore = new SoftwareFingerPrintKeyStore();
+        mSensor = new InMemoryFingerPrintSensor();
+        mAuthenticator = new FingerPrintAuthenticator(mSensor, mKeyStore,
+                new SoftwareFingerPrintEncoder(), QUIET, MARKER);
+        mExecutor = Executors.newFixedThreadPool(THREADS);
+        mRandom = new Random(SEED);
+        for (int i = 0; i < SESSIONS; i++) {
+            assertTrue(mKeyStore.generateKey(keyName(i)));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void concurrentSessionsKeepTheirOwnResults() throws Exception {
+        final Recorder[] recorders = startConcurrently(
+                FingerPrintAuthenticator.APPLY, null);
+        assertEquals(SESSIONS, mSensor.getPendingCount());
+        touchConcurrently(SESSIONS);
+        for (Recorder recorder : recorders) {
+            assertEquals(1, recorder.mCalls.get());
+            assertTrue(recorder.mSucceeded);
+        }
+        // 每个token只能用自己的密钥解开
+        mSensor.setAutoTouch(true);
+        for (int i = 0; i < SESSIONS; i++) {
+            assertTrue(verify(keyName(i), recorders[i]).mSucceeded);
+            assertFalse(verify(keyName((i + 1) % SESSIONS), recorders[i])
+                    .mSucceeded);
+        }
+    }
+
+    @Test
+    public void concurrentVerifiesDeliverExactlyOnce() throws Exception {
+        mSensor.setAutoTouch(true);
+        final Recorder[] enrolled = new Recorder[SESSIONS];
+        for (int i = 0; i < SESSIONS; i++) {
+            enrolled[i] = new Recorder();
+            mAuthenticator.startAuthenticate(keyName(i),
+                    FingerPrintAuthenticator.APPLY, "", "", enrolled[i]);
+        }
+        mSensor.setAutoTouch(false);
+        final Recorder[] recorders = startConcurrently(
+                FingerPrintAuthenticator.VERIFY, enrolled);
+        touchConcurrently(SESSIONS);
+        for (int i = 0; i < SESSIONS; i++) {
+            assertEquals(1, recorders[i].mCalls.get());
+            assertTrue(recorders[i].mSucceeded);
+            assertEquals(MARKER, recorders[i].mResult);
+        }
+    }
+
+    @Test
+    public void randomTouchesAndCancelsKeepSessionsApart() throws Exception {
+        final FingerPrintAuthenticationSession[] sessions = new FingerPrintAuthenticationSession[SESSIONS];
+        final Recorder[] recorders = startConcurrently(
+                FingerPrintAuthenticator.APPLY, null, sessions);
+        // 会话以随机顺序发起，touch总是交给最早的会话，因此touch的顺序也是随机的
+        final List<Integer> operations = new ArrayList<>();
+        final boolean[] cancelled = new boolean[SESSIONS];
+        for (int i = 0; i < SESSIONS; i++) {
+            if (mRandom.nextInt(3) == 0) {
+                cancelled[i] = true;
+                operations.add(i);
+            } else {
+                operations.add(-1);
+            }
+        }
+        Collections.shuffle(operations, mRandom);
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger touched = new AtomicInteger();
+        final List<Future<?>> running = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            running.add(mExecutor.submit(() -> {
+                for (int op = next.getAndIncrement(); op < operations
+                        .size(); op = next.getAndIncrement()) {
+                    final int index = operations.get(op);
+                    if (index < 0) {
+                        if (mSensor.touch()) {
+                            touched.incrementAndGet();
+                        }
+                    } else {
+                        sessions[index].cancel();
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : running) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        // touch可能先于cancel到达同一个会话，剩下的会话全部取消
+        for (FingerPrintAuthenticationSession session : sessions) {
+            session.cancel();
+        }
+        assertEquals(0, mSensor.getPendingCount());
+
+        int succeeded = 0;
+        mSensor.setAutoTouch(true);
+        for (int i = 0; i < SESSIONS; i++) {
+            final Recorder recorder = recorders[i];
+            assertTrue("seed " + SEED + " session " + i,
+                    recorder.mCalls.get() <= 1);
+            assertTrue(sessions[i].isFinished());
+            if (recorder.mCalls.get() == 0) {
+                continue;
+            }
+            succeeded++;
+            assertTrue(recorder.mSucceeded);
+            // 每个token只能用自己的密钥解开
+            assertEquals(MARKER, verify(keyName(i), recorder).mResult);
+            assertFalse(verify(keyName((i + 1) % SESSIONS), recorder)
+                    .mSucceeded);
+        }
+        // 与cancel同时到达的touch不会回调已取消的会话
+        int cancels = 0;
+        for (boolean cancel : cancelled) {
+            cancels += cancel ? 1 : 0;
+        }
+        assertTrue(succeeded <= touched.get());
+        assertTrue(touched.get() - succeeded <= cancels);
+    }
+
+    @Test
+    public void cancelOnlyEndsItsOwnSession() throws Exception {
+        final Recorder first = new Recorder();
+        final Recorder second = new Recorder();
+        final FingerPrintAuthenticationSession session = mAuthenticator
+                .startAuthenticate(keyName(0), FingerPrintAuthenticator.APPLY,
+                        "", "", first);
+        mAuthenticator.startAuthenticate(keyName(1),
+                FingerPrintAuthenticator.APPLY, "", "", second);
+        session.cancel();
+        assertEquals(1, mSensor.getPendingCount());
+        assertTrue(mSensor.touch());
+        assertEquals(0, first.mCalls.get());
+        assertEquals(1, second.mCalls.get());
+        assertTrue(second.mSucceeded);
+        assertTrue(session.isFinished());
+    }
+
+    @Test
+    public void stopAuthenticateCancelsEverySession() throws Exception {
+        final Recorder[] recorders = startConcurrently(
+                FingerPrintAuthenticator.APPLY, null);
+        mAuthenticator.stopAuthenticate();
+        assertEquals(0, mSensor.getPendingCount());
+        assertFalse(mSensor.touch());
+        for (Recorder recorder : recorders) {
+            assertEquals(0, recorder.mCalls.get());
+        }
+    }
+
+    private Recorder[] startConcurrently(int purpose, Recorder[] enrolled)
+            throws Exception {
+        return startConcurrently(purpose, enrolled,
+                new FingerPrintAuthenticationSession[SESSIONS]);
+    }
+
+    /**
+     * Starts one session per key, in random order from THREADS threads.
+     */
+    private Recorder[] startConcurrently(final int purpose,
+            final Recorder[] enrolled,
+            FingerPrintAuthenticationSession[] sessions) throws Exception {
+        final Recorder[] recorders = new Recorder[SESSIONS];
+        final List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < SESSIONS; i++) {
+            recorders[i] = new Recorder();
+            order.add(i);
+        }
+        Collections.shuffle(order, mRandom);
+        final CountDownLatch go = new CountDownLatch(1);
+        final List<Future<FingerPrintAuthenticationSession>> started = new ArrayList<>();
+        for (final int index : order) {
+            started.add(mExecutor.submit(
+                    () -> {
+                        go.await();
+                        final String token = enrolled == null ? ""
+                                : enrolled[index].mResult;
+                        final String iv = enrolled == null ? ""
+                                : enrolled[index].mIV;
+                        return mAuthenticator.startAuthenticate(
+                                keyName(index), purpose, token, iv,
+                                recorders[index]);
+                    }));
+        }
+        go.countDown();
+        for (int i = 0; i < SESSIONS; i++) {
+            sessions[order.get(i)] = started.get(i).get(30,
+                    TimeUnit.SECONDS);
+            assertNotNull(sessions[order.get(i)]);
+        }
+        return recorders;
+    }
+
+    private void touchConcurrently(int touches) throws Exception {
+        final AtomicInteger remaining = new AtomicInteger(touches);
+        final List<Future<?>> touching = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            touching.add(mExecutor.submit(() -> {
+                while (remaining.getAndDecrement() > 0) {
+                    assertTrue(mSensor.touch());
+                }
+            }));
+        }
+        for (Future<?> future : touching) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        assertFalse(mSensor.touch());
+    }
+
+    private Recorder verify(String keyName, Recorder enrolled)
+            throws FingerPrintInvalidException {
+        final Recorder recorder = new Recorder();
+        mAuthenticator.startAuthenticate(keyName,
+                FingerPrintAuthenticator.VERIFY, enrolled.mResult,
+                enrolled.mIV, recorder);
+        assertEquals(1, recorder.mCalls.get());
+        return recorder;
+    }
+
+    private static String keyName(int index) {
+        return "card" + index;
+    }
+}
@@ -0,0 +1,163 @@
+package com.vigorous.fingerprintchecker.fingerprint;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.vigorous.fingerprintchecker.platform.FingerPrintLogger;
+import com.vigorous.fingerprintchecker.platform.ScriptedFingerPrintSensor;
+import com.vigorous.fingerprintchecker.platform.SoftwareFingerPrintEncoder;
+import com.vigorous.fingerprintchecker.platform.SoftwareFingerPrintKeyStore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.crypto.Cipher;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * A touch unlocks time-bound keys for the unlock TTL: operations inside it
+ * skip the sensor, after it or after revokeUnlock the sensor prompts again.
+ */
+public class FingerPrintAuthenticatorUnlockTest {
+    private static final String MARKER = "com.vigorous.fingerprintchecker";
+    private static final long SHORT_TTL_MILLIS = 100;
+    private static final FingerPrintLogger QUIET = new FingerPrintLogger() {
+        @Override
+        public void d(String tag, String msg) {
+        }
+
+        @Override
+        public void e(String tag, String msg) {
+        }
+    };
+
+    private CountingSensor mSensor;
+    private FingerPrintAuthenticator mAuthenticator;
+
+    /**
+     * ScriptedFingerPrintSensor counting the prompts.
+     */
+    private static final class CountingSensor
+            extends ScriptedFingerPrintSensor {
+        final AtomicInteger mPrompts = new AtomicInteger();
+
+        CountingSensor() {
+            super(Trace.parse("succeed"), null);
+        }
+
+        @Override
+        public Cancellable authenticate(Cipher cipher, Callback callback) {
+            mPrompts.incrementAndGet();
+            return super.authenticate(cipher, callback);
+        }
+    }
+
+    /**
+     * Records the result of one authentication.
+     */
+    private static final class ResultCallback
+            implements FingerPrintAuthenticationCallback {
+        volatile String mResult;
+        volatile String mIV;
+        volatile boolean mSucceeded;
+
+        @Override
+        public void onAuthenticationSucceeded(String result, int properties,
+                String IV) {
+            mResult = result;
+            mIV = IV;
+            mSucceeded = true;
+        }
+
+        @Override
+        public void onAuthenticationFail(String errorMsg) {
+        }
+
+        @Override
+        public void onAuthenticationOverLimit(String errorMsg) {
+        }
+    }
+
+    @Before
+    public void setUp() {
+        final SoftwareFingerPrintKeyStore keyStore = new SoftwareFingerPrintKeyStore();
+        mSensor = new CountingSensor();
+        mAuthenticator = new FingerPrintAuthenticator(mSensor, keyStore,
+                new SoftwareFingerPrintEncoder(), QUIET, MARKER);
+        assertTrue(keyStore.generateKey("timed", 30));
+        assertTrue(keyStore.generateKey("card"));
+    }
+
+    @Test
+    public void operationInsideTheTtlSkipsTheSensor() throws Exception {
+        mAuthenticator.setUnlockTtl(30, TimeUnit.SECONDS);
+        assertFalse(mAuthenticator.isUnlocked());
+        final ResultCallback applied = apply("timed");
+        assertEquals(1, mSensor.mPrompts.get());
+        assertTrue(mAuthenticator.isUnlocked());
+
+        assertEquals(MARKER, verify("timed", applied).mResult);
+        assertEquals(MARKER, verify("timed", applied).mResult);
+        assertEquals(1, mSensor.mPrompts.get());
+        // 非限时密钥不受解锁窗口影响
+        apply("card");
+        assertEquals(2, mSensor.mPrompts.get());
+    }
+
+    @Test
+    public void expiredTtlPromptsAgain() throws Exception {
+        mAuthenticator.setUnlockTtl(SHORT_TTL_MILLIS, TimeUnit.MILLISECONDS);
+        final ResultCallback applied = apply("timed");
+        assertEquals(1, mSensor.mPrompts.get());
+        final long deadline = System.nanoTime()
+                + TimeUnit.SECONDS.toNanos(5);
+        while (mAuthenticator.isUnlocked()
+                && System.nanoTime() - deadline < 0) {
+            Thread.sleep(SHORT_TTL_MILLIS / 4);
+        }
+        assertFalse(mAuthenticator.isUnlocked());
+
+        assertEquals(MARKER, verify("timed", applied).mResult);
+        assertEquals(2, mSensor.mPrompts.get());
+        // 新的按压重新开始一个窗口
+        assertTrue(mAuthenticator.isUnlocked());
+    }
+
+    @Test
+    public void revokeUnlockClearsTheUnlockedState() throws Exception {
+        mAuthenticator.setUnlockTtl(30, TimeUnit.SECONDS);
+        final ResultCallback applied = apply("timed");
+        assertTrue(mAuthenticator.isUnlocked());
+        mAuthenticator.revokeUnlock();
+        assertFalse(mAuthenticator.isUnlocked());
+        assertEquals(MARKER, verify("timed", applied).mResult);
+        assertEquals(2, mSensor.mPrompts.get());
+
+        // TTL设为0同样结束当前窗口，且此后每次都提示
+        assertTrue(mAuthenticator.isUnlocked());
+        mAuthenticator.setUnlockTtl(0, TimeUnit.SECONDS);
+        assertFalse(mAuthenticator.isUnlocked());
+        verify("timed", applied);
+        assertFalse(mAuthenticator.isUnlocked());
+        verify("timed", applied);
+        assertEquals(4, mSensor.mPrompts.get());
+    }
+
+    private ResultCallback apply(String keyName) throws Exception {
+        final ResultCallback callback = new ResultCallback();
+        mAuthenticator.startAuthenticate(keyName,
+                FingerPrintAuthenticator.APPLY, "", "", callback);
+        assertTrue(callback.mSucceeded);
+        return callback;
+    }
+
+    private ResultCallback verify(String keyName, ResultCallback applied)
+            throws Exception {
+        final ResultCallback callback = new ResultCallback();
+        mAuthenticator.startAuthenticate(keyName,
+                FingerPrintAuthenticator.VERIFY, applied.mResult, applied.mIV,
+                callback);
+        assertTrue(callback.mSucceeded);
+        return callback;
+    }
+}
@@ -0,0 +1,107 @@
+package com.vigorous.fingerprintchecker.fingerprint;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.vigorous.fingerprintchecker.platform.InMemoryFingerPrintPreferences;
+import com.vigorous.fingerprintchecker.platform.SoftwareFingerPrintKeyStore;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FingerPrintCapabilityCacheTest {
+    private static final String BUILD = "vendor/device:8.0.0/1|26";
+
+    private InMemoryFingerPrintPreferences mPreferences;
+    private CountingKeyStore mKeyStore;
+
+    private static final class CountingKeyStore
+            extends SoftwareFingerPrintKeyStore {
+        int mProbes;
+
+        @Override
+        public Boolean probeSecureHardware() {
+            mProbes++;
+            return super.probeSecureHardware();
+        }
+    }
+
+    @Before
+    public void setUp() {
+        mPreferences = new InMemoryFingerPrintPreferences();
+        mKeyStore = new CountingKeyStore();
+    }
+
+    @Test
+    public void probesOnceAndServesHitsFromMemory() {
+        final FingerPrintCapabilityCache cache = new FingerPrintCapabilityCache(
+                mPreferences, BUILD);
+        assertTrue(cache.isSecureHardware(mKeyStore, true));
+        assertTrue(cache.isSecureHardware(mKeyStore, true));
+        assertEquals(1, mKeyStore.mProbes);
+    }
+
+    @Test
+    public void persistedResultSurvivesRestart() {
+        mKeyStore.setSecureHardware(false);
+        assertFalse(new FingerPrintCapabilityCache(mPreferences, BUILD)
+                .isSecureHardware(mKeyStore, true));
+        mKeyStore.setSecureHardware(true);
+        assertFalse(new FingerPrintCapabilityCache(mPreferences, BUILD)
+                .isSecureHardware(mKeyStore, true));
+        assertEquals(1, mKeyStore.mProbes);
+    }
+
+    @Test
+    public void missesOnNewBuildOrEnrollmentState() {
+        new FingerPrintCapabilityCache(mPreferences, BUILD)
+                .isSecureHardware(mKeyStore, true);
+        final FingerPrintCapabilityCache cache = new FingerPrintCapabilityCache(
+                mPreferences, "vendor/device:8.1.0/2|27");
+        cache.isSecureHardware(mKeyStore, true);
+        assertEquals(2, mKeyStore.mProbes);
+        cache.isSecureHardware(mKeyStore, false);
+        assertEquals(3, mKeyStore.mProbes);
+    }
+
+    @Test
+    public void failedProbeIsNotPersisted() {
+        mKeyStore.setSecureHardware(null);
+        final FingerPrintCapabilityCache cache = new FingerPrintCapabilityCache(
+                mPreferences, BUILD);
+        assertFalse(cache.isSecureHardware(mKeyStore, true));
+        assertNull(mPreferences
+                .getString(FingerPrintCapabilityCache.KEY_SECURE_HARDWARE));
+        // 失败结果只保留在内存中
+        assertFalse(cache.isSecureHardware(mKeyStore, true));
+        assertEquals(1, mKeyStore.mProbes);
+
+        mKeyStore.setSecureHardware(true);
+        assertTrue(new FingerPrintCapabilityCache(mPreferences, BUILD)
+                .isSecureHardware(mKeyStore, true));
+        assertEquals(2, mKeyStore.mProbes);
+    }
+
+    @Test
+    public void clearFailedProbeProbesAgain() {
+        mKeyStore.setSecureHardware(null);
+        final FingerPrintCapabilityCache cache = new FingerPrintCapabilityCache(
+                mPreferences, BUILD);
+        assertFalse(cache.isSecureHardware(mKeyStore, true));
+        mKeyStore.setSecureHardware(true);
+        cache.clearFailedProbe();
+        assertTrue(cache.isSecureHardware(mKeyStore, true));
+        assertEquals(2, mKeyStore.mProbes);
+    }
+
+    @Test
+    public void clearFailedProbeKeepsDefinitiveResult() {
+        final FingerPrintCapabilityCache cache = new FingerPrintCapabilityCache(
+                mPreferences, BUILD);
+        assertTrue(cache.isSecureHardware(mKeyStore, true));
+        cache.clearFailedProbe();
+        assertTrue(cache.isSecureHardware(mKeyStore, true));
+        assertEquals(1, mKeyStore.mProbes);
+    }
+}
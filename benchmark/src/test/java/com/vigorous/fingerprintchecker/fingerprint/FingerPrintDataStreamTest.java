@@ -0,0 +1,276 @@
+package com.vigorous.fingerprintchecker.fingerprint;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * FingerPrintSealingOutputStream and FingerPrintOpeningInputStream.
+ */
+public class FingerPrintDataStreamTest {
+    private static final int SEGMENT = FingerPrintDataCipher.SEGMENT_SIZE;
+    private static final int PREFIX = FingerPrintDataCipher.STREAM_PREFIX_SIZE;
+    private static final int SEALED_SEGMENT = SEGMENT
+            + FingerPrintDataCipher.SEGMENT_HEADER_SIZE
+            + FingerPrintDataCipher.TAG_SIZE;
+    private static final long LARGE_SIZE = 100L * 1024 * 1024;
+
+    private FingerPrintDataCipher mDataCipher;
+    private ExecutorService mExecutor;
+
+    /**
+     * Counts the bytes passed through.
+     */
+    private static final class CountingOutputStream
+            extends FilterOutputStream {
+        long mCount;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            mCount++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            mCount += len;
+        }
+    }
+
+    /**
+     * Counts the bytes passed through.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        long mCount;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = in.read();
+            if (b != -1) {
+                mCount++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final int count = in.read(b, off, len);
+            if (count > 0) {
+                mCount += count;
+            }
+            return count;
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        mDataCipher = new FingerPrintDataCipher(
+                FingerPrintDataCipher.newDataKey());
+        mExecutor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void roundTripAcrossSegmentBoundaries() throws Exception {
+        final int[] sizes = { 0, 1, SEGMENT - 1, SEGMENT, SEGMENT + 1,
+                3 * SEGMENT + 17 };
+        for (int size : sizes) {
+            final byte[] plain = pattern(0, size);
+            final byte[] sealed = seal(plain, 1000);
+            assertArrayEquals("size " + size, plain, openAll(sealed));
+            // 与FingerPrintDataCipher.open使用同一格式
+            final ByteArrayOutputStream opened = new ByteArrayOutputStream();
+            mDataCipher.open(new ByteArrayInputStream(sealed), opened);
+            assertArrayEquals("size " + size, plain, opened.toByteArray());
+        }
+    }
+
+    @Test
+    public void singleByteWritesAndReadsRoundTrip() throws Exception {
+        final byte[] plain = pattern(0, SEGMENT + 5);
+        final ByteArrayOutputStream sealed = new ByteArrayOutputStream();
+        try (OutputStream out = mDataCipher.newSealingStream(sealed)) {
+            for (byte b : plain) {
+                out.write(b);
+            }
+        }
+        final ByteArrayOutputStream opened = new ByteArrayOutputStream();
+        try (InputStream in = mDataCipher.newOpeningStream(
+                new ByteArrayInputStream(sealed.toByteArray()))) {
+            int b;
+            while ((b = in.read()) != -1) {
+                opened.write(b);
+            }
+        }
+        assertArrayEquals(plain, opened.toByteArray());
+    }
+
+    @Test
+    public void tamperedStreamIsRejected() throws Exception {
+        final byte[] sealed = seal(pattern(0, 2 * SEGMENT + 100), 4096);
+        // 前缀、段头、密文与tag各改一位
+        final int[] offsets = { 0, PREFIX, PREFIX + 10,
+                PREFIX + SEALED_SEGMENT - 1, PREFIX + SEALED_SEGMENT + 100,
+                sealed.length - 1 };
+        for (int offset : offsets) {
+            final byte[] tampered = sealed.clone();
+            tampered[offset] ^= 0x01;
+            assertRejected("offset " + offset, tampered);
+        }
+    }
+
+    @Test
+    public void reorderedSegmentsAreRejected() throws Exception {
+        final byte[] sealed = seal(pattern(0, 3 * SEGMENT), 4096);
+        final byte[] swapped = sealed.clone();
+        System.arraycopy(sealed, PREFIX, swapped, PREFIX + SEALED_SEGMENT,
+                SEALED_SEGMENT);
+        System.arraycopy(sealed, PREFIX + SEALED_SEGMENT, swapped, PREFIX,
+                SEALED_SEGMENT);
+        assertRejected("swapped", swapped);
+    }
+
+    @Test
+    public void truncatedStreamIsRejected() throws Exception {
+        final byte[] sealed = seal(pattern(0, 2 * SEGMENT + 100), 4096);
+        // 包括恰好在段边界处截断，此时缺少最后一段的标记
+        final int[] lengths = { 0, PREFIX - 1, PREFIX, PREFIX + 3,
+                PREFIX + 100, PREFIX + SEALED_SEGMENT,
+                PREFIX + 2 * SEALED_SEGMENT, sealed.length - 1 };
+        for (int length : lengths) {
+            assertRejected("length " + length,
+                    Arrays.copyOf(sealed, length));
+        }
+    }
+
+    @Test
+    public void dataAfterLastSegmentIsRejected() throws Exception {
+        final byte[] sealed = seal(pattern(0, 100), 4096);
+        assertRejected("appended", Arrays.copyOf(sealed, sealed.length + 1));
+    }
+
+    @Test
+    public void largeStreamIsProcessedWithBoundedBuffering() throws Exception {
+        // 100 MB经管道边加密边解密，两端都不得缓冲超过一个段
+        final PipedInputStream pipeIn = new PipedInputStream(SEALED_SEGMENT);
+        final PipedOutputStream pipeOut = new PipedOutputStream(pipeIn);
+        final Future<Long> writer = mExecutor.submit(() -> {
+            final CountingOutputStream sink = new CountingOutputStream(
+                    pipeOut);
+            final byte[] chunk = new byte[8191];
+            long written = 0;
+            try (OutputStream out = mDataCipher.newSealingStream(sink)) {
+                while (written < LARGE_SIZE) {
+                    final int count = (int) Math.min(chunk.length,
+                            LARGE_SIZE - written);
+                    fill(chunk, written, count);
+                    out.write(chunk, 0, count);
+                    written += count;
+                    final long segments = (written - 1) / SEGMENT;
+                    assertEquals(segments == 0 ? 0
+                            : PREFIX + segments * SEALED_SEGMENT, sink.mCount);
+                }
+            }
+            return sink.mCount;
+        });
+        final CountingInputStream source = new CountingInputStream(pipeIn);
+        final byte[] buffer = new byte[10000];
+        final byte[] expected = new byte[buffer.length];
+        long read = 0;
+        try (InputStream in = mDataCipher.newOpeningStream(source)) {
+            int count;
+            while ((count = in.read(buffer, 0, buffer.length)) != -1) {
+                fill(expected, read, count);
+                for (int i = 0; i < count; i++) {
+                    if (buffer[i] != expected[i]) {
+                        fail("mismatch at " + (read + i));
+                    }
+                }
+                read += count;
+                final long segments = (read + SEGMENT - 1) / SEGMENT;
+                assertTrue("read ahead at " + read, source.mCount
+                        <= PREFIX + (segments + 1) * SEALED_SEGMENT);
+            }
+        }
+        assertEquals(LARGE_SIZE, read);
+        assertEquals((long) writer.get(), source.mCount);
+    }
+
+    private byte[] seal(byte[] plain, int chunk) throws IOException {
+        final ByteArrayOutputStream sealed = new ByteArrayOutputStream();
+        try (OutputStream out = mDataCipher.newSealingStream(sealed)) {
+            for (int off = 0; off < plain.length; off += chunk) {
+                out.write(plain, off, Math.min(chunk, plain.length - off));
+            }
+        }
+        return sealed.toByteArray();
+    }
+
+    private byte[] openAll(byte[] sealed) throws IOException {
+        final ByteArrayOutputStream opened = new ByteArrayOutputStream();
+        try (InputStream in = mDataCipher
+                .newOpeningStream(new ByteArrayInputStream(sealed))) {
+            final byte[] buffer = new byte[3000];
+            int count;
+            while ((count = in.read(buffer, 0, buffer.length)) != -1) {
+                opened.write(buffer, 0, count);
+            }
+        }
+        return opened.toByteArray();
+    }
+
+    private void assertRejected(String message, byte[] sealed) {
+        try {
+            openAll(sealed);
+            fail(message + " was accepted");
+        } catch (IOException e) {
+            assertTrue(message,
+                    e.getCause() instanceof GeneralSecurityException);
+        }
+    }
+
+    private static byte[] pattern(long position, int length) {
+        final byte[] bytes = new byte[length];
+        fill(bytes, position, length);
+        return bytes;
+    }
+
+    private static void fill(byte[] bytes, long position, int length) {
+        for (int i = 0; i < length; i++) {
+            final long p = position + i;
+            bytes[i] = (byte) (p * 31 + (p >>> 13));
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package com.vigorous.fingerprintchecker.fingerprint;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.vigorous.fingerprintchecker.exception.FingerPrintAuthenticationException;
+import com.vigorous.fingerprintchecker.platform.FingerPrintLogger;
+import com.vigorous.fingerprintchecker.platform.FingerPrintSensor;
+import com.vigorous.fingerprintchecker.platform.ScriptedFingerPrintSensor;
+import com.vigorous.fingerprintchecker.platform.SoftwareFingerPrintEncoder;
+import com.vigorous.fingerprintchecker.platform.SoftwareFingerPrintKeyStore;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.crypto.Cipher;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FingerPrintFutureTest {
+    private static final String MARKER = "com.vigorous.fingerprintchecker";
+    private static final FingerPrintLogger QUIET = new FingerPrintLogger() {
+        @Override
+        public void d(String tag, String msg) {
+        }
+
+        @Override
+        public void e(String tag, String msg) {
+        }
+    };
+
+    private ExecutorService mFirst;
+    private ExecutorService mSecond;
+
+    /**
+     * ScriptedFingerPrintSensor counting the started and cancelled replays.
+     */
+    private static final class CountingSensor
+            extends ScriptedFingerPrintSensor {
+        final AtomicInteger mStarted = new AtomicInteger();
+        final AtomicInteger mCancelled = new AtomicInteger();
+
+        CountingSensor(String script) {
+            super(Trace.parse(script), null);
+        }
+
+        @Override
+        public Cancellable authenticate(Cipher cipher, Callback callback) {
+            final Cancellable replay = super.authenticate(cipher, callback);
+            mStarted.incrementAndGet();
+            return new Cancellable() {
+                @Override
+                public void cancel() {
+                    mCancelled.incrementAndGet();
+                    replay.cancel();
+                }
+            };
+        }
+    }
+
+    /**
+     * Records the outcome of a future and the thread it was delivered on.
+     */
+    private static final class RecordingListener<T>
+            implements FingerPrintFuture.Listener<T> {
+        final CountDownLatch mDone = new CountDownLatch(1);
+        volatile T mResult;
+        volatile FingerPrintAuthenticationException mError;
+        volatile Thread mThread;
+
+        @Override
+        public void onSuccess(T result) {
+            mResult = result;
+            mThread = Thread.currentThread();
+            mDone.countDown();
+        }
+
+        @Override
+        public void onFailure(FingerPrintAuthenticationException error) {
+            mError = error;
+            mThread = Thread.currentThread();
+            mDone.countDown();
+        }
+
+        void await() throws InterruptedException {
+            assertTrue(mDone.await(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Before
+    public void setUp() {
+        mFirst = Executors.newSingleThreadExecutor(r -> new Thread(r, "first"));
+        mSecond = Executors
+                .newSingleThreadExecutor(r -> new Thread(r, "second"));
+    }
+
+    @After
+    public void tearDown() {
+        mFirst.shutdownNow();
+        mSecond.shutdownNow();
+    }
+
+    @Test
+    public void successFlowsThroughThenAndThenCompose() throws Exception {
+        final FingerPrintFuture<Integer> source = new FingerPrintFuture<>();
+        final FingerPrintFuture<String> chained = source
+                .then(value -> value * 2, mFirst)
+                .thenCompose(value -> {
+                    final FingerPrintFuture<Integer> inner = new FingerPrintFuture<>();
+                    mSecond.execute(() -> inner.complete(value + 1));
+                    return inner;
+                }, null).then(String::valueOf, null);
+        assertFalse(chained.isDone());
+        assertTrue(source.complete(20));
+        assertEquals("41", chained.get(5, TimeUnit.SECONDS));
+        assertFalse(source.complete(21));
+    }
+
+    @Test
+    public void authenticationsChainWithThenCompose() throws Exception {
+        final SoftwareFingerPrintKeyStore keyStore = new SoftwareFingerPrintKeyStore();
+        final FingerPrintAuthenticator authenticator = new FingerPrintAuthenticator(
+                new ScriptedFingerPrintSensor(
+                        ScriptedFingerPrintSensor.Trace.parse("fail,succeed"),
+                        null),
+                keyStore, new SoftwareFingerPrintEncoder(), QUIET, MARKER);
+        assertTrue(keyStore.generateKey("card"));
+        final FingerPrintFuture<String> verified = authenticator
+                .authenticateAsync("card", FingerPrintAuthenticator.APPLY, "",
+                        "")
+                .thenCompose(applied -> authenticator.authenticateAsync(
+                        "card", FingerPrintAuthenticator.VERIFY,
+                        applied.getValue(), applied.getIV()), mFirst)
+                .then(FingerPrintResult::getValue, mSecond);
+        assertEquals(MARKER, verified.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void failureSkipsTheStagesAfterIt() throws Exception {
+        final AtomicInteger applied = new AtomicInteger();
+        final FingerPrintFuture<Integer> source = new FingerPrintFuture<>();
+        final FingerPrintFuture<Integer> chained = source.then(value -> {
+            applied.incrementAndGet();
+            return value;
+        }, mFirst).thenCompose(value -> {
+            applied.incrementAndGet();
+            return FingerPrintFuture.<Integer> failed(
+                    FingerPrintAuthenticationException.ERROR_FAILED, "inner");
+        }, null);
+        final FingerPrintAuthenticationException lockout = new FingerPrintAuthenticationException(
+                FingerPrintAuthenticationException.ERROR_LOCKOUT, "Lockout");
+        assertTrue(source.fail(lockout));
+        assertSame(lockout, getError(chained));
+        assertEquals(0, applied.get());
+        assertFalse(chained.isCancelled());
+    }
+
+    @Test
+    public void failedComposedFutureFailsTheChain() throws Exception {
+        final FingerPrintFuture<Integer> source = new FingerPrintFuture<>();
+        final FingerPrintFuture<Integer> chained = source.thenCompose(
+                value -> FingerPrintFuture.<Integer> failed(
+                        FingerPrintAuthenticationException.ERROR_FAILED,
+                        "inner"),
+                null);
+        source.complete(1);
+        final FingerPrintAuthenticationException error = getError(chained);
+        assertEquals(FingerPrintAuthenticationException.ERROR_FAILED,
+                error.getErrorCode());
+        assertEquals("inner", error.getMessage());
+    }
+
+    @Test
+    public void throwingStagesFailWithStageFailed() throws Exception {
+        final IllegalStateException thrown = new IllegalStateException("bad");
+        final FingerPrintFuture<Integer> source = new FingerPrintFuture<>();
+        final FingerPrintFuture<Integer> transformed = source
+                .then(value -> {
+                    throw thrown;
+                }, mFirst);
+        final FingerPrintFuture<Integer> composed = source
+                .thenCompose(value -> {
+                    throw thrown;
+                }, mSecond);
+        final FingerPrintFuture<Integer> composedNull = source
+                .thenCompose(value -> null, null);
+        source.complete(1);
+
+        for (FingerPrintFuture<Integer> future : Arrays.asList(transformed,
+                composed)) {
+            final FingerPrintAuthenticationException error = getError(future);
+            assertEquals(FingerPrintAuthenticationException.ERROR_STAGE_FAILED,
+                    error.getErrorCode());
+            assertSame(thrown, error.getCause());
+        }
+        assertEquals(FingerPrintAuthenticationException.ERROR_STAGE_FAILED,
+                getError(composedNull).getErrorCode());
+    }
+
+    @Test
+    public void cancellingAStageCancelsTheSensorSession() throws Exception {
+        final CountingSensor sensor = new CountingSensor("help:1");
+        final FingerPrintAuthenticator authenticator = newAuthenticator(
+                sensor);
+        final FingerPrintFuture<FingerPrintResult<String>> authentication = authenticator
+                .authenticateAsync("card", FingerPrintAuthenticator.APPLY, "",
+                        "");
+        final FingerPrintFuture<String> downstream = authentication
+                .then(FingerPrintResult::getValue, mFirst)
+                .then(String::trim, mSecond);
+        final RecordingListener<String> listener = new RecordingListener<>();
+        downstream.addListener(listener, null);
+        assertEquals(1, sensor.mStarted.get());
+        assertEquals(0, sensor.mCancelled.get());
+
+        assertTrue(downstream.cancel(true));
+        assertEquals(1, sensor.mCancelled.get());
+        assertTrue(authentication.isCancelled());
+        assertTrue(downstream.isCancelled());
+        listener.await();
+        assertEquals(FingerPrintAuthenticationException.ERROR_CANCELED,
+                listener.mError.getErrorCode());
+        try {
+            downstream.get();
+            fail("cancelled future returned a result");
+        } catch (CancellationException expected) {
+            // 期望的异常
+        }
+        assertFalse(downstream.cancel(true));
+        assertEquals(1, sensor.mCancelled.get());
+    }
+
+    @Test
+    public void cancellingAComposedStageCancelsTheInnerSession()
+            throws Exception {
+        final CountingSensor sensor = new CountingSensor("help:1");
+        final FingerPrintAuthenticator authenticator = newAuthenticator(
+                sensor);
+        final FingerPrintFuture<String> source = new FingerPrintFuture<>();
+        final FingerPrintFuture<FingerPrintResult<String>> composed = source
+                .thenCompose(keyName -> authenticator.authenticateAsync(
+                        keyName, FingerPrintAuthenticator.APPLY, "", ""),
+                        null);
+        source.complete("card");
+        assertEquals(1, sensor.mStarted.get());
+
+        assertTrue(composed.cancel(true));
+        assertEquals(1, sensor.mCancelled.get());
+        assertTrue(composed.isCancelled());
+        // 上游已完成，不受影响
+        assertEquals("card", source.get());
+    }
+
+    @Test
+    public void cancelBeforeTheComposedStageStartsNoSession()
+            throws Exception {
+        final CountingSensor sensor = new CountingSensor("help:1");
+        final FingerPrintAuthenticator authenticator = newAuthenticator(
+                sensor);
+        final FingerPrintFuture<String> source = new FingerPrintFuture<>();
+        final FingerPrintFuture<FingerPrintResult<String>> composed = source
+                .thenCompose(keyName -> authenticator.authenticateAsync(
+                        keyName, FingerPrintAuthenticator.APPLY, "", ""),
+                        null);
+        assertTrue(composed.cancel(true));
+        assertTrue(source.isCancelled());
+        assertFalse(source.complete("card"));
+        assertEquals(0, sensor.mStarted.get());
+    }
+
+    @Test
+    public void listenersRunOnTheirExecutor() throws Exception {
+        final FingerPrintFuture<Integer> source = new FingerPrintFuture<>();
+        final RecordingListener<Integer> first = new RecordingListener<>();
+        final RecordingListener<Integer> direct = new RecordingListener<>();
+        final AtomicReference<Thread> stageThread = new AtomicReference<>();
+        final RecordingListener<Integer> afterStage = new RecordingListener<>();
+        source.addListener(first, mFirst);
+        source.addListener(direct, null);
+        source.then(value -> {
+            stageThread.set(Thread.currentThread());
+            return value;
+        }, mSecond).addListener(afterStage, null);
+
+        final Thread completing = new Thread(() -> source.complete(7),
+                "completing");
+        completing.start();
+        completing.join();
+        first.await();
+        direct.await();
+        afterStage.await();
+        assertEquals("first", first.mThread.getName());
+        assertEquals("completing", direct.mThread.getName());
+        assertEquals("second", stageThread.get().getName());
+        // null执行器在完成上一阶段的线程上运行
+        assertEquals("second", afterStage.mThread.getName());
+        assertEquals(Integer.valueOf(7), afterStage.mResult);
+
+        // 完成之后添加的监听器同样在其执行器上运行
+        final RecordingListener<Integer> late = new RecordingListener<>();
+        source.addListener(late, mSecond);
+        late.await();
+        assertEquals("second", late.mThread.getName());
+        final RecordingListener<Integer> lateDirect = new RecordingListener<>();
+        source.addListener(lateDirect, null);
+        assertSame(Thread.currentThread(), lateDirect.mThread);
+        assertNull(lateDirect.mError);
+    }
+
+    private FingerPrintAuthenticator newAuthenticator(
+            FingerPrintSensor sensor) {
+        final SoftwareFingerPrintKeyStore keyStore = new SoftwareFingerPrintKeyStore();
+        assertTrue(keyStore.generateKey("card"));
+        return new FingerPrintAuthenticator(sensor, keyStore,
+                new SoftwareFingerPrintEncoder(), QUIET, MARKER);
+    }
+
+    private static FingerPrintAuthenticationException getError(
+            FingerPrintFuture<?> future) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            return (FingerPrintAuthenticationException) e.getCause();
+        }
+        fail("future succeeded");
+        return null;
+    }
+}
@@ -0,0 +1,119 @@
+package com.vigorous.fingerprintchecker.fingerprint;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import com.vigorous.fingerprintchecker.platform.FingerPrintKeyStore;
+import com.vigorous.fingerprintchecker.platform.SoftwareFingerPrintKeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.crypto.Cipher;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FingerPrintKeyScannerTest {
+    private ExecutorService mExecutor;
+    private ScanKeyStore mKeyStore;
+
+    /**
+     * Records the dropped key names, and fails the probe of the busy ones
+     * the way a keystore daemon that is not reachable does.
+     */
+    private static final class ScanKeyStore
+            extends SoftwareFingerPrintKeyStore {
+        final Set<String> mBusy = Collections
+                .newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        final Set<String> mDropped = Collections
+                .newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+        @Override
+        public int checkKey(String keyName) {
+            return mBusy.contains(keyName) ? KEY_UNKNOWN
+                    : super.checkKey(keyName);
+        }
+
+        @Override
+        public void invalidate(String keyName) {
+            mDropped.add(keyName);
+            super.invalidate(keyName);
+        }
+    }
+
+    @Before
+    public void setUp() {
+        mExecutor = Executors.newFixedThreadPool(4);
+        mKeyStore = new ScanKeyStore();
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void checkKeyTellsMissingFromInvalidated() {
+        mKeyStore.generateKey("valid");
+        mKeyStore.generateKey("invalidated");
+        mKeyStore.permanentlyInvalidate("invalidated");
+        assertEquals(FingerPrintKeyStore.KEY_VALID,
+                mKeyStore.checkKey("valid"));
+        assertEquals(FingerPrintKeyStore.KEY_INVALIDATED,
+                mKeyStore.checkKey("invalidated"));
+        assertEquals(FingerPrintKeyStore.KEY_MISSING,
+                mKeyStore.checkKey("missing"));
+    }
+
+    @Test
+    public void scanReportsMissingAndInvalidatedSeparatelyInOrder()
+            throws Exception {
+        final List<String> keyNames = new ArrayList<>();
+        final List<String> invalidated = new ArrayList<>();
+        final List<String> missing = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            final String keyName = "card" + i;
+            keyNames.add(keyName);
+            if (i % 7 == 0) {
+                // 从未生成
+                missing.add(keyName);
+                continue;
+            }
+            mKeyStore.generateKey(keyName);
+            if (i % 5 == 0) {
+                mKeyStore.permanentlyInvalidate(keyName);
+                invalidated.add(keyName);
+            }
+        }
+        // 多个分片并行探测，结果仍按keyNames的顺序
+        final FingerPrintKeyScanner.Result result = new FingerPrintKeyScanner(
+                mKeyStore, mExecutor, 8).scan(keyNames);
+        assertEquals(invalidated, result.getInvalidated());
+        assertEquals(missing, result.getMissing());
+        assertEquals(invalidated.size() + missing.size(),
+                mKeyStore.mDropped.size());
+    }
+
+    @Test
+    public void keyThatCouldNotBeCheckedIsNotReported() throws Exception {
+        mKeyStore.generateKey("busy");
+        mKeyStore.generateKey("valid");
+        mKeyStore.mBusy.add("busy");
+        final FingerPrintKeyScanner.Result result = new FingerPrintKeyScanner(
+                mKeyStore, mExecutor, 1).scan(Arrays.asList("busy", "valid"));
+        assertTrue(result.getInvalidated().isEmpty());
+        assertTrue(result.getMissing().isEmpty());
+        assertTrue(mKeyStore.mDropped.isEmpty());
+
+        // 下次扫描时再探测
+        mKeyStore.mBusy.clear();
+        assertNotNull(mKeyStore.getCipher("busy", Cipher.ENCRYPT_MODE, null,
+                0, 0));
+    }
+}
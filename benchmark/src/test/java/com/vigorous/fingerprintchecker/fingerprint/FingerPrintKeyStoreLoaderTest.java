@@ -0,0 +1,286 @@
+package com.vigorous.fingerprintchecker.fingerprint;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import com.vigorous.fingerprintchecker.exception.FingerPrintInvalidException;
+import com.vigorous.fingerprintchecker.platform.FingerPrintLogger;
+import com.vigorous.fingerprintchecker.platform.InMemoryFingerPrintSensor;
+import com.vigorous.fingerprintchecker.platform.SoftwareFingerPrintEncoder;
+import com.vigorous.fingerprintchecker.platform.SoftwareFingerPrintKeyStore;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.KeyStoreSpi;
+import java.security.cert.Certificate;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.spec.IvParameterSpec;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Steady-state authentication loads the keystore once, not once per prompt.
+ */
+public class FingerPrintKeyStoreLoaderTest {
+    private static final int AUTHENTICATIONS = 200;
+    private static final String SECRET = "com.vigorous.fingerprintchecker";
+    private static final FingerPrintLogger QUIET = new FingerPrintLogger() {
+        @Override
+        public void d(String tag, String msg) {
+        }
+
+        @Override
+        public void e(String tag, String msg) {
+        }
+    };
+
+    private CountingSpi mSpi;
+    private FingerPrintKeyStoreLoader mLoader;
+    private ExecutorService mExecutor;
+
+    /**
+     * In-memory KeyStore backend counting its loads and key lookups.
+     */
+    private static final class CountingSpi extends KeyStoreSpi {
+        final AtomicInteger mLoads = new AtomicInteger();
+        final AtomicInteger mLookups = new AtomicInteger();
+        final ConcurrentHashMap<String, Key> mKeys = new ConcurrentHashMap<>();
+
+        @Override
+        public void engineLoad(InputStream stream, char[] password) {
+            mLoads.incrementAndGet();
+            // 模拟keystore守护进程的加载耗时，放大并发首次加载的竞争窗口
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public Key engineGetKey(String alias, char[] password) {
+            mLookups.incrementAndGet();
+            return mKeys.get(alias);
+        }
+
+        @Override
+        public Certificate[] engineGetCertificateChain(String alias) {
+            return null;
+        }
+
+        @Override
+        public Certificate engineGetCertificate(String alias) {
+            return null;
+        }
+
+        @Override
+        public Date engineGetCreationDate(String alias) {
+            return null;
+        }
+
+        @Override
+        public void engineSetKeyEntry(String alias, Key key, char[] password,
+                Certificate[] chain) {
+            mKeys.put(alias, key);
+        }
+
+        @Override
+        public void engineSetKeyEntry(String alias, byte[] key,
+                Certificate[] chain) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void engineSetCertificateEntry(String alias,
+                Certificate cert) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void engineDeleteEntry(String alias) {
+            mKeys.remove(alias);
+        }
+
+        @Override
+        public Enumeration<String> engineAliases() {
+            return Collections.enumeration(mKeys.keySet());
+        }
+
+        @Override
+        public boolean engineContainsAlias(String alias) {
+            return mKeys.containsKey(alias);
+        }
+
+        @Override
+        public int engineSize() {
+            return mKeys.size();
+        }
+
+        @Override
+        public boolean engineIsKeyEntry(String alias) {
+            return mKeys.containsKey(alias);
+        }
+
+        @Override
+        public boolean engineIsCertificateEntry(String alias) {
+            return false;
+        }
+
+        @Override
+        public String engineGetCertificateAlias(Certificate cert) {
+            return null;
+        }
+
+        @Override
+        public void engineStore(OutputStream stream, char[] password) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Looks every key up through the loader, like FingerPrintAndroidKeyStore
+     * without its key cache.
+     */
+    private final class LoaderKeyStore extends SoftwareFingerPrintKeyStore {
+        @Override
+        public Cipher getCipher(String keyName, int mode, byte[] IV,
+                int ivOffset, int ivLength)
+                throws FingerPrintInvalidException {
+            try {
+                final Key key = mLoader.open().getKey(keyName, null);
+                if (key == null) {
+                    return null;
+                }
+                final Cipher cipher = Cipher
+                        .getInstance(SoftwareFingerPrintKeyStore.TRANSFORMATION);
+                mLoader.countCall();
+                if (mode == Cipher.ENCRYPT_MODE) {
+                    cipher.init(mode, key);
+                } else {
+                    cipher.init(mode, key,
+                            new IvParameterSpec(IV, ivOffset, ivLength));
+                }
+                return cipher;
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * Records whether the last callback was a success, and its result.
+     */
+    private static final class ResultCallback
+            implements FingerPrintAuthenticationCallback {
+        volatile String mResult;
+        volatile String mIV;
+        volatile boolean mSucceeded;
+
+        @Override
+        public void onAuthenticationSucceeded(String result, int properties,
+                String IV) {
+            mResult = result;
+            mIV = IV;
+            mSucceeded = true;
+        }
+
+        @Override
+        public void onAuthenticationFail(String errorMsg) {
+        }
+
+        @Override
+        public void onAuthenticationOverLimit(String errorMsg) {
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        mSpi = new CountingSpi();
+        final KeyGenerator generator = KeyGenerator.getInstance("AES");
+        generator.init(256);
+        mSpi.mKeys.put("card", generator.generateKey());
+        mLoader = new FingerPrintKeyStoreLoader(
+                new KeyStore(mSpi, null, "counting") {
+                });
+        mExecutor = Executors.newFixedThreadPool(8);
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void repeatedAuthenticationsLoadOnce() throws Exception {
+        final InMemoryFingerPrintSensor sensor = new InMemoryFingerPrintSensor();
+        sensor.setAutoTouch(true);
+        final FingerPrintAuthenticator authenticator = new FingerPrintAuthenticator(
+                sensor, new LoaderKeyStore(), new SoftwareFingerPrintEncoder(),
+                QUIET, SECRET);
+
+        final ResultCallback enrolled = new ResultCallback();
+        authenticator.startAuthenticate("card",
+                FingerPrintAuthenticator.APPLY, "", "", enrolled);
+        assertTrue(enrolled.mSucceeded);
+        for (int i = 0; i < AUTHENTICATIONS; i++) {
+            final ResultCallback verified = new ResultCallback();
+            authenticator.startAuthenticate("card",
+                    FingerPrintAuthenticator.VERIFY, enrolled.mResult,
+                    enrolled.mIV, verified);
+            assertTrue("authentication " + i, verified.mSucceeded);
+            assertEquals(SECRET, verified.mResult);
+        }
+
+        assertEquals(1, mSpi.mLoads.get());
+        assertEquals(1, mLoader.getLoadCount());
+        assertEquals(AUTHENTICATIONS + 1, mSpi.mLookups.get());
+        // 每次认证一次查找加一次cipher init
+        assertEquals(2 * (AUTHENTICATIONS + 1), mLoader.getCallCount());
+    }
+
+    @Test
+    public void concurrentFirstUseLoadsOnce() throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final Future<?>[] futures = new Future<?>[16];
+        for (int i = 0; i < futures.length; i++) {
+            futures[i] = mExecutor.submit(() -> {
+                start.await();
+                return mLoader.open().getKey("card", null);
+            });
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            assertNotNull(future.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, mSpi.mLoads.get());
+        assertEquals(1, mLoader.getLoadCount());
+        assertEquals(futures.length, mLoader.getCallCount());
+    }
+
+    @Test
+    public void reloadLoadsAgain() throws Exception {
+        mLoader.ensureLoaded();
+        mLoader.ensureLoaded();
+        assertEquals(1, mLoader.getLoadCount());
+        assertEquals(0, mLoader.getCallCount());
+        mLoader.reload();
+        mLoader.open();
+        assertEquals(2, mSpi.mLoads.get());
+        assertEquals(2, mLoader.getLoadCount());
+        assertEquals(1, mLoader.getCallCount());
+    }
+}
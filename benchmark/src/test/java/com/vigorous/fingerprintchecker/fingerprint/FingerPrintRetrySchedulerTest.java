@@ -0,0 +1,119 @@
+package com.vigorous.fingerprintchecker.fingerprint;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.vigorous.fingerprintchecker.platform.FingerPrintLogger;
+import com.vigorous.fingerprintchecker.platform.FingerPrintSensor;
+import com.vigorous.fingerprintchecker.platform.InMemoryFingerPrintSensor;
+import com.vigorous.fingerprintchecker.platform.SoftwareFingerPrintEncoder;
+import com.vigorous.fingerprintchecker.platform.SoftwareFingerPrintKeyStore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class FingerPrintRetrySchedulerTest {
+    private static final FingerPrintLogger QUIET = new FingerPrintLogger() {
+        @Override
+        public void d(String tag, String msg) {
+        }
+
+        @Override
+        public void e(String tag, String msg) {
+        }
+    };
+
+    @Test
+    public void classifiesTheSensorErrors() {
+        final int[] canceled = { FingerPrintSensor.ERROR_CANCELED,
+                FingerPrintSensor.ERROR_TIMEOUT,
+                FingerPrintSensor.ERROR_USER_CANCELED, 6, 42 };
+        for (int errorCode : canceled) {
+            assertEquals("code " + errorCode,
+                    FingerPrintRetryScheduler.CLASS_CANCELED,
+                    FingerPrintRetryScheduler.classify(errorCode));
+        }
+        final int[] transients = { FingerPrintSensor.ERROR_HW_UNAVAILABLE,
+                FingerPrintSensor.ERROR_UNABLE_TO_PROCESS,
+                FingerPrintSensor.ERROR_NO_SPACE,
+                FingerPrintSensor.ERROR_VENDOR };
+        for (int errorCode : transients) {
+            assertEquals("code " + errorCode,
+                    FingerPrintRetryScheduler.CLASS_TRANSIENT,
+                    FingerPrintRetryScheduler.classify(errorCode));
+        }
+        assertEquals(FingerPrintRetryScheduler.CLASS_LOCKOUT,
+                FingerPrintRetryScheduler
+                        .classify(FingerPrintSensor.ERROR_LOCKOUT));
+        assertEquals(FingerPrintRetryScheduler.CLASS_LOCKOUT_PERMANENT,
+                FingerPrintRetryScheduler
+                        .classify(FingerPrintSensor.ERROR_LOCKOUT_PERMANENT));
+    }
+
+    @Test
+    public void timeoutAndUserCancelDoNotBackOff() {
+        final FingerPrintRetryScheduler scheduler = new FingerPrintRetryScheduler();
+        scheduler.onError(FingerPrintSensor.ERROR_TIMEOUT, "Timeout");
+        scheduler.onError(FingerPrintSensor.ERROR_USER_CANCELED, "Canceled");
+        assertNull(scheduler.checkAllowed());
+        assertEquals(0, scheduler.getRetryDelay(TimeUnit.NANOSECONDS));
+    }
+
+    @Test
+    public void transientErrorsBackOffExponentially() {
+        final FingerPrintRetryScheduler scheduler = new FingerPrintRetryScheduler();
+        scheduler.setBackoff(1, 3, TimeUnit.SECONDS);
+        scheduler.onError(FingerPrintSensor.ERROR_HW_UNAVAILABLE, "Busy");
+        assertEquals("Busy", String.valueOf(scheduler.checkAllowed()));
+        assertTrue(scheduler.getRetryDelay(TimeUnit.MILLISECONDS) <= 1000);
+        scheduler.onError(FingerPrintSensor.ERROR_VENDOR, "Vendor");
+        assertTrue(scheduler.getRetryDelay(TimeUnit.MILLISECONDS) > 1000);
+        scheduler.onError(FingerPrintSensor.ERROR_UNABLE_TO_PROCESS, null);
+        assertTrue(scheduler.getRetryDelay(TimeUnit.MILLISECONDS) <= 3000);
+        assertEquals(FingerPrintSensor.ERROR_UNABLE_TO_PROCESS,
+                scheduler.getLastErrorCode());
+    }
+
+    @Test
+    public void blockedSessionDoesNotTouchTheKeyStore() throws Exception {
+        final AtomicInteger keyStoreCalls = new AtomicInteger();
+        final SoftwareFingerPrintKeyStore keyStore = new SoftwareFingerPrintKeyStore() {
+            @Override
+            public boolean isTimeBound(String keyName) {
+                keyStoreCalls.incrementAndGet();
+                return super.isTimeBound(keyName);
+            }
+        };
+        final InMemoryFingerPrintSensor sensor = new InMemoryFingerPrintSensor();
+        final FingerPrintAuthenticator authenticator = new FingerPrintAuthenticator(
+                sensor, keyStore, new SoftwareFingerPrintEncoder(), QUIET,
+                "com.vigorous.fingerprintchecker");
+        assertTrue(keyStore.generateKey("card"));
+        authenticator.getRetryScheduler()
+                .onError(FingerPrintSensor.ERROR_HW_UNAVAILABLE, "Busy");
+
+        final AtomicInteger overLimit = new AtomicInteger();
+        assertNotNull(authenticator.startAuthenticate("card",
+                FingerPrintAuthenticator.APPLY, "", "",
+                new FingerPrintAuthenticationCallback() {
+                    @Override
+                    public void onAuthenticationSucceeded(String result,
+                            int properties, String IV) {
+                    }
+
+                    @Override
+                    public void onAuthenticationFail(String errorMsg) {
+                    }
+
+                    @Override
+                    public void onAuthenticationOverLimit(String errorMsg) {
+                        overLimit.incrementAndGet();
+                    }
+                }));
+        assertEquals(1, overLimit.get());
+        assertEquals(0, keyStoreCalls.get());
+        assertEquals(0, sensor.getPendingCount());
+    }
+}
@@ -0,0 +1,208 @@
+package com.vigorous.fingerprintchecker.fingerprint;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.vigorous.fingerprintchecker.platform.ConsoleFingerPrintLogger;
+import com.vigorous.fingerprintchecker.platform.FingerPrintLogger;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FingerPrintTokenStoreTest {
+    private static final FingerPrintLogger LOGGER = new ConsoleFingerPrintLogger(
+            false);
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("finger_tokens", ".log");
+        mFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+        new File(mFile.getPath() + ".tmp").delete();
+    }
+
+    @Test
+    public void entriesSurviveRestart() {
+        FingerPrintTokenStore store = open();
+        for (int i = 0; i < 100; i++) {
+            store.put("card" + i, "token" + i, "iv" + i);
+        }
+        store.put("card1", "token1b", "iv1b");
+        store.remove("card2");
+        store.close();
+
+        store = open();
+        assertEquals(99, store.size());
+        assertEquals("token1b", store.get("card1").getToken());
+        assertEquals("iv1b", store.get("card1").getIV());
+        assertNull(store.get("card2"));
+        assertEquals("token99", store.get("card99").getToken());
+        store.close();
+    }
+
+    @Test
+    public void tornTailIsDropped() throws IOException {
+        writeCards(3);
+        // 崩溃时只写了一半的记录
+        append(new byte[] { 0, 0, 0, 40, 1, 2, 3 });
+        FingerPrintTokenStore store = open();
+        assertEquals(3, store.size());
+        store.put("card3", "token3", "iv3");
+        store.close();
+
+        store = open();
+        assertEquals(4, store.size());
+        store.close();
+    }
+
+    @Test
+    public void damagedRecordIsSkipped() throws IOException {
+        writeCards(3);
+        final long second = recordOffset(1);
+        final RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            // 破坏第二条记录的内容，CRC不再匹配
+            file.seek(second + 12);
+            file.write(0x7F);
+        } finally {
+            file.close();
+        }
+        FingerPrintTokenStore store = open();
+        assertEquals(2, store.size());
+        assertEquals("token0", store.get("card0").getToken());
+        assertNull(store.get("card1"));
+        assertEquals("token2", store.get("card2").getToken());
+        store.put("card3", "token3", "iv3");
+        store.close();
+
+        store = open();
+        assertEquals(3, store.size());
+        assertEquals("token3", store.get("card3").getToken());
+        store.close();
+    }
+
+    @Test
+    public void oversizedLengthIsNotAllocated() throws IOException {
+        writeCards(2);
+        // 长度字段损坏，不能按其分配内存
+        append(new byte[] { 0x7F, (byte) 0xFF, (byte) 0xFF, (byte) 0xF0, 0,
+                0, 0, 0 });
+        final FingerPrintTokenStore store = open();
+        assertEquals(2, store.size());
+        store.close();
+    }
+
+    @Test
+    public void failedWritesAreKeptAndRetried() throws IOException {
+        // 日志路径被目录占用，打开与重写都会失败
+        assertTrue(mFile.mkdir());
+        final File blocker = new File(mFile, "blocker");
+        assertTrue(blocker.createNewFile());
+        final FingerPrintTokenStore store = open();
+        store.put("card0", "token0", "iv0");
+        store.put("card1", "token1", "iv1");
+        assertFalse(store.flush());
+        assertEquals("token0", store.get("card0").getToken());
+
+        assertTrue(blocker.delete());
+        assertTrue(mFile.delete());
+        assertTrue(store.flush());
+        store.close();
+
+        final FingerPrintTokenStore reopened = open();
+        assertEquals(2, reopened.size());
+        assertEquals("token1", reopened.get("card1").getToken());
+        reopened.close();
+    }
+
+    @Test
+    public void updatesBeforeTheLoadDoNotBlock() throws Exception {
+        writeCards(3);
+        final ScheduledExecutorService writer = Executors
+                .newSingleThreadScheduledExecutor();
+        final CountDownLatch release = new CountDownLatch(1);
+        // 占住写线程，release之前日志无法加载
+        writer.execute(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        final FingerPrintTokenStore store = new FingerPrintTokenStore(mFile,
+                LOGGER, writer);
+        store.put("card0", "token0b", "iv0b");
+        store.remove("card1");
+        store.put("card3", "token3", "iv3");
+        store.put("card3", "token3b", "iv3b");
+        assertFalse(store.isLoaded());
+
+        release.countDown();
+        // get等待加载及排在其后的更新
+        assertEquals("token0b", store.get("card0").getToken());
+        assertNull(store.get("card1"));
+        assertEquals("token3b", store.get("card3").getToken());
+        assertTrue(store.isLoaded());
+        store.put("card3", "token3c", "iv3c");
+        assertEquals("token3c", store.get("card3").getToken());
+        store.close();
+
+        final FingerPrintTokenStore reopened = open();
+        assertEquals(3, reopened.size());
+        assertEquals("iv0b", reopened.get("card0").getIV());
+        assertNull(reopened.get("card1"));
+        assertEquals("token2", reopened.get("card2").getToken());
+        assertEquals("token3c", reopened.get("card3").getToken());
+        reopened.close();
+    }
+
+    private FingerPrintTokenStore open() {
+        return new FingerPrintTokenStore(mFile, LOGGER);
+    }
+
+    private void writeCards(int count) {
+        final FingerPrintTokenStore store = open();
+        for (int i = 0; i < count; i++) {
+            store.put("card" + i, "token" + i, "iv" + i);
+        }
+        store.close();
+    }
+
+    private void append(byte[] bytes) throws IOException {
+        final FileOutputStream out = new FileOutputStream(mFile, true);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+
+    private long recordOffset(int index) throws IOException {
+        final RandomAccessFile file = new RandomAccessFile(mFile, "r");
+        try {
+            long offset = 0;
+            for (int i = 0; i < index; i++) {
+                file.seek(offset);
+                offset += 8 + file.readInt();
+            }
+            return offset;
+        } finally {
+            file.close();
+        }
+    }
+}
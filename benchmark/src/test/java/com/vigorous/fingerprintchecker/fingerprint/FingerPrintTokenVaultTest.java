@@ -0,0 +1,220 @@
+package com.vigorous.fingerprintchecker.fingerprint;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FingerPrintTokenVaultTest {
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("vault", ".bin");
+        mFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void lookupsAfterPutOverwriteAndRemove() throws IOException {
+        final FingerPrintTokenVault vault = new FingerPrintTokenVault(mFile);
+        // 超过初始容量，触发扩容
+        for (int i = 0; i < 500; i++) {
+            vault.put("card" + i, value(i, 16 + i % 64));
+        }
+        vault.put("card7", value(1000, 80));
+        assertTrue(vault.remove("card8"));
+        assertFalse(vault.remove("card8"));
+        assertLookups(vault);
+        assertLookups(new FingerPrintTokenVault(mFile));
+    }
+
+    @Test
+    public void crashBeforeMarkingNewSlotKeepsOldValue() throws IOException {
+        FingerPrintTokenVault vault = new FingerPrintTokenVault(mFile);
+        vault.put("card", value(1, 32));
+        vault.put("card", value(2, 48));
+        // 回到新槽位尚未标记可用、旧槽位尚未删除时的状态
+        final int[] slots = slotsOf("card");
+        assertEquals(2, slots.length);
+        setState(slots[0], FingerPrintTokenVault.STATE_USED);
+        setState(slots[1], FingerPrintTokenVault.STATE_EMPTY);
+        vault = new FingerPrintTokenVault(mFile);
+        assertValue(vault, "card", value(1, 32));
+    }
+
+    @Test
+    public void crashBeforeDeletingOldSlotKeepsOneValue() throws IOException {
+        FingerPrintTokenVault vault = new FingerPrintTokenVault(mFile);
+        vault.put("card", value(1, 32));
+        vault.put("card", value(2, 48));
+        final int[] slots = slotsOf("card");
+        assertEquals(2, slots.length);
+        setState(slots[0], FingerPrintTokenVault.STATE_USED);
+        setState(slots[1], FingerPrintTokenVault.STATE_USED);
+        vault = new FingerPrintTokenVault(mFile);
+        final ByteBuffer out = ByteBuffer.allocate(
+                FingerPrintTokenVault.MAX_VALUE_LENGTH);
+        final int length = vault.get("card", out);
+        assertTrue(length == 32 || length == 48);
+        assertArrayEquals(value(length == 32 ? 1 : 2, length).array(),
+                Arrays.copyOf(out.array(), length));
+        // 再次写入后恢复为单一的值
+        vault.put("card", value(3, 16));
+        assertValue(new FingerPrintTokenVault(mFile), "card", value(3, 16));
+    }
+
+    @Test
+    public void corruptLengthIsNotCopied() throws IOException {
+        FingerPrintTokenVault vault = new FingerPrintTokenVault(mFile);
+        vault.put("card", value(1, 32));
+        final RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            // 值长度字段位于槽位偏移4处
+            file.seek(slotOffset(slotsOf("card")[0]) + 4);
+            file.writeShort(Short.MAX_VALUE);
+        } finally {
+            file.close();
+        }
+        vault = new FingerPrintTokenVault(mFile);
+        final ByteBuffer out = ByteBuffer.allocate(
+                FingerPrintTokenVault.MAX_VALUE_LENGTH);
+        assertEquals(-1, vault.get("card", out));
+        assertEquals(0, out.position());
+    }
+
+    @Test
+    public void concurrentLookupsNeverSeeTornValues() throws Exception {
+        final FingerPrintTokenVault vault = new FingerPrintTokenVault(mFile);
+        vault.put("card", value(0, 16));
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicReference<String> error = new AtomicReference<>();
+        final Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final ByteBuffer out = ByteBuffer.allocate(
+                        FingerPrintTokenVault.MAX_VALUE_LENGTH);
+                while (!done.get()) {
+                    out.clear();
+                    final int length = vault.get("card", out);
+                    final byte version = out.get(0);
+                    // 值的每个字节都是版本号，长度由版本号决定
+                    if (length != lengthOf(version)) {
+                        error.set("length " + length + " for " + version);
+                        return;
+                    }
+                    for (int i = 0; i < length; i++) {
+                        if (out.get(i) != version) {
+                            error.set("torn value " + version);
+                            return;
+                        }
+                    }
+                }
+            }
+        });
+        reader.start();
+        for (int i = 1; i < 2000 && error.get() == null; i++) {
+            final byte version = (byte) (i % 100);
+            vault.put("card", value(version, lengthOf(version)));
+        }
+        done.set(true);
+        reader.join();
+        assertEquals(null, error.get());
+    }
+
+    private static int lengthOf(byte version) {
+        return version % 2 == 0 ? 16 : FingerPrintTokenVault.MAX_VALUE_LENGTH;
+    }
+
+    private static void assertLookups(FingerPrintTokenVault vault) {
+        for (int i = 0; i < 500; i++) {
+            final String keyName = "card" + i;
+            if (i == 8) {
+                assertFalse(vault.contains(keyName));
+                assertEquals(-1, vault.get(keyName, ByteBuffer.allocate(80)));
+            } else if (i == 7) {
+                assertValue(vault, keyName, value(1000, 80));
+            } else {
+                assertValue(vault, keyName, value(i, 16 + i % 64));
+            }
+        }
+    }
+
+    private static void assertValue(FingerPrintTokenVault vault,
+            String keyName, ByteBuffer expected) {
+        assertTrue(vault.contains(keyName));
+        final ByteBuffer out = ByteBuffer.allocate(
+                FingerPrintTokenVault.MAX_VALUE_LENGTH);
+        assertEquals(expected.remaining(), vault.get(keyName, out));
+        assertArrayEquals(expected.array(),
+                Arrays.copyOf(out.array(), out.position()));
+    }
+
+    private static ByteBuffer value(int version, int length) {
+        final byte[] value = new byte[length];
+        Arrays.fill(value, (byte) version);
+        return ByteBuffer.wrap(value);
+    }
+
+    /**
+     * @return every slot holding keyName, used or not
+     */
+    private int[] slotsOf(String keyName) throws IOException {
+        final RandomAccessFile file = new RandomAccessFile(mFile, "r");
+        try {
+            final int capacity = (int) ((file.length()
+                    - FingerPrintTokenVault.HEADER_SIZE)
+                    / FingerPrintTokenVault.SLOT_SIZE);
+            int[] slots = new int[0];
+            for (int slot = 0; slot < capacity; slot++) {
+                // 键名以UTF-16保存在槽位偏移12处
+                file.seek(slotOffset(slot) + 2);
+                if (file.readShort() != keyName.length()) {
+                    continue;
+                }
+                file.seek(slotOffset(slot) + 12);
+                final StringBuilder name = new StringBuilder();
+                for (int i = 0; i < keyName.length(); i++) {
+                    name.append(file.readChar());
+                }
+                if (keyName.equals(name.toString())) {
+                    slots = Arrays.copyOf(slots, slots.length + 1);
+                    slots[slots.length - 1] = slot;
+                }
+            }
+            return slots;
+        } finally {
+            file.close();
+        }
+    }
+
+    private void setState(int slot, byte state) throws IOException {
+        final RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.seek(slotOffset(slot) + FingerPrintTokenVault.SLOT_STATE);
+            file.write(state);
+        } finally {
+            file.close();
+        }
+    }
+
+    private static long slotOffset(int slot) {
+        return FingerPrintTokenVault.HEADER_SIZE
+                + (long) slot * FingerPrintTokenVault.SLOT_SIZE;
+    }
+}
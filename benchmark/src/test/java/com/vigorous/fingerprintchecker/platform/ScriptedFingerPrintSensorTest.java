@@ -0,0 +1,198 @@
+package com.vigorous.fingerprintchecker.platform;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.Cipher;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ScriptedFingerPrintSensorTest {
+    private ScheduledExecutorService mScheduler;
+    private Cipher mCipher;
+
+    /**
+     * Records every callback as "succeeded", "failed", "help:code" or
+     * "error:code", and the thread of the last one.
+     */
+    private static final class RecordingCallback
+            implements FingerPrintSensor.Callback {
+        final List<String> mEvents = Collections
+                .synchronizedList(new ArrayList<String>());
+        final CountDownLatch mDone = new CountDownLatch(1);
+        volatile Cipher mCipher;
+        volatile Thread mThread;
+
+        @Override
+        public void onAuthenticationSucceeded(Cipher cipher) {
+            mCipher = cipher;
+            record("succeeded");
+            mDone.countDown();
+        }
+
+        @Override
+        public void onAuthenticationFailed() {
+            record("failed");
+        }
+
+        @Override
+        public void onAuthenticationHelp(int helpCode,
+                CharSequence helpString) {
+            record("help:" + helpCode);
+        }
+
+        @Override
+        public void onAuthenticationError(int errorCode,
+                CharSequence errString) {
+            record("error:" + errorCode);
+            mDone.countDown();
+        }
+
+        private void record(String event) {
+            mThread = Thread.currentThread();
+            mEvents.add(event);
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        mScheduler = Executors.newSingleThreadScheduledExecutor();
+        mCipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+    }
+
+    @After
+    public void tearDown() {
+        mScheduler.shutdownNow();
+    }
+
+    @Test
+    public void parsedTraceIsReplayedInOrder() {
+        final RecordingCallback callback = replay(
+                "fail, help:5, fail, succeed", null);
+        assertEquals(Arrays.asList("failed", "help:5", "failed", "succeeded"),
+                callback.mEvents);
+        assertSame(mCipher, callback.mCipher);
+        // 没有延迟的事件在发起认证的线程上送达
+        assertSame(Thread.currentThread(), callback.mThread);
+    }
+
+    @Test
+    public void replayEndsWithTheFirstTerminalEvent() {
+        assertEquals(Arrays.asList("failed", "error:3"),
+                replay("fail,error:3,succeed,fail", null).mEvents);
+        assertEquals(Arrays.asList("succeeded"),
+                replay("succeed,error:3", null).mEvents);
+    }
+
+    @Test
+    public void lockoutEventsUseTheSensorErrorCodes() {
+        assertEquals(
+                Arrays.asList("failed",
+                        "error:" + FingerPrintSensor.ERROR_LOCKOUT),
+                replay("fail,lockout", null).mEvents);
+        assertEquals(
+                Arrays.asList("error:"
+                        + FingerPrintSensor.ERROR_LOCKOUT_PERMANENT),
+                replay("lockout_permanent", null).mEvents);
+    }
+
+    @Test
+    public void everyAuthenticationReplaysTheWholeTrace() {
+        final ScriptedFingerPrintSensor sensor = new ScriptedFingerPrintSensor(
+                ScriptedFingerPrintSensor.Trace.parse("fail,succeed"), null);
+        for (int i = 0; i < 3; i++) {
+            final RecordingCallback callback = new RecordingCallback();
+            sensor.authenticate(mCipher, callback);
+            assertEquals(Arrays.asList("failed", "succeeded"),
+                    callback.mEvents);
+        }
+    }
+
+    @Test
+    public void delayedEventsRunOnTheScheduler() throws Exception {
+        final long start = System.nanoTime();
+        final RecordingCallback callback = replay(
+                "fail@20000,help:2,succeed@20000", mScheduler);
+        assertTrue(callback.mDone.await(5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS
+                .toNanos(40));
+        assertEquals(Arrays.asList("failed", "help:2", "succeeded"),
+                callback.mEvents);
+        assertNotSame(Thread.currentThread(), callback.mThread);
+    }
+
+    @Test
+    public void cancelEndsAPendingReplay() throws Exception {
+        final ScriptedFingerPrintSensor sensor = new ScriptedFingerPrintSensor(
+                ScriptedFingerPrintSensor.Trace.parse("fail,succeed@10000000"),
+                mScheduler);
+        final RecordingCallback callback = new RecordingCallback();
+        final FingerPrintSensor.Cancellable replay = sensor
+                .authenticate(mCipher, callback);
+        assertNotNull(replay);
+        replay.cancel();
+        replay.cancel();
+        assertEquals(Arrays.asList("failed",
+                "error:" + FingerPrintSensor.ERROR_CANCELED), callback.mEvents);
+    }
+
+    @Test
+    public void traceWithoutTerminalEventRunsUntilCancelled() {
+        final ScriptedFingerPrintSensor sensor = new ScriptedFingerPrintSensor(
+                ScriptedFingerPrintSensor.Trace.parse("help:1,fail"), null);
+        final RecordingCallback callback = new RecordingCallback();
+        final FingerPrintSensor.Cancellable replay = sensor
+                .authenticate(mCipher, callback);
+        assertEquals(1, callback.mDone.getCount());
+        replay.cancel();
+        assertEquals(Arrays.asList("help:1", "failed",
+                "error:" + FingerPrintSensor.ERROR_CANCELED), callback.mEvents);
+    }
+
+    @Test
+    public void noAuthenticationWithoutHardware() {
+        final ScriptedFingerPrintSensor sensor = new ScriptedFingerPrintSensor(
+                ScriptedFingerPrintSensor.Trace.parse("succeed"), null);
+        sensor.setHardwareDetected(false);
+        final RecordingCallback callback = new RecordingCallback();
+        assertNull(sensor.authenticate(mCipher, callback));
+        assertTrue(callback.mEvents.isEmpty());
+    }
+
+    @Test
+    public void malformedScriptsAreRejected() {
+        final String[] scripts = { "", "touch", "help:x", "fail@", "fail@-1",
+                "succeed,,fail" };
+        for (String script : scripts) {
+            try {
+                ScriptedFingerPrintSensor.Trace.parse(script);
+                fail(script + " was accepted");
+            } catch (IllegalArgumentException expected) {
+                // 期望的异常
+            }
+        }
+    }
+
+    private RecordingCallback replay(String script,
+            ScheduledExecutorService scheduler) {
+        final ScriptedFingerPrintSensor sensor = new ScriptedFingerPrintSensor(
+                ScriptedFingerPrintSensor.Trace.parse(script), scheduler);
+        final RecordingCallback callback = new RecordingCallback();
+        assertNotNull(sensor.authenticate(mCipher, callback));
+        return callback;
+    }
+}
@@ -0,0 +1,271 @@
+package com.vigorous.fingerprintchecker.verifier;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Server side check of the challenge signatures made by
+ * FingerprintHelper.authenticateChallenge. Thread-safe.
+ * <p>
+ * Parsing an X.509 public key costs about as much as a verification, so the
+ * parsed keys are cached by their encoding, and the least recently used key
+ * is dropped when the cache is full. Batches are split into chunks that are
+ * verified in parallel on the executor.
+ */
+public class FingerPrintSignatureVerifier {
+    /** Same as FingerPrintKeyStore.SIGNATURE_ALGORITHM on the device */
+    public static final String ALGORITHM = "SHA256withECDSA";
+    public static final int DEFAULT_MAX_CACHED_KEYS = 10000;
+    public static final int DEFAULT_CHUNK_SIZE = 64;
+
+    private final ExecutorService mExecutor;
+    private final int mMaxCachedKeys;
+    private final int mChunkSize;
+    // 按访问顺序排列，由自身加锁；锁内只做查找，解析与校验都在锁外
+    private final LinkedHashMap<EncodedKey, PublicKey> mKeys;
+    // Signature与KeyFactory不是线程安全的，每个线程复用一个
+    private final ThreadLocal<Signature> mSignature = new ThreadLocal<Signature>() {
+        @Override
+        protected Signature initialValue() {
+            try {
+                return Signature.getInstance(ALGORITHM);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+    private final ThreadLocal<KeyFactory> mKeyFactory = new ThreadLocal<KeyFactory>() {
+        @Override
+        protected KeyFactory initialValue() {
+            try {
+                return KeyFactory.getInstance("EC");
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    /**
+     * One signature to check.
+     */
+    public static final class Request {
+        final byte[] mPublicKey;
+        final byte[] mMessage;
+        final byte[] mSignature;
+
+        /**
+         * @param publicKey X.509 encoded, as returned by
+         *            FingerprintHelper.getPublicKey
+         * @param message the challenge that was signed
+         * @param signature DER encoded
+         */
+        public Request(byte[] publicKey, byte[] message, byte[] signature) {
+            mPublicKey = publicKey;
+            mMessage = message;
+            mSignature = signature;
+        }
+    }
+
+    /**
+     * Cache key comparing the encoding by content.
+     */
+    private static final class EncodedKey {
+        final byte[] mEncoded;
+        final int mHash;
+
+        EncodedKey(byte[] encoded) {
+            mEncoded = encoded;
+            mHash = Arrays.hashCode(encoded);
+        }
+
+        @Override
+        public int hashCode() {
+            return mHash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof EncodedKey
+                    && Arrays.equals(mEncoded, ((EncodedKey) o).mEncoded);
+        }
+    }
+
+    /**
+     * @param executor runs the chunks of verifyAll, its parallelism bounds
+     *            the number of concurrent verifications
+     */
+    public FingerPrintSignatureVerifier(ExecutorService executor) {
+        this(executor, DEFAULT_MAX_CACHED_KEYS, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param executor
+     * @param maxCachedKeys number of parsed public keys kept, 0 parses every
+     *            key again
+     * @param chunkSize number of signatures verified by one task
+     */
+    public FingerPrintSignatureVerifier(ExecutorService executor,
+            int maxCachedKeys, int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize must be positive");
+        }
+        mExecutor = executor;
+        mMaxCachedKeys = Math.max(0, maxCachedKeys);
+        mChunkSize = chunkSize;
+        mKeys = new LinkedHashMap<EncodedKey, PublicKey>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<EncodedKey, PublicKey> eldest) {
+                return size() > mMaxCachedKeys;
+            }
+        };
+    }
+
+    /**
+     * Verifies one signature on the calling thread.
+     *
+     * @param publicKey
+     * @param message
+     * @param signature
+     * @return false if the signature does not match, or any argument is
+     *         malformed
+     */
+    public boolean verify(byte[] publicKey, byte[] message, byte[] signature) {
+        if (publicKey == null || message == null || signature == null) {
+            return false;
+        }
+        final PublicKey key = getPublicKey(publicKey);
+        if (key == null) {
+            return false;
+        }
+        final Signature verifier = mSignature.get();
+        try {
+            verifier.initVerify(key);
+            verifier.update(message);
+            return verifier.verify(signature);
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            // 签名格式错误
+            return false;
+        }
+    }
+
+    /**
+     * Verifies requests in parallel and blocks until all of them are
+     * checked.
+     *
+     * @param requests
+     * @return the result of every request, in order; false for a null or
+     *         malformed request
+     * @throws InterruptedException
+     */
+    public boolean[] verifyAll(final List<Request> requests)
+            throws InterruptedException {
+        final boolean[] results = new boolean[requests.size()];
+        if (requests.size() <= mChunkSize) {
+            // 一个分片无需切换线程
+            verifyChunk(requests, 0, requests.size(), results);
+            return results;
+        }
+        final List<Callable<Void>> chunks = new ArrayList<>(
+                (requests.size() + mChunkSize - 1) / mChunkSize);
+        for (int from = 0; from < requests.size(); from += mChunkSize) {
+            final int start = from;
+            final int end = Math.min(from + mChunkSize, requests.size());
+            chunks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    // 各分片写入results中互不重叠的区间
+                    verifyChunk(requests, start, end, results);
+                    return null;
+                }
+            });
+        }
+        for (Future<Void> future : mExecutor.invokeAll(chunks)) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        return results;
+    }
+
+    /**
+     * @return number of parsed public keys currently cached
+     */
+    public int getCachedKeyCount() {
+        synchronized (mKeys) {
+            return mKeys.size();
+        }
+    }
+
+    /**
+     * Drops the cached key of publicKey, e.g. when it is revoked.
+     *
+     * @param publicKey
+     */
+    public void evict(byte[] publicKey) {
+        final EncodedKey cacheKey = new EncodedKey(publicKey);
+        synchronized (mKeys) {
+            mKeys.remove(cacheKey);
+        }
+    }
+
+    /**
+     * @param publicKey
+     * @return true if the parsed key of publicKey is cached, without
+     *         counting as a use
+     */
+    boolean isCached(byte[] publicKey) {
+        final EncodedKey cacheKey = new EncodedKey(publicKey);
+        synchronized (mKeys) {
+            return mKeys.containsKey(cacheKey);
+        }
+    }
+
+    private void verifyChunk(List<Request> requests, int from, int to,
+            boolean[] results) {
+        for (int i = from; i < to; i++) {
+            final Request request = requests.get(i);
+            results[i] = request != null && verify(request.mPublicKey,
+                    request.mMessage, request.mSignature);
+        }
+    }
+
+    private PublicKey getPublicKey(byte[] encoded) {
+        final EncodedKey cacheKey = new EncodedKey(encoded);
+        PublicKey key;
+        synchronized (mKeys) {
+            key = mKeys.get(cacheKey);
+        }
+        if (key != null) {
+            return key;
+        }
+        try {
+            key = mKeyFactory.get()
+                    .generatePublic(new X509EncodedKeySpec(encoded));
+        } catch (GeneralSecurityException e) {
+            return null;
+        }
+        if (mMaxCachedKeys > 0) {
+            // 缓存副本，调用方之后修改数组不影响缓存。超出容量时淘汰最久未用的
+            final EncodedKey copy = new EncodedKey(encoded.clone());
+            synchronized (mKeys) {
+                mKeys.put(copy, key);
+            }
+        }
+        return key;
+    }
+}
@@ -0,0 +1,163 @@
+package com.vigorous.fingerprintchecker.verifier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.security.spec.ECGenParameterSpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FingerPrintSignatureVerifierTest {
+    private static final byte[] CHALLENGE = "challenge-1"
+            .getBytes(StandardCharsets.UTF_8);
+
+    private ExecutorService mExecutor;
+    private KeyPair mKeyPair;
+    private KeyPair mOtherKeyPair;
+
+    @Before
+    public void setUp() throws Exception {
+        mExecutor = Executors.newFixedThreadPool(4);
+        mKeyPair = newKeyPair();
+        mOtherKeyPair = newKeyPair();
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void verifyAllRejectsTamperedAndMalformedRequests()
+            throws Exception {
+        final byte[] publicKey = mKeyPair.getPublic().getEncoded();
+        final byte[] signature = sign(mKeyPair, CHALLENGE);
+        final byte[] otherMessage = CHALLENGE.clone();
+        otherMessage[otherMessage.length - 1] ^= 0x01;
+        final byte[] flippedSignature = signature.clone();
+        flippedSignature[signature.length - 1] ^= 0x01;
+        final byte[] flippedKey = publicKey.clone();
+        flippedKey[publicKey.length - 1] ^= 0x01;
+        final byte[] rsaKey = KeyPairGenerator.getInstance("RSA")
+                .generateKeyPair().getPublic().getEncoded();
+
+        final List<FingerPrintSignatureVerifier.Request> requests = new ArrayList<>();
+        final List<Boolean> expected = new ArrayList<>();
+        add(requests, expected, true, publicKey, CHALLENGE, signature);
+        add(requests, expected, false, publicKey, otherMessage, signature);
+        add(requests, expected, false, publicKey, CHALLENGE,
+                flippedSignature);
+        // 其它密钥的签名
+        add(requests, expected, false,
+                mOtherKeyPair.getPublic().getEncoded(), CHALLENGE, signature);
+        add(requests, expected, false, flippedKey, CHALLENGE, signature);
+        add(requests, expected, false,
+                Arrays.copyOf(publicKey, publicKey.length / 2), CHALLENGE,
+                signature);
+        add(requests, expected, false, rsaKey, CHALLENGE, signature);
+        add(requests, expected, false, new byte[0], CHALLENGE, signature);
+        add(requests, expected, false, publicKey, CHALLENGE, new byte[0]);
+        add(requests, expected, false, publicKey, CHALLENGE,
+                Arrays.copyOf(signature, signature.length - 3));
+        add(requests, expected, false, publicKey, CHALLENGE,
+                new byte[] { 0x30, 0x06, 0x02, 0x01, 0x00, 0x02, 0x01, 0x00 });
+        add(requests, expected, false, null, CHALLENGE, signature);
+        add(requests, expected, false, publicKey, null, signature);
+        add(requests, expected, false, publicKey, CHALLENGE, null);
+        requests.add(null);
+        expected.add(false);
+        add(requests, expected, true, publicKey, CHALLENGE, signature);
+
+        // 单个分片与多个并行分片的结果一致
+        for (int chunkSize : new int[] { 64, 1, 3 }) {
+            final boolean[] results = new FingerPrintSignatureVerifier(
+                    mExecutor, 4, chunkSize).verifyAll(requests);
+            assertEquals(expected.size(), results.length);
+            for (int i = 0; i < results.length; i++) {
+                assertEquals("chunk " + chunkSize + " request " + i,
+                        expected.get(i), results[i]);
+            }
+        }
+    }
+
+    @Test
+    public void cacheDropsTheLeastRecentlyUsedKey() throws Exception {
+        final FingerPrintSignatureVerifier verifier = new FingerPrintSignatureVerifier(
+                mExecutor, 2, 64);
+        final KeyPair third = newKeyPair();
+        final byte[] first = mKeyPair.getPublic().getEncoded();
+        final byte[] second = mOtherKeyPair.getPublic().getEncoded();
+        assertTrue(verify(verifier, mKeyPair));
+        assertTrue(verify(verifier, mOtherKeyPair));
+        // 再次使用first，second成为最久未用的
+        assertTrue(verify(verifier, mKeyPair));
+        assertTrue(verify(verifier, third));
+        assertEquals(2, verifier.getCachedKeyCount());
+        assertTrue(verifier.isCached(first));
+        assertFalse(verifier.isCached(second));
+        assertTrue(verifier.isCached(third.getPublic().getEncoded()));
+    }
+
+    @Test
+    public void cacheKeepsItsOwnCopyOfTheEncoding() throws Exception {
+        final FingerPrintSignatureVerifier verifier = new FingerPrintSignatureVerifier(
+                mExecutor);
+        final byte[] publicKey = mKeyPair.getPublic().getEncoded();
+        final byte[] signature = sign(mKeyPair, CHALLENGE);
+        assertTrue(verifier.verify(publicKey, CHALLENGE, signature));
+        final byte[] original = publicKey.clone();
+        publicKey[publicKey.length - 1] ^= 0x01;
+        assertFalse(verifier.verify(publicKey, CHALLENGE, signature));
+        assertTrue(verifier.verify(original, CHALLENGE, signature));
+    }
+
+    @Test
+    public void zeroCapacityCachesNothing() throws Exception {
+        final FingerPrintSignatureVerifier verifier = new FingerPrintSignatureVerifier(
+                mExecutor, 0, 64);
+        assertTrue(verify(verifier, mKeyPair));
+        assertEquals(0, verifier.getCachedKeyCount());
+    }
+
+    private static boolean verify(FingerPrintSignatureVerifier verifier,
+            KeyPair keyPair) throws GeneralSecurityException {
+        return verifier.verify(keyPair.getPublic().getEncoded(), CHALLENGE,
+                sign(keyPair, CHALLENGE));
+    }
+
+    private static void add(
+            List<FingerPrintSignatureVerifier.Request> requests,
+            List<Boolean> expected, boolean valid, byte[] publicKey,
+            byte[] message, byte[] signature) {
+        requests.add(new FingerPrintSignatureVerifier.Request(publicKey,
+                message, signature));
+        expected.add(valid);
+    }
+
+    private static KeyPair newKeyPair() throws GeneralSecurityException {
+        final KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        return generator.generateKeyPair();
+    }
+
+    private static byte[] sign(KeyPair keyPair, byte[] message)
+            throws GeneralSecurityException {
+        final Signature signature = Signature
+                .getInstance(FingerPrintSignatureVerifier.ALGORITHM);
+        signature.initSign(keyPair.getPrivate());
+        signature.update(message);
+        return signature.sign();
+    }
+}